@@ -2,7 +2,6 @@
 
 import java.util.*;
 import java.awt.*;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
   * Code, a test-harness for invoking and driving the Applications
@@ -208,7 +207,6 @@ public class AppDemo extends Universal {
 
  RatePath<reductionR> avgMCrate;
  //RatePath avgMCrate;
- ReentrantLock lock = new ReentrantLock();
  private arrayclass ReductionArray {
    RatePath<reductionR:[index]> in reductionR:[index];
  }
@@ -217,11 +215,9 @@ public class AppDemo extends Universal {
     commutative void sumReduction(final int index, double localAvgExpectedReturnRateMC, 
 				  double localAvgVolatilityMC) 
 	reads Root, reductionR:[index] writes reductionR {
-	lock.lock();
 	avgExpectedReturnRateMC += localAvgExpectedReturnRateMC;
 	avgVolatilityMC += localAvgVolatilityMC;
 	avgMCrate.inc_pathValue2(localAvgMCrate[index].get_pathValue());
-	lock.unlock();
  }
 
   private void processResults() throws DemoException {	  
@@ -0,0 +1,228 @@
+package com.sun.tools.javac.code;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.tools.javac.code.Symbol.VarSymbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.DPJNegationExpression;
+import com.sun.tools.javac.tree.JCTree.JCBinary;
+import com.sun.tools.javac.tree.JCTree.JCExpression;
+import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
+import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCLiteral;
+import com.sun.tools.javac.tree.JCTree.JCParens;
+import com.sun.tools.javac.tree.JCTree.JCUnary;
+
+/**
+ * An index expression in affine form:  a constant plus a sum of integer
+ * multiples of final variables.  Used to prove that two array index
+ * RPL elements [e1] and [e2] can never name the same cell.
+ *
+ * <p>An expression has an affine form if it is built from integer
+ * literals, constants, final variables and negated index variables
+ * (~i, standing for the index variable of a different foreach iteration)
+ * with unary minus, + and -, and * by a constant.  Final variables have
+ * one value wherever they appear in the two expressions being compared,
+ * so their terms cancel; i and ~i never have the same value.
+ *
+ * <p>Index arithmetic is assumed not to overflow, as everywhere else in
+ * the array region typing.
+ */
+class AffineIndex {
+
+    /** The coefficients of the variable terms, keyed by the variable's
+     *  symbol, or by a Negated wrapper for ~i.  Zero coefficients are
+     *  never stored.
+     */
+    private final Map<Object,Long> coeffs = new HashMap<Object,Long>();
+
+    /** The constant term */
+    private long constant;
+
+    /** Coefficients and constants are kept within this bound, so the
+     *  arithmetic below cannot overflow a long.
+     */
+    private static final long LIMIT = Integer.MAX_VALUE;
+
+    /** The key for ~i */
+    private static class Negated {
+	final VarSymbol sym;
+	Negated(VarSymbol sym) {
+	    this.sym = sym;
+	}
+	@Override public boolean equals(Object o) {
+	    return (o instanceof Negated) && ((Negated) o).sym == sym;
+	}
+	@Override public int hashCode() {
+	    return ~sym.hashCode();
+	}
+    }
+
+    private AffineIndex(long constant) {
+	this.constant = constant;
+    }
+
+    /**
+     * Whether the index expressions first and second never have the same
+     * value.  Returns false if that cannot be shown, including when
+     * either expression has no affine form.
+     */
+    static boolean areNeverEqual(JCExpression first, JCExpression second) {
+	AffineIndex a = of(first);
+	if (a == null) return false;
+	AffineIndex b = of(second);
+	if (b == null) return false;
+	AffineIndex diff = a.plus(b, -1);
+	return diff != null && diff.isNeverZero();
+    }
+
+    /**
+     * Whether this expression is nonzero for every value of its
+     * variables.  There are two ways to tell:
+     *
+     *  1. The gcd of the coefficients does not divide the constant, so
+     *     the equation has no integer solution.  With no variable terms,
+     *     this says that the constant is nonzero.
+     *
+     *  2. The expression is a*i - a*~i, which is zero only if i == ~i.
+     */
+    private boolean isNeverZero() {
+	long gcd = 0;
+	for (long c : coeffs.values())
+	    gcd = gcd(gcd, Math.abs(c));
+	if (gcd == 0)
+	    return constant != 0;
+	if (constant % gcd != 0)
+	    return true;
+	if (constant != 0 || coeffs.size() != 2)
+	    return false;
+	for (Map.Entry<Object,Long> e : coeffs.entrySet()) {
+	    if (e.getKey() instanceof Negated) {
+		Long c = coeffs.get(((Negated) e.getKey()).sym);
+		return c != null && c == -e.getValue();
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * The affine form of an index expression, or null if it has none.
+     */
+    static AffineIndex of(JCExpression tree) {
+	if (tree == null)
+	    return null;
+	if (tree instanceof DPJNegationExpression) {
+	    AffineIndex result = new AffineIndex(0);
+	    result.coeffs.put(
+		    new Negated(((DPJNegationExpression) tree).negatedExpr), 1L);
+	    return result;
+	}
+	switch (tree.getTag()) {
+	case JCTree.LITERAL:
+	    return constant(((JCLiteral) tree).getValue());
+	case JCTree.IDENT:
+	    return variable(((JCIdent) tree).sym);
+	case JCTree.SELECT:
+	    // Only a constant field, as in C.N:  the selected expression
+	    // might not denote the same object in both places
+	    Symbol sym = ((JCFieldAccess) tree).sym;
+	    return (sym instanceof VarSymbol) ?
+		    constant(((VarSymbol) sym).getConstValue()) : null;
+	case JCTree.PARENS:
+	    return of(((JCParens) tree).expr);
+	case JCTree.POS:
+	    return of(((JCUnary) tree).arg);
+	case JCTree.NEG: {
+	    AffineIndex arg = of(((JCUnary) tree).arg);
+	    return (arg == null) ? null : arg.times(-1);
+	}
+	case JCTree.PLUS:
+	case JCTree.MINUS:
+	case JCTree.MUL: {
+	    JCBinary binary = (JCBinary) tree;
+	    AffineIndex lhs = of(binary.lhs);
+	    if (lhs == null) return null;
+	    AffineIndex rhs = of(binary.rhs);
+	    if (rhs == null) return null;
+	    if (tree.getTag() == JCTree.PLUS)
+		return lhs.plus(rhs, 1);
+	    if (tree.getTag() == JCTree.MINUS)
+		return lhs.plus(rhs, -1);
+	    if (lhs.coeffs.isEmpty())
+		return rhs.times(lhs.constant);
+	    if (rhs.coeffs.isEmpty())
+		return lhs.times(rhs.constant);
+	    return null;
+	}
+	default:
+	    return null;
+	}
+    }
+    // where
+    private static AffineIndex constant(Object value) {
+	if (value instanceof Character)
+	    return new AffineIndex((Character) value);
+	if (value instanceof Integer || value instanceof Short ||
+		value instanceof Byte)
+	    return new AffineIndex(((Number) value).intValue());
+	return null;
+    }
+    private static AffineIndex variable(Symbol sym) {
+	if (!(sym instanceof VarSymbol))
+	    return null;
+	VarSymbol v = (VarSymbol) sym;
+	AffineIndex result = constant(v.getConstValue());
+	if (result != null)
+	    return result;
+	if ((v.flags() & Flags.FINAL) == 0)
+	    return null;
+	result = new AffineIndex(0);
+	result.coeffs.put(v, 1L);
+	return result;
+    }
+
+    /** this + factor * that, or null if out of bounds */
+    private AffineIndex plus(AffineIndex that, long factor) {
+	AffineIndex result = new AffineIndex(constant + factor * that.constant);
+	result.coeffs.putAll(coeffs);
+	for (Map.Entry<Object,Long> e : that.coeffs.entrySet()) {
+	    Long c = result.coeffs.get(e.getKey());
+	    long sum = ((c == null) ? 0 : c) + factor * e.getValue();
+	    if (sum == 0)
+		result.coeffs.remove(e.getKey());
+	    else
+		result.coeffs.put(e.getKey(), sum);
+	}
+	return result.inBounds() ? result : null;
+    }
+
+    /** factor * this, or null if out of bounds */
+    private AffineIndex times(long factor) {
+	if (factor == 0)
+	    return new AffineIndex(0);
+	AffineIndex result = new AffineIndex(constant * factor);
+	for (Map.Entry<Object,Long> e : coeffs.entrySet())
+	    result.coeffs.put(e.getKey(), e.getValue() * factor);
+	return result.inBounds() ? result : null;
+    }
+
+    private boolean inBounds() {
+	if (Math.abs(constant) > LIMIT)
+	    return false;
+	for (long c : coeffs.values())
+	    if (Math.abs(c) > LIMIT)
+		return false;
+	return true;
+    }
+
+    private static long gcd(long a, long b) {
+	while (b != 0) {
+	    long t = a % b;
+	    a = b;
+	    b = t;
+	}
+	return a;
+    }
+
+}
@@ -39,6 +39,16 @@ public abstract class Effect implements
 	this.isAtomic = isAtomic && !isNonint;
     }
     
+    /**
+     * RPL inclusion, memoized in rpls when this effect has one.
+     * Effects built without an RPLs (such as the bound used by
+     * VariableEffect) fall back to RPL.isIncludedIn.
+     */
+    protected boolean isIncludedIn(RPL rpl1, RPL rpl2) {
+	return (rpls == null) ? rpl1.isIncludedIn(rpl2) :
+	    rpls.isIncludedIn(rpl1, rpl2);
+    }
+
 
     /**
      * Do all the RPL and effect parameter substitutions implied by the bindings of t
@@ -103,10 +113,10 @@ public abstract class Effect implements
     
     public boolean isSubeffectOf(Effects effects) {
 	// SE-UNION-1
-	if (effects.isEmpty()) return false;
-	Effect e = effects.first();
-	if (this.isSubeffectOf(e)) return true;
-	return this.isSubeffectOf(effects.without(e));
+	for (Effect e : effects) {
+	    if (this.isSubeffectOf(e)) return true;
+	}
+	return false;
     }
     
     /**
@@ -138,12 +148,13 @@ public abstract class Effect implements
     
     public boolean isNoninterferingWith(Effects effects,
 	    Constraints constraints, boolean atomicOK) { 
-	// NI-EMPTY
-	if (effects.isEmpty()) return true;
-	// NI-UNION
-	Effect e = effects.first();
-	return this.isNoninterferingWith(e, constraints, atomicOK) && 
-		this.isNoninterferingWith(effects.without(e), constraints, atomicOK);
+	// NI-EMPTY, NI-UNION.  Only the effects that might interfere
+	// with this one need to be checked.
+	for (Effect e : effects.interferenceCandidates(this)) {
+	    if (!this.isNoninterferingWith(e, constraints, atomicOK))
+		return false;
+	}
+	return true;
     }
     
     /**
@@ -181,12 +192,12 @@ public abstract class Effect implements
 	    if (!isSubeffectNonint(this, e)) return false;
 	    if (e instanceof ReadEffect) {
 		// SE-READS
-		if (this.rpl.isIncludedIn(((ReadEffect) e).rpl))
+		if (isIncludedIn(this.rpl, ((ReadEffect) e).rpl))
 		    return true;
 	    }
 	    if (e instanceof WriteEffect) {
 		// SE-READS-WRITES
-		if (this.rpl.isIncludedIn(((WriteEffect) e).rpl))
+		if (isIncludedIn(this.rpl, ((WriteEffect) e).rpl))
 		    return true;
 	    }	    
 	    return false;
@@ -327,7 +338,7 @@ public abstract class Effect implements
 	    if (!isSubeffectNonint(this, e)) return false;
 	    if (e instanceof WriteEffect) {
 		// SE-WRITES
-		if (this.rpl.isIncludedIn(((WriteEffect) e).rpl))
+		if (isIncludedIn(this.rpl, ((WriteEffect) e).rpl))
 		    return true;
 	    }	    
 	    return false;
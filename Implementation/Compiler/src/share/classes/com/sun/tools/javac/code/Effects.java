@@ -1,10 +1,16 @@
 package com.sun.tools.javac.code;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
+import com.sun.tools.javac.code.Effect.ReadEffect;
 import com.sun.tools.javac.code.Effect.VariableEffect;
+import com.sun.tools.javac.code.Effect.WriteEffect;
+import com.sun.tools.javac.code.RPLElement.NameRPLElement;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
 import com.sun.tools.javac.code.Symbol.VarSymbol;
 import com.sun.tools.javac.code.Substitute.AsMemberOf;
@@ -35,6 +41,9 @@ public class Effects implements
 {
     private Set<Effect> effects = new HashSet<Effect>();
     
+    /** Index for interference queries, built on demand; see interferenceCandidates */
+    private Index index;
+    
     public static final Effects UNKNOWN = new Effects();
 
     public Effects() {}
@@ -55,6 +64,7 @@ public class Effects implements
     
     public void add(Effect effect) {
 	effects.add(effect);
+	index = null;
     }
 
     public void addAll(Effects otherEffects) {
@@ -190,12 +200,11 @@ public class Effects implements
         if (effects.isEmpty()) return true;
         if (effects == UNKNOWN || otherEffects == UNKNOWN) return true;
         
-        Effect e = this.first();
-        if (!e.isSubeffectOf(otherEffects)) {
-            return false;
-        } else {
-            return this.without(e).areSubeffectsOf(otherEffects);    
+        for (Effect e : effects) {
+            if (!e.isSubeffectOf(otherEffects))
+        	return false;
         }
+        return true;
     }
 
     /** @return a set of Effects in this set that are <b>not</b> subeffects 
@@ -352,15 +361,86 @@ public class Effects implements
      */
     public static boolean noninterferingEffects(Effects effects1, Effects effects2, 
 	    Constraints constraints, boolean atomicOK) {
-        if (effects1.isEmpty()) return true;
-        Effect e = effects1.first();
-        boolean result = e.isNoninterferingWith(effects2, constraints, atomicOK);
-        if (result) {
-           effects1 = effects1.without(e);
-           result = noninterferingEffects(effects1, effects2,
-        	   constraints, atomicOK);
+        for (Effect e : effects1) {
+            if (!e.isNoninterferingWith(effects2, constraints, atomicOK))
+        	return false;
         }
-        return result;
+        return true;
+    }
+    
+    /**
+     * Index of the read and write effects in a set by the region name
+     * at the start of their RPLs.  Two RPLs that start with different
+     * names (after the implicit Root) are disjoint by DISJOINT-LEFT,
+     * whatever the constraints, so effects on them never interfere.
+     * Effects that can't be indexed this way go in 'others', which is
+     * checked against everything.
+     */
+    private static class Index {
+	final Map<Symbol,ArrayList<Effect>> reads = 
+	    new HashMap<Symbol,ArrayList<Effect>>();
+	final Map<Symbol,ArrayList<Effect>> writes = 
+	    new HashMap<Symbol,ArrayList<Effect>>();
+	final ArrayList<Effect> others = new ArrayList<Effect>();
+	
+	Index(Set<Effect> effects) {
+	    for (Effect e : effects) {
+		Symbol key = indexKey(e);
+		if (key == null)
+		    others.add(e);
+		else
+		    add(e instanceof ReadEffect ? reads : writes, key, e);
+	    }
+	}
+	
+	private static void add(Map<Symbol,ArrayList<Effect>> map, Symbol key, 
+		Effect e) {
+	    ArrayList<Effect> list = map.get(key);
+	    if (list == null) {
+		list = new ArrayList<Effect>();
+		map.put(key, list);
+	    }
+	    list.add(e);
+	}
+    }
+    
+    /**
+     * The region name symbol under which a read or write effect is 
+     * indexed, or null if the effect isn't indexed
+     */
+    private static Symbol indexKey(Effect e) {
+	RPL rpl;
+	if (e instanceof ReadEffect)
+	    rpl = ((ReadEffect) e).rpl;
+	else if (e instanceof WriteEffect)
+	    rpl = ((WriteEffect) e).rpl;
+	else
+	    return null;
+	List<RPLElement> elts = rpl.elts;
+	if (elts.nonEmpty() && elts.head == RPLElement.ROOT_ELEMENT)
+	    elts = elts.tail;
+	if (elts.nonEmpty() && elts.head instanceof NameRPLElement)
+	    return ((NameRPLElement) elts.head).sym;
+	return null;
+    }
+    
+    /**
+     * The effects in this set that may interfere with e.  The effects
+     * left out are noninterfering with e by NI-READ or because their
+     * RPLs are disjoint from e's.
+     */
+    Iterable<Effect> interferenceCandidates(Effect e) {
+	Symbol key = indexKey(e);
+	if (key == null) return effects;
+	if (index == null) index = new Index(effects);
+	ArrayList<Effect> writes = index.writes.get(key);
+	ArrayList<Effect> reads = (e instanceof WriteEffect) ? 
+		index.reads.get(key) : null;
+	if (writes == null && reads == null) return index.others;
+	ArrayList<Effect> result = new ArrayList<Effect>(index.others);
+	if (writes != null) result.addAll(writes);
+	if (reads != null) result.addAll(reads);
+	return result;
     }
     
     /**
@@ -408,6 +488,8 @@ public class Effects implements
 	Effects newEffects = new Effects();
 	newEffects.effects.addAll(this.effects);
 	boolean changed = false;
+	// Note: this updates newEffects.effects directly, so it must not
+	// use interferenceCandidates on newEffects.
 	for (Effect e : effects) {
 	    newEffects.effects.remove(e);
 	    if (e.isSubeffectOf(newEffects)) {
@@ -228,7 +228,9 @@ public class Lint
 	    this.context = context;
 	}
 	
-	Lint augment(Lint parent, Attribute.Compound attr) {
+	// The visitor is shared by all the Lints of a context, which may
+	// be used by several threads under the parallel compile policy.
+	synchronized Lint augment(Lint parent, Attribute.Compound attr) {
 	    initSyms();
 	    this.parent = parent;
 	    lint = null;
@@ -236,7 +238,7 @@ public class Lint
 	    return (lint == null ? parent : lint);
 	}
 	
-	Lint augment(Lint parent, List<Attribute.Compound> attrs) {
+	synchronized Lint augment(Lint parent, List<Attribute.Compound> attrs) {
 	    initSyms();
 	    this.parent = parent;
 	    lint = null;
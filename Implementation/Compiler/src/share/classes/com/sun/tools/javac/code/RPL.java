@@ -19,8 +19,11 @@ import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.JCTree.JCBinary;
 import com.sun.tools.javac.tree.JCTree.JCExpression;
 import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCParens;
+import com.sun.tools.javac.tree.JCTree.JCUnary;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Pair;
 
 /** A class for representing DPJ region path lists (RPLs).  An RPL is a list
  *  of RPL elements.  Various operations on RPLs, pairs of RPLs, and lists
@@ -39,6 +42,13 @@ public class RPL implements
 
     /** The elements comprising this RPL */
     public List<RPLElement> elts;
+
+    /** Cached reversal of elts, as the pair (elts, reversed elts), valid
+     *  while its first element is elts.  The pair is immutable and the
+     *  field volatile, so threads checking effects in parallel see
+     *  either no cache or a complete one.
+     */
+    private volatile Pair<List<RPLElement>,List<RPLElement>> reversed;
         
     ///////////////////////////////////////////////////////////////////////////
     // Constructors
@@ -146,6 +156,21 @@ public class RPL implements
 	return false;
     }
     
+    /**
+     * The elements of this RPL in reverse order, computed once and
+     * reused until elts changes.
+     */
+    List<RPLElement> reversedElts() {
+	Pair<List<RPLElement>,List<RPLElement>> cached = reversed;
+	List<RPLElement> elts = this.elts;
+	if (cached == null || cached.fst != elts) {
+	    cached = new Pair<List<RPLElement>,List<RPLElement>>(elts,
+		    elts.reverse());
+	    reversed = cached;
+	}
+	return cached.snd;
+    }
+    
     private boolean endsWithStar() {
 	return size() > 1 && elts.last() == RPLElement.STAR;
     }
@@ -299,12 +324,10 @@ public class RPL implements
      *     every node that we want to modify.
      *     
      *  2. This simple visitor only handles singleton indices and (recursively)
-     *     binary expressions containing singleton indices.  However, that's
-     *     enough for now: because we can only disambiguate constants, negated
-     *     variables, and binary expressions in array typing, expanding this
-     *     visitor to do more would be pointless.  If and when we add more
-     *     robust expression disambiguation, we can expand this visitor as
-     *     necessary.
+     *     unary, binary and parenthesized expressions containing singleton
+     *     indices.  That is enough for now:  array typing disambiguates
+     *     only affine index expressions (see AffineIndex), and those are
+     *     built from exactly these nodes.
      */
     private static class SubstIndexVisitor extends JCTree.Visitor {
 	private VarSymbol from = null;
@@ -333,6 +356,20 @@ public class RPL implements
         	result.pos = tree.pos;
             }
         }
+        public void visitParens(JCParens tree) {
+            // The parentheses only group, and the tree already does that
+            JCExpression expr = substIndex(tree.expr);
+            if (expr != tree.expr)
+        	result = expr;
+        }
+        public void visitUnary(JCUnary tree) {
+            JCExpression arg = substIndex(tree.arg);
+            if (arg != tree.arg) {
+        	result = new JCUnary(tree.getTag(), arg);
+        	((JCUnary) result).operator = tree.operator;
+        	result.pos = tree.pos;
+            }
+        }
         @Override
         public void visitTree(JCTree tree) {}
     };
@@ -166,6 +166,11 @@ public abstract class RPLElement {
 	    }
 	    return false;
 	}
+
+	@Override
+	public int hashCode() {
+	    return sym.hashCode();
+	}
     }
     
     /** An RPL parameter element
@@ -211,6 +216,11 @@ public abstract class RPLElement {
 		return this.sym == ((RPLParameterElement) o).sym;
 	    return false;
 	}
+
+	@Override
+	public int hashCode() {
+	    return sym.hashCode();
+	}
 	
 	@Override
 	public String toString() {
@@ -235,6 +245,34 @@ public abstract class RPLElement {
 	    ArrayIndexRPLElement that = (ArrayIndexRPLElement) o;
 	    return areAlwaysEqualExprs(this.indexExp, that.indexExp);
 	}
+	public int hashCode() {
+	    return hashExpr(indexExp);
+	}
+	/**
+	 * A hash code for index expressions, consistent with areAlwaysEqualExprs
+	 */
+	private static int hashExpr(JCExpression exp) {
+	    if (exp instanceof JCBinary) {
+		JCBinary binary = (JCBinary) exp;
+		int hash = (binary.operator == null) ? 0 : binary.operator.hashCode();
+		hash = 31 * hash + hashExpr(binary.lhs);
+		return 31 * hash + hashExpr(binary.rhs);
+	    }
+	    if (exp instanceof JCLiteral) {
+		Object value = ((JCLiteral) exp).getValue();
+		return (value == null) ? 0 : value.hashCode();
+	    }
+	    if (exp instanceof JCIdent) {
+		Symbol sym = ((JCIdent) exp).sym;
+		return (sym == null) ? 0 : sym.hashCode();
+	    }
+	    if (exp instanceof JCFieldAccess) {
+		JCFieldAccess fa = (JCFieldAccess) exp;
+		int hash = (fa.sym == null) ? 0 : fa.sym.hashCode();
+		return 31 * hash + hashExpr(fa.selected);
+	    }
+	    return System.identityHashCode(exp);
+	}
 	public boolean isIncludedIn(RPLElement that) {
 	    if (that instanceof ArrayIndexRPLElement) {
 		// this is included in [?]
@@ -281,7 +319,15 @@ public abstract class RPLElement {
 	    }
 	    return first == second;
 	}
+	/**
+	 * Whether two index expressions can never have the same value.  This
+	 * holds for distinct constants, for i and ~i, and more generally
+	 * whenever the affine forms of the expressions say so (e.g., 2*i and
+	 * 2*i+1, or i+k and ~i+k for final k); see AffineIndex.
+	 */
 	public static boolean areNeverEqualExprs(JCExpression first, JCExpression second) {
+	    if (AffineIndex.areNeverEqual(first, second))
+		return true;
 	    if (first instanceof JCLiteral && second instanceof JCLiteral) {
 		return !((JCLiteral) first).getValue().equals(((JCLiteral) second).getValue());
 	    }
@@ -335,6 +381,13 @@ public abstract class RPLElement {
             }
             return vsym.equals(vrs.vsym);
         }
+
+        @Override
+        public int hashCode() {
+            if (vsym.name.toString().equals("this"))
+        	return "this".hashCode();
+            return vsym.hashCode();
+        }
     
         public boolean isDisjointFrom(RPLElement e, RPLs rpls,
         	List<Pair<RPL, RPL>> constraints) {
@@ -414,6 +467,11 @@ public abstract class RPLElement {
 	    if (!(o instanceof StackRPLElement)) return false;
 	    return this.sym == ((StackRPLElement) o).sym;
 	}
+
+	@Override
+	public int hashCode() {
+	    return sym.hashCode();
+	}
 	
 	public String toString() {
 	    return "stack region of " + sym;
@@ -2,8 +2,14 @@ package com.sun.tools.javac.code;
 
 import static com.sun.tools.javac.code.Flags.STATIC;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 
+import com.sun.tools.javac.code.RPLElement.RPLCaptureParameter;
+import com.sun.tools.javac.code.RPLElement.UndetRPLParameterElement;
+import com.sun.tools.javac.code.RPLElement.VarRPLElement;
 import com.sun.tools.javac.code.Symbol.VarSymbol;
 import com.sun.tools.javac.code.Substitute.Subst;
 import com.sun.tools.javac.code.Substitute.SubstRPLs;
@@ -51,15 +57,152 @@ public class RPLs {
         return lb.toList();
     }
 
+    /**
+     * Memo tables for the disjointness and inclusion queries.  The
+     * disjointness results depend on the constraints, so there is one
+     * table per constraint list.  Constraint lists are immutable and
+     * are usually shared by all the queries made while checking a
+     * method, so they are compared by identity.  The tables are shared
+     * by the threads of the parallel compile policy, so they are only
+     * accessed while holding the lock on this object.
+     */
+    private final Map<List<Pair<RPL,RPL>>,Map<Key,Boolean>> disjointMemo =
+	new IdentityHashMap<List<Pair<RPL,RPL>>,Map<Key,Boolean>>();
+    private final Map<Key,Boolean> includedMemo = new HashMap<Key,Boolean>();
+
+    /**
+     * Memo table key for a pair of RPLs.  The key holds the element
+     * lists of the RPLs as they were when the query was made, so
+     * later changes to an RPL's elts do not affect the table.
+     */
+    private static class Key {
+	final List<RPLElement> elts1, elts2;
+	final int hash;
+	Key(RPL rpl1, RPL rpl2) {
+	    this.elts1 = rpl1.elts;
+	    this.elts2 = rpl2.elts;
+	    this.hash = 31 * hash(elts1) + hash(elts2);
+	}
+	@Override public boolean equals(Object o) {
+	    if (!(o instanceof Key)) return false;
+	    Key that = (Key) o;
+	    return this.hash == that.hash &&
+		sameElements(this.elts1, that.elts1) &&
+		sameElements(this.elts2, that.elts2);
+	}
+	@Override public int hashCode() {
+	    return hash;
+	}
+	private static int hash(List<RPLElement> elts) {
+	    int hash = 1;
+	    for (RPLElement e : elts)
+		hash = 31 * hash + elementHash(e);
+	    return hash;
+	}
+	/**
+	 * Variable elements are compared by symbol: RPLElement.equals
+	 * treats all 'this' variables as equal, but their upper bounds
+	 * differ from class to class.
+	 */
+	private static int elementHash(RPLElement e) {
+	    if (e == null) return 0;
+	    if (e instanceof VarRPLElement)
+		return ((VarRPLElement) e).vsym.hashCode();
+	    return e.hashCode();
+	}
+	private static boolean sameElements(List<RPLElement> elts1,
+					    List<RPLElement> elts2) {
+	    if (elts1 == elts2) return true;
+	    while (elts1.nonEmpty() && elts2.nonEmpty()) {
+		RPLElement e1 = elts1.head, e2 = elts2.head;
+		if (e1 != e2) {
+		    if (e1 == null || e2 == null) return false;
+		    if (e1 instanceof VarRPLElement) {
+			if (!(e2 instanceof VarRPLElement) ||
+				((VarRPLElement) e1).vsym != ((VarRPLElement) e2).vsym)
+			    return false;
+		    } else if (!e1.equals(e2)) {
+			return false;
+		    }
+		}
+		elts1 = elts1.tail;
+		elts2 = elts2.tail;
+	    }
+	    return elts1.isEmpty() && elts2.isEmpty();
+	}
+    }
+
+    /**
+     * Can queries on this RPL be memoized?  Not if it contains an
+     * undetermined parameter, because the inclusion test fills in the
+     * parameter's bound as a side effect (see RPL.isIncludedIn).
+     */
+    private static boolean isMemoizable(RPL rpl) {
+	for (RPLElement e : rpl.elts) {
+	    if (e instanceof UndetRPLParameterElement)
+		return false;
+	    if (e instanceof RPLCaptureParameter) {
+		RPL includedIn = ((RPLCaptureParameter) e).includedIn;
+		if (includedIn == null || !isMemoizable(includedIn))
+		    return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Memoized version of RPL.isIncludedIn
+     */
+    public boolean isIncludedIn(RPL rpl1, RPL rpl2) {
+	if (!isMemoizable(rpl1) || !isMemoizable(rpl2))
+	    return rpl1.isIncludedIn(rpl2);
+	Key key = new Key(rpl1, rpl2);
+	Boolean result;
+	synchronized (this) {
+	    result = includedMemo.get(key);
+	}
+	if (result == null) {
+	    result = rpl1.isIncludedIn(rpl2);
+	    synchronized (this) {
+		includedMemo.put(key, result);
+	    }
+	}
+	return result;
+    }
+
     /**
      * Disjoint RPLs.  See Section 3.2 of the Tech Report
      */
     public boolean areDisjoint(RPL rpl1, RPL rpl2, List<Pair<RPL,RPL>> constraints) {
+	if (!isMemoizable(rpl1) || !isMemoizable(rpl2))
+	    return computeDisjoint(rpl1, rpl2, constraints);
+	Key key = new Key(rpl1, rpl2);
+	Map<Key,Boolean> memo;
+	Boolean result;
+	synchronized (this) {
+	    memo = disjointMemo.get(constraints);
+	    if (memo == null) {
+		memo = new HashMap<Key,Boolean>();
+		disjointMemo.put(constraints, memo);
+	    }
+	    result = memo.get(key);
+	}
+	if (result == null) {
+	    result = computeDisjoint(rpl1, rpl2, constraints);
+	    synchronized (this) {
+		memo.put(key, result);
+	    }
+	}
+	return result;
+    }
+
+    private boolean computeDisjoint(RPL rpl1, RPL rpl2,
+				    List<Pair<RPL,RPL>> constraints) {
 	// If rpl1 and rpl2 are included in disjoint RPLs, then they are disjoint.
 	for (Pair<RPL,RPL> constraint : constraints) {
-	    if (rpl1.isIncludedIn(constraint.fst) && rpl2.isIncludedIn(constraint.snd))
+	    if (isIncludedIn(rpl1, constraint.fst) && isIncludedIn(rpl2, constraint.snd))
 		return true;
-	    if (rpl1.isIncludedIn(constraint.snd) && rpl2.isIncludedIn(constraint.fst))
+	    if (isIncludedIn(rpl1, constraint.snd) && isIncludedIn(rpl2, constraint.fst))
 		return true;
 	}
 	
@@ -120,8 +263,8 @@ public class RPLs {
     public boolean areDisjointFromRight(RPL rpl1, RPL rpl2,
 	    List<Pair<RPL,RPL>> constraints) {
 	if (rpl1.isEmpty() || rpl2.isEmpty()) return false;
-	List<RPLElement> elts1 = rpl1.elts.reverse();
-	List<RPLElement> elts2 = rpl2.elts.reverse();
+	List<RPLElement> elts1 = rpl1.reversedElts();
+	List<RPLElement> elts2 = rpl2.reversedElts();
 	while (!elts1.isEmpty() && !elts2.isEmpty()) {
 	    if (elts1.head == RPLElement.STAR || elts2.head == RPLElement.STAR)
 		return false;
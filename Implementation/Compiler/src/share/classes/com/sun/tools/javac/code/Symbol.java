@@ -153,7 +153,7 @@ public abstract class Symbol implements
 
     /** The completer of this symbol.
      */
-    public Completer completer;
+    public volatile Completer completer;
 
     /** A cache for the type erasure of this symbol.
      */
@@ -450,12 +450,32 @@ public abstract class Symbol implements
      */
     public void complete() throws CompletionFailure {
         if (completer != null) {
-            Completer c = completer;
-            completer = null;
-            c.complete(this);
+            synchronized (completionLock) {
+                Completer c = completer;
+                if (c == null || c == BUSY)
+                    return;
+                completer = BUSY;
+                try {
+                    c.complete(this);
+                } finally {
+                    if (completer == BUSY)
+                        completer = null;
+                }
+            }
         }
     }
 
+    /** Completion is serialized, since symbols may be shared by the
+     *  threads of the parallel compile policy.  While a symbol is being
+     *  completed, its completer is BUSY: the completing thread returns
+     *  at once if it asks for the symbol again, as before, while other
+     *  threads wait for the completion to finish.
+     */
+    private static final Object completionLock = new Object();
+    private static final Completer BUSY = new Completer() {
+        public void complete(Symbol sym) {}
+    };
+
     /** True if the symbol represents an entity that exists.
      */
     public boolean exists() {
@@ -58,6 +58,7 @@ import static com.sun.tools.javac.code.TypeTags.firstPartialTag;
 import static com.sun.tools.javac.code.TypeTags.lastBaseTag;
 import static com.sun.tools.javac.util.ListBuffer.lb;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -120,7 +121,13 @@ public class Types {
     final ClassReader reader;
     final Source source;
     final Check chk;
-    List<Warner> warnStack = List.nil();
+    /** The warners of the isCastable calls in progress, per thread:
+     *  Types is shared by the threads of the parallel compile policy. */
+    ThreadLocal<List<Warner>> warnStack = new ThreadLocal<List<Warner>>() {
+        protected List<Warner> initialValue() {
+            return List.nil();
+        }
+    };
     final Name capturedName;
     final RPLs rpls;
 
@@ -1065,12 +1072,12 @@ public class Types {
         if (t.isPrimitive() != s.isPrimitive())
             return allowBoxing && isConvertible(t, s, warn);
 
-        if (warn != warnStack.head) {
+        if (warn != warnStack.get().head) {
             try {
-                warnStack = warnStack.prepend(warn);
+                warnStack.set(warnStack.get().prepend(warn));
                 return isCastable.visit(t, s);
             } finally {
-                warnStack = warnStack.tail;
+                warnStack.set(warnStack.get().tail);
             }
         } else {
             return isCastable.visit(t, s);
@@ -1100,7 +1107,7 @@ public class Types {
 
             @Override
             public Boolean visitWildcardType(WildcardType t, Type s) {
-                return isCastable(upperBound(t), s, warnStack.head);
+                return isCastable(upperBound(t), s, warnStack.get().head);
             }
 
             @Override
@@ -1110,7 +1117,7 @@ public class Types {
 
                 if (s.tag == TYPEVAR) {
                     if (isCastable(s.getUpperBound(), t, Warner.noWarnings)) {
-                        warnStack.head.warnUnchecked();
+                        warnStack.get().head.warnUnchecked();
                         return true;
                     } else {
                         return false;
@@ -1138,13 +1145,13 @@ public class Types {
                         || isSubtype(erasure(s), erasure(t))) {
                 	if (!upcast && s.tag == ARRAY) {
                             if (!isReifiable(s))
-                                warnStack.head.warnUnchecked();
+                                warnStack.get().head.warnUnchecked();
                             return true;
                         } else if (s.isRaw()) {
                             return true;
                         } else if (t.isRaw()) {
                             if (!isUnbounded(s))
-                                warnStack.head.warnUnchecked();
+                                warnStack.get().head.warnUnchecked();
                             return true;
                         }
                         // Assume |a| <: |b|
@@ -1177,26 +1184,26 @@ public class Types {
                                 && !disjointTypes(aLow.getTypeArguments(), lowSub.getTypeArguments())) {
                                 if (upcast ? giveWarning(a, highSub) || giveWarning(a, lowSub)
                                            : giveWarning(highSub, a) || giveWarning(lowSub, a))
-                                    warnStack.head.warnUnchecked();
+                                    warnStack.get().head.warnUnchecked();
                                 return true;
                             }
                         }
                         if (isReifiable(s))
                             return isSubtypeUnchecked(a, b);
                         else
-                            return isSubtypeUnchecked(a, b, warnStack.head);
+                            return isSubtypeUnchecked(a, b, warnStack.get().head);
                     }
 
                     // Sidecast
                     if (s.tag == CLASS) {
                         if ((s.tsym.flags() & INTERFACE) != 0) {
                             return ((t.tsym.flags() & FINAL) == 0)
-                                ? sideCast(t, s, warnStack.head)
-                                : sideCastFinal(t, s, warnStack.head);
+                                ? sideCast(t, s, warnStack.get().head)
+                                : sideCastFinal(t, s, warnStack.get().head);
                         } else if ((t.tsym.flags() & INTERFACE) != 0) {
                             return ((s.tsym.flags() & FINAL) == 0)
-                                ? sideCast(t, s, warnStack.head)
-                                : sideCastFinal(t, s, warnStack.head);
+                                ? sideCast(t, s, warnStack.get().head)
+                                : sideCastFinal(t, s, warnStack.get().head);
                         } else {
                             // unrelated class types
                             return false;
@@ -1214,7 +1221,7 @@ public class Types {
                     return true;
                 case TYPEVAR:
                     if (isCastable(s, t, Warner.noWarnings)) {
-                        warnStack.head.warnUnchecked();
+                        warnStack.get().head.warnUnchecked();
                         return true;
                     } else {
                         return false;
@@ -1242,13 +1249,13 @@ public class Types {
                     if (isSubtype(t, s)) {
                         return true;
                     } else if (isCastable(t.getUpperBound(), s, Warner.noWarnings)) {
-                        warnStack.head.warnUnchecked();
+                        warnStack.get().head.warnUnchecked();
                         return true;
                     } else {
                         return false;
                     }
                 default:
-                    return isCastable(t.getUpperBound(), s, warnStack.head);
+                    return isCastable(t.getUpperBound(), s, warnStack.get().head);
                 }
             }
 
@@ -1284,7 +1291,14 @@ public class Types {
     // where
         private TypeRelation disjointType = new TypeRelation() {
 
-            private Set<TypePair> cache = new HashSet<TypePair>();
+            /** The pairs being compared, per thread: the relation is
+             *  shared by the threads of the parallel compile policy. */
+            private ThreadLocal<Set<TypePair>> cache =
+                new ThreadLocal<Set<TypePair>>() {
+                    protected Set<TypePair> initialValue() {
+                        return new HashSet<TypePair>();
+                    }
+                };
 
             public Boolean visitType(Type t, Type s) {
                 if (s.tag == WILDCARD)
@@ -1295,11 +1309,11 @@ public class Types {
 
             private boolean isCastableRecursive(Type t, Type s) {
                 TypePair pair = new TypePair(t, s);
-                if (cache.add(pair)) {
+                if (cache.get().add(pair)) {
                     try {
                         return Types.this.isCastable(t, s);
                     } finally {
-                        cache.remove(pair);
+                        cache.get().remove(pair);
                     }
                 } else {
                     return true;
@@ -1308,11 +1322,11 @@ public class Types {
 
             private boolean notSoftSubtypeRecursive(Type t, Type s) {
                 TypePair pair = new TypePair(t, s);
-                if (cache.add(pair)) {
+                if (cache.get().add(pair)) {
                     try {
                         return Types.this.notSoftSubtype(t, s);
                     } finally {
-                        cache.remove(pair);
+                        cache.get().remove(pair);
                     }
                 } else {
                     return false;
@@ -1976,7 +1990,8 @@ public class Types {
     // </editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc="isDerivedRaw">
-    Map<Type,Boolean> isDerivedRawCache = new HashMap<Type,Boolean>();
+    Map<Type,Boolean> isDerivedRawCache =
+        Collections.synchronizedMap(new HashMap<Type,Boolean>());
 
     public boolean isDerivedRaw(Type t) {
         Boolean result = isDerivedRawCache.get(t);
@@ -3172,7 +3187,8 @@ public class Types {
      * (that is, subclasses come first, arbitrary but fixed
      * otherwise).
      */
-    private Map<Type,List<Type>> closureCache = new HashMap<Type,List<Type>>();
+    private Map<Type,List<Type>> closureCache =
+        Collections.synchronizedMap(new HashMap<Type,List<Type>>());
 
     /**
      * Returns the closure of a class or interface type.
@@ -3275,7 +3291,12 @@ public class Types {
                     && isSameType(t2, typePair.t2);
             }
         }
-        Set<TypePair> mergeCache = new HashSet<TypePair>();
+        ThreadLocal<Set<TypePair>> mergeCache =
+            new ThreadLocal<Set<TypePair>>() {
+                protected Set<TypePair> initialValue() {
+                    return new HashSet<TypePair>();
+                }
+            };
         private Type merge(Type c1, Type c2) {
             ClassType class1 = (ClassType) c1;
             List<Type> act1 = class1.getTypeArguments();
@@ -3292,12 +3313,12 @@ public class Types {
                 } else {
                     TypePair pair = new TypePair(c1, c2);
                     Type m;
-                    if (mergeCache.add(pair)) {
+                    if (mergeCache.get().add(pair)) {
                         m = new WildcardType(lub(upperBound(act1.head),
                                                  upperBound(act2.head)),
                                              BoundKind.EXTENDS,
                                              syms.boundClass);
-                        mergeCache.remove(pair);
+                        mergeCache.get().remove(pair);
                     } else {
                         m = new WildcardType(syms.objectType,
                                              BoundKind.UNBOUND,
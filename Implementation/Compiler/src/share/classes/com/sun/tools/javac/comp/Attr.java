@@ -3814,10 +3814,12 @@ public class Attr extends JCTree.Visitor {
     }
     
     public void visitDPJForLoop(DPJForLoop tree) {
+	attribReductions(tree);
 	Env<AttrContext> loopEnv =
 	    env.dup(env.tree, env.info.dup(env.info.scope.dup()));
 	tree.var.mods.flags |= Flags.FINAL;
 	attribStat(tree.var, loopEnv);
+	checkForeachSchedule(tree);
 	attribExpr(tree.start, loopEnv);
 	if (tree.length != null)
 	    attribExpr(tree.length, loopEnv);
@@ -3829,6 +3831,66 @@ public class Attr extends JCTree.Visitor {
 	result = null;	
     }
     
+    /** Attribute the reduction variables of a foreach in the
+     *  enclosing environment, and check that each one is a non-final
+     *  local variable whose type admits its reduction operator.
+     */
+    void attribReductions(DPJForLoop tree) {
+	List<Integer> ops = tree.reductionOps;
+	for (JCIdent var : tree.reductionVars) {
+	    int op = ops.head;
+	    ops = ops.tail;
+	    Type type = attribExpr(var, env);
+	    if (type.isErroneous()) continue;
+	    Symbol sym = var.sym;
+	    if (sym.kind != VAR || sym.owner.kind != MTH ||
+		    (sym.flags() & FINAL) != 0) {
+		log.error(var.pos(), "reduction.var.not.local", sym);
+		continue;
+	    }
+	    boolean ok;
+	    if (op == JCTree.PLUS || op == JCTree.MUL)
+		ok = type.tag >= BYTE && type.tag <= TypeTags.DOUBLE;
+	    else
+		ok = (type.tag >= BYTE && type.tag <= TypeTags.LONG) ||
+		    type.tag == TypeTags.BOOLEAN;
+	    if (!ok)
+		log.error(var.pos(), "reduction.bad.type",
+			  rs.treeinfo.operatorName(op), type);
+	}
+    }
+    
+    /** Check the elements given in a DPJRuntime.ForeachSchedule
+     *  annotation on the variable of a foreach.  A split factor below
+     *  2 or a cutoff below 1 would let a task split its iterations
+     *  into a piece as large as itself.  Elements left out take the
+     *  runtime settings, so only the ones given are checked.
+     */
+    void checkForeachSchedule(DPJForLoop tree) {
+	for (JCAnnotation annotation : tree.var.mods.annotations) {
+	    Type type = annotation.annotationType.type;
+	    if (type == null || !type.tsym.getQualifiedName().toString().
+		    equals("DPJRuntime.ForeachSchedule"))
+		continue;
+	    for (JCExpression arg : annotation.args) {
+		if (arg.getTag() != JCTree.ASSIGN) continue;
+		JCAssign assign = (JCAssign) arg;
+		Object value = assign.rhs.type == null ? null :
+		    assign.rhs.type.constValue();
+		if (!(value instanceof Integer)) continue;
+		int intValue = ((Integer) value).intValue();
+		String name = TreeInfo.name(assign.lhs).toString();
+		int min;
+		if (name.equals("split")) min = 2;
+		else if (name.equals("cutoff")) min = 1;
+		else continue;
+		if (intValue < min)
+		    log.error(assign.rhs.pos(), "foreach.schedule.too.small",
+			      name, min);
+	    }
+	}
+    }
+    
     /** Visitor method for spawn.
      */
     public void visitSpawn(DPJSpawn tree) {
@@ -1292,11 +1292,10 @@ public class Check {
 	    me = me.substVars(m.params, other.params);
 	    me = me.substEffectParams(m.effectparams, other.effectparams);
 	    if (!me.areSubeffectsOf(oe)) {
-		System.err.println("Effects are not covered by overridden effects in class " + other.owner.type);
-		System.err.println("Missing " + me.missingFrom(oe));
 		//System.out.println("me="+me);
 		//System.out.println("oe="+oe);
-		log.error(TreeInfo.diagnosticPositionFor(m, tree), "bad.subclass.effects");
+		log.error(TreeInfo.diagnosticPositionFor(m, tree), "bad.subclass.effects",
+			other.owner.type, me.missingFrom(oe));
 	    }
 	}
 	
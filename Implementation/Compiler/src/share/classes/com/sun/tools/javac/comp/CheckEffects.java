@@ -4,21 +4,35 @@ import static com.sun.tools.javac.code.Flags.STATIC;
 import static com.sun.tools.javac.code.Kinds.MTH;
 import static com.sun.tools.javac.code.Kinds.TYP;
 import static com.sun.tools.javac.code.Kinds.VAR;
+import static com.sun.tools.javac.code.TypeTags.BYTE;
+import static com.sun.tools.javac.code.TypeTags.CHAR;
 import static com.sun.tools.javac.code.TypeTags.CLASS;
+import static com.sun.tools.javac.code.TypeTags.INT;
+import static com.sun.tools.javac.code.TypeTags.SHORT;
 import static com.sun.tools.javac.code.TypeTags.TYPEVAR;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 
+import com.sun.tools.javac.code.Constraints;
 import com.sun.tools.javac.code.Effect;
 import com.sun.tools.javac.code.Effect.InvocationEffect;
+import com.sun.tools.javac.code.Effect.ReadEffect;
+import com.sun.tools.javac.code.Effect.WriteEffect;
 import com.sun.tools.javac.code.Effects;
+import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.code.Lint;
 import com.sun.tools.javac.code.RPL;
+import com.sun.tools.javac.code.RPLElement.StackRPLElement;
 import com.sun.tools.javac.code.RPLs;
 import com.sun.tools.javac.code.Substitute;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
-import com.sun.tools.javac.code.Symbol.OperatorSymbol;
 import com.sun.tools.javac.code.Symbol.VarSymbol;
 import com.sun.tools.javac.code.Type;
 import com.sun.tools.javac.code.Type.ArrayType;
@@ -38,10 +52,12 @@ import com.sun.tools.javac.tree.JCTree.JCAssign;
 import com.sun.tools.javac.tree.JCTree.JCAssignOp;
 import com.sun.tools.javac.tree.JCTree.JCBinary;
 import com.sun.tools.javac.tree.JCTree.JCBlock;
+import com.sun.tools.javac.tree.JCTree.JCBreak;
 import com.sun.tools.javac.tree.JCTree.JCCase;
 import com.sun.tools.javac.tree.JCTree.JCCatch;
 import com.sun.tools.javac.tree.JCTree.JCClassDecl;
 import com.sun.tools.javac.tree.JCTree.JCConditional;
+import com.sun.tools.javac.tree.JCTree.JCContinue;
 import com.sun.tools.javac.tree.JCTree.JCDoWhileLoop;
 import com.sun.tools.javac.tree.JCTree.JCEnhancedForLoop;
 import com.sun.tools.javac.tree.JCTree.JCExpression;
@@ -53,6 +69,7 @@ import com.sun.tools.javac.tree.JCTree.JCIdent;
 import com.sun.tools.javac.tree.JCTree.JCIf;
 import com.sun.tools.javac.tree.JCTree.JCInstanceOf;
 import com.sun.tools.javac.tree.JCTree.JCLabeledStatement;
+import com.sun.tools.javac.tree.JCTree.JCLiteral;
 import com.sun.tools.javac.tree.JCTree.JCMethodDecl;
 import com.sun.tools.javac.tree.JCTree.JCMethodInvocation;
 import com.sun.tools.javac.tree.JCTree.JCNewArray;
@@ -71,11 +88,16 @@ import com.sun.tools.javac.tree.JCTree.JCUnary;
 import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
 import com.sun.tools.javac.tree.JCTree.JCWhileLoop;
 import com.sun.tools.javac.tree.JCTree.LetExpr;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.TreeScanner;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.JCDiagnostic.DiagnosticPosition;
 import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Log;
 import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Options;
 import com.sun.tools.javac.util.Pair;
 
 /**
@@ -91,6 +113,16 @@ import com.sun.tools.javac.util.Pair;
  * 3. Inferred effects of foreach body are noninterfering with themselves, after
  *    replacing the index variable with its negation (violation = warning)
  * 
+ * 4. Each reduction variable of a foreach is used in the body only as the 
+ *    target of a compound assignment with its reduction operator 
+ *    (violation = error)
+ * 
+ * Adjacent foreach loops over the same range are also fused here, when
+ * the effects show that the fused loop is still noninterfering (see
+ * fuseForeachLoops).  -XDnoForeachFusion turns this off.  With -spmd,
+ * sequential loops that can run in one team of tasks are marked here
+ * too (see isSPMDLoop).
+ * 
  * @author Rob Bocchino
  * @author Jeff Overbey
  * @author Mohsen Vakilian
@@ -106,7 +138,14 @@ public class CheckEffects extends EnvScanner { // DPJ
     private final Resolve rs;
     private final RPLs rpls;
     private final Attr attr;
+    private final TreeMaker make;
     private       Lint lint;
+    
+    /** Should adjacent foreach loops be fused? */
+    private final boolean fuseForeach;
+    
+    /** Should loops be marked for SPMD code generation? */
+    private final boolean spmd;
 
     public static CheckEffects instance(Context context) {
 	CheckEffects instance = context.get(effectsKey);
@@ -126,6 +165,35 @@ public class CheckEffects extends EnvScanner { // DPJ
 	rs = Resolve.instance(context);
 	rpls = RPLs.instance(context);
 	attr = Attr.instance(context);
+	make = TreeMaker.instance(context);
+	Options options = Options.instance(context);
+	fuseForeach = options.get("noForeachFusion") == null;
+	spmd = options.get("-spmd") != null;
+    }
+
+    /** Create an effect checker that shares the components of the
+     *  given one, but reports to the given log.
+     */
+    protected CheckEffects(CheckEffects other, Log log) {
+	super(other);
+	names = other.names;
+	this.log = log;
+	types = other.types;
+	lint = other.lint;
+	rs = other.rs;
+	rpls = other.rpls;
+	attr = other.attr;
+	make = other.make;
+	fuseForeach = other.fuseForeach;
+	spmd = other.spmd;
+    }
+
+    /** Return an effect checker that reports to the given log, for
+     *  checking a class on another thread (see
+     *  JavaCompiler.checkInParallel).
+     */
+    public CheckEffects forLog(Log log) {
+	return new CheckEffects(this, log);
     }
 
     /** Are we in an atomic statement? */
@@ -134,6 +202,35 @@ public class CheckEffects extends EnvScanner { // DPJ
     /** Are we in a nonint statement? */
     private boolean inNonint;
     
+    /**
+     * The outermost atomic statements of the method being checked,
+     * mapped to the effects of the code in the method that may run in
+     * parallel with them, or to null if that isn't known.  Null outside
+     * methods.  See setBarrierEffects.
+     */
+    private Map<DPJAtomic,Effects> concurrentEffects;
+    
+    /**
+     * The foreach loops of the method being checked that may be fused
+     * with a neighbor or run in an SPMD team, and what that needs to
+     * know about them
+     */
+    private Map<DPJForLoop,ForeachInfo> foreachInfo;
+    
+    private static class ForeachInfo {
+	/** Effects of the body, in the environment of the loop */
+	Effects effects;
+	/** Effects of evaluating the bounds */
+	final Effects boundEffects;
+	final Constraints constraints;
+	ForeachInfo(Effects effects, Effects boundEffects, 
+		Constraints constraints) {
+	    this.effects = effects;
+	    this.boundEffects = boundEffects;
+	    this.constraints = constraints;
+	}
+    }
+    
     /**
      * Compute interference between sets of statements
      * @param stats
@@ -322,8 +419,10 @@ public class CheckEffects extends EnvScanner { // DPJ
 	Effects savedInitEffects = initEffects;
         LinkedList<Pair<Effects, DiagnosticPosition>> 
         	savedCtorEffects = ctorEffects;
+        Map<DPJAtomic,Effects> savedConcurrentEffects = concurrentEffects;
         initEffects = new Effects();
         ctorEffects = new LinkedList<Pair<Effects, DiagnosticPosition>>();
+        concurrentEffects = null;
 	super.visitClassDef(tree);
         // Check declared constructor effects against initializers                               
         Env<AttrContext> env = childEnvs.head;
@@ -332,18 +431,22 @@ public class CheckEffects extends EnvScanner { // DPJ
             for (Pair<Effects, DiagnosticPosition> pair : ctorEffects) {
                 Effects declaredEffects = pair.fst.inEnvironment(rs, env, true);
                 if (!initEffects.areSubeffectsOf(declaredEffects)) {
-                    log.error(pair.snd, "bad.effect.summary");
-                    System.err.println("Missing " +
-                            initEffects.missingFrom(declaredEffects).trim());
+                    log.error(pair.snd, "bad.effect.summary",
+                            initEffects.missingFrom(declaredEffects));
                 }
             }
         }
         initEffects = savedInitEffects;
         ctorEffects = savedCtorEffects;
+        concurrentEffects = savedConcurrentEffects;
     }
     
     @Override
     public void visitMethodDef(JCMethodDecl tree) {
+	Map<DPJAtomic,Effects> savedConcurrentEffects = concurrentEffects;
+	Map<DPJForLoop,ForeachInfo> savedForeachInfo = foreachInfo;
+	concurrentEffects = new IdentityHashMap<DPJAtomic,Effects>();
+	foreachInfo = new IdentityHashMap<DPJForLoop,ForeachInfo>();
 	super.visitMethodDef(tree);
 	MethodSymbol m = tree.sym;
 	Effects actualEffects = Effects.UNKNOWN;
@@ -362,10 +465,169 @@ public class CheckEffects extends EnvScanner { // DPJ
 	    }
 	}
 	if (!actualEffects.areSubeffectsOf(declaredEffects)) {
-	    System.err.println("Effect summary does not cover " + 
+	    log.error(pos, "bad.effect.summary",
 		    actualEffects.missingFrom(declaredEffects));
-	    log.error(pos, "bad.effect.summary");
 	}
+	if ((m.flags() & Flags.ISCOMMUTATIVE) != 0 && tree.body != null)
+	    tree.commutativeKey = commutativeKey(tree, declaredEffects,
+		    childEnvs.head.info.constraints);
+	setBarrierEffects(declaredEffects);
+	concurrentEffects = savedConcurrentEffects;
+	foreachInfo = savedForeachInfo;
+    }
+
+    /**
+     * Compute the barrier effects of the atomic statements in the method
+     * just checked (see DPJAtomic.barrierEffects).  An access in an
+     * atomic statement needs an STM barrier only if another transaction
+     * can touch the same location at the same time.  That can be
+     *
+     * - code in the method running in parallel with the statement, as
+     *   recorded in concurrentEffects; or
+     *
+     * - code outside the method running in parallel with it.  Effect
+     *   checking lets that code interfere with the method only through
+     *   the atomic effects in the method's summary, and anything it does
+     *   there may conflict with what the method does, so those count as
+     *   writes.
+     *
+     * This relies on the parallel constructs being free of interference
+     * warnings, just as the unlogged accesses to nonatomic regions do.
+     *
+     * Accesses to the same location in one transaction must all go
+     * through the write log or all go around it.  So the effects of the
+     * statement that interfere with concurrent effects also need
+     * barriers, as do the effects of the methods it calls, whose
+     * transactional versions always use barriers.  All of these tests
+     * ignore the method's disjointness constraints, so InsertBarriers
+     * can repeat them without an environment.
+     */
+    private void setBarrierEffects(Effects declaredEffects) {
+	if (concurrentEffects.isEmpty())
+	    return;
+	Effects outside = outsideEffects(declaredEffects);
+	Constraints constraints = new Constraints();
+	for (Map.Entry<DPJAtomic,Effects> entry : concurrentEffects.entrySet()) {
+	    DPJAtomic tree = entry.getKey();
+	    Effects concurrent = entry.getValue();
+	    Effects invoked = invokedEffects(tree.body);
+	    if (concurrent == null || outside == null || invoked == null)
+		continue;
+	    concurrent.addAll(outside);
+	    Effects barrierEffects = new Effects();
+	    barrierEffects.addAll(concurrent);
+	    barrierEffects.addAll(invoked);
+	    for (Effect e : tree.effects) {
+		if (!e.isNoninterferingWith(concurrent, constraints, false))
+		    barrierEffects.add(e);
+	    }
+	    tree.barrierEffects = barrierEffects;
+	}
+    }
+
+    /**
+     * The effects that code running in parallel with a method with the
+     * given summary may have on the locations the method accesses, or
+     * null if they aren't known
+     */
+    private Effects outsideEffects(Effects declaredEffects) {
+	if (declaredEffects == Effects.UNKNOWN)
+	    return null;
+	Effects result = new Effects();
+	for (Effect e : declaredEffects) {
+	    if (e instanceof ReadEffect) {
+		if (e.isAtomic())
+		    result.add(new WriteEffect(rpls, ((ReadEffect) e).rpl,
+			    true, false));
+	    } else if (e instanceof WriteEffect) {
+		if (e.isAtomic())
+		    result.add(e);
+	    } else {
+		return null;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * The effects of the calls in tree, or null if they aren't known.
+     * Calls into the libraries aren't translated (see
+     * InsertBarriers.isLibraryMember), so they don't count.
+     */
+    private Effects invokedEffects(JCTree tree) {
+	final Effects result = new Effects();
+	class InvocationScanner extends TreeScanner {
+	    boolean unknown = false;
+	    @Override public void visitApply(JCMethodInvocation tree) {
+		super.visitApply(tree);
+		MethodSymbol sym = tree.getMethodSymbol();
+		if (sym == null || !InsertBarriers.isLibraryMember(sym))
+		    result.addAll(tree.effects);
+	    }
+	    @Override public void visitNewClass(JCNewClass tree) {
+		super.visitNewClass(tree);
+		// Constructor invocations have no effects yet
+		if (tree.constructor == null || 
+			!InsertBarriers.isLibraryMember(tree.constructor))
+		    unknown = true;
+	    }
+	    @Override public void visitClassDef(JCClassDecl tree) {}
+	}
+	InvocationScanner scanner = new InvocationScanner();
+	scanner.scan(tree);
+	return scanner.unknown ? null : result;
+    }
+
+    /**
+     * Record that code with the given effects may run in parallel with
+     * the atomic statements in tree.  Null effects mean anything may.
+     */
+    private void addConcurrentEffects(JCTree tree, final Effects effects) {
+	if (concurrentEffects == null || concurrentEffects.isEmpty())
+	    return;
+	new TreeScanner() {
+	    @Override public void visitAtomic(DPJAtomic tree) {
+		Effects concurrent = concurrentEffects.get(tree);
+		if (concurrent == null)
+		    return;
+		if (effects == null)
+		    concurrentEffects.put(tree, null);
+		else
+		    concurrent.addAll(effects);
+	    }
+	    @Override public void visitClassDef(JCClassDecl tree) {}
+	}.scan(tree);
+    }
+
+    /**
+     * Invocations of the same commutative method are allowed to run in
+     * parallel even if their effects interfere, so the generated code
+     * has to synchronize them.  If the declared effects of invocations
+     * with different values of some final integer parameter never
+     * interfere (e.g., writes R:[i] for a parameter i), only invocations
+     * that agree on that parameter need to exclude each other.  Returns
+     * the first such parameter, or null.
+     */
+    private VarSymbol commutativeKey(JCMethodDecl tree, Effects effects,
+	    Constraints constraints) {
+	if (effects == null)
+	    return null;
+	for (JCVariableDecl param : tree.params) {
+	    VarSymbol p = param.sym;
+	    if ((p.flags() & Flags.FINAL) == 0)
+		continue;
+	    switch (p.type.tag) {
+	    case BYTE: case CHAR: case SHORT: case INT:
+		break;
+	    default:
+		continue;
+	    }
+	    Effects other = effects.substIndices(List.of(p),
+		    List.<JCExpression>of(new DPJNegationExpression(p)));
+	    if (Effects.noninterferingEffects(effects, other, constraints, false))
+		return p;
+	}
+	return null;
     }
 	
     @Override
@@ -382,17 +644,31 @@ public class CheckEffects extends EnvScanner { // DPJ
 	super.visitDoLoop(tree);
 	addAllWithRead(tree.cond, tree);
 	addAll(tree.body, tree);
+	tree.isSPMD = isSPMDLoop(tree.body, List.<JCTree>of(tree.cond));
     }
 
+    /** Reduction variables of the innermost enclosing foreach, and
+     *  their operators */
+    private Map<Symbol,Integer> reductions = new HashMap<Symbol,Integer>();
+
     @Override
     public void visitDPJForLoop(DPJForLoop tree) {
+	Map<Symbol,Integer> savedReductions = reductions;
+	reductions = new HashMap<Symbol,Integer>();
+	List<Integer> ops = tree.reductionOps;
+	for (JCIdent var : tree.reductionVars) {
+	    if (var.sym != null) reductions.put(var.sym, ops.head);
+	    ops = ops.tail;
+	}
 	super.visitDPJForLoop(tree);
+	reductions = savedReductions;
 	if (tree.var.init != null) addAllWithRead(tree.var.init, tree);
 	if (tree.start != null) addAllWithRead(tree.start, tree);
 	if (tree.length != null) addAllWithRead(tree.length, tree);
 	if (tree.stride != null) addAllWithRead(tree.stride, tree);
 	addAll(tree.body, tree);
-	Env<AttrContext> env = parentEnv.dup(tree, parentEnv.info.dup());
+	Env<AttrContext> env = 
+	    parentEnv.dup(tree, parentEnv.info.dup(parentEnv.info.scope.dup()));
 	env.info.scope.enter(tree.var.sym);
 	Effects effects = tree.body.effects.inEnvironment(rs, env, false);
 	env.info.scope.leave();
@@ -403,12 +679,123 @@ public class CheckEffects extends EnvScanner { // DPJ
 		env.info.constraints, tree.isNondet)) {
 	    log.warning(tree.pos(), "interference.foreach");
 	}
+	addConcurrentEffects(tree.body, negatedEffects);
+	if ((fuseForeach || spmd) && foreachInfo != null && !tree.isNondet && 
+		tree.reductionVars.isEmpty()) {
+	    Effects boundEffects = new Effects();
+	    for (JCExpression bound : List.of(tree.start, tree.length, tree.stride)) {
+		if (bound == null) continue;
+		boundEffects.addAll(bound.effects);
+		RPL access = accessedRPL(bound, false);
+		if (access != null)
+		    boundEffects.add(new ReadEffect(rpls, access, false, false));
+	    }
+	    foreachInfo.put(tree, new ForeachInfo(effects, boundEffects, 
+		    env.info.constraints));
+	}
+	if (tree.reductionVars.nonEmpty()) {
+	    new ReductionChecker(tree).scan(tree.body);
+	}
+	// The partial results are combined into the reduction variables
+	// after the loop.  If an enclosing foreach reduces the same
+	// variable with the same operator, that writes its own partial
+	// result.
+	ops = tree.reductionOps;
+	for (JCIdent var : tree.reductionVars) {
+	    if (!ops.head.equals(reductions.get(var.sym)))
+		addWriteEffect(var, tree);
+	    ops = ops.tail;
+	}
+    }
+
+    /**
+     * Checks the uses of the reduction variables of a foreach in its
+     * body.  A reduction variable may appear only as v op= e, where op
+     * is its reduction operator and e does not mention v.  The update
+     * may also appear inside a nested foreach that reduces v with the
+     * same operator, but not inside any other parallel construct.
+     */
+    private class ReductionChecker extends TreeScanner {
+
+	/** Reduction variables and their operators */
+	private final Map<Symbol,Integer> ops = new HashMap<Symbol,Integer>();
+
+	/** Reduction variables that may not be used in the current
+	 *  nested construct */
+	private Set<Symbol> blocked = new HashSet<Symbol>();
+
+	ReductionChecker(DPJForLoop tree) {
+	    List<Integer> treeOps = tree.reductionOps;
+	    for (JCIdent var : tree.reductionVars) {
+		if (var.sym != null) ops.put(var.sym, treeOps.head);
+		treeOps = treeOps.tail;
+	    }
+	}
+
+	private boolean isReduction(JCTree tree, int op) {
+	    tree = TreeInfo.skipParens(tree);
+	    if (tree.getTag() != JCTree.IDENT) return false;
+	    Symbol sym = ((JCIdent) tree).sym;
+	    Integer reductionOp = ops.get(sym);
+	    return reductionOp != null && reductionOp == op &&
+	    	!blocked.contains(sym);
+	}
+
+	/** Scan a nested parallel construct, in which only the
+	 *  variables in allowed may be used */
+	private void scanNested(JCTree tree, Set<Symbol> allowed) {
+	    Set<Symbol> savedBlocked = blocked;
+	    blocked = new HashSet<Symbol>(ops.keySet());
+	    blocked.removeAll(allowed);
+	    scan(tree);
+	    blocked = savedBlocked;
+	}
+
+	@Override public void visitAssignop(JCAssignOp tree) {
+	    if (isReduction(tree.lhs, tree.getTag() - JCTree.ASGOffset)) {
+		scan(tree.rhs);
+	    } else {
+		super.visitAssignop(tree);
+	    }
+	}
+
+	@Override public void visitIdent(JCIdent tree) {
+	    Integer op = ops.get(tree.sym);
+	    if (op != null) {
+		log.error(tree.pos(), "reduction.var.misuse", tree.sym,
+			rs.treeinfo.operatorName(op));
+	    }
+	}
+
+	@Override public void visitDPJForLoop(DPJForLoop tree) {
+	    scan(tree.var);
+	    scan(tree.start);
+	    scan(tree.length);
+	    scan(tree.stride);
+	    Set<Symbol> allowed = new HashSet<Symbol>();
+	    List<Integer> treeOps = tree.reductionOps;
+	    for (JCIdent var : tree.reductionVars) {
+		if (isReduction(var, treeOps.head)) allowed.add(var.sym);
+		treeOps = treeOps.tail;
+	    }
+	    scanNested(tree.body, allowed);
+	}
+
+	@Override public void visitCobegin(DPJCobegin tree) {
+	    scanNested(tree.body, Collections.<Symbol>emptySet());
+	}
+
+	@Override public void visitSpawn(DPJSpawn tree) {
+	    scanNested(tree.body, Collections.<Symbol>emptySet());
+	}
     }
 
     @Override
     public void visitFinish(DPJFinish tree) {
 	super.visitFinish(tree);
 	addAll(tree.body, tree);
+	// Spawned tasks aren't checked for interference
+	addConcurrentEffects(tree.body, null);
     }
 
     @Override
@@ -418,6 +805,8 @@ public class CheckEffects extends EnvScanner { // DPJ
 	super.visitAtomic(tree);
 	addAll(tree.body, tree);
 	inAtomic = savedInAtomic;
+	if (!inAtomic && concurrentEffects != null)
+	    concurrentEffects.put(tree, new Effects());
     }
     
     @Override
@@ -444,6 +833,11 @@ public class CheckEffects extends EnvScanner { // DPJ
 	if (tree.cond != null) addAllWithRead(tree.cond, tree);
 	if (tree.step != null) addAll(tree.step, tree);
 	addAll(tree.body, tree);
+	ListBuffer<JCTree> control = ListBuffer.lb();
+	for (JCTree init : tree.init) control.append(init);
+	if (tree.cond != null) control.append(tree.cond);
+	for (JCTree step : tree.step) control.append(step);
+	tree.isSPMD = isSPMDLoop(tree.body, control.toList());
     }
 
     @Override
@@ -478,6 +872,7 @@ public class CheckEffects extends EnvScanner { // DPJ
     public void visitSpawn(DPJSpawn tree) {
 	super.visitSpawn(tree);
 	addAll(tree.body, tree);
+	addConcurrentEffects(tree.body, null);
     }
 
     @Override
@@ -534,6 +929,7 @@ public class CheckEffects extends EnvScanner { // DPJ
 	super.visitWhileLoop(tree);
 	addAllWithRead(tree.cond, tree);
 	addAll(tree.body, tree);
+	tree.isSPMD = isSPMDLoop(tree.body, List.<JCTree>of(tree.cond));
     }
 
     @Override
@@ -567,6 +963,15 @@ public class CheckEffects extends EnvScanner { // DPJ
     
     @Override public void visitAssignop(JCAssignOp tree) {
         super.visitAssignop(tree);
+        if (tree.lhs.getTag() == JCTree.IDENT) {
+            // An update of a reduction variable in the body of a
+            // foreach writes the private partial result of a task
+            Integer op = reductions.get(((JCIdent) tree.lhs).sym);
+            if (op != null && op == tree.getTag() - JCTree.ASGOffset) {
+        	addAllWithRead(tree.rhs, tree);
+        	return;
+            }
+        }
         accumulateAssignEffects(tree.lhs, tree.rhs, tree);
     }
     
@@ -595,7 +1000,7 @@ public class CheckEffects extends EnvScanner { // DPJ
 
     @Override public void visitUnary(JCUnary tree) {
 	super.visitUnary(tree);
-	switch (((OperatorSymbol)tree.operator).opcode) {
+	switch (tree.getTag()) {
 	case JCTree.PREINC: case JCTree.PREDEC:
 	case JCTree.POSTINC: case JCTree.POSTDEC:
 	    addAllWithWrite(tree.arg, tree);
@@ -689,6 +1094,361 @@ public class CheckEffects extends EnvScanner { // DPJ
             // constructors                                                                  
             initEffects.addAll(tree.effects);
         }
+        if (fuseForeach && foreachInfo != null && !foreachInfo.isEmpty())
+            fuseForeachLoops(tree);
+    }
+    
+    /**
+     * Fuse runs of adjacent foreach loops in a block, so each run
+     * forks and joins once.  Two loops
+     *
+     *   foreach (int i in s, n) S1
+     *   foreach (int j in s, n) S2
+     *
+     * become
+     *
+     *   foreach (int i in s, n) { S1 { final int j = i; S2 } }
+     *
+     * or, if j has the same name as i, { S1 { S2 } } with S2 using i.
+     *
+     * That is allowed if
+     *
+     * - the bounds are the same simple expressions, and the first loop
+     *   doesn't write anything they read;
+     *
+     * - neither body leaves the loop or assigns a local variable
+     *   declared outside it;
+     *
+     * - neither loop variable is annotated, since the fused loop could
+     *   keep only one DPJRuntime.ForeachSchedule;
+     *
+     * - the effects of the fused body, with j replaced by i, are
+     *   noninterfering with themselves after replacing i with its
+     *   negation.  Then S2 for one index commutes with S1 for any other
+     *   index, so the fused loop computes what the two loops did.
+     *
+     * A loop whose S2 reads what S1 writes for a neighboring index
+     * fails the last test and is left alone.
+     */
+    private void fuseForeachLoops(JCBlock tree) {
+	ListBuffer<JCStatement> stats = ListBuffer.lb();
+	DPJForLoop prev = null;
+	ForeachInfo prevInfo = null;
+	boolean changed = false;
+	for (JCStatement stat : tree.stats) {
+	    ForeachInfo info = foreachInfo.get(stat);
+	    if (info != null && prev != null &&
+		    fuse(prev, prevInfo, (DPJForLoop) stat, info)) {
+		changed = true;
+		continue;
+	    }
+	    stats.append(stat);
+	    prev = (info == null) ? null : (DPJForLoop) stat;
+	    prevInfo = info;
+	}
+	if (changed)
+	    tree.stats = stats.toList();
+    }
+    
+    /**
+     * Fuse the body of loop2 into loop1, if that is allowed
+     */
+    private boolean fuse(DPJForLoop loop1, ForeachInfo info1,
+	    DPJForLoop loop2, ForeachInfo info2) {
+	if (!sameExpr(loop1.start, loop2.start) ||
+		!sameExpr(loop1.length, loop2.length) ||
+		!sameExpr(loop1.stride, loop2.stride))
+	    return false;
+	if (loop1.var.mods.annotations.nonEmpty() ||
+		loop2.var.mods.annotations.nonEmpty())
+	    return false;
+	if (!Effects.noninterferingEffects(info2.boundEffects, info1.effects, 
+		info1.constraints, false))
+	    return false;
+	if (!new FusionChecker().canFuse(loop1) || 
+		!new FusionChecker().canFuse(loop2))
+	    return false;
+	VarSymbol i = loop1.var.sym;
+	VarSymbol j = loop2.var.sym;
+	synchronized (make) {
+	    Effects effects = new Effects();
+	    effects.addAll(info1.effects);
+	    effects.addAll(info2.effects.substIndices(List.of(j),
+		    List.<JCExpression>of(make.Ident(i))));
+	    Effects negatedEffects = effects.substIndices(List.of(i), 
+		    List.<JCExpression>of(new DPJNegationExpression(i)));
+	    if (!Effects.noninterferingEffects(effects, negatedEffects,
+		    info1.constraints, false))
+		return false;
+	    info1.effects = effects;
+	    
+	    JCBlock body2;
+	    if (j.name == i.name) {
+		// j cannot be declared in the scope of i, so make S2 use i
+		renameIndex(loop2.body, j, i);
+		body2 = make.at(loop2.pos).Block(0, List.of(loop2.body));
+	    } else {
+		body2 = make.at(loop2.pos).Block(0, 
+			List.of(make.VarDef(j, make.Ident(i)), loop2.body));
+	    }
+	    JCBlock body = make.at(loop1.pos).Block(0, 
+		    List.<JCStatement>of(loop1.body, body2));
+	    addAll(loop2.body, body2);
+	    addAll(loop1.body, body);
+	    addAll(body2, body);
+	    loop1.body = body;
+	    addAll(loop2, loop1);
+	}
+	return true;
+    }
+    
+    /**
+     * Make the uses of index variable from in a tree use to instead
+     */
+    private static void renameIndex(JCTree tree, final VarSymbol from, 
+	    final VarSymbol to) {
+	new TreeScanner() {
+	    @Override public void visitIdent(JCIdent tree) {
+		if (tree.sym == from) tree.sym = to;
+	    }
+	}.scan(tree);
+    }
+    
+    /**
+     * Can a sequential loop run in one SPMD team?  Each member of the
+     * team runs its own copy of the loop, and a fixed chunk of each
+     * foreach in the body, with a barrier after each foreach (see
+     * Pretty).  So
+     *
+     * - the body must be only foreach loops, in the indexed form, that
+     *   are deterministic and have no reductions;
+     *
+     * - the loop control (init, condition and step) and the bounds of
+     *   the foreach loops are evaluated by every member, so they must
+     *   not call methods, allocate, or write anything but local
+     *   variables;
+     *
+     * - members evaluate them while others are running a foreach, so
+     *   what they read, other than locals, must not interfere with the
+     *   foreach bodies.  Each member has its own copy of the locals.
+     *
+     * @param body    The loop body
+     * @param control The trees of the loop control
+     */
+    private boolean isSPMDLoop(JCStatement body, List<JCTree> control) {
+	if (!spmd || foreachInfo == null)
+	    return false;
+	List<JCStatement> stats = (body.getTag() == JCTree.BLOCK) ?
+		((JCBlock) body).stats : List.of(body);
+	if (stats.isEmpty())
+	    return false;
+	Effects controlEffects = new Effects();
+	Effects bodyEffects = new Effects();
+	Constraints constraints = null;
+	ControlChecker checker = new ControlChecker();
+	for (JCStatement stat : stats) {
+	    ForeachInfo info = foreachInfo.get(stat);
+	    if (info == null || ((DPJForLoop) stat).length == null)
+		return false;
+	    DPJForLoop loop = (DPJForLoop) stat;
+	    checker.scan(loop.start);
+	    checker.scan(loop.length);
+	    checker.scan(loop.stride);
+	    controlEffects.addAll(info.boundEffects);
+	    bodyEffects.addAll(info.effects);
+	    constraints = info.constraints;
+	}
+	for (JCTree tree : control) {
+	    checker.scan(tree);
+	    controlEffects.addAll(((JCTreeWithEffects) tree).effects);
+	    if (tree instanceof JCExpression) {
+		RPL access = accessedRPL((JCExpression) tree, false);
+		if (access != null)
+		    controlEffects.add(new ReadEffect(rpls, access, false, false));
+	    }
+	}
+	if (!checker.ok)
+	    return false;
+	// Each member has its own copy of the locals, so only the other
+	// effects can interfere; those must be reads
+	Effects sharedEffects = new Effects();
+	for (Effect e : controlEffects) {
+	    if (isStackEffect(e))
+		continue;
+	    if (!(e instanceof ReadEffect))
+		return false;
+	    sharedEffects.add(e);
+	}
+	return Effects.noninterferingEffects(sharedEffects, bodyEffects, 
+		constraints, false);
+    }
+    
+    /**
+     * Is this an effect on a local variable?
+     */
+    private static boolean isStackEffect(Effect e) {
+	RPL rpl = (e instanceof ReadEffect) ? ((ReadEffect) e).rpl :
+	    (e instanceof WriteEffect) ? ((WriteEffect) e).rpl : null;
+	return rpl != null && rpl.elts.head instanceof StackRPLElement;
+    }
+    
+    /**
+     * Checks that loop control calls no methods, allocates nothing,
+     * and assigns only local variables
+     */
+    private static class ControlChecker extends TreeScanner {
+	boolean ok = true;
+	
+	@Override public void visitApply(JCMethodInvocation tree) {
+	    ok = false;
+	}
+	
+	@Override public void visitNewClass(JCNewClass tree) {
+	    ok = false;
+	}
+	
+	@Override public void visitNewArray(JCNewArray tree) {
+	    ok = false;
+	}
+	
+	@Override public void visitAssign(JCAssign tree) {
+	    checkAssigned(tree.lhs);
+	    super.visitAssign(tree);
+	}
+	
+	@Override public void visitAssignop(JCAssignOp tree) {
+	    checkAssigned(tree.lhs);
+	    super.visitAssignop(tree);
+	}
+	
+	@Override public void visitUnary(JCUnary tree) {
+	    if (isIncDec(tree.getTag()))
+		checkAssigned(tree.arg);
+	    super.visitUnary(tree);
+	}
+	
+	private void checkAssigned(JCExpression lhs) {
+	    lhs = TreeInfo.skipParens(lhs);
+	    Symbol sym = TreeInfo.symbol(lhs);
+	    if (!(lhs instanceof JCIdent) || sym == null || 
+		    sym.owner.kind != MTH)
+		ok = false;
+	}
+    }
+    
+    /**
+     * Are two loop bounds the same expression, made of literals,
+     * variables, field selections and operators?
+     */
+    private static boolean sameExpr(JCExpression e1, JCExpression e2) {
+	if (e1 == null || e2 == null)
+	    return e1 == e2;
+	e1 = TreeInfo.skipParens(e1);
+	e2 = TreeInfo.skipParens(e2);
+	if (e1.getTag() != e2.getTag())
+	    return false;
+	switch (e1.getTag()) {
+	case JCTree.LITERAL: {
+	    Object v1 = ((JCLiteral) e1).value;
+	    Object v2 = ((JCLiteral) e2).value;
+	    return e1.type.tag == e2.type.tag && 
+	    	(v1 == null ? v2 == null : v1.equals(v2));
+	}
+	case JCTree.IDENT: {
+	    Symbol sym = ((JCIdent) e1).sym;
+	    return sym != null && sym == ((JCIdent) e2).sym;
+	}
+	case JCTree.SELECT: {
+	    JCFieldAccess s1 = (JCFieldAccess) e1, s2 = (JCFieldAccess) e2;
+	    return s1.sym != null && s1.sym == s2.sym && 
+	    	(s1.sym.kind == TYP || sameExpr(s1.selected, s2.selected));
+	}
+	default:
+	    if (e1 instanceof JCBinary) {
+		JCBinary b1 = (JCBinary) e1, b2 = (JCBinary) e2;
+		return b1.operator == b2.operator && 
+			sameExpr(b1.lhs, b2.lhs) && sameExpr(b1.rhs, b2.rhs);
+	    }
+	    if (e1 instanceof JCUnary && !isIncDec(e1.getTag())) {
+		return ((JCUnary) e1).operator == ((JCUnary) e2).operator &&
+			sameExpr(((JCUnary) e1).arg, ((JCUnary) e2).arg);
+	    }
+	    return false;
+	}
+    }
+    
+    private static boolean isIncDec(int tag) {
+	return tag == JCTree.PREINC || tag == JCTree.PREDEC ||
+		tag == JCTree.POSTINC || tag == JCTree.POSTDEC;
+    }
+    
+    /**
+     * Checks that a foreach body neither leaves the loop (return, or
+     * break or continue to a statement outside the body) nor assigns a
+     * local variable declared outside the body
+     */
+    private static class FusionChecker extends TreeScanner {
+	private final Set<JCTree> scanned = 
+	    Collections.newSetFromMap(new IdentityHashMap<JCTree,Boolean>());
+	private final Set<Symbol> declared = new HashSet<Symbol>();
+	private boolean ok = true;
+	
+	boolean canFuse(DPJForLoop loop) {
+	    scan(loop.body);
+	    return ok;
+	}
+	
+	@Override public void scan(JCTree tree) {
+	    if (tree != null && ok) {
+		scanned.add(tree);
+		tree.accept(this);
+	    }
+	}
+	
+	@Override public void visitClassDef(JCClassDecl tree) {}
+	
+	@Override public void visitVarDef(JCVariableDecl tree) {
+	    declared.add(tree.sym);
+	    super.visitVarDef(tree);
+	}
+	
+	@Override public void visitReturn(JCReturn tree) {
+	    ok = false;
+	}
+	
+	@Override public void visitBreak(JCBreak tree) {
+	    if (!scanned.contains(tree.target)) ok = false;
+	}
+	
+	@Override public void visitContinue(JCContinue tree) {
+	    if (!scanned.contains(tree.target)) ok = false;
+	}
+	
+	@Override public void visitAssign(JCAssign tree) {
+	    checkAssigned(tree.lhs);
+	    super.visitAssign(tree);
+	}
+	
+	@Override public void visitAssignop(JCAssignOp tree) {
+	    checkAssigned(tree.lhs);
+	    super.visitAssignop(tree);
+	}
+	
+	@Override public void visitUnary(JCUnary tree) {
+	    if (isIncDec(tree.getTag()))
+		checkAssigned(tree.arg);
+	    super.visitUnary(tree);
+	}
+	
+	private void checkAssigned(JCExpression lhs) {
+	    lhs = TreeInfo.skipParens(lhs);
+	    if (lhs instanceof JCIdent) {
+		Symbol sym = ((JCIdent) lhs).sym;
+		if (sym != null && sym.owner.kind == MTH && 
+			!declared.contains(sym))
+		    ok = false;
+	    }
+	}
     }
     
     @Override public void visitCobegin(DPJCobegin tree) {
@@ -704,6 +1464,18 @@ public class CheckEffects extends EnvScanner { // DPJ
 	if (interfere) {
 	    log.warning(tree.pos(), "interference.cobegin");
 	}
+	if (tree.body instanceof JCBlock) {
+	    List<JCStatement> stats = ((JCBlock) tree.body).stats;
+	    for (JCStatement stat : stats) {
+		Effects others = new Effects();
+		for (JCStatement other : stats) {
+		    if (other != stat)
+			others.addAll(other.effects.inEnvironment(rs, 
+				childEnvs.head, false));
+		}
+		addConcurrentEffects(stat, others);
+	    }
+	}
     }
 
 
@@ -70,6 +70,13 @@ public abstract class EnvScanner extends TreeScanner {
 	enter = Enter.instance(context);
     }
     
+    /** Create a scanner that shares the components of the given one */
+    protected EnvScanner(EnvScanner other) {
+	names = other.names;
+	memberEnter = other.memberEnter;
+	enter = other.enter;
+    }
+
     public void setEnter(Enter enter) {
 	this.enter = enter;
     }
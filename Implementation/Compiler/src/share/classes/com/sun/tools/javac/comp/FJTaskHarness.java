@@ -56,6 +56,9 @@ public class FJTaskHarness extends TreeScanner {
     
     private boolean classCanBeRun;
 
+    /** Are we targeting java.util.concurrent instead of jsr166y? */
+    private final boolean juc;
+
     public static FJTaskHarness instance(Context context) {
 	FJTaskHarness instance = context.get(harnessKey);
 	if (instance == null)
@@ -74,6 +77,7 @@ public class FJTaskHarness extends TreeScanner {
 	make = TreeMaker.instance(context);
 	lint = Lint.instance(context);
 	classCanBeRun = false;
+	juc = Options.instance(context).get("-juc") != null;
     }
 
 /* ***********************************************************************
@@ -117,7 +121,6 @@ public class FJTaskHarness extends TreeScanner {
                          null));
 
     	    // Add boilerplate "public static void main()" method to method list
-    	    List<JCExpression> literalList = List.<JCExpression>nil();
     	    JCFieldAccess runSelect = make.Select(make.Ident(
     		    			names.fromString("DPJRuntime")),
     		    			names.fromString("RuntimeState"));
@@ -125,7 +128,8 @@ public class FJTaskHarness extends TreeScanner {
     	    runSelect.setType(new Type(TypeTags.CLASS,null));
     	    
             // Assign statement
-    	    JCFieldAccess initSelect = make.Select(runSelect, names.fromString("initialize"));
+    	    JCFieldAccess initSelect = make.Select(runSelect,
+    		    names.fromString(juc ? "initializeJUC" : "initialize"));
     	    initSelect.setType(new Type(TypeTags.CLASS,null));
     	    JCExpressionStatement assign = make.Exec(
 	            make.Assign(
@@ -134,18 +138,6 @@ public class FJTaskHarness extends TreeScanner {
 	        		 List.<JCExpression>nil().append(
 	        			 make.Ident(names.fromString("args"))))));
     	    
-    	    JCFieldAccess poolVar = make.Select(runSelect, names.fromString("pool"));
-    	    
-    	    runSelect = make.Select(runSelect, names.fromString("dpjNumThreads"));
-    	    /*AGAIN: WHY IS THE FOLLOWING LINE NECESSARY???*/
-    	    runSelect.setType(new Type(TypeTags.CLASS,null));
-    	    literalList = literalList.append(runSelect);
-    	    JCNewClass poolInstance = make.NewClass(null, null, null, null,
-    		    make.Ident(names.fromString("ForkJoinPool")),
-    		    literalList,null);
-    	    
-    	    JCExpressionStatement invocation = 
-    		make.Exec(make.Assign(poolVar,poolInstance));
     	    List<JCVariableDecl> params = List.<JCVariableDecl>nil();
 	    params = params.append(make.VarDef(
 	      		make.Modifiers(0),
@@ -160,7 +152,6 @@ public class FJTaskHarness extends TreeScanner {
     	    
 	    List<JCStatement> block = List.<JCStatement>nil();
 	    block = block.append(assign);
-    	    block = block.append(invocation);
     	    block = block.append(dpjrun);
 	    tree.defs = tree.defs.append(make.MethodDef(
     		    make.Modifiers(PUBLIC | STATIC), names.fromString("main"),
@@ -186,10 +177,16 @@ public class FJTaskHarness extends TreeScanner {
 
     public void visitTopLevel(JCCompilationUnit tree) {
         // Import FJTask library
-	tree.defs = tree.defs.prepend(make.Import(make.Select(make.Select(
-				      make.Ident(names.fromString("jsr166y")),
-				      names.fromString("forkjoin")),
-				      names.asterisk),false));
+	JCExpression pkg;
+	if (juc)
+	    pkg = make.Select(make.Select(
+				  make.Ident(names.fromString("java")),
+				  names.fromString("util")),
+			      names.fromString("concurrent"));
+	else
+	    pkg = make.Ident(names.fromString("jsr166y"));
+	tree.defs = tree.defs.prepend(make.Import(make.Select(
+				      pkg, names.asterisk),false));
     	super.visitTopLevel(tree);
     }
 
@@ -38,7 +38,7 @@ import com.sun.tools.javac.tree.JCTree.*;
 import static com.sun.tools.javac.code.Flags.*;
 import static com.sun.tools.javac.code.Kinds.*;
 import static com.sun.tools.javac.code.TypeTags.*;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /** This pass implements dataflow analysis for Java programs.
@@ -206,6 +206,27 @@ public class Flow extends TreeScanner {
 	cobegin_index = -1;
     }
 
+    /** Create a flow analyzer that shares the components of the
+     *  given one, but reports to the given log.
+     */
+    protected Flow(Flow other, Log log) {
+	names = other.names;
+	this.log = log;
+	syms = other.syms;
+	types = other.types;
+	chk = other.chk;
+	lint = other.lint;
+	cobegin_index = -1;
+    }
+
+    /** Return a flow analyzer that reports to the given log, for
+     *  analyzing a class on another thread (see
+     *  JavaCompiler.checkInParallel).
+     */
+    public Flow forLog(Log log) {
+	return new Flow(this, log);
+    }
+
     /** A flag that indicates whether the last statement could
      *	complete normally.
      */
@@ -377,6 +398,16 @@ public class Flow extends TreeScanner {
 	    DPJAtomic enclosing = (DPJAtomic)(enclosingDPJ);
 	    enclosing.declaredVars.add(sym);
 	}
+	else if(enclosingDPJ!=null && enclosingDPJ instanceof DPJSpawn)
+	{
+	    DPJSpawn enclosing = (DPJSpawn)(enclosingDPJ);
+	    enclosing.declaredVars.add(sym);
+	}
+	else if(enclosingDPJ!=null && enclosingDPJ instanceof DPJFinish)
+	{
+	    DPJFinish enclosing = (DPJFinish)(enclosingDPJ);
+	    enclosing.declaredVars.add(sym);
+	}
 	
 	nextadr++;
     }
@@ -403,6 +434,16 @@ public class Flow extends TreeScanner {
 	    DPJAtomic enclosing = (DPJAtomic)(enclosingDPJ);
 	    enclosing.definedVars.add(sym);
 	}
+	if(enclosingDPJ!=null && enclosingDPJ instanceof DPJSpawn)
+	{
+	    DPJSpawn enclosing = (DPJSpawn)(enclosingDPJ);
+	    enclosing.definedVars.add(sym);
+	}
+	if(enclosingDPJ!=null && enclosingDPJ instanceof DPJFinish)
+	{
+	    DPJFinish enclosing = (DPJFinish)(enclosingDPJ);
+	    enclosing.definedVars.add(sym);
+	}
 	
 	if (sym.adr >= firstadr && trackable(sym)) {
 	    if ((sym.flags() & FINAL) != 0) {
@@ -472,6 +513,16 @@ public class Flow extends TreeScanner {
 	    DPJAtomic enclosing = (DPJAtomic)(enclosingDPJ);
 	    enclosing.usedVars.add(sym);
 	}
+	else if(enclosingDPJ!=null && enclosingDPJ instanceof DPJSpawn)
+	{
+	    DPJSpawn enclosing = (DPJSpawn)(enclosingDPJ);
+	    enclosing.usedVars.add(sym);
+	}
+	else if(enclosingDPJ!=null && enclosingDPJ instanceof DPJFinish)
+	{
+	    DPJFinish enclosing = (DPJFinish)(enclosingDPJ);
+	    enclosing.usedVars.add(sym);
+	}
 	
 	if ((sym.adr >= firstadr || sym.owner.kind != TYP) &&
 	    trackable(sym) &&
@@ -1008,9 +1059,9 @@ public class Flow extends TreeScanner {
 	nextadr = nextadrPrev;
 	
 	//Recursively propagate non-declared uses to the construct above
-	Set<VarSymbol> externalUses = new HashSet<VarSymbol>(tree.usedVars);
+	Set<VarSymbol> externalUses = new LinkedHashSet<VarSymbol>(tree.usedVars);
 	externalUses.removeAll(tree.declaredVars);
-	Set<VarSymbol> externalDefines = new HashSet<VarSymbol>(tree.definedVars);
+	Set<VarSymbol> externalDefines = new LinkedHashSet<VarSymbol>(tree.definedVars);
 	externalDefines.removeAll(tree.declaredVars);
 	if(oldEnclosure instanceof DPJCobegin)
 	    ((DPJCobegin)oldEnclosure).usedVars[cobegin_index].addAll(externalUses);
@@ -1020,8 +1071,18 @@ public class Flow extends TreeScanner {
 	    ((DPJAtomic)oldEnclosure).usedVars.addAll(externalUses);
 	    ((DPJAtomic)oldEnclosure).definedVars.addAll(externalDefines);
 	}
+	else
+	    propagateToTask(oldEnclosure, externalUses, externalDefines);
 	
 	enclosingDPJ = oldEnclosure;
+
+	// The partial results are combined into each reduction variable
+	// after the loop, so the variable is used and defined there
+	for (JCIdent var : tree.reductionVars) {
+	    if (!(var.sym instanceof VarSymbol)) continue;
+	    checkInit(var.pos(), (VarSymbol) var.sym);
+	    letInit(var.pos(), (VarSymbol) var.sym);
+	}
     }
     
     public void visitLabelled(JCLabeledStatement tree) {
@@ -1376,18 +1437,18 @@ public class Flow extends TreeScanner {
 	int oldIndex=cobegin_index;
 	cobegin_index=0;
 	for(JCStatement x : realBody.stats) {
-	    tree.definedVars[cobegin_index] = new HashSet<VarSymbol>();
-	    tree.usedVars[cobegin_index] = new HashSet<VarSymbol>();
-	    tree.declaredVars[cobegin_index] = new HashSet<VarSymbol>();
+	    tree.definedVars[cobegin_index] = new LinkedHashSet<VarSymbol>();
+	    tree.usedVars[cobegin_index] = new LinkedHashSet<VarSymbol>();
+	    tree.declaredVars[cobegin_index] = new LinkedHashSet<VarSymbol>();
 	    scan(x);
 	    cobegin_index++;
 	}
 	
-	Set<VarSymbol> externalDefines = new HashSet<VarSymbol>();
-	Set<VarSymbol> externalUses = new HashSet<VarSymbol>();
+	Set<VarSymbol> externalDefines = new LinkedHashSet<VarSymbol>();
+	Set<VarSymbol> externalUses = new LinkedHashSet<VarSymbol>();
 	for(int i=0; i<cobegin_index; i++) {
-	    Set<VarSymbol> x_extDef = new HashSet<VarSymbol>(tree.definedVars[i]);
-	    Set<VarSymbol> x_extUse = new HashSet<VarSymbol>(tree.usedVars[i]);
+	    Set<VarSymbol> x_extDef = new LinkedHashSet<VarSymbol>(tree.definedVars[i]);
+	    Set<VarSymbol> x_extUse = new LinkedHashSet<VarSymbol>(tree.usedVars[i]);
 	    x_extDef.removeAll(tree.declaredVars[i]);
 	    x_extUse.removeAll(tree.declaredVars[i]);
 	    externalDefines.addAll(x_extDef);
@@ -1410,6 +1471,8 @@ public class Flow extends TreeScanner {
 	    ((DPJAtomic)oldEnclosure).definedVars.addAll(externalDefines);
 	    assert(externalDefines.size()==0);
 	}
+	else
+	    propagateToTask(oldEnclosure, externalUses, externalDefines);
 	
 	enclosingDPJ = oldEnclosure;
 	cobegin_index=oldIndex;
@@ -1425,9 +1488,9 @@ public class Flow extends TreeScanner {
 	tree.aliveAtEnd = alive;
 	
 	//Recursively propagate non-declared uses and defines to the construct above
-	Set<VarSymbol> externalUses = new HashSet<VarSymbol>(tree.usedVars);
+	Set<VarSymbol> externalUses = new LinkedHashSet<VarSymbol>(tree.usedVars);
 	externalUses.removeAll(tree.declaredVars);
-	Set<VarSymbol> externalDefines = new HashSet<VarSymbol>(tree.definedVars);
+	Set<VarSymbol> externalDefines = new LinkedHashSet<VarSymbol>(tree.definedVars);
 	externalDefines.removeAll(tree.declaredVars);
 	if(oldEnclosure instanceof DPJCobegin) {
 	    ((DPJCobegin)oldEnclosure).usedVars[cobegin_index].addAll(externalUses);
@@ -1441,6 +1504,8 @@ public class Flow extends TreeScanner {
 	    ((DPJAtomic)oldEnclosure).usedVars.addAll(externalUses);
 	    ((DPJAtomic)oldEnclosure).definedVars.addAll(externalDefines);
 	}
+	else
+	    propagateToTask(oldEnclosure, externalUses, externalDefines);
 	
 	// Don't include potentially uninitialized local variables in the
 	// write set for atomic blocks: Since they're potentially
@@ -1450,7 +1515,7 @@ public class Flow extends TreeScanner {
 	// need to be backed up and restored in the atomic block.
 	// Furthermore, the code to back them up would generate an error,
 	// since it accesses a potentially uninitialized variable.
-	Set<VarSymbol> newDefinedVars = new HashSet<VarSymbol>();
+	Set<VarSymbol> newDefinedVars = new LinkedHashSet<VarSymbol>();
 	for(VarSymbol v : tree.definedVars) {
 	    if (initsIn.isMember(v.adr)) {
 		newDefinedVars.add(v);
@@ -1461,6 +1526,76 @@ public class Flow extends TreeScanner {
 	enclosingDPJ = oldEnclosure;
     }
     
+    public void visitSpawn(DPJSpawn tree) {
+	JCTree oldEnclosure = enclosingDPJ;
+	enclosingDPJ = tree;
+
+	scan(tree.body);
+
+	//Recursively propagate non-declared uses and defines to the construct above
+	Set<VarSymbol> externalUses = new LinkedHashSet<VarSymbol>(tree.usedVars);
+	externalUses.removeAll(tree.declaredVars);
+	Set<VarSymbol> externalDefines = new LinkedHashSet<VarSymbol>(tree.definedVars);
+	externalDefines.removeAll(tree.declaredVars);
+	propagate(oldEnclosure, externalUses, externalDefines);
+
+	enclosingDPJ = oldEnclosure;
+    }
+
+    public void visitFinish(DPJFinish tree) {
+	JCTree oldEnclosure = enclosingDPJ;
+	enclosingDPJ = tree;
+
+	scan(tree.body);
+
+	//Recursively propagate non-declared uses and defines to the construct above
+	Set<VarSymbol> externalUses = new LinkedHashSet<VarSymbol>(tree.usedVars);
+	externalUses.removeAll(tree.declaredVars);
+	Set<VarSymbol> externalDefines = new LinkedHashSet<VarSymbol>(tree.definedVars);
+	externalDefines.removeAll(tree.declaredVars);
+	propagate(oldEnclosure, externalUses, externalDefines);
+
+	enclosingDPJ = oldEnclosure;
+    }
+
+    /**
+     * Propagate the uses and defines of a nested DPJ construct to the
+     * enclosing construct
+     */
+    private void propagate(JCTree oldEnclosure, Set<VarSymbol> externalUses,
+			   Set<VarSymbol> externalDefines) {
+	if(oldEnclosure instanceof DPJCobegin) {
+	    ((DPJCobegin)oldEnclosure).usedVars[cobegin_index].addAll(externalUses);
+	    ((DPJCobegin)oldEnclosure).definedVars[cobegin_index].addAll(externalDefines);
+	}
+	else if(oldEnclosure instanceof DPJForLoop) {
+	    ((DPJForLoop)oldEnclosure).usedVars.addAll(externalUses);
+	    ((DPJForLoop)oldEnclosure).definedVars.addAll(externalDefines);
+	}
+	else if(oldEnclosure instanceof DPJAtomic) {
+	    ((DPJAtomic)oldEnclosure).usedVars.addAll(externalUses);
+	    ((DPJAtomic)oldEnclosure).definedVars.addAll(externalDefines);
+	}
+	else
+	    propagateToTask(oldEnclosure, externalUses, externalDefines);
+    }
+
+    /**
+     * Propagate the uses and defines of a nested DPJ construct to an
+     * enclosing spawn or finish
+     */
+    private void propagateToTask(JCTree oldEnclosure, Set<VarSymbol> externalUses,
+				 Set<VarSymbol> externalDefines) {
+	if(oldEnclosure instanceof DPJSpawn) {
+	    ((DPJSpawn)oldEnclosure).usedVars.addAll(externalUses);
+	    ((DPJSpawn)oldEnclosure).definedVars.addAll(externalDefines);
+	}
+	else if(oldEnclosure instanceof DPJFinish) {
+	    ((DPJFinish)oldEnclosure).usedVars.addAll(externalUses);
+	    ((DPJFinish)oldEnclosure).definedVars.addAll(externalDefines);
+	}
+    }
+
     public void visitTopLevel(JCCompilationUnit tree) {
         // Do nothing for TopLevel since each class is visited individually
     }
@@ -6,15 +6,20 @@ import java.util.ArrayList;
 
 import javax.lang.model.element.ElementKind;
 
+import com.sun.tools.javac.code.Attribute;
+import com.sun.tools.javac.code.Constraints;
+import com.sun.tools.javac.code.Effect;
 import com.sun.tools.javac.code.Effects;
 import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.code.RPL;
+import com.sun.tools.javac.code.RPLs;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symtab;
 import com.sun.tools.javac.code.Type;
 import com.sun.tools.javac.code.TypeTags;
 import com.sun.tools.javac.code.Types;
 import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
 import com.sun.tools.javac.code.Symbol.OperatorSymbol;
 import com.sun.tools.javac.code.Symbol.RegionParameterSymbol;
 import com.sun.tools.javac.code.Symbol.VarSymbol;
@@ -28,6 +33,7 @@ import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.tree.TreeScanner;
 import com.sun.tools.javac.tree.TreeTranslator;
 import com.sun.tools.javac.tree.JCTree.DPJAtomic;
+import com.sun.tools.javac.tree.JCTree.DPJCobegin;
 import com.sun.tools.javac.tree.JCTree.DPJEffect;
 import com.sun.tools.javac.tree.JCTree.DPJForLoop;
 import com.sun.tools.javac.tree.JCTree.DPJNonint;
@@ -58,7 +64,9 @@ import com.sun.tools.javac.tree.JCTree.JCUnary;
 import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
 import com.sun.tools.javac.tree.JCTree.JCWhileLoop;
 import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.JCDiagnostic.DiagnosticPosition;
 import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Log;
 import com.sun.tools.javac.util.Name;
 import com.sun.tools.javac.util.Options;
@@ -84,12 +92,7 @@ public class InsertBarriers extends TreeTranslator {
     
     private static final String CONTEXT_CLASS = "Context";
     private static final String NONINT_CONTEXT_CLASS = "NonintContext";
-    private static final String ORG = "org";
-    private static final String DEUCE = "deuce";
-    private static final String TRANSACTION = "transaction";
     private static final String TRANSACTION_EXCEPTION = "TransactionException";
-    private static final String REFLECTION = "reflection";
-    private static final String ADDRESS_UTIL = "AddressUtil";
     private static final String STATIC_FIELD_BASE = "staticFieldBase";
     
     private static final String SUFFIX = "$DPJ_STM";
@@ -103,7 +106,7 @@ public class InsertBarriers extends TreeTranslator {
     // Mox number of times to retry a transaction
     private static final int max_retries = 10;
     
-    private static int nextAtomicBlockID = 1;
+    private int nextAtomicBlockID = 1;
     
     private Name dpjruntime;
     private Name contextDelegator;
@@ -120,13 +123,7 @@ public class InsertBarriers extends TreeTranslator {
     private Name clone;
     private Name contextClass;
     private Name nonintContextClass;
-    private Name org;
-    private Name deuce;
-    private Name transaction;
     private Name transactionException;
-    private Name reflection;
-    private Name addressUtil;
-    private Name staticFieldBase;
     private Name suffix;
     private Name tempVarPrefix;
     private Name contextVar;
@@ -152,13 +149,7 @@ public class InsertBarriers extends TreeTranslator {
 	clone = names.fromString(CLONE);
 	contextClass = names.fromString(CONTEXT_CLASS);
 	nonintContextClass = names.fromString(NONINT_CONTEXT_CLASS);
-	org = names.fromString(ORG);
-	deuce = names.fromString(DEUCE);
-	transaction = names.fromString(TRANSACTION);
 	transactionException = names.fromString(TRANSACTION_EXCEPTION);
-	reflection = names.fromString(REFLECTION);
-	addressUtil = names.fromString(ADDRESS_UTIL);
-	staticFieldBase = names.fromString(STATIC_FIELD_BASE);
 	suffix = names.fromString(SUFFIX);
 	tempVarPrefix = names.fromString(TEMP_VAR_PREFIX);
 	contextVar = names.fromString(CONTEXT_VAR);
@@ -202,6 +193,9 @@ public class InsertBarriers extends TreeTranslator {
     // (even in a nested nonint block)?
     private boolean inAtomic = false;
     
+    // The outermost atomic block we are generating the code for, if any
+    private DPJAtomic atomicBlock = null;
+    
     protected static final Context.Key<InsertBarriers> insertBarriersKey =
 	new Context.Key<InsertBarriers>();
 
@@ -221,6 +215,7 @@ public class InsertBarriers extends TreeTranslator {
     private Symtab syms;
     private Options options;
     private CheckEffects checkEffects;
+    private RPLs rpls;
     
     // Environment for symbol lookup
     Env<AttrContext> attrEnv;
@@ -259,6 +254,7 @@ public class InsertBarriers extends TreeTranslator {
 	syms = Symtab.instance(context);
 	options = Options.instance(context);
 	checkEffects = CheckEffects.instance(context);
+	rpls = RPLs.instance(context);
 	initNames();
 	//TODO: Set attrEnv (or remove it)
     }
@@ -341,7 +337,7 @@ public class InsertBarriers extends TreeTranslator {
 		selected = make.Ident(ident.sym.owner);
 		selected.type = ident.sym.owner.type;
 	    } else {
-		selected = make.Ident(names._this);
+		selected = make.This(enclClass.type);
 		selected.type = enclClass.type;
 	    }
 	    result = makeWriteAccessTree(ident,
@@ -401,15 +397,15 @@ public class InsertBarriers extends TreeTranslator {
 		selected = make.Ident(ident.sym.owner);
 		selected.type = ident.sym.owner.type;
 	    } else {
-		selected = make.Ident(names._this);
+		selected = make.This(enclClass.type);
 		selected.type = enclClass.type;
 	    }
 	    
 	    JCIdent identExp = (JCIdent)copy.copy(ident);
 	    identExp.rpl = ident.rpl;
 	    
-	    JCExpression binopExp = translate(
-		    make.Binary(op, identExp, make.Parens(tree.rhs)));
+	    JCExpression binopExp = makeNarrowingCast(ident.type, translate(
+		    make.Binary(op, identExp, make.Parens(tree.rhs))));
 	    
 	    result = makeWriteAccessTree(ident,
 		    null, selected, 
@@ -429,7 +425,8 @@ public class InsertBarriers extends TreeTranslator {
 	    
 	    result = makeWriteAccessTree(fieldAccess,
 		    temp1, fieldAccess.selected,
-		    translate(make.Binary(op, selectExp, make.Parens(tree.rhs))),
+		    makeNarrowingCast(fieldAccess.type,
+			    translate(make.Binary(op, selectExp, make.Parens(tree.rhs)))),
 		    fieldAccess.sym);
 	    break;
 	    
@@ -450,7 +447,8 @@ public class InsertBarriers extends TreeTranslator {
 	    result = makeArrayWriteAccessTree(arrayAccess,
 		    tempArr, arrayAccess.indexed,
 		    tempIdx, arrayAccess.index,
-		    translate(make.Binary(op, readExp, make.Parens(tree.rhs))));
+		    makeNarrowingCast(arrayAccess.type,
+			    translate(make.Binary(op, readExp, make.Parens(tree.rhs)))));
 	    break;
 	
 	case DONT_TRANSLATE:
@@ -488,13 +486,14 @@ public class InsertBarriers extends TreeTranslator {
 		selected = make.Ident(ident.sym.owner);
 		selected.type = ident.sym.owner.type;
 	    } else {
-		selected = make.Ident(names._this);
+		selected = make.This(enclClass.type);
 		selected.type = enclClass.type;
 	    }
 	    result = makeWriteAccessTree(ident,
 		    null, selected, 
 		    temp1, translate(ident),
-		    make.Binary(op, make.Ident(temp1), make.Literal(TypeTags.INT, 1)), 
+		    makeNarrowingCast(ident.type,
+			    make.Binary(op, make.Ident(temp1), make.Literal(TypeTags.INT, 1))), 
 		    ident.sym);
 	    break;
 	    
@@ -512,7 +511,8 @@ public class InsertBarriers extends TreeTranslator {
 	    result = makeWriteAccessTree(fieldAccess,
 		    temp1, fieldAccess.selected, 
 		    temp2, translate(val),
-		    make.Binary(op, make.Ident(temp2), make.Literal(TypeTags.INT, 1)), 
+		    makeNarrowingCast(fieldAccess.type,
+			    make.Binary(op, make.Ident(temp2), make.Literal(TypeTags.INT, 1))), 
 		    fieldAccess.sym);
 	    break;
 	    
@@ -536,7 +536,8 @@ public class InsertBarriers extends TreeTranslator {
 		    tempArr, arrayAccess.indexed,
 		    tempIdx, arrayAccess.index,
 		    tempVal, readExp,
-		    make.Binary(op, tempValId, make.Literal(TypeTags.INT, 1)));
+		    makeNarrowingCast(arrayAccess.type,
+			    make.Binary(op, tempValId, make.Literal(TypeTags.INT, 1))));
 	    break;
 	
 	case DONT_TRANSLATE:
@@ -606,7 +607,7 @@ public class InsertBarriers extends TreeTranslator {
     }
     
     private void visitIndexed_transactional(JCArrayAccess tree) {
-	if (isLogOnlyAccess(tree)) {
+	if (isLogOnlyAccess(tree, false)) {
 	    super.visitIndexed(tree);
 	    return;
 	}
@@ -630,7 +631,7 @@ public class InsertBarriers extends TreeTranslator {
     }
     
     private void visitSelect_transactional(JCFieldAccess tree) { 
-	if (!isTranslatableFieldAccess(tree) || isLogOnlyAccess(tree)) {
+	if (!isTranslatableFieldAccess(tree) || isLogOnlyAccess(tree, false)) {
 	    super.visitSelect(tree);
 	    return;
 	}
@@ -682,7 +683,7 @@ public class InsertBarriers extends TreeTranslator {
     
     private void visitIdent_transactional(JCIdent tree) {
 	// Figure out if this is a field access (of this) or not.
-	if (isTranslatableFieldSymbol(tree.sym) && !isLogOnlyAccess(tree)) {
+	if (isTranslatableFieldSymbol(tree.sym) && !isLogOnlyAccess(tree, false)) {
 	    result = makeThisFieldReadTree(tree, tree.sym);
 	} else {
 	    result = tree;
@@ -696,7 +697,7 @@ public class InsertBarriers extends TreeTranslator {
 	if ((sym.flags() & Flags.STATIC) != 0) {
 	    obj = make.Select(make.Ident(sym.owner), classBase);
 	} else {
-	    obj = make.Ident(names._this);
+	    obj = make.This(enclClass.type);
 	}
 	
 	return makeReadAccessTree(
@@ -761,8 +762,7 @@ public class InsertBarriers extends TreeTranslator {
      */
     private JCExpression makeContextDelegatorMethod(String name, Type type) {
 	JCExpression meth = make.Select(
-		make.Select(make.Select(make.Select(make.Ident(
-			org), deuce), transaction), contextDelegator),
+		make.Select(make.Ident(dpjruntime), contextDelegator),
 		names.fromString(name));
 	meth.setType(type);
 	return meth;
@@ -783,20 +783,12 @@ public class InsertBarriers extends TreeTranslator {
 	    				     Name varName1, JCExpression obj, 
 	    				     Name varName2, JCExpression oldValue,
 	    				     JCExpression value, Symbol field) {
-	if (isLogOnlyAccess(tree)) {
+	if (isLogOnlyAccess(tree, true)) {
 	    return makeWriteAccessTreeLogOnly(varName1, obj, varName2, oldValue, value, field);
 	}
 	
 	JCExpression meth = makeContextDelegatorMethod(ON_WRITE_ACCESS);
 	
-	if (varName1 == null && !(obj instanceof JCIdent)) {
-	    log.error("No object symbol for onWriteAccess call");
-	}
-	
-	Name objName = (varName1 != null) ?
-				varName1 :
-				((JCIdent)obj).name;
-
 	List<JCExpression> args = List.nil();
 	if ((field.flags() & Flags.STATIC) != 0) {
 	    // If this is a write to a static field, we put the argument for the classBase
@@ -815,7 +807,7 @@ public class InsertBarriers extends TreeTranslator {
 	    }
 	}
 	args = args.prepend(makeContextTree());
-	args = args.prepend(makeOffsetofTree(make.Ident(objName), field));
+	args = args.prepend(makeOffsetofTree(field.owner.type, field));
 	args = args.prepend(value);
 	if (oldValue != null)
 	    args = args.prepend(makeAssignOpt(varName2, oldValue));
@@ -831,14 +823,6 @@ public class InsertBarriers extends TreeTranslator {
 	JCExpression returnSecondValue = makeContextDelegatorMethod(RETURN_SECOND_VALUE);
 	List<JCExpression> args = List.nil();
 	
-	if (varName1 == null && !(obj instanceof JCIdent)) {
-	    log.error("No object symbol for onWriteAccess call");
-	}
-	
-	Name objName = (varName1 != null) ?
-		varName1 :
-		((JCIdent)obj).name;
-	
 	// Case 1: Corresponds to onWriteAccess(obj, value, field, context).  For non-static fields
 	
 	// Non - post-inc/dec case
@@ -851,7 +835,7 @@ public class InsertBarriers extends TreeTranslator {
 
 		args = args.append(makeAssignOpt(varName1, obj));
 		args = args.append(make.Select(make.Ident(varName1), field));
-		args = args.append(makeOffsetofTree(make.Ident(objName), field));
+		args = args.append(makeOffsetofTree(field.owner.type, field));
 		args = args.append(makeContextTree());
 		
 		JCMethodInvocation callExp = make.App(meth, args);
@@ -871,7 +855,7 @@ public class InsertBarriers extends TreeTranslator {
 		args = args.append(makeAssignOpt(varName1, obj));
 		args = args.append(make.Select(type, field));
 		args = args.append(newValue);
-		args = args.append(makeOffsetofTree(make.Ident(objName), field));
+		args = args.append(makeOffsetofTree(field.owner.type, field));
 		args = args.append(makeContextTree());
 		args = args.append(make.Select(type, classBase));
 		
@@ -882,20 +866,19 @@ public class InsertBarriers extends TreeTranslator {
 	
 	// Post-inc/dec case
 	else {
-	    int op = ((JCBinary)newValue).getTag(); //JCTree.PLUS for post-int, JCTree.MINUS for post-dec
+	    // newValue is "v2 +/- 1", cast back to the type of the field
 	    
 	    // Non-static field: case 3
 	    // "returnSecondValue(beforeWriteAccessLogOnly(obj, v2=oldValue, fieldOffset, context).f = v2 +/- 1, v2)"
 	    if((field.flags() & Flags.STATIC) == 0) {
 		args = args.append(makeAssignOpt(varName1, obj));
 		args = args.append(makeAssignOpt(varName2, oldValue));
-		args = args.append(makeOffsetofTree(make.Ident(objName), field));
+		args = args.append(makeOffsetofTree(field.owner.type, field));
 		args = args.append(makeContextTree());
 		JCMethodInvocation callExp = make.App(meth, args);
 		
 		JCExpression assignExp = make.Assign(
-			make.Select(callExp, field),
-			make.Binary(op, make.Ident(varName2), make.Literal(TypeTags.INT, 1)));
+			make.Select(callExp, field), newValue);
 		
 		List<JCExpression> args2 = List.nil();
 		args2 = args2.append(assignExp);
@@ -916,8 +899,8 @@ public class InsertBarriers extends TreeTranslator {
 		
 		args = args.append(makeAssignOpt(varName1, obj));
 		args = args.append(makeAssignOpt(varName2, oldValue));
-		args = args.append(make.Binary(op, make.Ident(varName2), make.Literal(TypeTags.INT, 1)));
-		args = args.append(makeOffsetofTree(make.Ident(objName), field));
+		args = args.append(newValue);
+		args = args.append(makeOffsetofTree(field.owner.type, field));
 		args = args.append(makeContextTree());
 		args = args.append(make.Select(type, classBase));
 		JCMethodInvocation callExp = make.App(meth, args);
@@ -949,7 +932,7 @@ public class InsertBarriers extends TreeTranslator {
 		  				  Name oldvalVarName, JCExpression oldValue,
 		  				  JCExpression value) {
 	JCExpression meth;
-	if (isLogOnlyAccess(tree)) {
+	if (isLogOnlyAccess(tree, true)) {
 	    meth = makeContextDelegatorMethod(ON_ARRAY_WRITE_ACCESS_LOG_ONLY);
 	} else {
 	    meth = makeContextDelegatorMethod(ON_ARRAY_WRITE_ACCESS);	
@@ -967,8 +950,9 @@ public class InsertBarriers extends TreeTranslator {
     }
     
     // Should be called with a tree representing a read or write operation.
-    // Returns true if this is an access that should be done in log-only mode (i.e. an access to a nonint location)
-    private boolean isLogOnlyAccess(JCExpressionWithRPL tree) {
+    // Returns true if this is an access that should be done in log-only mode (i.e. an access to a nonint location,
+    // or one that no concurrent transaction can touch)
+    private boolean isLogOnlyAccess(JCExpressionWithRPL tree, boolean isWrite) {
 	if (options.get("-disablenonintopt") != null)
 	    return false;
 	
@@ -978,12 +962,24 @@ public class InsertBarriers extends TreeTranslator {
 	
 	// TODO Does this work right for accesses in constructors?
 	if (tree.rpl.isAtomic()) {
-	    return false;
+	    return !needsBarrier(tree.rpl, isWrite);
 	} else {
 	    return true;
 	}
     }
     
+    // Does an access to rpl in the current atomic block need a barrier?
+    // See CheckEffects.setBarrierEffects.
+    private boolean needsBarrier(RPL rpl, boolean isWrite) {
+	if (atomicBlock == null || atomicBlock.barrierEffects == null)
+	    return true;
+	Effect effect = isWrite ?
+		new Effect.WriteEffect(rpls, rpl, true, false) :
+		new Effect.ReadEffect(rpls, rpl, true, false);
+	return !effect.isNoninterferingWith(atomicBlock.barrierEffects, 
+		new Constraints(), false);
+    }
+    
     private JCTree makeArrayReadAccessTree(JCExpression indexed, JCExpression index) {
 	JCExpression meth = makeContextDelegatorMethod(ON_ARRAY_READ_ACCESS);
 	
@@ -1028,6 +1024,20 @@ public class InsertBarriers extends TreeTranslator {
 	return retVal;
     }
     
+    /** Cast the value computed for a compound assignment, increment or
+     *  decrement back to the type of the location it is stored in, as
+     *  the operator did implicitly.  The barriers are overloaded on the
+     *  type of the value, so without the cast the barrier for a wider
+     *  type would be chosen, or none would apply.
+     */
+    private JCExpression makeNarrowingCast(Type type, JCExpression exp) {
+	if (!type.isPrimitive())
+	    return exp;
+	JCExpression cast = make.TypeCast(type, make.Parens(exp));
+	cast.type = type;
+	return cast;
+    }
+    
     /** Insert a new local variable of a given type in the current method, and return its name
      */
     private Name insertLocalVariable(Type type) {
@@ -1121,26 +1131,21 @@ public class InsertBarriers extends TreeTranslator {
 	    }
 	}
 	
+	if (!hasOtherVersions(tree.pos(), tree.getMethodSymbol())) {
+	    tree.args = translate(tree.args);
+	    result = tree;
+	    return;
+	}
+	
 	if (mode == Mode.TRANSACTIONAL) {
 	    contextExpr = make.Ident(contextVar);
 	} else if (mode == Mode.LOGGING_ONLY) {
 	    // Make the context parameter a NonintContext, so that we get the
 	    // logging-only version of the constructor, if available.
 	    contextExpr = make.TypeCast(
-		    make.Select(make.Select(make.Select(make.Ident(
-			    org), deuce), transaction), nonintContextClass),
+		    make.Select(make.Ident(dpjruntime), nonintContextClass),
 		    make.Ident(contextVar));   
 	} else if (mode == Mode.NONINTERFERING) {
-	    // Don't add NonintFlag parameter for calls to java.* and javax.* types.
-	    // This is conservative but safe with respect to subclassing of
-	    // standard library classes.
-	    // TODO actually determine which classes we are compiling, and use that
-	    String className = tree.getMethodSymbol().enclClass().toString();
-	    if (className.startsWith("java.") || className.startsWith("javax.")) {
-		result = tree;
-		return;
-	    }
-	    
 	    contextExpr = make.TypeCast(
 		    make.Select(make.Ident(dpjruntime), nonintFlagClass),
 		    make.Literal(TypeTags.BOT, null));
@@ -1158,26 +1163,18 @@ public class InsertBarriers extends TreeTranslator {
 	tree = (JCNewClass)result;
 	JCExpression contextExpr;
 	
+	if (!hasOtherVersions(tree.pos(), tree.constructor))
+	    return;
+	
 	if (mode == Mode.TRANSACTIONAL) {
 	    contextExpr = make.Ident(contextVar);
 	} else if (mode == Mode.LOGGING_ONLY) {
 	    // Make the context parameter a NonintContext, so that we get the
 	    // logging-only version of the constructor, if available.
 	    contextExpr = make.TypeCast(
-		    make.Select(make.Select(make.Select(make.Ident(
-			    org), deuce), transaction), nonintContextClass),
+		    make.Select(make.Ident(dpjruntime), nonintContextClass),
 		    make.Ident(contextVar));   
 	} else if (mode == Mode.NONINTERFERING) {
-	    // Don't add NonintFlag parameter for calls to java.* and javax.* types.
-	    // This is conservative but safe with respect to subclassing of
-	    // standard library classes.
-	    // TODO actually determine which classes we are compiling, and use that
-	    String className = tree.constructor.enclClass().toString();
-	    if (className.startsWith("java.") || className.startsWith("javax.")) {
-		result = tree;
-		return;
-	    }
-	    
 	    contextExpr = make.TypeCast(
 		    make.Select(make.Ident(dpjruntime), nonintFlagClass),
 		    make.Literal(TypeTags.BOT, null));
@@ -1191,6 +1188,40 @@ public class InsertBarriers extends TreeTranslator {
     }
     
     
+    /** Should a call in the current mode go to the version of the method
+     *  that takes the extra parameter?  Only methods annotated @Clone have
+     *  one.  A pure method can safely be called as it is; for any other
+     *  method, report that it needs the annotation.
+     *
+     *  Calls into java.*, javax.* and the DPJ runtime are left alone.
+     *  This is conservative but safe with respect to subclassing of
+     *  standard library classes.
+     */
+    // TODO actually determine which classes we are compiling, and use that
+    private boolean hasOtherVersions(DiagnosticPosition pos, Symbol sym) {
+	if (isLibraryMember(sym))
+	    return false;
+	for (Attribute.Compound a : sym.getAnnotationMirrors()) {
+	    if (a.type.tsym.name.equals(clone))
+		return true;
+	}
+	if (sym instanceof MethodSymbol) {
+	    Effects effects = ((MethodSymbol)sym).effects;
+	    if (effects != Effects.UNKNOWN && effects.isEmpty())
+		return false;
+	}
+	log.error(pos, "call.needs.clone", sym, sym.enclClass());
+	return false;
+    }
+    
+    /** Is sym a member of a class in java.*, javax.* or the DPJ runtime?
+     */
+    static boolean isLibraryMember(Symbol sym) {
+	String className = sym.enclClass().toString();
+	return className.startsWith("java.") || className.startsWith("javax.") ||
+		className.startsWith(DPJRUNTIME + ".");
+    }
+    
     /** Decide whether to translate this method, based on its annotations.
      *  Also reset numbering of temp variables
      */
@@ -1204,6 +1235,8 @@ public class InsertBarriers extends TreeTranslator {
 	nextVarIndex = 1;
 	boolean prevInAtomic = inAtomic;
 	inAtomic = false;
+	DPJAtomic prevAtomicBlock = atomicBlock;
+	atomicBlock = null;
 	
 	// Examine annotations to decide if method needs translation
 	if (hasCloneAnnotation(tree)) {
@@ -1224,15 +1257,13 @@ public class InsertBarriers extends TreeTranslator {
 	    super.visitMethodDef((JCMethodDecl)copy.copy(tree));
 	    JCMethodDecl noninterferingTree = (JCMethodDecl)result;
 	    
-	    // Don't mangle names, for compatibility with Deuce's bytecode rewriter
+	    // Don't mangle names:  the versions differ in the type of the
+	    // extra parameter, so calls pick the right one by overloading
 	    // TODO Can this create any problems?
 	    
 	    // Add context parameter to stm tree
 	    TypeSymbol tsym = new TypeSymbol(0, contextClass, Type.noType, 
-    				new PackageSymbol(transaction,
-    				new PackageSymbol(deuce, 
-    				new PackageSymbol(org,
-    				syms.unnamedPackage))));
+    				new PackageSymbol(dpjruntime, syms.unnamedPackage));
 	    Type contextType = new ClassType(Type.noType, List.<Type>nil(), 
             			List.<RPL>nil(), 
             			List.<Effects>nil(),  tsym,
@@ -1243,10 +1274,7 @@ public class InsertBarriers extends TreeTranslator {
 	    
 	    // Add context parameter to logging-only tree
 	    tsym = new TypeSymbol(0, nonintContextClass, Type.noType, 
-			new PackageSymbol(transaction,
-			new PackageSymbol(deuce, 
-			new PackageSymbol(org,
-			syms.unnamedPackage))));
+			new PackageSymbol(dpjruntime, syms.unnamedPackage));
 	    contextType = new ClassType(Type.noType, List.<Type>nil(), 
 			List.<RPL>nil(), 
 			List.<Effects>nil(),  tsym,
@@ -1275,6 +1303,7 @@ public class InsertBarriers extends TreeTranslator {
 	nextVarIndex = prevVarIndex;
 	enclMethod = prevEnclMethod;
 	inAtomic = prevInAtomic;
+	atomicBlock = prevAtomicBlock;
     }
 
     // TODO Deal with parameters to control generation of 4 versions
@@ -1291,8 +1320,12 @@ public class InsertBarriers extends TreeTranslator {
     }
     
     public void visitDPJForLoop(DPJForLoop tree) {
-	super.visitDPJForLoop(tree);
-	tree = (DPJForLoop)result;
+	tree.var = translate(tree.var);
+	tree.start = translate(tree.start);
+	tree.length = translate(tree.length);
+	tree.stride = translate(tree.stride);
+	tree.body = translateTask(tree.body);
+	result = tree;
 	
 	// Always include 'this' as a used var in foreach loops (in instance methods),
 	// because barrier insertion can create references to 'this'.
@@ -1305,6 +1338,35 @@ public class InsertBarriers extends TreeTranslator {
 	}
     }
 
+    /** Each statement of a cobegin runs as its own task, so it keeps
+     *  its temp variables; they must not become statements of the
+     *  cobegin.
+     */
+    @Override
+    public void visitCobegin(DPJCobegin tree) {
+	JCBlock body = (JCBlock)tree.body;
+	ListBuffer<JCStatement> stats = new ListBuffer<JCStatement>();
+	for (JCStatement stat : body.stats)
+	    stats.append(translateTask(stat));
+	body.stats = stats.toList();
+	result = tree;
+    }
+
+    /** Translate a statement that runs as a task, the body of a foreach
+     *  or a statement of a cobegin.  If it needs temp variables and is
+     *  not a block, wrap it in a block declaring them, so that they are
+     *  not shared between tasks.
+     */
+    private JCStatement translateTask(JCStatement tree) {
+	List<JCStatement> prevStats = newStats;
+	newStats = List.nil();
+	JCStatement stat = translate(tree);
+	if (newStats.nonEmpty())
+	    stat = make.at(tree.pos).Block(0, newStats.reverse().append(stat));
+	newStats = prevStats;
+	return stat;
+    }
+
     /** Insert new temp variables at the top of the enclosing block
      */
     @Override
@@ -1347,6 +1409,8 @@ public class InsertBarriers extends TreeTranslator {
 	madeClassBase = false;
 	boolean prevInAtomic = inAtomic;
 	inAtomic = false;
+	DPJAtomic prevAtomicBlock = atomicBlock;
+	atomicBlock = null;
 	
 	tree.mods = translate(tree.mods);
 	tree.typarams = translateTypeParams(tree.typarams);
@@ -1358,6 +1422,7 @@ public class InsertBarriers extends TreeTranslator {
 	enclClass = prevEnclClass;
 	madeClassBase = prevMadeClassBase;
 	inAtomic = prevInAtomic;
+	atomicBlock = prevAtomicBlock;
     }
 
     /** Translate a list of definitions inside a class.  Allow one definition to
@@ -1443,9 +1508,7 @@ public class InsertBarriers extends TreeTranslator {
 	// If this is the first static field we have encountered in this class,
 	// use it to make the class_base field needed for transactional access to static fields
 	if (!madeClassBase && (tree.mods.flags & Flags.STATIC) != 0) {
-	    JCExpression meth = make.Select(make.Select(make.Select(make.Select(make.Ident(
-		    org), deuce), reflection), addressUtil), staticFieldBase);
-	    meth.setType(new Type(TypeTags.METHOD, null));
+	    JCExpression meth = makeContextDelegatorMethod(STATIC_FIELD_BASE);
 	    args = List.of(
 		    make.Select(make.Ident(enclClass.name), names._class),
 		    make.Literal(tree.name.toString()));
@@ -1486,7 +1549,9 @@ public class InsertBarriers extends TreeTranslator {
 	switch (mode) {
 	case NORMAL:
 	    inAtomic = true;
+	    atomicBlock = tree;
 	    result = makeAtomicBlock(tree);
+	    atomicBlock = null;
 	    inAtomic = false;
 	    break;
 	case NONINTERFERING:
@@ -1517,8 +1582,7 @@ public class InsertBarriers extends TreeTranslator {
 	Name n_returning = names.fromString("returning" + SUFFIX);
 	Name n_tryBlock = names.fromString(SUFFIX + "_try_block");
 	
-	JCExpression txExceptionClass = make.Select(make.Select(make.Select(make.Ident(
-		org), deuce), transaction), transactionException);
+	JCExpression txExceptionClass = make.Select(make.Ident(dpjruntime), transactionException);
 	
 	// List of new statements being generated
 	List<JCStatement> stats = List.nil();
@@ -1554,8 +1618,7 @@ public class InsertBarriers extends TreeTranslator {
 	// "final Context context = ContextDelegator.getInstance();"
 	stats = stats.append(
 		make.VarDef(make.Modifiers(Flags.FINAL), contextVar, null, 
-			make.Select(make.Select(make.Select(make.Ident(
-				org), deuce), transaction), contextClass), 
+			make.Select(make.Ident(dpjruntime), contextClass), 
 			make.App(makeContextDelegatorMethod(s_getInstance))));
 	// "boolean commit;"
 	stats = stats.append(
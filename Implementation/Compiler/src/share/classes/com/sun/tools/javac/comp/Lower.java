@@ -83,6 +83,12 @@ public class Lower extends TreeTranslator {
     private Types types;
     private boolean debugLower;
 
+    /** Should the DPJ statements be translated away?  Set by the compiler
+     *  for sequential code compiled to class files.  Otherwise they are
+     *  kept, for Pretty or for the tests that print the trees.
+     */
+    public boolean lowerDPJ = false;
+
     protected Lower(Context context) {
 	context.put(lowerKey, this);
 	names = Name.Table.instance(context);
@@ -2970,6 +2976,197 @@ public class Lower extends TreeTranslator {
 	    patchTargets(body, tree, result);
 	}
 
+    /** Translate away the DPJ foreach loop, running the iterations in
+     *  order.
+     */
+    public void visitDPJForLoop(DPJForLoop tree) {
+	if (!lowerDPJ)
+	    super.visitDPJForLoop(tree);
+	else if (tree.length == null)
+	    visitIteratorDPJForLoop(tree);
+	else
+	    visitIndexedDPJForLoop(tree);
+    }
+        // where
+        /**
+	 * A statement of the form
+	 *
+	 * <pre>
+	 *     foreach ( T v in start, length, stride ) stmt;
+	 * </pre>
+	 *
+	 * gets translated to
+	 *
+	 * <pre>
+	 *     for ( { T #start = start;
+	 *             int #len = length;
+	 *             T #stride = stride;
+	 *             int #i = 0; };
+	 *           #i < #len; ++#i ) {
+	 *         T v = #start + #i * #stride;
+	 *         stmt;
+	 *     }
+	 * </pre>
+	 *
+	 * where #start, #len, #stride and #i are freshly named synthetic
+	 * local variables.  Without a stride, v is #start + #i.  As in
+	 * parallel code, the bounds are evaluated once, before the first
+	 * iteration.
+	 */
+        private void visitIndexedDPJForLoop(DPJForLoop tree) {
+	    make_at(tree.start.pos());
+	    Type vartype = types.erasure(tree.var.sym.type);
+	    VarSymbol startcache = new VarSymbol(0,
+						 names.fromString("start" + target.syntheticNameChar()),
+						 vartype,
+						 currentMethodSym);
+	    JCStatement startcachedef = make.VarDef(startcache, tree.start);
+	    VarSymbol lencache = new VarSymbol(0,
+					       names.fromString("len" + target.syntheticNameChar()),
+					       syms.intType,
+					       currentMethodSym);
+	    JCStatement lencachedef = make.VarDef(lencache, tree.length);
+	    VarSymbol index = new VarSymbol(0,
+					    names.fromString("i" + target.syntheticNameChar()),
+					    syms.intType,
+					    currentMethodSym);
+	    JCVariableDecl indexdef = make.VarDef(index, make.Literal(INT, 0));
+	    indexdef.init.type = indexdef.type = syms.intType.constType(0);
+
+	    JCExpression offset = make.Ident(index);
+	    List<JCStatement> loopinit = List.of(startcachedef, lencachedef);
+	    if (tree.stride != null) {
+		VarSymbol stridecache = new VarSymbol(0,
+						      names.fromString("stride" + target.syntheticNameChar()),
+						      vartype,
+						      currentMethodSym);
+		loopinit = loopinit.append(make.VarDef(stridecache, tree.stride));
+		offset = makeBinary(JCTree.MUL, offset, make.Ident(stridecache));
+	    }
+	    loopinit = loopinit.append(indexdef);
+	    JCBinary cond = makeBinary(JCTree.LT, make.Ident(index), make.Ident(lencache));
+
+	    JCExpressionStatement step = make.Exec(makeUnary(JCTree.PREINC, make.Ident(index)));
+
+	    JCStatement loopvarinit = make.
+		VarDef(tree.var.sym,
+		       makeBinary(JCTree.PLUS, make.Ident(startcache), offset));
+	    JCBlock body = make.
+		Block(0, List.of(loopvarinit, tree.body));
+
+	    result = translate(make.
+			       ForLoop(loopinit,
+				       cond,
+				       List.of(step),
+				       body));
+	}
+	/**
+	 * A statement of the form
+	 *
+	 * <pre>
+	 *     foreach ( T v in it ) stmt;
+	 * </pre>
+	 *
+	 * (where it is a DPJRuntime.DPJIterator) gets translated to
+	 *
+	 * <pre>
+	 *     for ( { DPJIterator #it = it; DPJIterator.Status #s; };
+	 *           (#s = #it.next()).hasElement(); ) {
+	 *         T v = (T) #s.getElement();
+	 *         stmt;
+	 *     }
+	 * </pre>
+	 *
+	 * where #it and #s are freshly named synthetic local variables.
+	 */
+        private void visitIteratorDPJForLoop(DPJForLoop tree) {
+	    make_at(tree.start.pos());
+	    VarSymbol itvar = new VarSymbol(0, names.fromString("it" + target.syntheticNameChar()),
+					    types.erasure(tree.start.type),
+					    currentMethodSym);
+	    JCStatement init = make.VarDef(itvar, tree.start);
+	    Symbol next = lookupMethod(tree.start.pos(),
+				       names.next,
+				       itvar.type,
+				       List.<Type>nil());
+	    VarSymbol status = new VarSymbol(0, names.fromString("s" + target.syntheticNameChar()),
+					     types.erasure(next.type.getReturnType()),
+					     currentMethodSym);
+	    JCStatement statusdef = make.VarDef(status, null);
+	    Symbol hasElement = lookupMethod(tree.start.pos(),
+					     names.fromString("hasElement"),
+					     status.type,
+					     List.<Type>nil());
+	    JCExpression advance = make.Assign(make.Ident(status),
+					       make.App(make.Select(make.Ident(itvar), next)))
+		.setType(status.type);
+	    JCMethodInvocation cond = make.App(make.Select(advance, hasElement));
+	    Symbol getElement = lookupMethod(tree.start.pos(),
+					     names.fromString("getElement"),
+					     status.type,
+					     List.<Type>nil());
+	    Type vartype = types.erasure(tree.var.sym.type);
+	    Type elemtype = vartype.isPrimitive() ?
+		types.boxedClass(vartype).type : vartype;
+	    JCExpression vardefinit = make.App(make.Select(make.Ident(status), getElement));
+	    if (elemtype != syms.objectType)
+		vardefinit = make.TypeCast(elemtype, vardefinit);
+	    JCVariableDecl vardef = make.VarDef(tree.var.sym, vardefinit);
+	    JCBlock body = make.Block(0, List.of(vardef, tree.body));
+	    result = translate(make.
+		ForLoop(List.of(init, statusdef),
+			cond,
+			List.<JCExpressionStatement>nil(),
+			body));
+	}
+
+    /** A cobegin runs its statements in order in sequential code.
+     */
+    public void visitCobegin(DPJCobegin tree) {
+	if (!lowerDPJ)
+	    super.visitCobegin(tree);
+	else
+	    result = translate(tree.body);
+    }
+
+    public void visitSpawn(DPJSpawn tree) {
+	if (!lowerDPJ)
+	    super.visitSpawn(tree);
+	else
+	    result = translate(tree.body);
+    }
+
+    public void visitFinish(DPJFinish tree) {
+	if (!lowerDPJ)
+	    super.visitFinish(tree);
+	else
+	    result = translate(tree.body);
+    }
+
+    public void visitAtomic(DPJAtomic tree) {
+	if (!lowerDPJ)
+	    super.visitAtomic(tree);
+	else
+	    result = translate(tree.body);
+    }
+
+    public void visitNonint(DPJNonint tree) {
+	if (!lowerDPJ)
+	    super.visitNonint(tree);
+	else
+	    result = translate(tree.body);
+    }
+
+    /** Region declarations generate no code.  Return an empty block, as
+     *  for an inner class, since they may be class members.
+     */
+    public void visitRegionDecl(DPJRegionDecl tree) {
+	if (!lowerDPJ)
+	    super.visitRegionDecl(tree);
+	else
+	    result = make_at(tree.pos()).Block(0, List.<JCStatement>nil());
+    }
+
     public void visitVarDef(JCVariableDecl tree) {
 	MethodSymbol oldMethodSym = currentMethodSym;
 	tree.mods = translate(tree.mods);
@@ -70,6 +70,9 @@ public class ClassReader extends ClassFile implements Completer {
 
     Annotate annotate;
 
+    /** The DPJ signatures read from class files */
+    DPJSignatures signatures;
+
     /** Switch: verbose output.
      */
     boolean verbose;
@@ -227,6 +230,7 @@ public class ClassReader extends ClassFile implements Completer {
 
         Options options = Options.instance(context);
         annotate = Annotate.instance(context);
+        signatures = DPJSignatures.instance(context);
         verbose        = options.get("-verbose")        != null;
         checkClassFile = options.get("-checkclassfile") != null;
         Source source = Source.instance(context);
@@ -371,14 +375,19 @@ public class ClassReader extends ClassFile implements Completer {
             }
             case CONSTANT_Class:
             case CONSTANT_String:
+            case CONSTANT_MethodType:
                 bp = bp + 2;
                 break;
+            case CONSTANT_MethodHandle:
+                bp = bp + 3;
+                break;
             case CONSTANT_Fieldref:
             case CONSTANT_Methodref:
             case CONSTANT_InterfaceMethodref:
             case CONSTANT_NameandType:
             case CONSTANT_Integer:
             case CONSTANT_Float:
+            case CONSTANT_InvokeDynamic:
                 bp = bp + 4;
                 break;
             case CONSTANT_Long:
@@ -866,6 +875,10 @@ public class ClassReader extends ClassFile implements Completer {
             sym.flags_field |= BRIDGE;
             if (!allowGenerics)
                 sym.flags_field &= ~SYNTHETIC;
+        } else if (attrName == names.DPJSignature) {
+            String sig = readName(nextChar()).toString();
+            if (signatures.readSignatures)
+                annotate.later(new DPJSignatureCompleter(sym, sig));
         } else if (attrName == names.Deprecated) {
             sym.flags_field |= DEPRECATED;
         } else if (attrName == names.Varargs) {
@@ -1053,6 +1066,12 @@ public class ClassReader extends ClassFile implements Completer {
             c.sourcefile = new SourceFileObject(n);
         } else if (attrName == names.InnerClasses) {
             readInnerClasses(c);
+        } else if (attrName == names.DPJSignature) {
+            String sig = readName(nextChar()).toString();
+            if (signatures.readSignatures) {
+                signatures.enterClass(c, sig);
+                annotate.later(new DPJSignatureCompleter(c, sig));
+            }
         } else if (allowGenerics && attrName == names.Signature) {
             readingClassAttr = true;
             try {
@@ -1441,6 +1460,24 @@ public class ClassReader extends ClassFile implements Completer {
         }
     }
 
+    /** Applies a DPJ signature once the class it belongs to has been read.
+     */
+    class DPJSignatureCompleter implements Annotate.Annotator {
+        final Symbol sym;
+        final String sig;
+        public String toString() {
+            return " ClassReader DPJ signature for " + sym.owner + "." + sym + " is " + sig;
+        }
+        DPJSignatureCompleter(Symbol sym, String sig) {
+            this.sym = sym;
+            this.sig = sig;
+        }
+        // implement Annotate.Annotator.enterAnnotation()
+        public void enterAnnotation() {
+            signatures.complete(sym, sig);
+        }
+    }
+
     class AnnotationCompleter extends AnnotationDeproxy implements Annotate.Annotator {
         final Symbol sym;
         final List<CompoundAnnotationProxy> l;
@@ -104,6 +104,9 @@ public class ClassWriter extends ClassFile {
     /** Type utilities. */
     private Types types;
 
+    /** The DPJ signatures to write, if any. */
+    private DPJSignatures signatures;
+
     /** The initial sizes of the data and constant pool buffers.
      *  sizes are increased when buffers get full.
      */
@@ -172,6 +175,7 @@ public class ClassWriter extends ClassFile {
         target = Target.instance(context);
         source = Source.instance(context);
         types = Types.instance(context);
+        signatures = DPJSignatures.instance(context);
         fileManager = context.get(JavaFileManager.class);
 
         verbose        = options.get("-verbose")     != null;
@@ -671,9 +675,22 @@ public class ClassWriter extends ClassFile {
             acount++;
         }
         acount += writeJavaAnnotations(sym.getAnnotationMirrors());
+        acount += writeDPJSignature(sym);
         return acount;
     }
 
+    /** Write the DPJ signature of a class, field or method, if one was
+     *  recorded; return number of attributes written.
+     */
+    int writeDPJSignature(Symbol sym) {
+        String sig = signatures.lookup(sym);
+        if (sig == null) return 0;
+        int alenIdx = writeAttr(names.DPJSignature);
+        databuf.appendChar(pool.put(names.fromString(sig)));
+        endAttr(alenIdx);
+        return 1;
+    }
+
     /** Write method parameter annotations;
      *  return number of attributes written.
      */
@@ -1512,6 +1529,8 @@ public class ClassWriter extends ClassFile {
             case MTH: if ((e.sym.flags() & HYPOTHETICAL) == 0) methodsCount++;
                       break;
             case TYP: enterInner((ClassSymbol)e.sym); break;
+            // DPJ regions are not class file members
+            case RPL_ELT: break;
             default : assert false;
             }
         }
@@ -1573,6 +1592,7 @@ public class ClassWriter extends ClassFile {
         acount += writeFlagAttrs(c.flags());
         acount += writeJavaAnnotations(c.getAnnotationMirrors());
         acount += writeEnclosingMethodAttribute(c);
+        acount += writeDPJSignature(c);
 
         poolbuf.appendInt(JAVA_MAGIC);
         poolbuf.appendChar(target.minorVersion);
@@ -0,0 +1,1052 @@
+package com.sun.tools.javac.jvm;
+
+import static com.sun.tools.javac.code.Flags.AccessFlags;
+import static com.sun.tools.javac.code.Flags.ARRAYCLASS;
+import static com.sun.tools.javac.code.Flags.DPJStandardFlags;
+import static com.sun.tools.javac.code.Flags.FINAL;
+import static com.sun.tools.javac.code.Flags.HASINIT;
+import static com.sun.tools.javac.code.Flags.INTERFACE;
+import static com.sun.tools.javac.code.Flags.ISCOMMUTATIVE;
+import static com.sun.tools.javac.code.Flags.STATIC;
+import static com.sun.tools.javac.code.Kinds.MTH;
+import static com.sun.tools.javac.code.Kinds.RPL_ELT;
+import static com.sun.tools.javac.code.Kinds.TYP;
+import static com.sun.tools.javac.code.Kinds.VAR;
+import static com.sun.tools.javac.code.TypeTags.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.sun.tools.javac.code.BoundKind;
+import com.sun.tools.javac.code.Constraints;
+import com.sun.tools.javac.code.Effect;
+import com.sun.tools.javac.code.Effects;
+import com.sun.tools.javac.code.RPL;
+import com.sun.tools.javac.code.RPLElement;
+import com.sun.tools.javac.code.RPLs;
+import com.sun.tools.javac.code.Scope;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.code.Effect.CapturedEffect;
+import com.sun.tools.javac.code.Effect.InvocationEffect;
+import com.sun.tools.javac.code.Effect.ReadEffect;
+import com.sun.tools.javac.code.Effect.VariableEffect;
+import com.sun.tools.javac.code.Effect.WriteEffect;
+import com.sun.tools.javac.code.RPLElement.ArrayIndexRPLElement;
+import com.sun.tools.javac.code.RPLElement.NameRPLElement;
+import com.sun.tools.javac.code.RPLElement.RPLParameterElement;
+import com.sun.tools.javac.code.RPLElement.UndetRPLParameterElement;
+import com.sun.tools.javac.code.RPLElement.VarRPLElement;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.EffectParameterSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.RegionNameSymbol;
+import com.sun.tools.javac.code.Symbol.RegionParameterSymbol;
+import com.sun.tools.javac.code.Symbol.VarSymbol;
+import com.sun.tools.javac.code.Type.ArrayType;
+import com.sun.tools.javac.code.Type.CapturedType;
+import com.sun.tools.javac.code.Type.ClassType;
+import com.sun.tools.javac.code.Type.ForAll;
+import com.sun.tools.javac.code.Type.MethodType;
+import com.sun.tools.javac.code.Type.WildcardType;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.JCTree.DPJNegationExpression;
+import com.sun.tools.javac.tree.JCTree.JCExpression;
+import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCLiteral;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Pair;
+
+/**
+ * The DPJ part of class, field and method signatures, as stored in the
+ * {@code DPJSignature} attribute of class files.
+ *
+ * <p>The Java code that dpjc generates is erased, so the class files
+ * compiled from it know nothing about region parameters, region names,
+ * the regions of fields, DPJ types or method effects.  When the
+ * generated code is compiled to class files (option {@code -bytecode}),
+ * the signatures of the DPJ classes are recorded here and written by
+ * the class writer of the nested Java compilation, or by that of dpjc
+ * itself when sequential code is lowered for Gen.  When compiling DPJ
+ * code, the class reader decodes them again, so DPJ code can be
+ * compiled against DPJ libraries available only as class files.
+ *
+ * <p>The signatures are strings.  An RPL is written as its elements in
+ * parentheses, e.g. {@code (RNDPJRuntime.Foo:A;*)} for {@code Root:Foo.A:*}.
+ *
+ * <p>The encoding is lossy.  A class read back from its class file may
+ * have a less precise signature than it had in the source, but never
+ * a more precise one, so code checked against the class file is
+ * checked at least as strictly as against the source.  What is lost:
+ *
+ * <ul>
+ * <li>An array index element is kept if it is an integer literal, a
+ *     method parameter, an array index variable or the negation of
+ *     one of these.  Any other index expression, e.g. {@code [i + 1]},
+ *     is read back as {@code [?]}.
+ * <li>RPL elements that cannot be named outside their declarations
+ *     (local regions, final local variables other than method
+ *     parameters, capture parameters) cannot be written.  An effect
+ *     containing one is widened to {@code writes Root:*}, and the
+ *     region of a field to {@code Root:*}.  A disjointness constraint
+ *     containing one is dropped.  A type containing one, and any type
+ *     the encoder cannot write, e.g. a captured type variable, is read
+ *     as the erased Java type.
+ * <li>A type variable is written by name only, so its bound is the
+ *     bound of the Java signature:  the region and effect arguments
+ *     of the bound are lost, e.g. {@code T extends Cell<R>} is read
+ *     back as {@code T extends Cell}.
+ * <li>An invocation effect is written as the effects of the invoked
+ *     method, and a captured effect as its upper bound.
+ * <li>Only top level and member classes are recorded.  Local and
+ *     anonymous classes, which no other compilation unit can name,
+ *     are read with their erased Java signatures.
+ * </ul>
+ *
+ * <p>The declared signatures of the source can only name region
+ * parameters, region names, method parameters and index variables,
+ * so in practice only the first and third losses occur; the others
+ * are fallbacks that keep the encoding sound.
+ */
+public class DPJSignatures {
+    protected static final Context.Key<DPJSignatures> dpjSignaturesKey =
+	new Context.Key<DPJSignatures>();
+
+    public static DPJSignatures instance(Context context) {
+	DPJSignatures instance = context.get(dpjSignaturesKey);
+	if (instance == null)
+	    instance = new DPJSignatures(context);
+	return instance;
+    }
+
+    private final Context context;
+    private final Name.Table names;
+    private Symtab syms;
+    private Types types;
+    private RPLs rpls;
+    private TreeMaker make;
+    private ClassReader reader;
+
+    /** Should signatures read from class files be applied to the symbols?
+     *  Set for DPJ compilations only; the erased code compiled by plain
+     *  javac must see the erased signatures.
+     */
+    public boolean readSignatures = false;
+
+    /** Recorded signatures, keyed by class, field and method; see key(Symbol)
+     */
+    private final Map<String,String> table = new HashMap<String,String>();
+
+    protected DPJSignatures(Context context) {
+	context.put(dpjSignaturesKey, this);
+	this.context = context;
+	names = Name.Table.instance(context);
+    }
+
+    /** The other components are looked up lazily, because the class
+     *  reader needs this one while it is being constructed.
+     */
+    private void init() {
+	if (syms != null) return;
+	syms = Symtab.instance(context);
+	types = Types.instance(context);
+	rpls = RPLs.instance(context);
+	make = TreeMaker.instance(context);
+	reader = ClassReader.instance(context);
+    }
+
+    /** Thrown when part of a signature cannot be written or read
+     */
+    private static class BadSignature extends RuntimeException {
+	private static final long serialVersionUID = 0;
+    }
+
+/* ********************************************************************
+ * Recording and lookup
+ *********************************************************************/
+
+    /** Record the signatures of a DPJ class, its fields and methods
+     *  and its member classes.
+     */
+    public void record(ClassSymbol c) {
+	init();
+	collect(c, table, false);
+    }
+
+    /** The signatures of a class, its members and its member classes,
+     *  with their flags, as one string.  Two compilations of a class have
+     *  the same summary iff code compiled against one can be checked
+     *  against the other; see main.EffectSummaryCache.
+     */
+    public String summary(ClassSymbol c) {
+	init();
+	Map<String,String> sigs = new TreeMap<String,String>();
+	collect(c, sigs, true);
+	StringBuilder sb = new StringBuilder();
+	for (Map.Entry<String,String> e : sigs.entrySet())
+	    sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+	return sb.toString();
+    }
+
+    private static String flags(Symbol sym) {
+	return Long.toHexString(sym.flags() & DPJStandardFlags) + " ";
+    }
+
+    private void collect(ClassSymbol c, Map<String,String> sigs,
+	    boolean withFlags) {
+	String sig = new Encoder(c, null).classSig();
+	sigs.put(key(c), withFlags ? flags(c) + sig : sig);
+	for (Scope.Entry e = c.members().elems; e != null; e = e.sibling) {
+	    switch (e.sym.kind) {
+	    case VAR:
+		sig = new Encoder(c, null).fieldSig((VarSymbol) e.sym);
+		break;
+	    case MTH:
+		sig = new Encoder(c, (MethodSymbol) e.sym).methodSig();
+		break;
+	    case TYP:
+		collect((ClassSymbol) e.sym, sigs, withFlags);
+		continue;
+	    default:
+		continue;
+	    }
+	    sigs.put(key(e.sym), withFlags ? flags(e.sym) + sig : sig);
+	}
+    }
+
+    /** Copy the signatures recorded by another compilation
+     */
+    public void putAll(DPJSignatures other) {
+	table.putAll(other.table);
+    }
+
+    /** The recorded signature for a class, field or method, or null
+     */
+    public String lookup(Symbol sym) {
+	if (table.isEmpty()) return null;
+	init();
+	return table.get(key(sym));
+    }
+
+    /** The key of a class, field or method.  Methods are identified by
+     *  their erased parameter types, with array classes translated to
+     *  Java arrays as in the generated code.
+     */
+    private String key(Symbol sym) {
+	switch (sym.kind) {
+	case TYP:
+	    return ((ClassSymbol) sym).flatname.toString();
+	case VAR:
+	    return key(sym.owner) + "#" + sym.name;
+	default:
+	    StringBuilder sb = new StringBuilder(key(sym.owner));
+	    sb.append('#').append(sym.name).append('(');
+	    for (Type t : sym.type.getParameterTypes())
+		sb.append(keyName(t)).append(',');
+	    return sb.append(')').toString();
+	}
+    }
+
+    private String keyName(Type t) {
+	switch (t.tag) {
+	case ARRAY:
+	    return keyName(((ArrayType) t).elemtype) + "[]";
+	case CLASS:
+	    Type cellType = t.getCellType();
+	    if (cellType == null) cellType = t.tsym.type.getCellType();
+	    if (cellType != null)
+		return keyName(cellType) + "[]";
+	    return ((ClassSymbol) t.tsym).flatname.toString();
+	case TYPEVAR:
+	    return keyName(types.erasure(t));
+	default:
+	    return t.tsym.name.toString();
+	}
+    }
+
+/* ********************************************************************
+ * Encoding
+ *********************************************************************/
+
+    /**
+     * Writes the signature of a class or one of its members.  The
+     * formats are
+     *
+     * <pre>
+     * ClassSig  = Flags '|' Params '&lt;' ( ['!'] AccessFlags ':' Ident ';' )* '&gt;'
+     *             Constraints TypeOrDot '&lt;' TypeOrDot* '&gt;'
+     * FieldSig  = ( RPL | '-' ) TypeOrDot
+     * MethodSig = Flags '|' ( '-' | Params Constraints ) Effects
+     *             '(' TypeOrDot* ')' TypeOrDot
+     * Params    = '&lt;' ( ['!'] Ident ';' )* '&gt;' '&lt;' ( Ident ';' )* '&gt;'
+     * </pre>
+     *
+     * where '.' in place of a type means the erased Java type is right.
+     */
+    private class Encoder {
+	final StringBuilder sb = new StringBuilder();
+	final ClassSymbol clazz;
+	final MethodSymbol meth;
+	List<VarSymbol> indexVars = List.nil();
+
+	Encoder(ClassSymbol clazz, MethodSymbol meth) {
+	    this.clazz = clazz;
+	    this.meth = meth;
+	}
+
+	String classSig() {
+	    ClassType ct = (ClassType) clazz.type;
+	    if ((clazz.flags() & ARRAYCLASS) != 0) sb.append('a');
+	    sb.append('|');
+	    params(ct.getRPLArguments(), ct.getEffectArguments());
+	    sb.append('<');
+	    for (Scope.Entry e = clazz.members().elems; e != null; e = e.sibling) {
+		if (e.sym instanceof RegionNameSymbol) {
+		    if (((RegionNameSymbol) e.sym).isAtomic) sb.append('!');
+		    sb.append(e.sym.flags() & AccessFlags).append(':');
+		    sb.append(e.sym.name).append(';');
+		}
+	    }
+	    sb.append('>');
+	    constraints(clazz.constraints);
+	    typeOrDot(ct.supertype_field);
+	    sb.append('<');
+	    if (ct.interfaces_field != null) {
+		for (Type t : ct.interfaces_field)
+		    typeOrDot(t);
+	    }
+	    sb.append('>');
+	    return sb.toString();
+	}
+
+	String fieldSig(VarSymbol v) {
+	    if (v.rpl == null) {
+		sb.append('-');
+	    } else {
+		int start = sb.length();
+		try {
+		    rpl(v.rpl);
+		} catch (BadSignature e) {
+		    sb.setLength(start);
+		    sb.append("(R*)");
+		}
+	    }
+	    typeOrDot(v.type);
+	    return sb.toString();
+	}
+
+	String methodSig() {
+	    if ((meth.flags() & ISCOMMUTATIVE) != 0) sb.append('c');
+	    sb.append('|');
+	    Type mtype = meth.type;
+	    if (meth.rgnParams == null) {
+		sb.append('-');
+	    } else {
+		List<Effects> effectparams = (meth.effectparams == null) ?
+			List.<Effects>nil() : meth.effectparams;
+		params(meth.rgnParams, effectparams);
+		constraints(meth.constraints);
+	    }
+	    effects(meth.effects);
+	    sb.append('(');
+	    for (Type t : mtype.getParameterTypes())
+		typeOrDot(t);
+	    sb.append(')');
+	    typeOrDot(mtype.getReturnType());
+	    return sb.toString();
+	}
+
+	void params(List<RPL> rplparams, List<Effects> effectparams) {
+	    sb.append('<');
+	    for (RPL rpl : rplparams) {
+		RegionParameterSymbol sym =
+		    ((RPLParameterElement) rpl.elts.head).sym;
+		if (sym.isAtomic) sb.append('!');
+		sb.append(sym.name).append(';');
+	    }
+	    sb.append("><");
+	    for (Effects effects : effectparams) {
+		sb.append(effects.asVariableEffect().sym.name).append(';');
+	    }
+	    sb.append('>');
+	}
+
+	void constraints(Constraints constraints) {
+	    sb.append('<');
+	    if (constraints != null) {
+		for (Pair<RPL,RPL> pair : constraints.disjointRPLs) {
+		    int start = sb.length();
+		    try {
+			rpl(pair.fst);
+			rpl(pair.snd);
+		    } catch (BadSignature e) {
+			sb.setLength(start);
+		    }
+		}
+	    }
+	    sb.append("><");
+	    if (constraints != null) {
+		for (Pair<Effects,Effects> pair : constraints.noninterferingEffects) {
+		    effects(pair.fst);
+		    effects(pair.snd);
+		}
+	    }
+	    sb.append('>');
+	}
+
+	void typeOrDot(Type t) {
+	    int start = sb.length();
+	    try {
+		type(t);
+	    } catch (BadSignature e) {
+		sb.setLength(start);
+		sb.append('.');
+	    }
+	}
+
+	void type(Type t) {
+	    switch (t.tag) {
+	    case BYTE: sb.append('B'); break;
+	    case CHAR: sb.append('C'); break;
+	    case SHORT: sb.append('S'); break;
+	    case INT: sb.append('I'); break;
+	    case LONG: sb.append('J'); break;
+	    case FLOAT: sb.append('F'); break;
+	    case DOUBLE: sb.append('D'); break;
+	    case BOOLEAN: sb.append('Z'); break;
+	    case VOID: sb.append('V'); break;
+	    case CLASS:
+		sb.append('L').append(((ClassSymbol) t.tsym).flatname).append(";<");
+		for (Type arg : t.getTypeArguments())
+		    type(arg);
+		sb.append("><");
+		for (RPL rpl : t.getRPLArguments())
+		    rpl(rpl);
+		sb.append("><");
+		for (Effects effects : t.getEffectArguments())
+		    effects(effects);
+		sb.append('>');
+		break;
+	    case ARRAY:
+		ArrayType at = (ArrayType) t;
+		sb.append('A');
+		if (at.indexVar != null) {
+		    sb.append('#').append(at.indexVar.name).append(';');
+		    indexVars = indexVars.prepend(at.indexVar);
+		}
+		try {
+		    rpl(at.rpl);
+		    type(at.elemtype);
+		} finally {
+		    if (at.indexVar != null) indexVars = indexVars.tail;
+		}
+		break;
+	    case TYPEVAR:
+		if (t instanceof CapturedType) throw new BadSignature();
+		sb.append('T').append(t.tsym.name).append(';');
+		break;
+	    case WILDCARD:
+		WildcardType wt = (WildcardType) t;
+		sb.append('W');
+		switch (wt.kind) {
+		case UNBOUND: sb.append('*'); break;
+		case EXTENDS: sb.append('+'); type(wt.type); break;
+		case SUPER: sb.append('-'); type(wt.type); break;
+		}
+		break;
+	    default:
+		throw new BadSignature();
+	    }
+	}
+
+	void rpl(RPL rpl) {
+	    sb.append('(');
+	    for (RPLElement elt : rpl.elts)
+		rplElement(elt);
+	    sb.append(')');
+	}
+
+	void rplElement(RPLElement elt) {
+	    if (elt == RPLElement.ROOT_ELEMENT) {
+		sb.append('R');
+	    } else if (elt == RPLElement.LOCAL_ELEMENT) {
+		sb.append('L');
+	    } else if (elt == RPLElement.STAR) {
+		sb.append('*');
+	    } else if (elt instanceof NameRPLElement) {
+		RegionNameSymbol sym = ((NameRPLElement) elt).sym;
+		if (sym.owner.kind != TYP) throw new BadSignature();
+		sb.append('N').append(((ClassSymbol) sym.owner).flatname)
+		  .append(':').append(sym.name).append(';');
+	    } else if (elt instanceof RPLParameterElement &&
+		    !(elt instanceof UndetRPLParameterElement)) {
+		sb.append('P').append(((RPLParameterElement) elt).sym.name)
+		  .append(';');
+	    } else if (elt instanceof VarRPLElement) {
+		VarSymbol vsym = ((VarRPLElement) elt).vsym;
+		if (vsym.name == names._this && vsym.owner.kind == TYP) {
+		    sb.append('t');
+		} else {
+		    param(vsym);
+		}
+	    } else if (elt instanceof ArrayIndexRPLElement) {
+		sb.append('[');
+		int start = sb.length();
+		try {
+		    index(((ArrayIndexRPLElement) elt).indexExp);
+		} catch (BadSignature e) {
+		    sb.setLength(start);
+		    sb.append('?');
+		}
+		sb.append(']');
+	    } else {
+		throw new BadSignature();
+	    }
+	}
+
+	void index(JCExpression exp) {
+	    if (exp == null) {
+		sb.append('?');
+	    } else if (exp instanceof JCLiteral &&
+		    ((JCLiteral) exp).getValue() instanceof Integer) {
+		sb.append('I').append(((JCLiteral) exp).getValue()).append(';');
+	    } else if (exp instanceof JCIdent &&
+		    ((JCIdent) exp).sym instanceof VarSymbol) {
+		variable((VarSymbol) ((JCIdent) exp).sym);
+	    } else if (exp instanceof DPJNegationExpression) {
+		sb.append('~');
+		variable(((DPJNegationExpression) exp).negatedExpr);
+	    } else {
+		throw new BadSignature();
+	    }
+	}
+
+	void variable(VarSymbol vsym) {
+	    if (indexVars.contains(vsym)) {
+		sb.append('x').append(vsym.name).append(';');
+	    } else {
+		param(vsym);
+	    }
+	}
+
+	void param(VarSymbol vsym) {
+	    if (meth != null && meth.params != null) {
+		int i = meth.params.indexOf(vsym);
+		if (i >= 0) {
+		    sb.append('p').append(i).append(';');
+		    return;
+		}
+	    }
+	    throw new BadSignature();
+	}
+
+	void effects(Effects effects) {
+	    if (effects == Effects.UNKNOWN) {
+		sb.append('?');
+		return;
+	    }
+	    // Effects are a set, iterated in no fixed order; write them
+	    // sorted, so the same effects always get the same signature
+	    Set<String> sorted = new TreeSet<String>();
+	    for (Effect e : effects)
+		effect(e, sorted);
+	    sb.append('{');
+	    for (String e : sorted)
+		sb.append(e);
+	    sb.append('}');
+	}
+
+	/** Add the encoding of an effect to out */
+	void effect(Effect e, Set<String> out) {
+	    if (e instanceof InvocationEffect) {
+		for (Effect we : ((InvocationEffect) e).withEffects)
+		    effect(we, out);
+		return;
+	    }
+	    if (e instanceof CapturedEffect) {
+		effect(((CapturedEffect) e).upperBound, out);
+		return;
+	    }
+	    int start = sb.length();
+	    try {
+		if (e instanceof VariableEffect) {
+		    sb.append('e').append(((VariableEffect) e).sym.name).append(';');
+		} else if (e instanceof ReadEffect || e instanceof WriteEffect) {
+		    sb.append(e instanceof ReadEffect ? 'r' : 'w');
+		    if (e.isAtomic()) sb.append('a');
+		    if (e.isNonint()) sb.append('n');
+		    rpl(e instanceof ReadEffect ?
+			    ((ReadEffect) e).rpl : ((WriteEffect) e).rpl);
+		} else {
+		    throw new BadSignature();
+		}
+	    } catch (BadSignature ex) {
+		sb.setLength(start);
+		sb.append("w(R*)");
+	    }
+	    out.add(sb.substring(start));
+	    sb.setLength(start);
+	}
+    }
+
+/* ********************************************************************
+ * Decoding
+ *********************************************************************/
+
+    /** Enter the parts of a class signature that other classes may need
+     *  while the class is being completed:  its flags, its region and
+     *  effect parameters and its region names.  The rest is entered
+     *  by complete, after the class has been read.
+     */
+    public void enterClass(ClassSymbol c, String sig) {
+	init();
+	Decoder d = new Decoder(sig, c, null);
+	try {
+	    boolean isArrayClass = d.flags().indexOf('a') >= 0;
+	    List<RPL> rplparams = d.rplParams(c);
+	    List<Effects> effectparams = d.effectParams(c);
+	    d.accept('<');
+	    ListBuffer<RegionNameSymbol> regions = ListBuffer.lb();
+	    while (!d.skip('>')) {
+		boolean isAtomic = d.skip('!');
+		long flags = Long.parseLong(d.upTo(':')) & AccessFlags;
+		regions.append(new RegionNameSymbol(STATIC | flags, d.name(), c, isAtomic));
+	    }
+	    if (isArrayClass) c.flags_field |= ARRAYCLASS;
+	    ClassType ct = (ClassType) c.type;
+	    ct.rplparams_field = rplparams;
+	    ct.effectparams_field = effectparams;
+	    for (RegionNameSymbol sym : regions)
+		c.members_field.enter(sym);
+	    if (c.thisSym == null && (c.flags_field & INTERFACE) == 0)
+		c.thisSym = new VarSymbol(FINAL | HASINIT, names._this, c.type, c);
+	} catch (BadSignature e) {
+	    // Leave the class as read from the Java signature
+	}
+    }
+
+    /** Apply the signature of a class, field or method, after its class
+     *  has been read.
+     */
+    public void complete(Symbol sym, String sig) {
+	init();
+	try {
+	    switch (sym.kind) {
+	    case TYP:
+		completeClass((ClassSymbol) sym, sig);
+		break;
+	    case VAR:
+		completeField((VarSymbol) sym, sig);
+		break;
+	    case MTH:
+		completeMethod((MethodSymbol) sym, sig);
+		break;
+	    }
+	} catch (BadSignature e) {
+	    // Leave the symbol as read from the Java signature
+	}
+    }
+
+    private void completeClass(ClassSymbol c, String sig) {
+	ClassType ct = (ClassType) c.type;
+	Decoder d = new Decoder(sig, c, null);
+	// Skip the part already entered by enterClass
+	d.flags();
+	d.accept('<'); while (!d.skip('>')) { d.skip('!'); d.name(); }
+	d.accept('<'); while (!d.skip('>')) d.name();
+	d.accept('<'); while (!d.skip('>')) { d.skip('!'); d.upTo(':'); d.name(); }
+	Constraints constraints = d.constraints();
+	Type supertype = d.typeOrDot();
+	ListBuffer<Type> interfaces = ListBuffer.lb();
+	d.accept('<');
+	while (!d.skip('>')) interfaces.append(d.typeOrDot());
+	c.constraints = constraints;
+	if (supertype != null) ct.supertype_field = supertype;
+	if (ct.interfaces_field != null &&
+		ct.interfaces_field.length() == interfaces.length()) {
+	    ListBuffer<Type> is = ListBuffer.lb();
+	    List<Type> javaTypes = ct.interfaces_field;
+	    for (Type t : interfaces) {
+		is.append(t != null ? t : javaTypes.head);
+		javaTypes = javaTypes.tail;
+	    }
+	    ct.interfaces_field = is.toList();
+	}
+    }
+
+    private void completeField(VarSymbol v, String sig) {
+	Decoder d = new Decoder(sig, v.enclClass(), null);
+	RPL rpl = d.skip('-') ? null : d.rpl();
+	Type type = d.typeOrDot();
+	v.rpl = rpl;
+	if (type != null) {
+	    // Keep the erasure of the Java type, which is what the class
+	    // file refers to
+	    v.erasure(types);
+	    v.type = type;
+	}
+    }
+
+    private void completeMethod(MethodSymbol m, String sig) {
+	Decoder d = new Decoder(sig, m.enclClass(), m);
+	boolean isCommutative = d.flags().indexOf('c') >= 0;
+	d.params = m.params();
+	List<RPL> rgnParams = null;
+	List<Effects> effectparams = List.nil();
+	Constraints constraints = null;
+	if (!d.skip('-')) {
+	    rgnParams = d.rplParams(m);
+	    effectparams = d.effectParams(m);
+	    d.methRPLParams = rgnParams;
+	    d.methEffectParams = effectparams;
+	    constraints = d.constraints();
+	}
+	Effects effects = d.effects();
+	ListBuffer<Type> argtypes = ListBuffer.lb();
+	d.accept('(');
+	while (!d.skip(')')) argtypes.append(d.typeOrDot());
+	Type restype = d.typeOrDot();
+
+	// Apply the DPJ types over the Java ones
+	MethodType javaType = m.type.asMethodType();
+	List<Type> tvars = m.type.getTypeArguments();
+	List<Type> javaArgs = javaType.argtypes;
+	ListBuffer<Type> args = ListBuffer.lb();
+	if (javaArgs.length() == argtypes.length()) {
+	    List<VarSymbol> params = m.params;
+	    for (Type t : argtypes) {
+		Type arg = (t != null) ? t : javaArgs.head;
+		args.append(arg);
+		if (params.nonEmpty()) {
+		    params.head.type = arg;
+		    params = params.tail;
+		}
+		javaArgs = javaArgs.tail;
+	    }
+	} else {
+	    args.appendList(javaArgs);
+	}
+	MethodType mtype = new MethodType(args.toList(),
+		(restype != null) ? restype : javaType.restype,
+		javaType.thrown, syms.methodClass);
+	List<RPL> rvars = (rgnParams == null) ? List.<RPL>nil() : rgnParams;
+	m.erasure(types);
+	m.type = (tvars.isEmpty() && rvars.isEmpty() && effectparams.isEmpty()) ?
+		mtype : new ForAll(tvars, rvars, effectparams, mtype);
+	if (isCommutative) m.flags_field |= ISCOMMUTATIVE;
+	m.rgnParams = rgnParams;
+	m.effectparams = effectparams;
+	m.constraints = constraints;
+	m.effects = effects;
+    }
+
+    /** Reads a signature written by Encoder
+     */
+    private class Decoder {
+	final String sig;
+	int pos = 0;
+	final ClassSymbol clazz;
+	final MethodSymbol meth;
+	List<VarSymbol> params = List.nil();
+	List<RPL> methRPLParams = List.nil();
+	List<Effects> methEffectParams = List.nil();
+	List<VarSymbol> indexVars = List.nil();
+
+	Decoder(String sig, ClassSymbol clazz, MethodSymbol meth) {
+	    this.sig = sig;
+	    this.clazz = clazz;
+	    this.meth = meth;
+	}
+
+	char next() {
+	    if (pos >= sig.length()) throw new BadSignature();
+	    return sig.charAt(pos++);
+	}
+
+	boolean skip(char c) {
+	    if (pos < sig.length() && sig.charAt(pos) == c) {
+		pos++;
+		return true;
+	    }
+	    return false;
+	}
+
+	void accept(char c) {
+	    if (next() != c) throw new BadSignature();
+	}
+
+	/** Read up to and including the next occurrence of c */
+	String upTo(char c) {
+	    int end = sig.indexOf(c, pos);
+	    if (end < 0) throw new BadSignature();
+	    String result = sig.substring(pos, end);
+	    pos = end + 1;
+	    return result;
+	}
+
+	Name name() {
+	    return names.fromString(upTo(';'));
+	}
+
+	String flags() {
+	    return upTo('|');
+	}
+
+	List<RPL> rplParams(Symbol owner) {
+	    ListBuffer<RPL> result = ListBuffer.lb();
+	    accept('<');
+	    while (!skip('>')) {
+		boolean isAtomic = skip('!');
+		RegionParameterSymbol sym =
+		    new RegionParameterSymbol(STATIC, name(), owner, isAtomic);
+		result.append(new RPL(new RPLParameterElement(sym)));
+	    }
+	    return result.toList();
+	}
+
+	List<Effects> effectParams(Symbol owner) {
+	    ListBuffer<Effects> result = ListBuffer.lb();
+	    accept('<');
+	    while (!skip('>')) {
+		EffectParameterSymbol sym = new EffectParameterSymbol(name(), owner);
+		result.append(new Effects(new VariableEffect(sym)));
+	    }
+	    return result.toList();
+	}
+
+	Constraints constraints() {
+	    ListBuffer<Pair<RPL,RPL>> disjoint = ListBuffer.lb();
+	    accept('<');
+	    while (!skip('>')) {
+		RPL fst = rpl();
+		disjoint.append(new Pair<RPL,RPL>(fst, rpl()));
+	    }
+	    ListBuffer<Pair<Effects,Effects>> nonint = ListBuffer.lb();
+	    accept('<');
+	    while (!skip('>')) {
+		Effects fst = effects();
+		nonint.append(new Pair<Effects,Effects>(fst, effects()));
+	    }
+	    return new Constraints(disjoint.toList(), nonint.toList());
+	}
+
+	/** A type, or null for '.' */
+	Type typeOrDot() {
+	    return skip('.') ? null : type();
+	}
+
+	Type type() {
+	    char c = next();
+	    switch (c) {
+	    case 'B': return syms.byteType;
+	    case 'C': return syms.charType;
+	    case 'S': return syms.shortType;
+	    case 'I': return syms.intType;
+	    case 'J': return syms.longType;
+	    case 'F': return syms.floatType;
+	    case 'D': return syms.doubleType;
+	    case 'Z': return syms.booleanType;
+	    case 'V': return syms.voidType;
+	    case 'L': {
+		ClassSymbol cs = reader.enterClass(name());
+		ListBuffer<Type> typeargs = ListBuffer.lb();
+		accept('<');
+		while (!skip('>')) typeargs.append(type());
+		ListBuffer<RPL> rplargs = ListBuffer.lb();
+		accept('<');
+		while (!skip('>')) rplargs.append(rpl());
+		ListBuffer<Effects> effectargs = ListBuffer.lb();
+		accept('<');
+		while (!skip('>')) effectargs.append(effects());
+		return new ClassType(cs.type.getEnclosingType(), typeargs.toList(),
+			rplargs.toList(), effectargs.toList(), cs, null);
+	    }
+	    case 'A': {
+		VarSymbol indexVar = null;
+		if (skip('#')) {
+		    Symbol owner = (meth != null) ? meth : clazz;
+		    indexVar = new VarSymbol(0, name(), syms.intType, owner);
+		    indexVars = indexVars.prepend(indexVar);
+		}
+		try {
+		    RPL rpl = rpl();
+		    return new ArrayType(type(), rpl, indexVar, syms.arrayClass);
+		} finally {
+		    if (indexVar != null) indexVars = indexVars.tail;
+		}
+	    }
+	    case 'T':
+		return typeVar(name());
+	    case 'W':
+		switch (next()) {
+		case '*':
+		    return new WildcardType(syms.objectType, BoundKind.UNBOUND,
+			    syms.boundClass);
+		case '+':
+		    return new WildcardType(type(), BoundKind.EXTENDS,
+			    syms.boundClass);
+		case '-':
+		    return new WildcardType(type(), BoundKind.SUPER,
+			    syms.boundClass);
+		}
+	    }
+	    throw new BadSignature();
+	}
+
+	Type typeVar(Name name) {
+	    if (meth != null) {
+		for (Type t : meth.type.getTypeArguments())
+		    if (t.tsym.name == name) return t;
+	    }
+	    for (Symbol c = clazz; c != null && c.kind == TYP; c = c.owner) {
+		for (Type t : c.type.getTypeArguments())
+		    if (t.tsym.name == name) return t;
+	    }
+	    throw new BadSignature();
+	}
+
+	RPL rpl() {
+	    ListBuffer<RPLElement> elts = ListBuffer.lb();
+	    accept('(');
+	    while (!skip(')')) elts.append(rplElement());
+	    return new RPL(elts.toList());
+	}
+
+	RPLElement rplElement() {
+	    char c = next();
+	    switch (c) {
+	    case 'R': return RPLElement.ROOT_ELEMENT;
+	    case 'L': return RPLElement.LOCAL_ELEMENT;
+	    case '*': return RPLElement.STAR;
+	    case 'N': {
+		ClassSymbol owner = reader.enterClass(names.fromString(upTo(':')));
+		Name name = name();
+		for (Scope.Entry e = owner.members().lookup(name);
+			e.scope != null; e = e.next()) {
+		    if (e.sym.kind == RPL_ELT && e.sym instanceof RegionNameSymbol)
+			return new NameRPLElement((RegionNameSymbol) e.sym);
+		}
+		throw new BadSignature();
+	    }
+	    case 'P':
+		return new RPLParameterElement(rplParam(name()));
+	    case 't':
+		if (clazz.thisSym == null) throw new BadSignature();
+		return new VarRPLElement(clazz.thisSym);
+	    case 'p':
+		return new VarRPLElement(param());
+	    case '[': {
+		JCExpression exp = index();
+		accept(']');
+		return new ArrayIndexRPLElement(exp);
+	    }
+	    }
+	    throw new BadSignature();
+	}
+
+	RegionParameterSymbol rplParam(Name name) {
+	    for (RPL rpl : methRPLParams) {
+		RegionParameterSymbol sym = ((RPLParameterElement) rpl.elts.head).sym;
+		if (sym.name == name) return sym;
+	    }
+	    for (Symbol c = clazz; c != null && c.kind == TYP; c = c.owner) {
+		for (RPL rpl : c.type.getRPLArguments()) {
+		    RPLElement elt = rpl.elts.head;
+		    if (elt instanceof RPLParameterElement &&
+			    ((RPLParameterElement) elt).sym.name == name)
+			return ((RPLParameterElement) elt).sym;
+		}
+	    }
+	    throw new BadSignature();
+	}
+
+	EffectParameterSymbol effectParam(Name name) {
+	    for (Effects effects : methEffectParams) {
+		EffectParameterSymbol sym = effects.asVariableEffect().sym;
+		if (sym.name == name) return sym;
+	    }
+	    for (Symbol c = clazz; c != null && c.kind == TYP; c = c.owner) {
+		for (Effects effects : c.type.getEffectArguments()) {
+		    VariableEffect ve = effects.asVariableEffect();
+		    if (ve != null && ve.sym.name == name) return ve.sym;
+		}
+	    }
+	    throw new BadSignature();
+	}
+
+	/** A parameter of the method; region and index parameters are final */
+	VarSymbol param() {
+	    int i = Integer.parseInt(upTo(';'));
+	    if (i < 0 || i >= params.length()) throw new BadSignature();
+	    VarSymbol param = params.get(i);
+	    param.flags_field |= FINAL;
+	    return param;
+	}
+
+	JCExpression index() {
+	    char c = next();
+	    switch (c) {
+	    case '?':
+		return null;
+	    case 'I':
+		return make.Literal(Integer.valueOf(upTo(';')));
+	    case 'p':
+		return make.Ident(param());
+	    case 'x':
+		return make.Ident(indexVar(name()));
+	    case '~': {
+		VarSymbol vsym;
+		switch (next()) {
+		case 'p': vsym = param(); break;
+		case 'x': vsym = indexVar(name()); break;
+		default: throw new BadSignature();
+		}
+		DPJNegationExpression neg = new DPJNegationExpression(vsym);
+		neg.type = syms.intType;
+		return neg;
+	    }
+	    }
+	    throw new BadSignature();
+	}
+
+	VarSymbol indexVar(Name name) {
+	    for (VarSymbol vsym : indexVars)
+		if (vsym.name == name) return vsym;
+	    throw new BadSignature();
+	}
+
+	Effects effects() {
+	    if (skip('?')) return Effects.UNKNOWN;
+	    Effects result = new Effects();
+	    accept('{');
+	    while (!skip('}')) {
+		char c = next();
+		switch (c) {
+		case 'e':
+		    result.add(new VariableEffect(effectParam(name())));
+		    break;
+		case 'r':
+		case 'w':
+		    boolean isAtomic = skip('a');
+		    boolean isNonint = skip('n');
+		    RPL rpl = rpl();
+		    result.add(c == 'r' ?
+			    new ReadEffect(rpls, rpl, isAtomic, isNonint) :
+			    new WriteEffect(rpls, rpl, isAtomic, isNonint));
+		    break;
+		default:
+		    throw new BadSignature();
+		}
+	    }
+	    return result;
+	}
+    }
+}
@@ -0,0 +1,353 @@
+package com.sun.tools.javac.main;
+
+import static com.sun.tools.javac.code.Kinds.PCK;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.tools.JavaFileObject;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.CompletionFailure;
+import com.sun.tools.javac.comp.AttrContext;
+import com.sun.tools.javac.comp.Env;
+import com.sun.tools.javac.comp.Todo;
+import com.sun.tools.javac.jvm.ClassReader;
+import com.sun.tools.javac.jvm.DPJSignatures;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
+import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
+import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCNewClass;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Options;
+
+/**
+ * The on-disk cache behind incremental DPJ compilation (option
+ * {@code -incremental <file>}).
+ *
+ * <p>Effect checking is modular:  a compilation unit is checked against
+ * the declared effect summaries of the methods it calls, never against
+ * their bodies.  So a unit whose source is unchanged needs to be checked
+ * again only if the DPJ signature (types, region parameters, regions of
+ * fields, method effects) of some class it refers to has changed.  For
+ * each unit checked, the cache records a fingerprint of its source, the
+ * files generated from it, and a fingerprint of the signature of every
+ * class the unit refers to, as computed by {@link DPJSignatures}.
+ *
+ * <p>On the next build, units for which none of these has changed are
+ * dropped from the todo list after Enter.  They are still parsed and
+ * entered, so the units that are checked see their classes, but they
+ * are not attributed, checked or generated again.  The signatures of
+ * classes compiled from source are taken after Enter, when the DPJ
+ * pre-pass has resolved the declared effects and before attribution
+ * starts; those of classes read from class files come from their
+ * {@code DPJSignature} attributes.
+ */
+public class EffectSummaryCache {
+
+    /** What the cache records about one compilation unit.
+     */
+    private static class Unit {
+	/** The fingerprint of the source */
+	final String source;
+	/** The URIs of the files generated from the unit */
+	final Set<String> outputs = new LinkedHashSet<String>();
+	/** The classes the unit refers to, with the fingerprints of
+	 *  their signatures */
+	final Map<String,String> deps = new TreeMap<String,String>();
+	/** The flat names of the classes the unit refers to, collected
+	 *  during attribution */
+	final Set<String> used = new TreeSet<String>();
+
+	Unit(String source) {
+	    this.source = source;
+	}
+    }
+
+    /** The fingerprint recorded for a class that could not be found */
+    private static final String MISSING = "-";
+
+    private final File file;
+    private final Log log;
+    private final Name.Table names;
+    private final ClassReader reader;
+    private final DPJSignatures signatures;
+    private final String optionsHash;
+
+    /** The units read from the cache file, by source URI */
+    private final Map<String,Unit> cached = new LinkedHashMap<String,Unit>();
+
+    /** The units checked in this compilation, by source URI */
+    private final Map<String,Unit> checked = new LinkedHashMap<String,Unit>();
+
+    /** The signature fingerprints computed so far, by flat name */
+    private final Map<String,String> summaries = new HashMap<String,String>();
+
+    public EffectSummaryCache(Context context, File file) {
+	this.file = file;
+	log = Log.instance(context);
+	names = Name.Table.instance(context);
+	reader = ClassReader.instance(context);
+	signatures = DPJSignatures.instance(context);
+	optionsHash = optionsHash(Options.instance(context));
+    }
+
+    /**
+     * Drops from the todo list the classes of all compilation units that
+     * need not be checked again.  Must be called after Enter and before
+     * any class is attributed.
+     */
+    public void skipUnchanged(Todo todo, boolean verbose) {
+	read();
+	for (Env<AttrContext> env : todo)
+	    summary(env.enclClass.sym);
+	Map<JCCompilationUnit,Boolean> changed =
+	    new HashMap<JCCompilationUnit,Boolean>();
+	ListBuffer<Env<AttrContext>> kept = ListBuffer.lb();
+	while (todo.nonEmpty()) {
+	    Env<AttrContext> env = todo.next();
+	    Boolean check = changed.get(env.toplevel);
+	    if (check == null) {
+		check = isChanged(env.toplevel);
+		changed.put(env.toplevel, check);
+		if (check)
+		    checked.put(key(env.toplevel),
+			    new Unit(sourceHash(env.toplevel)));
+		else if (verbose)
+		    log.printLines(log.noticeWriter, "[skipping unchanged "
+			    + env.toplevel.sourcefile + "]");
+	    }
+	    if (check)
+		kept.append(env);
+	}
+	for (Env<AttrContext> env : kept)
+	    todo.append(env);
+    }
+
+    /**
+     * Records the classes an attributed class refers to.
+     */
+    public void attributed(Env<AttrContext> env) {
+	final Unit unit = checked.get(key(env.toplevel));
+	if (unit == null)
+	    return;
+	final JavaFileObject source = env.toplevel.sourcefile;
+	new TreeScanner() {
+	    @Override
+	    public void visitIdent(JCIdent tree) {
+		use(tree.sym);
+	    }
+	    @Override
+	    public void visitSelect(JCFieldAccess tree) {
+		super.visitSelect(tree);
+		use(tree.sym);
+	    }
+	    @Override
+	    public void visitNewClass(JCNewClass tree) {
+		super.visitNewClass(tree);
+		use(tree.constructor);
+	    }
+	    private void use(Symbol sym) {
+		ClassSymbol c = outermostClass(sym);
+		if (c != null && c.sourcefile != source
+			&& c.flatname.len != 0)
+		    unit.used.add(c.flatname.toString());
+	    }
+	}.scan(env.tree);
+    }
+
+    /**
+     * Records a file generated from a compilation unit.
+     */
+    public void generated(JCCompilationUnit toplevel, JavaFileObject output) {
+	Unit unit = checked.get(key(toplevel));
+	if (unit != null)
+	    unit.outputs.add(output.toUri().toString());
+    }
+
+    /**
+     * Writes the cache file.  Entries for units not checked in this
+     * compilation are kept as they were.
+     */
+    public void write() {
+	for (Unit unit : checked.values())
+	    for (String flatname : unit.used)
+		unit.deps.put(flatname, summary(flatname));
+	cached.putAll(checked);
+	PrintWriter out = null;
+	try {
+	    File dir = file.getAbsoluteFile().getParentFile();
+	    if (dir != null)
+		dir.mkdirs();
+	    out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+	    out.println("options " + optionsHash);
+	    for (Map.Entry<String,Unit> e : cached.entrySet()) {
+		Unit unit = e.getValue();
+		out.println("unit " + e.getKey());
+		out.println("source " + unit.source);
+		for (String output : unit.outputs)
+		    out.println("output " + output);
+		for (Map.Entry<String,String> dep : unit.deps.entrySet())
+		    out.println("dep " + dep.getKey() + " " + dep.getValue());
+	    }
+	} catch (IOException ex) {
+	    log.error("class.cant.write", file, ex.getMessage());
+	} finally {
+	    if (out != null)
+		out.close();
+	}
+    }
+
+    /**
+     * Reads the cache file.  A missing or malformed cache, or one written
+     * with different options, is ignored and everything is checked.
+     */
+    private void read() {
+	if (!file.exists())
+	    return;
+	BufferedReader in = null;
+	try {
+	    in = new BufferedReader(new FileReader(file));
+	    String line = in.readLine();
+	    if (line == null || !line.equals("options " + optionsHash))
+		return;
+	    Unit unit = null;
+	    while ((line = in.readLine()) != null) {
+		int sp = line.indexOf(' ');
+		String tag = line.substring(0, sp);
+		String arg = line.substring(sp + 1);
+		if (tag.equals("unit")) {
+		    line = in.readLine();
+		    unit = new Unit(line.substring(line.indexOf(' ') + 1));
+		    cached.put(arg, unit);
+		} else if (tag.equals("output")) {
+		    unit.outputs.add(arg);
+		} else if (tag.equals("dep")) {
+		    sp = arg.indexOf(' ');
+		    unit.deps.put(arg.substring(0, sp), arg.substring(sp + 1));
+		} else {
+		    throw new IllegalArgumentException(line);
+		}
+	    }
+	} catch (IOException ex) {
+	    cached.clear();
+	} catch (RuntimeException ex) {
+	    // Malformed cache file
+	    cached.clear();
+	} finally {
+	    if (in != null) {
+		try {
+		    in.close();
+		} catch (IOException ex) {
+		}
+	    }
+	}
+    }
+
+    private boolean isChanged(JCCompilationUnit toplevel) {
+	Unit unit = cached.get(key(toplevel));
+	if (unit == null || !unit.source.equals(sourceHash(toplevel)))
+	    return true;
+	for (String output : unit.outputs) {
+	    URI uri = URI.create(output);
+	    if ("file".equals(uri.getScheme()) && !new File(uri).exists())
+		return true;
+	}
+	for (Map.Entry<String,String> dep : unit.deps.entrySet())
+	    if (!dep.getValue().equals(summary(dep.getKey())))
+		return true;
+	return false;
+    }
+
+    private String summary(ClassSymbol c) {
+	String flatname = c.flatname.toString();
+	String hash = summaries.get(flatname);
+	if (hash == null) {
+	    hash = digest(signatures.summary(c));
+	    summaries.put(flatname, hash);
+	}
+	return hash;
+    }
+
+    private String summary(String flatname) {
+	String hash = summaries.get(flatname);
+	if (hash == null) {
+	    try {
+		hash = summary(reader.loadClass(names.fromString(flatname)));
+	    } catch (CompletionFailure ex) {
+		hash = MISSING;
+		summaries.put(flatname, hash);
+	    }
+	}
+	return hash;
+    }
+
+    private static ClassSymbol outermostClass(Symbol sym) {
+	Symbol prev = null;
+	while (sym != null && sym.kind != PCK) {
+	    prev = sym;
+	    sym = sym.owner;
+	}
+	return (sym != null && prev instanceof ClassSymbol) ?
+		(ClassSymbol) prev : null;
+    }
+
+    private static String key(JCCompilationUnit toplevel) {
+	return toplevel.sourcefile.toUri().normalize().toString();
+    }
+
+    private String sourceHash(JCCompilationUnit toplevel) {
+	try {
+	    return digest(toplevel.sourcefile.getCharContent(true));
+	} catch (IOException ex) {
+	    // Unreadable now, so it cannot match any recorded hash
+	    return MISSING;
+	}
+    }
+
+    /** The fingerprint of the options, other than the cache file itself */
+    private static String optionsHash(Options options) {
+	Map<String,String> sorted = new TreeMap<String,String>();
+	for (String name : options.keySet()) {
+	    if (!name.equals(OptionName.INCREMENTAL.optionName))
+		sorted.put(name, options.get(name));
+	}
+	return digest(sorted.toString());
+    }
+
+    private static String digest(CharSequence s) {
+	try {
+	    MessageDigest md = MessageDigest.getInstance("MD5");
+	    byte[] bytes = md.digest(s.toString().getBytes("UTF-8"));
+	    StringBuilder sb = new StringBuilder();
+	    for (byte b : bytes)
+		sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+		  .append(Character.forDigit(b & 0xf, 16));
+	    return sb.toString();
+	} catch (NoSuchAlgorithmException ex) {
+	    throw new AssertionError(ex);
+	} catch (IOException ex) {
+	    throw new AssertionError(ex);
+	}
+    }
+}
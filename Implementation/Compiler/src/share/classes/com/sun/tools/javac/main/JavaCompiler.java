@@ -29,6 +29,7 @@ import static com.sun.tools.javac.util.ListBuffer.lb;
 import static javax.tools.StandardLocation.CLASS_OUTPUT;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashSet;
@@ -37,6 +38,11 @@ import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -76,6 +82,7 @@ import com.sun.tools.javac.comp.Todo;
 import com.sun.tools.javac.comp.TransTypes;
 import com.sun.tools.javac.jvm.ClassReader;
 import com.sun.tools.javac.jvm.ClassWriter;
+import com.sun.tools.javac.jvm.DPJSignatures;
 import com.sun.tools.javac.jvm.Gen;
 import com.sun.tools.javac.parser.DocCommentScanner;
 import com.sun.tools.javac.parser.Parser;
@@ -190,7 +197,14 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
          * Means output might be generated for some classes in a compilation unit
          * and not others.
          */
-        BY_TODO;
+        BY_TODO,
+
+        /*
+         * Like SIMPLE, but check effects and do flow analysis for the
+         * classes in parallel (see checkInParallel).  Diagnostics come
+         * out in the same order as with SIMPLE.
+         */
+        PARALLEL;
 
         static CompilePolicy decode(String option) {
             if (option == null)
@@ -205,6 +219,8 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
                 return BY_FILE;
             else if (option.equals("bytodo"))
                 return BY_TODO;
+            else if (option.equals("parallel"))
+                return PARALLEL;
             else
                 return DEFAULT_COMPILE_POLICY;
         }
@@ -248,6 +264,10 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
      */
     protected ClassWriter writer;
 
+    /** The DPJ signatures carried through class files.
+     */
+    protected DPJSignatures signatures;
+
     /** The module for the symbol table entry phases.
      */
     protected Enter enter;
@@ -365,6 +385,7 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         reader = ClassReader.instance(context);
         make = TreeMaker.instance(context);
         writer = ClassWriter.instance(context);
+        signatures = DPJSignatures.instance(context);
         enter = Enter.instance(context);
         todo = Todo.instance(context);
 
@@ -413,8 +434,13 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         processPcks   = options.get("process.packages") != null;
         sequential    = options.get("-seq") != null;
         instrument    = options.get("-instrument") != null;
+        juc           = options.get("-juc") != null;
+        bytecode      = options.get("-bytecode") != null;
         count         = options.get("-count") != null;
         nondet        = options.get("-nondet") != null;
+        if (options.get("-incremental") != null)
+            effectCache = new EffectSummaryCache(context,
+                                                 new File(options.get("-incremental")));
         
         verboseCompilePolicy = options.get("verboseCompilePolicy") != null;
 
@@ -422,6 +448,14 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
             compilePolicy = CompilePolicy.ATTR_ONLY;
         else
             compilePolicy = CompilePolicy.decode(options.get("compilePolicy"));
+        compileThreads = Runtime.getRuntime().availableProcessors();
+        if (options.get("compileThreads") != null) {
+            try {
+                compileThreads = Integer.parseInt(options.get("compileThreads"));
+            } catch (NumberFormatException e) {
+                // silently ignore ill-formed numbers
+            }
+        }
         
         implicitSourcePolicy = ImplicitSourcePolicy.decode(options.get("-implicit"));
 
@@ -497,6 +531,44 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
      * Switch: Should we instrument sequential code?
      */
     public boolean instrument;
+
+    /**
+     * Switch: Should parallel code target java.util.concurrent?
+     */
+    public boolean juc;
+
+    /**
+     * Switch: Should we compile DPJ code to class files?  Sequential
+     * classes are lowered by Lower and generated by Gen, unless they
+     * are instrumented or use array classes (see canLowerDPJ).  Other
+     * classes still go through Pretty to Java source, which is then
+     * compiled by a nested javac.
+     */
+    public boolean bytecode;
+
+    /**
+     * Should the DPJ statements of classes be lowered for Gen where
+     * possible, instead of erased to Java source?  Set by compile for
+     * -seq -bytecode.
+     */
+    public boolean lowerDPJ;
+
+    /**
+     * The classes whose DPJ statements were lowered for Gen
+     */
+    private Set<Env<AttrContext>> loweredEnvs = new HashSet<Env<AttrContext>>();
+
+    /**
+     * The Java source files generated from DPJ code, to be compiled
+     * to class files if bytecode is set
+     */
+    private ListBuffer<JavaFileObject> generatedSources = lb();
+
+    /**
+     * The cache of effect summaries for incremental compilation, or
+     * null if the compilation is not incremental
+     */
+    protected EffectSummaryCache effectCache;
     
     /**
      * Switch: Should we count DPJ annotations?
@@ -505,7 +577,9 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
 
     /**
      * Switch: Should we support nondeterministic DPJ constructs, 
-     * and generate code to support them?
+     * and generate code to support them?  Set by -nondet, and also
+     * when generating parallel code for sources with atomic blocks.
+     * The generated code uses the transactional memory in DPJRuntime.
      */
     public boolean nondet;
     
@@ -514,6 +588,11 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
      */
     protected CompilePolicy compilePolicy;
     
+    /**
+     * The number of threads used by the parallel compile policy
+     */
+    protected int compileThreads;
+
     /**
      * The policy for what to do with implicitly read source files
      */
@@ -703,8 +782,11 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
             BufferedWriter out = new BufferedWriter(outFile.openWriter());
             try {
         	int codeGenMode = sequential ? 
-        		(instrument ? Pretty.SEQ_INST : Pretty.SEQ) : Pretty.PAR;
-        	new Pretty(out, true, codeGenMode).printUnit(env.toplevel, cdef);
+        		(instrument ? Pretty.SEQ_INST : Pretty.SEQ) :
+        		(juc ? Pretty.PAR_JUC : Pretty.PAR);
+        	Pretty pretty = new Pretty(out, true, codeGenMode);
+        	pretty.instrument = instrument;
+        	pretty.printUnit(env.toplevel, cdef);
                 if (verbose)
                     printVerbose("wrote.file", outFile);
             } finally {
@@ -826,6 +908,7 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         if (hasBeenUsed)
 	    throw new AssertionError("attempt to reuse JavaCompiler");
         hasBeenUsed = true;
+        signatures.readSignatures = DPJ;
 
         start_msec = now();
         try {
@@ -840,7 +923,20 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
                                                  classnames);
             
             eraseDPJ = DPJ;
+            lowerDPJ = DPJ && sequential && bytecode && !instrument;
+            lower.lowerDPJ = lowerDPJ;
+            // Atomic blocks need the transactional barriers in parallel
+            // code, even without -nondet
+            if (DPJ && !sequential && !delegateCompiler.nondet)
+        	delegateCompiler.nondet = hasAtomicBlocks(delegateCompiler.todo);
+            EffectSummaryCache cache = DPJ ? delegateCompiler.effectCache : null;
+            if (cache != null)
+        	cache.skipUnchanged(delegateCompiler.todo, verboseCompilePolicy);
             delegateCompiler.compile2();
+            if (DPJ && bytecode)
+        	delegateCompiler.compileGeneratedSources();
+            if (cache != null && errorCount() == 0)
+        	cache.write();
 	    delegateCompiler.close();
 	    elapsed_msec = delegateCompiler.elapsed_msec;
         } catch (Abort ex) {
@@ -883,6 +979,10 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         	    generate(insertBarriers(desugar(flow(checkEffects(attribute(todo.next()))))));
         	break;
 
+            case PARALLEL:
+                generate(insertBarriers(desugar(checkInParallel(attribute(todo)))));
+                break;
+
             default:
                 assert false: "unknown compile policy";
             }
@@ -907,6 +1007,52 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         }
     }
 
+    /**
+     * Compiles the Java source files generated from DPJ code to class
+     * files.  The generated code is ordinary Java, so we compile it
+     * with a fresh compiler in the same VM, using the options given
+     * for the DPJ compilation minus the DPJ options.  The source is
+     * still parsed and attributed a second time; only the separate
+     * javac run is saved.
+     */
+    private void compileGeneratedSources() throws IOException {
+	if (errorCount() != 0 || generatedSources.isEmpty())
+	    return;
+	Context javacContext = new Context();
+	javacContext.put(Log.outKey, log.errWriter);
+	Options javacOptions = Options.instance(javacContext);
+	javacOptions.putAll(Options.instance(context));
+	for (OptionName name : new OptionName[] {
+		OptionName.SEQUENTIAL, OptionName.INSTRUMENT,
+		OptionName.JUC, OptionName.BYTECODE, OptionName.COUNT,
+		OptionName.DISABLENONINTOPT, OptionName.NONDET,
+		OptionName.SPMD, OptionName.INCREMENTAL })
+	    javacOptions.remove(name.optionName);
+	// Units skipped by an incremental build are not compiled again,
+	// and lowered classes are written by Gen, so the generated code
+	// must find their classes in the output
+	String outDir = javacOptions.get("-d");
+	if ((effectCache != null || !loweredEnvs.isEmpty()) && outDir != null) {
+	    String cp = javacOptions.get("-classpath");
+	    javacOptions.put("-classpath",
+		    outDir + File.pathSeparator + (cp != null ? cp : "."));
+	}
+	JavacFileManager.preRegister(javacContext);
+	JavaCompiler javac = JavaCompiler.instance(javacContext);
+	DPJSignatures.instance(javacContext).putAll(signatures);
+	try {
+	    javac.compile(generatedSources.toList(), List.<String>nil(),
+			  null, false);
+	    log.nerrors += javac.errorCount();
+	    log.nwarnings += javac.warningCount();
+	} finally {
+	    javac.close();
+	    JavaFileManager jfm = javacContext.get(JavaFileManager.class);
+	    if (jfm != null)
+		jfm.close();
+	}
+    }
+
     private List<JCClassDecl> rootClasses;
 
     /**
@@ -923,6 +1069,52 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         return trees.toList();
     }
    
+    /**
+     * Can an attributed class be lowered for Gen?  Array classes are
+     * only translated to Java arrays by Pretty.
+     */
+    private boolean canLowerDPJ(Env<AttrContext> env) {
+	class ScanArrayClass extends TreeScanner {
+	    boolean found = false;
+	    @Override
+	    public void scan(JCTree tree) {
+		if (found || tree == null)
+		    return;
+		if (tree.type != null && tree.type.tag == TypeTags.CLASS &&
+			types.isArrayClass(tree.type))
+		    found = true;
+		else
+		    super.scan(tree);
+	    }
+	}
+	ScanArrayClass scanner = new ScanArrayClass();
+	scanner.scan(env.tree);
+	return !scanner.found;
+    }
+
+    /**
+     * Does any compilation unit with classes to compile contain an
+     * {@code atomic} block?
+     */
+    private boolean hasAtomicBlocks(Todo todo) {
+	class ScanAtomic extends TreeScanner {
+	    boolean found = false;
+	    @Override
+	    public void visitAtomic(JCTree.DPJAtomic tree) {
+		found = true;
+	    }
+	}
+	ScanAtomic scanner = new ScanAtomic();
+	Set<JCCompilationUnit> scanned = new HashSet<JCCompilationUnit>();
+	for (Env<AttrContext> env : todo) {
+	    if (scanned.add(env.toplevel))
+		scanner.scan(env.toplevel);
+	    if (scanner.found)
+		return true;
+	}
+	return false;
+    }
+
     /**
      * Generates boilerplate code for DPJ-FJTask compilation
      */
@@ -1179,6 +1371,9 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
             log.useSource(prev);
         }
 
+        if (effectCache != null)
+            effectCache.attributed(env);
+
         if (count) {
             annotationCounter.scan(env.toplevel);
         }
@@ -1266,6 +1461,124 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
         return env;
     }
     
+    /**
+     * Check effects and do flow analysis for attributed classes, using
+     * compileThreads threads.  This is checkEffects followed by flow,
+     * except that the classes are analyzed concurrently, each by an
+     * effect checker and a flow analyzer with a deferred log of its own.
+     * The deferred diagnostics are then reported in the order of the
+     * classes, and the flow diagnostics of a class only if there were no
+     * errors before it, so the output is the same as if the classes had
+     * been analyzed one at a time.
+     * If any errors occur, an empty list will be returned.
+     * @returns the list of analyzed classes
+     */
+    public List<Env<AttrContext>> checkInParallel(List<Env<AttrContext>> envs) {
+        final boolean doFlow = errorCount() == 0;
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(compileThreads, envs.size())),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "dpjc-check");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        ListBuffer<ParallelCheck> checks = lb();
+        try {
+            ListBuffer<Future<?>> futures = lb();
+            for (Env<AttrContext> env : envs) {
+                final ParallelCheck check = new ParallelCheck(env);
+                checks.append(check);
+                futures.append(executor.submit(new Runnable() {
+                    public void run() {
+                        check.run(doFlow);
+                    }
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException ex) {
+            throw new Abort(ex);
+        } catch (ExecutionException ex) {
+            throw new AssertionError(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Report as checkEffects and flow would have, failures included
+        for (ParallelCheck check : checks) {
+            log.reportDeferred(check.effectsLog);
+            rethrow(check.effectsFailure);
+        }
+        ListBuffer<Env<AttrContext>> results = lb();
+        for (ParallelCheck check : checks) {
+            Env<AttrContext> env = check.env;
+            if (errorCount() == 0) {
+                if (check.flowLog != null) {
+                    if (verboseCompilePolicy)
+                        log.printLines(log.noticeWriter, "[flow " + env.enclClass.sym + "]");
+                    log.reportDeferred(check.flowLog);
+                    rethrow(check.flowFailure);
+                }
+                if (errorCount() == 0)
+                    results.append(env);
+            }
+            if (taskListener != null) {
+                TaskEvent e = new TaskEvent(TaskEvent.Kind.ANALYZE, env.toplevel, env.enclClass.sym);
+                taskListener.finished(e);
+            }
+        }
+        return stopIfError(results);
+    }
+    // where
+        /** The analysis of one class by checkInParallel */
+        private class ParallelCheck {
+            final Env<AttrContext> env;
+            Log effectsLog;
+            Log flowLog;
+            Throwable effectsFailure;
+            Throwable flowFailure;
+
+            ParallelCheck(Env<AttrContext> env) {
+                this.env = env;
+            }
+
+            void run(boolean doFlow) {
+                JavaFileObject source = env.enclClass.sym.sourcefile != null ?
+                                        env.enclClass.sym.sourcefile :
+                                        env.toplevel.sourcefile;
+                effectsLog = log.deferredLog();
+                effectsLog.useSource(source);
+                try {
+                    checkEffects.forLog(effectsLog).scan(env.tree);
+                } catch (Throwable t) {
+                    effectsFailure = t;
+                    return;
+                }
+
+                if (!doFlow || effectsLog.nerrors > 0
+                    || relax || deferredSugar.contains(env))
+                    return;
+                flowLog = log.deferredLog();
+                flowLog.useSource(source);
+                TreeMaker localMake = make.forToplevel(env.toplevel);
+                localMake.at(Position.FIRSTPOS);
+                try {
+                    flow.forLog(flowLog).analyzeTree(env.tree, localMake);
+                } catch (Throwable t) {
+                    flowFailure = t;
+                }
+            }
+        }
+
+        private static void rethrow(Throwable t) {
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+        }
+
     /**
      * Prepare attributed parse trees, in conjunction with their attribution contexts,
      * for source or code generation.
@@ -1340,7 +1653,14 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
                 return;
             }
 
-            if (!eraseDPJ && !suppressErasure) {
+            boolean erase = eraseDPJ;
+            if (lowerDPJ && env.tree instanceof JCClassDecl &&
+        	    canLowerDPJ(env)) {
+        	erase = false;
+        	loweredEnvs.add(env);
+            }
+
+            if (!erase && !suppressErasure) {
         	// Erase Java 1.5 generics
         	env.tree = transTypes.translateTopLevelClass(env.tree, localMake);
             }
@@ -1361,7 +1681,7 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
 
             //translate out inner classes
             List<JCTree>cdefs = null;
-            if (!eraseDPJ) {
+            if (!erase) {
         	cdefs = lower.translateTopLevelClass(env, env.tree, localMake);
             } else {
         	cdefs = List.<JCTree>of(env.tree);
@@ -1439,10 +1759,17 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
 	    Pair<Env<AttrContext>, JCClassDecl> env) {
 	// Only do barrier insertion if "-nondet" option is given
 	if (nondet) {
-    	    JCTree newTree = insertBarriers.translate(env.fst.tree);
-    	    // TODO Is this the appropriate thing to do here?
-    	    env.fst.tree = newTree;
-    	    return new Pair(env.fst, (JCClassDecl)newTree);
+	    JavaFileObject prev = log.useSource(env.fst.enclClass.sym.sourcefile != null ?
+		    env.fst.enclClass.sym.sourcefile :
+		    env.fst.toplevel.sourcefile);
+	    try {
+		JCTree newTree = insertBarriers.translate(env.fst.tree);
+		// TODO Is this the appropriate thing to do here?
+		env.fst.tree = newTree;
+		return new Pair(env.fst, (JCClassDecl)newTree);
+	    } finally {
+		log.useSource(prev);
+	    }
 	} else {
 	    return env;
 	}
@@ -1464,10 +1791,12 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
             Pair<Env<AttrContext>, JCClassDecl> x = l.head;
             Env<AttrContext> env = x.fst;
             JCClassDecl cdef = x.snd;
+            boolean lowered = loweredEnvs.contains(env);
+            boolean printSource = usePrintSource && !lowered;
 
             if (verboseCompilePolicy) {
                 log.printLines(log.noticeWriter, "[generate "
-                               + (usePrintSource ? " source" : "code")
+                               + (printSource ? " source" : "code")
                                + " " + env.enclClass.sym + "]");
             }
 
@@ -1481,12 +1810,21 @@ public class JavaCompiler implements ClassReader.SourceCompleter {
                                       env.toplevel.sourcefile);
             try {
                 JavaFileObject file;
-                if (usePrintSource)
+                if (printSource)
                     file = printSource(env, cdef);
-                else
+                else {
+                    if (lowered)
+                        signatures.record(cdef.sym);
                     file = genCode(env, cdef);
+                }
                 if (results != null && file != null)
                     results.append(file);
+                if (effectCache != null && file != null)
+                    effectCache.generated(env.toplevel, file);
+                if (printSource && eraseDPJ && bytecode && file != null) {
+                    generatedSources.append(file);
+                    signatures.record(cdef.sym);
+                }
             } catch (IOException ex) {
                 log.error(cdef.pos(), "class.cant.write",
                           cdef.sym, ex.getMessage());
@@ -92,9 +92,13 @@ public enum OptionName {
     XD("-XD"),
     SEQUENTIAL("-seq"),
     INSTRUMENT("-instrument"),
+    JUC("-juc"),
+    BYTECODE("-bytecode"),
+    INCREMENTAL("-incremental"),
     COUNT("-count"),
     DISABLENONINTOPT("-disablenonintopt"),
     NONDET("-nondet"),
+    SPMD("-spmd"),
     SOURCEFILE("sourcefile");
     
 
@@ -168,9 +168,13 @@ public class RecognizedOptions {
         XD,
         SEQUENTIAL,
         INSTRUMENT,
+        JUC,
+        BYTECODE,
+        INCREMENTAL,
         COUNT,
         DISABLENONINTOPT,
         NONDET,
+        SPMD,
         SOURCEFILE);
 
     static Set<OptionName> javacFileManagerOptions = EnumSet.of(
@@ -583,9 +587,13 @@ public class RecognizedOptions {
 	
 	new HiddenOption(SEQUENTIAL),
 	new HiddenOption(INSTRUMENT),
+	new HiddenOption(JUC),
+	new HiddenOption(BYTECODE),
+	new HiddenOption(INCREMENTAL, "opt.arg.file"),
 	new HiddenOption(COUNT),
 	new HiddenOption(DISABLENONINTOPT),
 	new HiddenOption(NONDET),
+	new HiddenOption(SPMD),
 
 	/*
 	 * TODO: With apt, the matches method accepts anything if
@@ -29,6 +29,7 @@ import static com.sun.tools.javac.parser.Token.AMP;
 import static com.sun.tools.javac.parser.Token.ARRAYCLASS;
 import static com.sun.tools.javac.parser.Token.ASSERT;
 import static com.sun.tools.javac.parser.Token.BAR;
+import static com.sun.tools.javac.parser.Token.CARET;
 import static com.sun.tools.javac.parser.Token.CASE;
 import static com.sun.tools.javac.parser.Token.CATCH;
 import static com.sun.tools.javac.parser.Token.CLASS;
@@ -75,6 +76,7 @@ import static com.sun.tools.javac.parser.Token.RBRACKET;
 import static com.sun.tools.javac.parser.Token.READS;
 import static com.sun.tools.javac.parser.Token.REGION;
 import static com.sun.tools.javac.parser.Token.RPAREN;
+import static com.sun.tools.javac.parser.Token.PLUS;
 import static com.sun.tools.javac.parser.Token.SEMI;
 import static com.sun.tools.javac.parser.Token.STAR;
 import static com.sun.tools.javac.parser.Token.STATIC;
@@ -98,6 +100,7 @@ import com.sun.tools.javac.code.Source;
 import com.sun.tools.javac.code.TypeTags;
 import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.JCTree.DPJEffect;
+import com.sun.tools.javac.tree.JCTree.DPJForLoop;
 import com.sun.tools.javac.tree.JCTree.DPJParamInfo;
 import com.sun.tools.javac.tree.JCTree.DPJRegionDecl;
 import com.sun.tools.javac.tree.JCTree.DPJRegionParameter;
@@ -1976,8 +1979,8 @@ public class Parser {
      *     | IF ParExpression Statement [ELSE Statement]
      *     | FOR "(" ForInitOpt ";" [Expression] ";" ForUpdateOpt ")" Statement
      *     | FOR "(" FormalParameter : Expression ")" Statement
-     *     | FOREACH Ident "in" Expression "," Expression ["," Expression] Statement
-     *     | FOREACH_ND Ident "in" Expression "," Expression ["," Expression] Statement
+     *     | FOREACH Ident "in" Expression "," Expression ["," Expression] [Reductions] Statement
+     *     | FOREACH_ND Ident "in" Expression "," Expression ["," Expression] [Reductions] Statement
      *     | WHILE ParExpression Statement
      *     | DO Statement WHILE ParExpression ";"
      *     | TRY Block ( Catches | [Catches] FinallyPart )
@@ -2212,12 +2215,43 @@ public class Parser {
         	stride = expression();
             }
         }
+        ListBuffer<JCIdent> reductionVars = new ListBuffer<JCIdent>();
+        ListBuffer<Integer> reductionOps = new ListBuffer<Integer>();
+        if (S.token() == SEMI) {
+            do {
+        	S.nextToken();
+        	reductionOps.append(reductionOperator());
+        	accept(COLON);
+        	reductionVars.append(F.at(S.pos()).Ident(ident()));
+            } while (S.token() == COMMA);
+        }
         accept(RPAREN);
         JCStatement body = statement();
-        JCStatement result = F.at(pos).DPJForLoop(var, start, length, 
+        DPJForLoop result = F.at(pos).DPJForLoop(var, start, length, 
         	stride, body, isNonDet);
+        result.reductionVars = reductionVars.toList();
+        result.reductionOps = reductionOps.toList();
         return result;
     }
+
+    /** Reductions = ";" ReductionOp ":" Ident { "," ReductionOp ":" Ident }
+     *  ReductionOp = "+" | "*" | "&" | "|" | "^"
+     */
+    int reductionOperator() {
+        int op;
+        switch (S.token()) {
+        case PLUS:  op = JCTree.PLUS;   break;
+        case STAR:  op = JCTree.MUL;    break;
+        case AMP:   op = JCTree.BITAND; break;
+        case BAR:   op = JCTree.BITOR;  break;
+        case CARET: op = JCTree.BITXOR; break;
+        default:
+            reportSyntaxError(S.pos(), "expected", "reduction operator");
+            return JCTree.PLUS;
+        }
+        S.nextToken();
+        return op;
+    }
     
     /** CatchClause     = CATCH "(" FormalParameter ")" Block
      */
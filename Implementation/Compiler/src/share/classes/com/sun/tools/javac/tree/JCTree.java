@@ -27,7 +27,7 @@ package com.sun.tools.javac.tree;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -799,6 +799,13 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
         public DPJEffect effects;
         public MethodSymbol sym;
 	public Lint lint;
+	/**
+	 * For a commutative method, a parameter such that invocations with
+	 * different values of it have noninterfering effects, or null if
+	 * there is none.  Set by CheckEffects; the generated code
+	 * synchronizes invocations that agree on its value.
+	 */
+	public VarSymbol commutativeKey;
 
         protected JCMethodDecl(JCModifiers mods,
                             Name name,
@@ -1005,6 +1012,11 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
     public static class JCDoWhileLoop extends JCStatement implements DoWhileLoopTree {
         public JCStatement body;
         public JCExpression cond;
+        /**
+         * Set by CheckEffects if the body is only foreach loops, and the
+         * whole loop can run in one SPMD team (see Pretty)
+         */
+        public boolean isSPMD;
         protected JCDoWhileLoop(JCStatement body, JCExpression cond) {
             this.body = body;
             this.cond = cond;
@@ -1032,6 +1044,11 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
     public static class JCWhileLoop extends JCStatement implements WhileLoopTree {
         public JCExpression cond;
         public JCStatement body;
+        /**
+         * Set by CheckEffects if the body is only foreach loops, and the
+         * whole loop can run in one SPMD team (see Pretty)
+         */
+        public boolean isSPMD;
         protected JCWhileLoop(JCExpression cond, JCStatement body) {
             this.cond = cond;
             this.body = body;
@@ -1057,6 +1074,19 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
      * A DPJ finish block
      */
     public static class DPJFinish extends JCStatement implements FinishTree {
+        /**
+         * Variables assigned in body of finish
+         */
+        public Set<VarSymbol> definedVars = new LinkedHashSet<VarSymbol>();
+        /**
+         * Variables used in body of finish
+         */
+        public Set<VarSymbol> usedVars = new LinkedHashSet<VarSymbol>();
+        /**
+         * Variables declared in body of finish
+         */
+        public Set<VarSymbol> declaredVars = new LinkedHashSet<VarSymbol>();
+
         public JCStatement body;
         protected DPJFinish(JCStatement body) {
             this.body = body;
@@ -1142,19 +1172,25 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
         /**
          * Variables assigned in body of atomic
          */
-        public Set<VarSymbol> definedVars = new HashSet<VarSymbol>();
+        public Set<VarSymbol> definedVars = new LinkedHashSet<VarSymbol>();
         /**
          * Variables used in body of atomic
          */
-        public Set<VarSymbol> usedVars = new HashSet<VarSymbol>();
+        public Set<VarSymbol> usedVars = new LinkedHashSet<VarSymbol>();
         /**
          * Variables declared in body of atomic
          */
-        public Set<VarSymbol> declaredVars = new HashSet<VarSymbol>();
+        public Set<VarSymbol> declaredVars = new LinkedHashSet<VarSymbol>();
         /**
          * Can control flow reach the end of this atomic block?
          */
         public boolean aliveAtEnd;
+        /**
+         * Accesses in the body whose effects don't interfere with these
+         * can be done without STM barriers; null if they all need
+         * barriers.  Set by CheckEffects.
+         */
+        public Effects barrierEffects;
 	
 	/**
 	 * Statement to execute in a transaction
@@ -1217,6 +1253,11 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
         public JCExpression cond;
         public List<JCExpressionStatement> step;
         public JCStatement body;
+        /**
+         * Set by CheckEffects if the body is only foreach loops, and the
+         * whole loop can run in one SPMD team (see Pretty)
+         */
+        public boolean isSPMD;
         protected JCForLoop(List<JCStatement> init,
                           JCExpression cond,
                           List<JCExpressionStatement> update,
@@ -1287,17 +1328,26 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
         /**
          * Variables assigned in body of foreach
          */
-        public Set<VarSymbol> definedVars = new HashSet<VarSymbol>();
+        public Set<VarSymbol> definedVars = new LinkedHashSet<VarSymbol>();
         /**
          * Variables used in body of foreach
          */
-        public Set<VarSymbol> usedVars = new HashSet<VarSymbol>();
+        public Set<VarSymbol> usedVars = new LinkedHashSet<VarSymbol>();
         /**
          * Variables declared in body of foreach
          * (so, even if they're assigned, we don't have to copy them in)
          */
-        public Set<VarSymbol> declaredVars = new HashSet<VarSymbol>();
+        public Set<VarSymbol> declaredVars = new LinkedHashSet<VarSymbol>();
         
+        /**
+         * Reduction variables of foreach, in the order written
+         */
+        public List<JCIdent> reductionVars = List.nil();
+        /**
+         * Reduction operators (PLUS, MUL, BITAND, BITOR or BITXOR),
+         * one for each reduction variable
+         */
+        public List<Integer> reductionOps = List.nil();
 	
         public boolean isNondet;
         public JCVariableDecl var;
@@ -1889,6 +1939,20 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
      * A spawn statement
      */
     public static class DPJSpawn extends JCStatement implements SpawnTree {
+        /**
+         * Variables assigned in body of spawn
+         */
+        public Set<VarSymbol> definedVars = new LinkedHashSet<VarSymbol>();
+        /**
+         * Variables used in body of spawn
+         */
+        public Set<VarSymbol> usedVars = new LinkedHashSet<VarSymbol>();
+        /**
+         * Variables declared in body of spawn
+         * (so, even if they're assigned, we don't have to copy them in)
+         */
+        public Set<VarSymbol> declaredVars = new LinkedHashSet<VarSymbol>();
+
         public JCStatement body;
         protected DPJSpawn(JCStatement body) {
             this.body = body;
@@ -1974,7 +2038,7 @@ public abstract class JCTree implements Tree, Cloneable, DiagnosticPosition {
 	private int opcode;
         public JCExpression arg;
         public Symbol operator;
-        protected JCUnary(int opcode, JCExpression arg) {
+        public JCUnary(int opcode, JCExpression arg) {
             this.opcode = opcode;
             this.arg = arg;
         }
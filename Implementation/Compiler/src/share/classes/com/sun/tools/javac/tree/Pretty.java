@@ -34,8 +34,10 @@ import static com.sun.tools.javac.code.Flags.SYNTHETIC;
 import static com.sun.tools.javac.code.Flags.VARARGS;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -115,6 +117,7 @@ import com.sun.tools.javac.tree.JCTree.LetExpr;
 import com.sun.tools.javac.tree.JCTree.TypeBoundKind;
 import com.sun.tools.javac.util.Convert;
 import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Log;
 import com.sun.tools.javac.util.Name;
 import com.sun.tools.javac.util.Pair;
@@ -147,6 +150,11 @@ public class Pretty extends JCTree.Visitor {
      * Parallel code gen
      */
     public static final int PAR = 3;
+
+    /**
+     * Parallel code gen targeting java.util.concurrent
+     */
+    public static final int PAR_JUC = 4;
     
     /**
      * Code generation mode.  We are using the Pretty printer as a code generator, 
@@ -158,6 +166,18 @@ public class Pretty extends JCTree.Visitor {
      * Set if we need to compile to sequential code.
      */
     public boolean sequential = false;
+
+    /**
+     * Set if we need to compile to parallel code.
+     */
+    public boolean parallel = false;
+
+    /**
+     * Set if we need to generate calls to DPJRuntime.Instrument.
+     * SEQ_INST implies this; for parallel code gen it is set by the
+     * caller.
+     */
+    public boolean instrument = false;
     
     private Log log;
     
@@ -168,8 +188,13 @@ public class Pretty extends JCTree.Visitor {
 	this.codeGenMode = codeGenMode;
 	switch (codeGenMode) {
 	case SEQ_INST:
+	    this.instrument = true;
 	case SEQ:
 	    this.sequential = true;
+	    break;
+	case PAR_JUC:
+	case PAR:
+	    this.parallel = true;
 	default:
 	    break;	
 	}
@@ -193,6 +218,56 @@ public class Pretty extends JCTree.Visitor {
      */
     private boolean thisIsBogus = false;
     
+    /**
+     * Set while printing the loop run by each member of an SPMD team,
+     * where a foreach runs only the member's chunk of its iterations
+     */
+    private boolean inSPMDMember = false;
+
+    /**
+     * The methods of the unit being printed that get a sequential
+     * version; see printSeqClone
+     */
+    private Set<Symbol> seqClones = new HashSet<Symbol>();
+
+    /**
+     * Set while printing the sequential version of a method
+     */
+    private boolean inSeqClone = false;
+
+    /**
+     * The parallel code generation mode of the method whose sequential
+     * version is being printed
+     */
+    private int seqCloneParMode = NONE;
+
+    /**
+     * The class whose members are being printed
+     */
+    private Symbol enclClassSym = null;
+
+    /**
+     * Appended to the name of a method to name its sequential version
+     */
+    static final String SEQ_SUFFIX = "__dpj_seq";
+
+    /**
+     * The method being printed, whose class gets the methods that
+     * parOutlinedForLoop moves foreach bodies into
+     */
+    private JCMethodDecl enclMethod = null;
+
+    /**
+     * The left margin of the members of the class of enclMethod
+     */
+    private int enclMethodMargin = 0;
+
+    /**
+     * The foreach bodies moved out of enclMethod, printed as methods
+     * to follow it
+     */
+    private ListBuffer<String> outlinedLoops = null;
+    
     /** Set when we are producing source output.  If we're not
      *  producing source output, we can sometimes give more detail in
      *  the output even though that detail would not be valid java
@@ -216,6 +291,11 @@ public class Pretty extends JCTree.Visitor {
      */
     Name enclClassName;
 
+    /** The fields of the enclosing class that its commutative methods
+     *  update atomically (parallel code only).
+     */
+    Set<VarSymbol> atomicFields = new LinkedHashSet<VarSymbol>();
+
     /** A hashtable mapping trees to their documentation comments
      *  (can be null)
      */
@@ -356,13 +436,12 @@ public class Pretty extends JCTree.Visitor {
     }
 
     public void printCobeginStats(List<? extends JCTree> trees) throws IOException {
-	int count = 0;
 	for (List<? extends JCTree> l = trees; l.nonEmpty(); l = l.tail) {
             if ((codeGenMode == NONE) || !(l.head instanceof DPJRegionDecl)) {
         	align();
         	printStat(l.head);
         	println();
-        	if (++count < l.size()) {
+        	if (l.tail.nonEmpty()) {
         	    align();
         	    if (codeGenMode == SEQ_INST) print("DPJRuntime.Instrument.cobeginSeparator();");
         	    println();
@@ -533,6 +612,8 @@ public class Pretty extends JCTree.Visitor {
      */
     public void printUnit(JCCompilationUnit tree, JCClassDecl cdef) throws IOException {
         docComments = tree.docComments;
+        if (parallel && !instrument)
+            seqClones = seqClones(cdef != null ? cdef : tree);
         printDocComment(tree);
         if (tree.pid != null) {
             print("package ");
@@ -618,6 +699,10 @@ public class Pretty extends JCTree.Visitor {
             printFlags(tree.mods.flags & ~INTERFACE);
             Name enclClassNamePrev = enclClassName;
             enclClassName = tree.name;
+            Symbol enclClassSymPrev = enclClassSym;
+            enclClassSym = tree.sym;
+            Set<VarSymbol> atomicFieldsPrev = atomicFields;
+            atomicFields = atomicFields(tree);
             if ((tree.mods.flags & INTERFACE) != 0) {
                 print("interface " + tree.name);
                 printParams(tree.typarams, tree.paramInfo);
@@ -643,10 +728,21 @@ public class Pretty extends JCTree.Visitor {
             print(" ");
             if ((tree.mods.flags & ENUM) != 0) {
                 printEnumBody(tree.defs);
-            } else {
+            } else if (atomicFields.isEmpty()) {
                 printBlock(tree.defs);
+            } else {
+                print("{");
+                println();
+                indent();
+                printStats(tree.defs);
+                printUpdaters(tree);
+                undent();
+                align();
+                print("}");
             }
+            atomicFields = atomicFieldsPrev;
             enclClassName = enclClassNamePrev;
+            enclClassSym = enclClassSymPrev;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -660,6 +756,12 @@ public class Pretty extends JCTree.Visitor {
                 	    enclClassName.toString().equals("")) &&
                     sourceOutput) return;
             println(); align();
+            JCMethodDecl enclMethodPrev = enclMethod;
+            int enclMethodMarginPrev = enclMethodMargin;
+            ListBuffer<String> outlinedLoopsPrev = outlinedLoops;
+            enclMethod = tree;
+            enclMethodMargin = lmargin;
+            outlinedLoops = new ListBuffer<String>();
             printDocComment(tree);
             printExpr(tree.mods);
             printParams(tree.typarams, tree.paramInfo);
@@ -690,17 +792,508 @@ public class Pretty extends JCTree.Visitor {
                 print(" throws ");
                 printExprs(tree.thrown);
             }
+            if (tree.defaultValue != null) {
+                print(" default ");
+                printExpr(tree.defaultValue);
+            }
             if (tree.body != null) {
                 print(" ");
-                printStat(tree.body);
+                if (parallel && (tree.mods.flags & Flags.ISCOMMUTATIVE) != 0)
+                    printCommutativeBody(tree);
+                else if (parallel && seqClones.contains(tree.sym))
+                    printSeqDispatchBody(tree);
+                else
+                    printStat(tree.body);
             } else {
                 print(";");
             }
+            if (parallel && seqClones.contains(tree.sym)) {
+                println();
+                printSeqClone(tree);
+            }
+            for (String loop : outlinedLoops) {
+                println();
+                out.write(loop);
+            }
+            enclMethod = enclMethodPrev;
+            enclMethodMargin = enclMethodMarginPrev;
+            outlinedLoops = outlinedLoopsPrev;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Print the parallel code for the body of a method that has a
+     * sequential version.  When DPJRuntime.RuntimeState.runSequential()
+     * says that the tasks the method would create cannot run in
+     * parallel, the body calls the sequential version instead.
+     */
+    void printSeqDispatchBody(JCMethodDecl tree) throws IOException {
+        StringBuilder call = new StringBuilder(tree.name + SEQ_SUFFIX + "(");
+        for (List<JCVariableDecl> l = tree.params; l.nonEmpty(); l = l.tail) {
+            call.append(l.head.name);
+            if (l.tail.nonEmpty()) call.append(", ");
+        }
+        call.append(")");
+        print("{");
+        println();
+        indent();
+        align();
+        print("if (DPJRuntime.RuntimeState.runSequential()) {");
+        println();
+        indent();
+        align();
+        if (tree.restype.type != null && tree.restype.type.tag == TypeTags.VOID) {
+            print(call + ";");
+            println();
+            align();
+            print("return;");
+        } else {
+            print("return " + call + ";");
+        }
+        println();
+        undent();
+        align();
+        print("}");
+        println();
+        printStats(tree.body.stats);
+        undent();
+        align();
+        print("}");
+    }
+
+    /**
+     * Print the sequential version of a method:  a private method with
+     * the same parameters, whose body is the same as the -seq output,
+     * except that foreach loops with reductions keep their parallel
+     * code (see visitDPJForLoop).  Calls in the body to methods with sequential versions call those
+     * versions directly where they can; see bindsSeqClone and
+     * guardsSeqClone.
+     */
+    void printSeqClone(JCMethodDecl tree) throws IOException {
+        println(); align();
+        printFlags(Flags.PRIVATE | (tree.mods.flags &
+        	(Flags.STATIC | Flags.SYNCHRONIZED | Flags.STRICTFP)));
+        printExpr(tree.restype);
+        print(" " + tree.name + SEQ_SUFFIX + "(");
+        printExprs(tree.params);
+        print(")");
+        if (tree.thrown.nonEmpty()) {
+            print(" throws ");
+            printExprs(tree.thrown);
+        }
+        print(" ");
+        int codeGenModePrev = codeGenMode;
+        boolean inSPMDMemberPrev = inSPMDMember;
+        seqCloneParMode = codeGenMode;
+        codeGenMode = SEQ;
+        parallel = false;
+        sequential = true;
+        inSPMDMember = false;
+        inSeqClone = true;
+        try {
+            printStat(tree.body);
+        } finally {
+            codeGenMode = codeGenModePrev;
+            parallel = true;
+            sequential = false;
+            inSPMDMember = inSPMDMemberPrev;
+            inSeqClone = false;
+        }
+    }
+
+    /** The methods in tree that get a sequential version.
+     */
+    static Set<Symbol> seqClones(JCTree tree) {
+        final Set<Symbol> methods = new HashSet<Symbol>();
+        new TreeScanner() {
+            @Override
+            public void visitMethodDef(JCMethodDecl tree) {
+        	if (hasSeqClone(tree))
+        	    methods.add(tree.sym);
+        	super.visitMethodDef(tree);
+            }
+        }.scan(tree);
+        return methods;
+    }
+
+    /** Whether a method gets a sequential version:  it has a body with
+     *  deterministic parallel constructs, and no nondeterministic ones,
+     *  whose code depends on running in parallel.  Constructors,
+     *  generic methods and commutative methods are left alone.
+     */
+    static boolean hasSeqClone(JCMethodDecl tree) {
+        if (tree.sym == null || tree.body == null ||
+        	tree.name == tree.name.table.init || tree.typarams.nonEmpty() ||
+        	(tree.mods.flags & Flags.ISCOMMUTATIVE) != 0)
+            return false;
+        class Finder extends TreeScanner {
+            boolean parallel = false;
+            boolean nondet = false;
+            @Override
+            public void visitCobegin(DPJCobegin tree) {
+        	if (tree.isNondet) nondet = true; else parallel = true;
+        	super.visitCobegin(tree);
+            }
+            @Override
+            public void visitDPJForLoop(DPJForLoop tree) {
+        	if (tree.isNondet) nondet = true; else parallel = true;
+        	super.visitDPJForLoop(tree);
+            }
+            @Override
+            public void visitSpawn(DPJSpawn tree) {
+        	parallel = true;
+        	super.visitSpawn(tree);
+            }
+            @Override
+            public void visitFinish(DPJFinish tree) {
+        	parallel = true;
+        	super.visitFinish(tree);
+            }
+            @Override
+            public void visitAtomic(DPJAtomic tree) {
+        	nondet = true;
+            }
+            @Override
+            public void visitNonint(DPJNonint tree) {
+        	nondet = true;
+            }
+            @Override
+            public void visitClassDef(JCClassDecl tree) {
+        	// Code in local classes runs on its own
+            }
+        }
+        Finder finder = new Finder();
+        finder.scan(tree.body);
+        return finder.parallel && !finder.nondet;
+    }
+
+    /** Whether a call in the sequential version of a method is bound at
+     *  compile time to a method with a sequential version, so that it
+     *  can call that version directly.  Since sequential versions are
+     *  private, the call must name the callee in its own class, or
+     *  through a reference to its class.
+     */
+    boolean bindsSeqClone(JCMethodInvocation tree) {
+        Symbol sym = TreeInfo.symbol(tree.meth);
+        if (sym == null || !seqClones.contains(sym) ||
+        	((sym.flags() & (Flags.STATIC | Flags.PRIVATE | Flags.FINAL)) == 0 &&
+        		(sym.owner.flags() & Flags.FINAL) == 0))
+            return false;
+        if (tree.meth.getTag() == JCTree.IDENT)
+            return enclClassSym == sym.owner;
+        JCExpression selected = ((JCFieldAccess) tree.meth).selected;
+        return TreeInfo.name(selected) != sym.name.table._super &&
+            selected.type != null && selected.type.tsym == sym.owner;
+    }
+
+    /** Whether a call in the sequential version of a method invokes an
+     *  overridable method with a sequential version on this, in the
+     *  callee's own named class.  Such a call can use the sequential
+     *  version when this is exactly of that class; see
+     *  printGuardedSeqCall.
+     */
+    boolean guardsSeqClone(JCMethodInvocation tree) {
+        Symbol sym = TreeInfo.symbol(tree.meth);
+        if (sym == null || !seqClones.contains(sym) ||
+        	enclClassSym != sym.owner || sym.owner.name.isEmpty() ||
+        	(sym.flags() & (Flags.STATIC | Flags.PRIVATE | Flags.FINAL)) != 0 ||
+        	(sym.owner.flags() & Flags.FINAL) != 0)
+            return false;
+        return tree.meth.getTag() == JCTree.IDENT ||
+            (((JCFieldAccess) tree.meth).selected.getTag() == JCTree.IDENT &&
+        	    TreeInfo.name(((JCFieldAccess) tree.meth).selected) ==
+        		sym.name.table._this);
+    }
+
+    /** Print a call satisfying guardsSeqClone, testing the class of this
+     *  to choose between the sequential version of the callee and the
+     *  callee itself.  The test is what a JIT does for a monomorphic
+     *  call, but it also saves the runSequential test in the callee.
+     *  A call that is a statement becomes an if statement.
+     */
+    void printGuardedSeqCall(JCMethodInvocation tree, boolean stat)
+            throws IOException {
+        String test = "getClass() == " + enclClassName + ".class";
+        if (stat) {
+            print("if (" + test + ") ");
+            printSeqCall(tree, SEQ_SUFFIX);
+            print("; else ");
+            printSeqCall(tree, "");
+            print(";");
+        } else {
+            print("(" + test + " ? ");
+            printSeqCall(tree, SEQ_SUFFIX);
+            print(" : ");
+            printSeqCall(tree, "");
+            print(")");
+        }
+    }
+
+    /** Print a call satisfying guardsSeqClone to the method named by
+     *  the callee's name and suffix.
+     */
+    void printSeqCall(JCMethodInvocation tree, String suffix) throws IOException {
+        if (tree.meth.getTag() == JCTree.SELECT)
+            print("this.");
+        print(TreeInfo.name(tree.meth) + suffix + "(");
+        printExprs(tree.args);
+        print(")");
+    }
+
+    /**
+     * Print the parallel code for the body of a commutative method.
+     * Invocations of the method may run in parallel with each other
+     * even if their effects interfere, so they must be synchronized:
+     *
+     *  1. A body that only adds to int or long fields of this, with
+     *     amounts computed from the parameters, becomes a sequence of
+     *     atomic field updates.
+     *
+     *  2. A body that already synchronizes by hand is left alone.
+     *
+     *  3. Otherwise the body runs holding a lock from
+     *     DPJRuntime.Commutative.  The lock is striped on the key
+     *     parameter found by CheckEffects, if there is one.
+     */
+    void printCommutativeBody(JCMethodDecl tree) throws IOException {
+        if (!atomicFields.isEmpty() && isAtomicAccumulation(tree)) {
+            print("{");
+            println();
+            indent();
+            for (JCStatement stat : tree.body.stats) {
+        	align();
+        	printAtomicUpdate(((JCExpressionStatement) stat).expr);
+        	println();
+            }
+            undent();
+            align();
+            print("}");
+        } else if (synchronizesByHand(tree)) {
+            printStat(tree.body);
+        } else {
+            print("{");
+            println();
+            indent();
+            align();
+            String method = tree.sym.owner.flatName() + "." + tree.sym;
+            print("synchronized (DPJRuntime.Commutative.lock(\"" +
+        	    Convert.quote(method) + "\", " +
+        	    (tree.commutativeKey == null ? "0" : tree.commutativeKey.name) +
+        	    ")) ");
+            printStat(tree.body);
+            println();
+            undent();
+            align();
+            print("}");
+        }
+    }
+
+    void printAtomicUpdate(JCExpression tree) throws IOException {
+        switch (tree.getTag()) {
+        case JCTree.PLUS_ASG:
+        case JCTree.MINUS_ASG: {
+            JCAssignOp op = (JCAssignOp) tree;
+            print(updaterName(accumulatedField(op.lhs, null)) + ".addAndGet(this, ");
+            if (tree.getTag() == JCTree.MINUS_ASG) {
+        	print("-(");
+        	printExpr(op.rhs);
+        	print(")");
+            } else {
+        	printExpr(op.rhs);
+            }
+            print(");");
+            break;
+        }
+        case JCTree.PREINC:
+        case JCTree.POSTINC:
+            print(updaterName(accumulatedField(((JCUnary) tree).arg, null)) +
+        	    ".incrementAndGet(this);");
+            break;
+        default:
+            print(updaterName(accumulatedField(((JCUnary) tree).arg, null)) +
+        	    ".decrementAndGet(this);");
+            break;
+        }
+    }
+
+    /** Print the declarations of the updaters for atomicFields.
+     */
+    void printUpdaters(JCClassDecl tree) throws IOException {
+        for (VarSymbol v : atomicFields) {
+            String updater = "java.util.concurrent.atomic." +
+        	    (v.type.tag == TypeTags.INT ?
+        		    "AtomicIntegerFieldUpdater" : "AtomicLongFieldUpdater");
+            println(); align();
+            print("private static final " + updater + "<" + tree.name + "> " +
+        	    updaterName(v) + " = " + updater + ".newUpdater(" +
+        	    tree.name + ".class, \"" + v.name + "\");");
+            println();
+        }
+    }
+
+    static String updaterName(VarSymbol v) {
+        return "__dpj_" + v.name + "_updater";
+    }
+
+    /** The fields of a class that its commutative methods update
+     *  atomically.  Field updaters need a volatile instance field and a
+     *  static member to hold them, so the class must be top level or
+     *  static.
+     */
+    Set<VarSymbol> atomicFields(JCClassDecl tree) {
+        Set<VarSymbol> fields = new LinkedHashSet<VarSymbol>();
+        if (!parallel || tree.sym == null ||
+        	(tree.mods.flags & (INTERFACE | ENUM)) != 0 ||
+        	(tree.sym.owner.kind != Kinds.PCK &&
+        		(tree.sym.flags() & Flags.STATIC) == 0))
+            return fields;
+        for (JCTree def : tree.defs) {
+            if (def.getTag() != JCTree.METHODDEF)
+        	continue;
+            JCMethodDecl meth = (JCMethodDecl) def;
+            if (!isAtomicAccumulation(meth))
+        	continue;
+            for (JCStatement stat : meth.body.stats) {
+        	JCExpression expr = ((JCExpressionStatement) stat).expr;
+        	fields.add(accumulatedField(expr.getTag() == JCTree.PLUS_ASG ||
+        		expr.getTag() == JCTree.MINUS_ASG ?
+        			((JCAssignOp) expr).lhs : ((JCUnary) expr).arg,
+        		tree.sym));
+            }
+        }
+        return fields;
+    }
+
+    /** Whether the body of a commutative instance method is a sequence of
+     *  atomic accumulations, f += e, f -= e, f++ or f--, where f is an
+     *  int or long field of this and e is an integer expression of the
+     *  parameters.
+     */
+    boolean isAtomicAccumulation(JCMethodDecl tree) {
+        if (tree.sym == null || tree.body == null || tree.body.stats.isEmpty() ||
+        	(tree.sym.flags() & (Flags.ISCOMMUTATIVE | Flags.STATIC |
+        		Flags.SYNCHRONIZED)) != Flags.ISCOMMUTATIVE)
+            return false;
+        Symbol c = tree.sym.owner;
+        for (JCStatement stat : tree.body.stats) {
+            if (stat.getTag() != JCTree.EXEC)
+        	return false;
+            JCExpression expr = ((JCExpressionStatement) stat).expr;
+            switch (expr.getTag()) {
+            case JCTree.PLUS_ASG:
+            case JCTree.MINUS_ASG: {
+        	JCAssignOp op = (JCAssignOp) expr;
+        	VarSymbol v = accumulatedField(op.lhs, c);
+        	if (v == null || op.rhs.type == null || !isParamExpr(op.rhs))
+        	    return false;
+        	// The updaters add without the narrowing of a compound
+        	// assignment, so the amount must already fit the field
+        	switch (op.rhs.type.tag) {
+        	case TypeTags.BYTE: case TypeTags.CHAR:
+        	case TypeTags.SHORT: case TypeTags.INT:
+        	    break;
+        	case TypeTags.LONG:
+        	    if (v.type.tag == TypeTags.LONG)
+        		break;
+        	default:
+        	    return false;
+        	}
+        	break;
+            }
+            case JCTree.PREINC: case JCTree.POSTINC:
+            case JCTree.PREDEC: case JCTree.POSTDEC:
+        	if (accumulatedField(((JCUnary) expr).arg, c) == null)
+        	    return false;
+        	break;
+            default:
+        	return false;
+            }
+        }
+        return true;
+    }
+
+    /** The non-final int or long instance field of c named by f or
+     *  this.f, or null.  If c is null, any owner will do.
+     */
+    static VarSymbol accumulatedField(JCExpression tree, Symbol c) {
+        Symbol sym;
+        if (tree.getTag() == JCTree.IDENT) {
+            sym = ((JCIdent) tree).sym;
+        } else if (tree.getTag() == JCTree.SELECT &&
+        	TreeInfo.name(((JCFieldAccess) tree).selected) ==
+        	    ((JCFieldAccess) tree).name.table._this) {
+            sym = ((JCFieldAccess) tree).sym;
+        } else {
+            return null;
+        }
+        if (!(sym instanceof VarSymbol) || sym.owner.kind != Kinds.TYP ||
+        	(c != null && sym.owner != c) ||
+        	(sym.flags() & (Flags.STATIC | Flags.FINAL)) != 0 ||
+        	(sym.type.tag != TypeTags.INT && sym.type.tag != TypeTags.LONG))
+            return null;
+        return (VarSymbol) sym;
+    }
+
+    /** Whether an expression reads only literals and the parameters and
+     *  locals of the enclosing method.
+     */
+    static boolean isParamExpr(JCTree tree) {
+        switch (tree.getTag()) {
+        case JCTree.LITERAL:
+            return true;
+        case JCTree.IDENT: {
+            Symbol sym = ((JCIdent) tree).sym;
+            return sym != null && sym.kind == Kinds.VAR &&
+        	sym.owner.kind == Kinds.MTH;
+        }
+        case JCTree.PARENS:
+            return isParamExpr(((JCParens) tree).expr);
+        case JCTree.TYPECAST:
+            return isParamExpr(((JCTypeCast) tree).expr);
+        case JCTree.POS: case JCTree.NEG: case JCTree.COMPL:
+            return isParamExpr(((JCUnary) tree).arg);
+        default:
+            if (tree.getTag() >= JCTree.BITOR && tree.getTag() <= JCTree.MOD)
+        	return isParamExpr(((JCBinary) tree).lhs) &&
+        	    isParamExpr(((JCBinary) tree).rhs);
+            return false;
+        }
+    }
+
+    /** Whether a method synchronizes itself:  it is synchronized, or its
+     *  body contains a synchronized statement or uses
+     *  java.util.concurrent.locks.
+     */
+    static boolean synchronizesByHand(JCMethodDecl tree) {
+        if ((tree.mods.flags & Flags.SYNCHRONIZED) != 0)
+            return true;
+        class Finder extends TreeScanner {
+            boolean found = false;
+            @Override
+            public void visitSynchronized(JCSynchronized tree) {
+        	found = true;
+            }
+            @Override
+            public void visitApply(JCMethodInvocation tree) {
+        	super.visitApply(tree);
+        	Symbol sym = TreeInfo.symbol(tree.meth);
+        	if (sym != null && sym.owner != null && sym.owner.kind == Kinds.TYP &&
+        		sym.packge().fullname.toString().equals(
+        			"java.util.concurrent.locks"))
+        	    found = true;
+            }
+            @Override
+            public void visitClassDef(JCClassDecl tree) {
+        	// Code in local classes runs on its own
+            }
+        }
+        Finder finder = new Finder();
+        finder.scan(tree.body);
+        return finder.found;
+    }
+
     public void visitVarDef(JCVariableDecl tree) {
         try {
             if (docComments != null && docComments.get(tree) != null) {
@@ -719,6 +1312,9 @@ public class Pretty extends JCTree.Visitor {
                 }
             } else {
                 printExpr(tree.mods);
+                if (atomicFields.contains(tree.sym) &&
+                	(tree.mods.flags & Flags.VOLATILE) == 0)
+                    print("volatile ");
                 if ((tree.mods.flags & VARARGS) != 0) {
                     printExpr(((JCArrayTypeTree) tree.vartype).elemtype);
                     print("... " + tree.name);
@@ -819,6 +1415,10 @@ public class Pretty extends JCTree.Visitor {
     }
 
     public void visitDoLoop(JCDoWhileLoop tree) {
+        if (tree.isSPMD && parallel && !instrument) {
+            printSPMDLoop(tree, tree.body, List.<JCTree>of(tree.cond));
+            return;
+        }
         try {
             print("do ");
             printStat(tree.body);
@@ -838,6 +1438,10 @@ public class Pretty extends JCTree.Visitor {
     }
 
     public void visitWhileLoop(JCWhileLoop tree) {
+        if (tree.isSPMD && parallel && !instrument) {
+            printSPMDLoop(tree, tree.body, List.<JCTree>of(tree.cond));
+            return;
+        }
         try {
             print("while ");
             if (tree.cond.getTag() == JCTree.PARENS) {
@@ -855,6 +1459,14 @@ public class Pretty extends JCTree.Visitor {
     }
 
     public void visitForLoop(JCForLoop tree) {
+        if (tree.isSPMD && parallel && !instrument) {
+            ListBuffer<JCTree> control = ListBuffer.lb();
+            for (JCTree init : tree.init) control.append(init);
+            if (tree.cond != null) control.append(tree.cond);
+            for (JCTree step : tree.step) control.append(step);
+            printSPMDLoop(tree, tree.body, control.toList());
+            return;
+        }
         try {
             print("for (");
             if (tree.init.nonEmpty()) {
@@ -898,9 +1510,11 @@ public class Pretty extends JCTree.Visitor {
             if (codeGenMode == SEQ_INST) {
         	print("DPJRuntime.Instrument.enterForeach(");
         	if (tree.length != null)
-        	    print(tree.length);
-        	else
-        	    print(tree.start + ".size()");
+        	    printExpr(tree.length);
+        	else {
+        	    printExpr(tree.start);
+        	    print(".size()");
+        	}
         	print(");");
         	println();
         	align();
@@ -917,8 +1531,9 @@ public class Pretty extends JCTree.Visitor {
         	printExpr(tree.start);
         	print(";\n");
         	align();
-        	print("DPJIterator.Status<"+tree.var.type+
-        		"> status_"+depth+"=null;\n");
+        	print("DPJRuntime.DPJIterator.Status<");
+        	printType(tree.var.type);
+        	print("> status_"+depth+"=null;\n");
         	align();
         	print ("while ((status_"+depth+"=i_"+depth+
         		".next()).hasElement()) {\n");
@@ -985,30 +1600,49 @@ public class Pretty extends JCTree.Visitor {
     }
 
     private void parDPJForLoop(DPJForLoop tree) {
+	if (canOutline(tree)) {
+	    parOutlinedForLoop(tree);
+	    return;
+	}
 	try {
 	    Types.printDPJ = false;
-	    List<String> toCoInvoke = List.<String>nil();
-	    List<String> copyOutAssign = List.<String>nil();
+	    // Iterator form of foreach?
+	    boolean iter = (tree.length == null);
 	    println();
 	    String stName = "__dpj_S"+dpj_tname++;
 	    printAligned("class " + stName + " extends RecursiveAction {\n");
 	    indent();
-	    printAligned("int __dpj_begin;\n");
-	    printAligned("int __dpj_length;\n");
-	    printAligned("int __dpj_stride;\n");
+	    if (iter) {
+		align();
+		printIteratorType(tree);
+		print(" __dpj_iter;\n");
+	    } else {
+		printAligned("int __dpj_begin;\n");
+		printAligned("int __dpj_length;\n");
+		printAligned("int __dpj_stride;\n");
+	    }
+	    printInstrumentField();
+	    printScopeField();
 	    align();
-	    Set<VarSymbol> copyIn = new HashSet(tree.usedVars);
+	    Set<VarSymbol> copyIn = new LinkedHashSet(tree.usedVars);
 	    copyIn.removeAll(tree.declaredVars);
-	    Set<VarSymbol> copyOut = new HashSet(tree.definedVars);
+	    Set<VarSymbol> copyOut = new LinkedHashSet(tree.definedVars);
 	    copyOut.removeAll(tree.declaredVars);
+	    // Reduction variables are accumulated in fields of the task
+	    // and combined after the loop, not copied in and out
+	    Set<VarSymbol> reductions = new LinkedHashSet<VarSymbol>();
+	    for (JCIdent var : tree.reductionVars)
+		reductions.add((VarSymbol) var.sym);
+	    copyIn.removeAll(reductions);
+	    copyOut.removeAll(reductions);
 	    if(copyOut.size()>0 && !tree.isNondet)
 		// In real life this should have been caught by the type checker.
 		print("Error: Assignment inside foreach to local variable declared prior to foreach\n");
-	    
+
 	    // Don't copy field values in/out, which would interfere with the STM system.
 	    // TODO Is this the best way to handle this issue?
 	    if (tree.isNondet) {
-		Set<VarSymbol> dontInclude = new HashSet<VarSymbol>();
+		Set<VarSymbol> dontInclude = new LinkedHashSet<VarSymbol>();
 		for (VarSymbol var : copyIn)
 		    if (var.owner.kind != Kinds.MTH && !var.toString().equals("this"))
 			dontInclude.add(var);
@@ -1018,10 +1652,10 @@ public class Pretty extends JCTree.Visitor {
 		copyIn.removeAll(dontInclude);
 		copyOut.removeAll(dontInclude);
 	    }
-	    
-	    Set<VarSymbol> copyAll = new HashSet(copyIn);
+
+	    Set<VarSymbol> copyAll = new LinkedHashSet(copyIn);
 	    copyAll.addAll(copyOut);
-	    
+
 	    // Declare local vars necessary for copyin/copyout
 	    for(VarSymbol var : copyAll) {
 		printType(var.type);
@@ -1029,20 +1663,38 @@ public class Pretty extends JCTree.Visitor {
 		print(varString(var)+";\n");
 		align();
 	    }
-	    
+
+	    // Declare the partial results of the reductions
+	    for(VarSymbol var : reductions) {
+		printType(var.type);
+		print(" ");
+		print(varString(var)+";\n");
+		align();
+	    }
+
 	    //Generate constructor for class
-	    print(stName+"(int __dpj_begin, int __dpj_length, int __dpj_stride");
+	    if (iter) {
+		print(stName+"(");
+		printIteratorType(tree);
+		print(" __dpj_iter");
+	    } else {
+		print(stName+"(int __dpj_begin, int __dpj_length, int __dpj_stride");
+	    }
 	    for(VarSymbol var : copyIn) {
 		print(", ");
 		printType(var.type);
 		print(" "+varString(var));
 	    }
-	    
+
 	    print(") {\n");
 	    indent(); align();
-	    print("this.__dpj_begin = __dpj_begin;\n"); align();
-	    print("this.__dpj_length = __dpj_length;\n"); align();
-	    print("this.__dpj_stride = __dpj_stride;\n");
+	    if (iter) {
+		print("this.__dpj_iter = __dpj_iter;\n");
+	    } else {
+		print("this.__dpj_begin = __dpj_begin;\n"); align();
+		print("this.__dpj_length = __dpj_length;\n"); align();
+		print("this.__dpj_stride = __dpj_stride;\n");
+	    }
 	    for(VarSymbol var : copyIn) {
 		align();
 		print("this."+varString(var)+"="+varString(var)+";\n");
@@ -1050,128 +1702,839 @@ public class Pretty extends JCTree.Visitor {
 	    undent();
 	    align();
 	    print("}\n");
-	    
+
 	    //Generate run method
 	    printAligned("protected void compute() {\n");
 	    indent();
-	    printAligned("if((__dpj_length / __dpj_stride) > DPJRuntime.RuntimeState.dpjForeachCutoff) {\n");
+	    printInstrumentEnter("enterTask(__dpj_construct)");
+	    printScopeEnter();
+	    if (iter) {
+		printIteratorSplit(tree, stName, copyIn);
+	    } else {
+		String[] schedule = foreachSchedule(tree);
+		printAligned("boolean __dpj_adaptive = "+schedule[0]+";\n");
+		printAligned("if(DPJRuntime.RuntimeState.splitForeach(__dpj_length, "+schedule[1]+", __dpj_adaptive)) {\n");
+		indent();
+		printAligned("int __dpj_nsplit = __dpj_adaptive ? 2 : "+schedule[2]+";\n");
+		printAligned("int __dpj_chunk = __dpj_length/__dpj_nsplit;\n");
+		printAligned("RecursiveAction[] __dpj_splits = new RecursiveAction[__dpj_nsplit];\n");
+		printAligned("int __dpj_lo = 0;\n");
+		printAligned("for(int __dpj_i=0; __dpj_i<__dpj_nsplit; __dpj_i++) {\n");
+		indent();
+		printAligned("int __dpj_hi = (__dpj_i+1==__dpj_nsplit) ? __dpj_length : DPJRuntime.RuntimeState.alignSplit(__dpj_begin, __dpj_chunk*(__dpj_i+1), __dpj_stride, __dpj_chunk, "+schedule[3]+");\n");
+		printAligned("__dpj_splits[__dpj_i] = new "+stName+"(__dpj_begin + __dpj_lo*__dpj_stride, __dpj_hi - __dpj_lo, __dpj_stride");
+		for(VarSymbol var : copyIn)
+		    print(", "+varString(var));
+		print(");\n");
+		printAligned("__dpj_lo = __dpj_hi;\n");
+		undent();
+		printAligned("}\n");
+		printAligned("RecursiveAction.invokeAll(__dpj_splits);\n");
+		if (tree.reductionVars.nonEmpty()) {
+		    printReductionInit(tree);
+		    printAligned("for(int __dpj_i=0; __dpj_i<__dpj_nsplit; __dpj_i++) {\n");
+		    indent();
+		    printReductionCombine(tree, "(("+stName+") __dpj_splits[__dpj_i])");
+		    undent();
+		    printAligned("}\n");
+		}
+		undent();
+		printAligned("}\n");
+		printAligned("else {\n");
+		indent();
+		printReductionInit(tree);
+		long flags = tree.var.mods.flags;
+		List<JCAnnotation> annotations = tree.var.mods.annotations;
+		tree.var.mods.flags &= ~Flags.FINAL;
+		tree.var.mods.annotations = List.nil();
+		printAligned("for("+tree.var.toString()+" = __dpj_begin; "+tree.var.sym.toString()+" < __dpj_begin + __dpj_length * __dpj_stride; "+tree.var.sym.toString()+"+=__dpj_stride)"+(instrument ? " {" : "")+"\n");
+		tree.var.mods.flags = flags;
+		tree.var.mods.annotations = annotations;
+		indent();
+		if (instrument)
+		    printAligned("DPJRuntime.Instrument.enterForeachIter();\n");
+		align();
+		boolean wasBogus = thisIsBogus;
+		thisIsBogus=true;
+		printStat(tree.body);
+		thisIsBogus=wasBogus;
+		println();
+		undent();
+		if (instrument) {
+		    indent();
+		    printAligned("DPJRuntime.Instrument.exitForeachIter();\n");
+		    undent();
+		    printAligned("}\n");
+		}
+		undent();
+		printAligned("}\n"); //end else
+	    }
+	    printScopeExit();
+	    printInstrumentExit("exitTask()");
+	    undent();
+	    printAligned("}\n"); //end run
+	    undent();
+	    printAligned("};\n"); //close class block
+
+	    //Okay, now generate the actual invocation
+	    String start = exprString(tree.start);
+	    String args = iter ? start :
+		start+", "+exprString(tree.length)+", "+
+		(tree.stride==null ? "1" : exprString(tree.stride));
+	    for(VarSymbol var : copyIn) {
+		if(var.toString().equals("this") && !thisIsBogus)
+		    args += ", this";
+		else
+		    args += ", "+varString(var);
+	    }
+	    String taskName = stName+"_task";
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.enterForeach("+
+			     (iter ? start+".size()" : exprString(tree.length))+");\n");
+	    printAligned(stName+" "+taskName+" = new "+stName+"("+args+");\n");
+	    printAligned("DPJRuntime.RuntimeState.invoke("+taskName+");\n");
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.exitForeach();\n");
+	    printReductionCombine(tree, taskName);
+	}
+	catch(IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+	finally {
+	    Types.printDPJ = true;
+	}
+    }
+
+    /**
+     * Whether parOutlinedForLoop can generate the parallel code for a
+     * foreach loop.  It handles the indexed form of deterministic
+     * loops without reductions, in uninstrumented code.  The body must
+     * be able to move out of the enclosing method:  the method must not
+     * be generic, and the loop must not mention classes declared in
+     * the method.  The loop must also be in a method of the class being
+     * printed, since that is where the body goes; a loop in an
+     * initializer of a local or anonymous class declared in a method
+     * is not, and keeps the task class form.
+     */
+    private boolean canOutline(DPJForLoop tree) {
+	if (tree.length == null || tree.isNondet || instrument ||
+		tree.reductionVars.nonEmpty() || enclMethod == null ||
+		enclMethod.sym == null || enclMethod.sym.owner != enclClassSym ||
+		enclMethod.typarams.nonEmpty())
+	    return false;
+	Set<VarSymbol> copyIn = new LinkedHashSet<VarSymbol>(tree.usedVars);
+	copyIn.removeAll(tree.declaredVars);
+	Set<VarSymbol> copyOut = new LinkedHashSet<VarSymbol>(tree.definedVars);
+	copyOut.removeAll(tree.declaredVars);
+	if (!copyOut.isEmpty())
+	    return false;
+	// Classes declared in the body move with it
+	final Set<Symbol> declared = new HashSet<Symbol>();
+	new TreeScanner() {
+	    @Override
+	    public void visitClassDef(JCClassDecl tree) {
+		declared.add(tree.sym);
+		super.visitClassDef(tree);
+	    }
+	}.scan(tree.body);
+	for (VarSymbol var : copyIn)
+	    if (isMethodLocal(var.type, declared))
+		return false;
+	class Finder extends TreeScanner {
+	    boolean found = false;
+	    @Override
+	    public void scan(JCTree tree) {
+		if (tree != null && !found) {
+		    if (isMethodLocal(tree.type, declared))
+			found = true;
+		    else
+			tree.accept(this);
+		}
+	    }
+	}
+	Finder finder = new Finder();
+	finder.scan(tree.var);
+	finder.scan(tree.body);
+	return !finder.found;
+    }
+
+    /**
+     * Whether a type mentions a class declared in enclMethod, other
+     * than the given ones, which a method outside it could not name.
+     */
+    private boolean isMethodLocal(Type type, Set<Symbol> declared) {
+	if (type == null)
+	    return false;
+	if (type.tag == TypeTags.ARRAY)
+	    return isMethodLocal(((Type.ArrayType) type).elemtype, declared);
+	if (!(type instanceof ClassType))
+	    return false;
+	ClassType ct = (ClassType) type;
+	if (ct.cellType != null && isMethodLocal(ct.cellType, declared))
+	    return true;
+	for (Type arg : ct.getTypeArguments())
+	    if (isMethodLocal(arg, declared))
+		return true;
+	for (Symbol sym = ct.tsym; sym != null && sym.owner != null;
+	     sym = sym.owner) {
+	    if (declared.contains(sym))
+		return false;
+	    if (sym.owner == enclMethod.sym)
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Generate the parallel code for a foreach loop accepted by
+     * canOutline.  The body moves into a private method of the
+     * enclosing class, printed after enclMethod, which runs a range of
+     * iterations and takes the values copied in as parameters.  At the
+     * loop, a small DPJRuntime.Foreach.Body holding those values calls
+     * the method, and a DPJRuntime.Foreach.Task runs it over the
+     * range, so the splitting code is shared by every loop.
+     */
+    private void parOutlinedForLoop(DPJForLoop tree) {
+	try {
+	    Types.printDPJ = false;
+	    Set<VarSymbol> copyIn = new LinkedHashSet<VarSymbol>(tree.usedVars);
+	    copyIn.removeAll(tree.declaredVars);
+	    // The method is a member of the class of this, so this is
+	    // not copied in
+	    for (Iterator<VarSymbol> it = copyIn.iterator(); it.hasNext(); )
+		if (it.next().toString().equals("this"))
+		    it.remove();
+	    String stName = "__dpj_S"+dpj_tname++;
+	    String loopName = stName+"_loop";
+	    String args = "";
+	    for (VarSymbol var : copyIn)
+		args += ", "+varString(var);
+
+	    // Print the method into its own buffer, at the margin of the
+	    // members of the class
+	    Writer outPrev = out;
+	    int lmarginPrev = lmargin;
+	    boolean wasBogus = thisIsBogus;
+	    StringWriter method = new StringWriter();
+	    out = method;
+	    lmargin = enclMethodMargin;
+	    thisIsBogus = false;
+	    try {
+		println();
+		align();
+		print("private ");
+		if ((enclMethod.mods.flags & Flags.STATIC) != 0)
+		    print("static ");
+		print("void "+loopName+"(int __dpj_begin, int __dpj_length, int __dpj_stride");
+		for (VarSymbol var : copyIn) {
+		    print(", ");
+		    printType(var.type);
+		    print(" "+varString(var));
+		}
+		print(") {\n");
+		indent();
+		long flags = tree.var.mods.flags;
+		List<JCAnnotation> annotations = tree.var.mods.annotations;
+		tree.var.mods.flags &= ~Flags.FINAL;
+		tree.var.mods.annotations = List.nil();
+		printAligned("for("+tree.var.toString()+" = __dpj_begin; "+tree.var.sym.toString()+" < __dpj_begin + __dpj_length * __dpj_stride; "+tree.var.sym.toString()+"+=__dpj_stride)\n");
+		tree.var.mods.flags = flags;
+		tree.var.mods.annotations = annotations;
+		indent();
+		align();
+		printStat(tree.body);
+		println();
+		undent();
+		undent();
+		printAligned("}\n");
+	    } finally {
+		out = outPrev;
+		lmargin = lmarginPrev;
+		thisIsBogus = wasBogus;
+	    }
+	    outlinedLoops.append(method.toString());
+
+	    // The body object
+	    println();
+	    printAligned("class "+stName+" implements DPJRuntime.Foreach.Body {\n");
 	    indent();
-	    printAligned("RecursiveAction[] __dpj_splits = new RecursiveAction[DPJRuntime.RuntimeState.dpjForeachSplit];\n");
-	    printAligned("for(int i=0; i<DPJRuntime.RuntimeState.dpjForeachSplit; i++)\n");
+	    for (VarSymbol var : copyIn) {
+		align();
+		printType(var.type);
+		print(" "+varString(var)+";\n");
+	    }
+	    align();
+	    print(stName+"(");
+	    String sep = "";
+	    for (VarSymbol var : copyIn) {
+		print(sep);
+		printType(var.type);
+		print(" "+varString(var));
+		sep = ", ";
+	    }
+	    print(") {\n");
 	    indent();
-	    printAligned("__dpj_splits[i] = new "+stName+"(__dpj_begin + (__dpj_length/DPJRuntime.RuntimeState.dpjForeachSplit)*i, (i+1==DPJRuntime.RuntimeState.dpjForeachSplit) ? (__dpj_length -  __dpj_length/DPJRuntime.RuntimeState.dpjForeachSplit*i) : (__dpj_length/DPJRuntime.RuntimeState.dpjForeachSplit), __dpj_stride");
-	    for(VarSymbol var : copyIn)
-		print(", "+varString(var));
-	    print(");\n");
+	    for (VarSymbol var : copyIn)
+		printAligned("this."+varString(var)+"="+varString(var)+";\n");
 	    undent();
-	    printAligned("RecursiveAction.forkJoin(__dpj_splits);\n");
+	    printAligned("}\n");
+	    printAligned("public void run(int __dpj_begin, int __dpj_length, int __dpj_stride) {\n");
+	    indent();
+	    printAligned(loopName+"(__dpj_begin, __dpj_length, __dpj_stride"+args+");\n");
 	    undent();
 	    printAligned("}\n");
-	    printAligned("else {\n");
+	    undent();
+	    printAligned("};\n");
+
+	    // The task
+	    String[] schedule = foreachSchedule(tree);
+	    printAligned("DPJRuntime.RuntimeState.invoke(new DPJRuntime.Foreach."+
+			 (codeGenMode == PAR_JUC ? "JUCTask" : "Task")+
+			 "(new "+stName+"("+(args.length() > 0 ? args.substring(2) : "")+"), "+
+			 exprString(tree.start)+", "+exprString(tree.length)+", "+
+			 (tree.stride == null ? "1" : exprString(tree.stride))+", "+
+			 schedule[0]+", "+schedule[1]+", "+schedule[2]+", "+
+			 schedule[3]+"));\n");
+	}
+	catch(IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+	finally {
+	    Types.printDPJ = true;
+	}
+    }
+
+    /**
+     * Compute the splitting parameters for a parallel foreach loop.
+     * Each parameter is the corresponding DPJRuntime.RuntimeState
+     * global, unless the loop variable carries a
+     * DPJRuntime.ForeachSchedule annotation overriding it with a
+     * constant.  A loop with reductions always splits statically,
+     * because adaptive splitting would make the order in which
+     * partial results are combined depend on the schedule.
+     *
+     * @return Expressions for the adaptive flag, the cutoff, the split
+     * factor, and the alignment of the split points, in that order
+     */
+    private String[] foreachSchedule(DPJForLoop tree) {
+	String[] result = {
+	    "DPJRuntime.RuntimeState.dpjForeachAdaptive",
+	    "DPJRuntime.RuntimeState.dpjForeachCutoff",
+	    "DPJRuntime.RuntimeState.dpjForeachSplit",
+	    "DPJRuntime.RuntimeState.dpjForeachAlign"
+	};
+	for (JCAnnotation annotation : tree.var.mods.annotations) {
+	    Type type = annotation.annotationType.type;
+	    if (type == null || !type.tsym.getQualifiedName().toString().
+		    equals("DPJRuntime.ForeachSchedule"))
+		continue;
+	    for (JCExpression arg : annotation.args) {
+		if (arg.getTag() != JCTree.ASSIGN) continue;
+		JCAssign assign = (JCAssign) arg;
+		Object value = assign.rhs.type == null ? null :
+		    assign.rhs.type.constValue();
+		if (!(value instanceof Integer)) continue;
+		int intValue = ((Integer) value).intValue();
+		String name = TreeInfo.name(assign.lhs).toString();
+		if (name.equals("mode")) {
+		    // ForeachSchedule.STATIC == 1, ADAPTIVE == 2
+		    if (intValue == 1) result[0] = "false";
+		    else if (intValue == 2) result[0] = "true";
+		} else if (name.equals("cutoff")) {
+		    if (intValue >= 0) result[1] = String.valueOf(intValue);
+		} else if (name.equals("split")) {
+		    if (intValue > 0) result[2] = String.valueOf(intValue);
+		} else if (name.equals("align")) {
+		    if (intValue >= 0) result[3] = String.valueOf(intValue);
+		}
+	    }
+	}
+	if (tree.reductionVars.nonEmpty()) result[0] = "false";
+	return result;
+    }
+
+    /**
+     * In instrumented parallel code, declare a field recording the
+     * instrumentation construct that created a task.  The field is
+     * initialized when the task is created, on the creating thread.
+     */
+    private void printInstrumentField() throws IOException {
+	if (instrument)
+	    printAligned("int __dpj_construct = DPJRuntime.Instrument.currentConstruct();\n");
+    }
+
+    /**
+     * Declare a field recording the finish scope current where a task
+     * is created, so that spawns in the task join the right
+     * dpjfinish whichever worker runs it (see DPJRuntime.Finish).
+     */
+    private void printScopeField() throws IOException {
+	printAligned("DPJRuntime.Finish __dpj_scope = DPJRuntime.Finish.current();\n");
+    }
+
+    /**
+     * On entry to the body of a task, make the finish scope recorded
+     * by printScopeField current, and open a try block to restore the
+     * worker's own scope.
+     */
+    private void printScopeEnter() throws IOException {
+	printAligned("DPJRuntime.Finish __dpj_outer = DPJRuntime.Finish.install(__dpj_scope);\n");
+	printAligned("try {\n");
+	indent();
+    }
+
+    /**
+     * Close the try block opened by printScopeEnter
+     */
+    private void printScopeExit() throws IOException {
+	undent();
+	printAligned("} finally {\n");
+	indent();
+	printAligned("DPJRuntime.Finish.install(__dpj_outer);\n");
+	undent();
+	printAligned("}\n");
+    }
+
+    /**
+     * In instrumented parallel code, generate a call to an
+     * instrumentation method on entry to the body of a task, and
+     * open a try block for the matching exit call.
+     */
+    private void printInstrumentEnter(String call) throws IOException {
+	if (instrument) {
+	    printAligned("DPJRuntime.Instrument."+call+";\n");
+	    printAligned("try {\n");
 	    indent();
-	    long flags = tree.var.mods.flags;
-	    tree.var.mods.flags &= ~Flags.FINAL;
-	    printAligned("for("+tree.var.toString()+" = __dpj_begin; "+tree.var.sym.toString()+" < __dpj_begin + __dpj_length * __dpj_stride; "+tree.var.sym.toString()+"+=__dpj_stride)\n");
-	    tree.var.mods.flags = flags;
+	}
+    }
+
+    /**
+     * Close the try block opened by printInstrumentEnter, making the
+     * exit call in its finally block.
+     */
+    private void printInstrumentExit(String call) throws IOException {
+	if (instrument) {
+	    undent();
+	    printAligned("} finally {\n");
+	    indent();
+	    printAligned("DPJRuntime.Instrument."+call+";\n");
+	    undent();
+	    printAligned("}\n");
+	}
+    }
+
+    /**
+     * Print the type of the iterator in the iterator form of foreach
+     */
+    private void printIteratorType(DPJForLoop tree) throws IOException {
+	print("DPJRuntime.DPJIterator<");
+	printType(tree.var.type);
+	print(">");
+    }
+
+    /**
+     * Generate the body of compute() for the iterator form of
+     * foreach:  split the iterator in two while it is larger than
+     * the cutoff, then iterate sequentially over what is left.
+     */
+    private void printIteratorSplit(DPJForLoop tree, String stName,
+				    Set<VarSymbol> copyIn) throws IOException {
+	String copyArgs = "";
+	for(VarSymbol var : copyIn)
+	    copyArgs += ", "+varString(var);
+	String[] schedule = foreachSchedule(tree);
+	printAligned("if(DPJRuntime.RuntimeState.splitForeach(__dpj_iter.size(), "+
+		     schedule[1]+", "+schedule[0]+")) {\n");
+	indent();
+	align();
+	printIteratorType(tree);
+	print(" __dpj_split = __dpj_iter.split();\n");
+	printAligned("if(__dpj_split != null) {\n");
+	indent();
+	printAligned(stName+" __dpj_left = new "+stName+"(__dpj_split"+copyArgs+");\n");
+	printAligned(stName+" __dpj_right = new "+stName+"(__dpj_iter"+copyArgs+");\n");
+	printAligned("RecursiveAction.invokeAll(__dpj_left, __dpj_right);\n");
+	if (tree.reductionVars.nonEmpty()) {
+	    printReductionInit(tree);
+	    printReductionCombine(tree, "__dpj_left");
+	    printReductionCombine(tree, "__dpj_right");
+	}
+	printAligned("return;\n");
+	undent();
+	printAligned("}\n");
+	undent();
+	printAligned("}\n");
+	printReductionInit(tree);
+	align();
+	print("DPJRuntime.DPJIterator.Status<");
+	printType(tree.var.type);
+	print("> __dpj_status;\n");
+	printAligned("while((__dpj_status = __dpj_iter.next()).hasElement()) {\n");
+	indent();
+	align();
+	printType(tree.var.type);
+	print(" "+tree.var.name+" = __dpj_status.getElement();\n");
+	if (instrument)
+	    printAligned("DPJRuntime.Instrument.enterForeachIter();\n");
+	align();
+	boolean wasBogus = thisIsBogus;
+	thisIsBogus=true;
+	printStat(tree.body);
+	thisIsBogus=wasBogus;
+	println();
+	if (instrument)
+	    printAligned("DPJRuntime.Instrument.exitForeachIter();\n");
+	undent();
+	printAligned("}\n");
+    }
+
+    /**
+     * Set the partial result of each reduction of a parallel foreach
+     * to the identity of its operator
+     */
+    private void printReductionInit(DPJForLoop tree) throws IOException {
+	List<Integer> ops = tree.reductionOps;
+	for (JCIdent var : tree.reductionVars) {
+	    int op = ops.head;
+	    ops = ops.tail;
+	    String identity;
+	    if (var.type.tag == TypeTags.BOOLEAN) {
+		identity = (op == JCTree.BITAND) ? "true" : "false";
+	    } else {
+		identity = (op == JCTree.MUL) ? "1" :
+		    (op == JCTree.BITAND) ? "-1" : "0";
+		identity = "(" + var.type + ") " + identity;
+	    }
+	    printAligned(var.name+" = "+identity+";\n");
+	}
+    }
+
+    /**
+     * Combine the partial results of the reductions of a parallel
+     * foreach held by task into the enclosing reduction variables
+     */
+    private void printReductionCombine(DPJForLoop tree, String task) 
+        throws IOException {
+	List<Integer> ops = tree.reductionOps;
+	for (JCIdent var : tree.reductionVars) {
+	    printAligned(var.name+" "+operatorName(ops.head)+"= "+
+		    task+"."+var.name+";\n");
+	    ops = ops.tail;
+	}
+    }
+
+    /**
+     * Print an expression to a string in the current code gen mode.
+     * JCTree.toString prints DPJ syntax, such as the region arguments
+     * of a class instance creation, which is not valid Java.
+     */
+    private String exprString(JCTree tree) throws IOException {
+	Writer outPrev = out;
+	StringWriter s = new StringWriter();
+	out = s;
+	try {
+	    printExpr(tree);
+	} finally {
+	    out = outPrev;
+	}
+	return s.toString();
+    }
+
+    private String varString(VarSymbol maybeThis) {
+	if(maybeThis.toString().equals("this"))
+	    return "__dpj_this";
+	else
+	    return maybeThis.toString();
+    }
+    
+    public void visitDPJForLoop(DPJForLoop tree) {
+	if (codeGenMode == NONE) {
+	    try {
+		if (tree.isNondet) {
+		    print("foreach_nd (");
+		} else {
+		    print("foreach (");
+		}
+		long flags = tree.var.mods.flags;
+		tree.var.mods.flags &= ~Flags.FINAL;
+		printExpr(tree.var);
+		tree.var.mods.flags = flags;
+		print(" in ");
+		printExpr(tree.start);
+		if (tree.length != null) {
+		    print(", ");
+		    printExpr(tree.length);
+		}
+		if (tree.stride != null) {
+		    print(", ");
+		    printExpr(tree.stride);
+		}
+		String sep = "; ";
+		List<Integer> ops = tree.reductionOps;
+		for (JCIdent var : tree.reductionVars) {
+		    print(sep + operatorName(ops.head) + ":" + var.name);
+		    sep = ", ";
+		    ops = ops.tail;
+		}
+		print(") ");
+		printStat(tree.body);
+	    }
+	    catch(IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	} else if (inSeqClone && tree.reductionVars.nonEmpty()) {
+	    // Combine partial results in the order the parallel version
+	    // does, so the result doesn't depend on whether runSequential
+	    // chose this version
+	    codeGenMode = seqCloneParMode;
+	    parallel = true;
+	    sequential = false;
+	    inSeqClone = false;
+	    try {
+		parDPJForLoop(tree);
+	    } finally {
+		codeGenMode = SEQ;
+		parallel = false;
+		sequential = true;
+		inSeqClone = true;
+	    }
+	} else if(sequential) {
+	    seqDPJForLoop(tree);
+	} else if (inSPMDMember) {
+	    printSPMDPhase(tree);
+	} else {
+	    parDPJForLoop(tree);
+	}
+    }
+    
+    /**
+     * Generate code for a sequential loop marked isSPMD by
+     * CheckEffects.  The body of the loop is only foreach loops, so
+     * instead of creating tasks for each foreach in each iteration, a
+     * team of tasks, one per worker thread, runs the whole loop.  Each
+     * member evaluates the loop control itself, runs a fixed chunk of
+     * each foreach, and waits for the others at a
+     * DPJRuntime.TeamBarrier after each foreach.  The locals of the
+     * enclosing method that the loop uses are copied into each member,
+     * and those the loop control assigns are copied back out of the
+     * first member afterwards.  If there is no team to run (inside
+     * another parallel task), the loop runs as usual.
+     *
+     * @param loop    The loop
+     * @param body    Its body
+     * @param control The trees of the loop control
+     */
+    private void printSPMDLoop(final JCStatement loop, JCStatement body,
+	    List<JCTree> control) {
+	try {
+	    Types.printDPJ = false;
+	    // The locals the loop uses but doesn't declare
+	    final Set<VarSymbol> declared = new LinkedHashSet<VarSymbol>();
+	    final Set<VarSymbol> copyIn = new LinkedHashSet<VarSymbol>();
+	    new TreeScanner() {
+		@Override public void visitVarDef(JCVariableDecl tree) {
+		    declared.add(tree.sym);
+		    super.visitVarDef(tree);
+		}
+		@Override public void visitIdent(JCIdent tree) {
+		    if (tree.sym instanceof VarSymbol &&
+			    (tree.sym.owner.kind == Kinds.MTH ||
+			     tree.sym.toString().equals("this")))
+			copyIn.add((VarSymbol) tree.sym);
+		}
+	    }.scan(loop);
+	    copyIn.removeAll(declared);
+	    // The locals the loop control assigns
+	    final Set<VarSymbol> copyOut = new LinkedHashSet<VarSymbol>();
+	    TreeScanner assigned = new TreeScanner() {
+		@Override public void visitAssign(JCAssign tree) {
+		    add(tree.lhs);
+		    super.visitAssign(tree);
+		}
+		@Override public void visitAssignop(JCAssignOp tree) {
+		    add(tree.lhs);
+		    super.visitAssignop(tree);
+		}
+		@Override public void visitUnary(JCUnary tree) {
+		    add(tree.arg);
+		    super.visitUnary(tree);
+		}
+		private void add(JCExpression lhs) {
+		    Symbol sym = TreeInfo.symbol(TreeInfo.skipParens(lhs));
+		    if (sym instanceof VarSymbol) copyOut.add((VarSymbol) sym);
+		}
+	    };
+	    for (JCTree tree : control)
+		assigned.scan(tree);
+	    copyOut.retainAll(copyIn);
+
+	    String stName = "__dpj_S"+dpj_tname++;
+	    String size = stName+"_size";
+	    String team = stName+"_team";
+	    print("{\n");
+	    indent();
+	    printAligned("int "+size+" = DPJRuntime.RuntimeState.spmdTeamSize"+
+		    (codeGenMode == PAR_JUC ? "JUC" : "")+"();\n");
+	    printAligned("if ("+size+" > 1) {\n");
+	    indent();
+	    printAligned("class " + stName + " extends RecursiveAction {\n");
+	    indent();
+	    printAligned("int __dpj_member;\n");
+	    printAligned("int __dpj_team;\n");
+	    printAligned("DPJRuntime.TeamBarrier __dpj_barrier;\n");
+	    printScopeField();
+	    for (VarSymbol var : copyIn) {
+		align();
+		printType(var.type);
+		print(" "+varString(var)+";\n");
+	    }
+	    align();
+	    print(stName+"(int __dpj_member, int __dpj_team, DPJRuntime.TeamBarrier __dpj_barrier");
+	    for (VarSymbol var : copyIn) {
+		print(", ");
+		printType(var.type);
+		print(" "+varString(var));
+	    }
+	    print(") {\n");
+	    indent();
+	    printAligned("this.__dpj_member = __dpj_member;\n");
+	    printAligned("this.__dpj_team = __dpj_team;\n");
+	    printAligned("this.__dpj_barrier = __dpj_barrier;\n");
+	    for (VarSymbol var : copyIn)
+		printAligned("this."+varString(var)+"="+varString(var)+";\n");
+	    undent();
+	    printAligned("}\n");
+	    printAligned("protected void compute() {\n");
+	    indent();
+	    printScopeEnter();
+	    printAligned("try {\n");
 	    indent();
 	    align();
 	    boolean wasBogus = thisIsBogus;
-	    thisIsBogus=true;
-	    printStat(tree.body);
-	    thisIsBogus=wasBogus;
+	    boolean wasMember = inSPMDMember;
+	    thisIsBogus = true;
+	    inSPMDMember = true;
+	    printSPMDStat(loop);
+	    inSPMDMember = wasMember;
+	    thisIsBogus = wasBogus;
+	    println();
+	    undent();
+	    // A member that fails releases the others
+	    for (String exception : new String[] { "RuntimeException", "Error" }) {
+		printAligned("} catch ("+exception+" __dpj_e) {\n");
+		indent();
+		printAligned("__dpj_barrier.cancel();\n");
+		printAligned("throw __dpj_e;\n");
+		undent();
+	    }
+	    printAligned("}\n");
+	    printScopeExit();
 	    undent();
-	    printAligned("}\n"); //end else
+	    printAligned("}\n"); // end compute
 	    undent();
-	    printAligned("}\n"); //end run
+	    printAligned("}\n"); // end class
+
+	    String args = "";
+	    for (VarSymbol var : copyIn) {
+		if (var.toString().equals("this") && !thisIsBogus)
+		    args += ", this";
+		else
+		    args += ", "+varString(var);
+	    }
+	    printAligned("DPJRuntime.TeamBarrier "+stName+"_barrier = new DPJRuntime.TeamBarrier("+size+");\n");
+	    printAligned(stName+"[] "+team+" = new "+stName+"["+size+"];\n");
+	    printAligned("for (int __dpj_i = 0; __dpj_i < "+size+"; ++__dpj_i)\n");
+	    indent();
+	    printAligned(team+"[__dpj_i] = new "+stName+"(__dpj_i, "+size+", "+
+		    stName+"_barrier"+args+");\n");
 	    undent();
-	    printAligned("};\n"); //close class block
-	    
-	    //Okay, now generate the actual invocation
-	    align();
-	    print("if(!DPJRuntime.RuntimeState.insideParallelTask) {\n");
+	    printAligned("DPJRuntime.RuntimeState.invokeAll("+team+");\n");
+	    for (VarSymbol var : copyOut)
+		printAligned(varString(var)+" = "+team+"[0]."+varString(var)+";\n");
+	    undent();
+	    printAligned("} else {\n");
 	    indent();
-	    printAligned("DPJRuntime.RuntimeState.insideParallelTask = true;\n");
-	    printAligned("DPJRuntime.RuntimeState.pool.invoke(new "+stName+"("+tree.start.toString()+", "+(tree.length==null ? tree.start.toString()+".size()" : tree.length.toString())+", "+(tree.stride==null ? "1" : tree.stride.toString()));
-	    for(VarSymbol var : copyIn)
-		{
-		    align();
-		    if(var.toString().equals("this") && !thisIsBogus)
-			print(", this");
-		    else
-			print(", "+varString(var));
-		}
-	    print("));\n");
 	    align();
-	    print("DPJRuntime.RuntimeState.insideParallelTask = false;\n");
+	    printSPMDStat(loop);
+	    println();
 	    undent();
-	    align();
-	    print("}\n");
-	    align();
-	    print("else\n");
-	    indent();
-	    printAligned("(new "+stName+"("+tree.start.toString()+", "+
-		    (tree.length==null ?
-			    tree.start.toString()+".size()" : 
-				tree.length.toString()) + 
-				", "+(tree.stride==null ? "1" : tree.stride.toString()));
-	    for(VarSymbol var : copyIn)
-		{
-		    align();
-		    if(var.toString().equals("this") && !thisIsBogus)
-			print(", this");
-		    else
-			print(", "+varString(var));
-		}
-	    print(")).forkJoin();\n");
+	    printAligned("}\n");
 	    undent();
+	    printAligned("}");
 	}
-	catch(IOException e) {
+	catch (IOException e) {
 	    throw new UncheckedIOException(e);
 	}
 	finally {
 	    Types.printDPJ = true;
 	}
     }
-
-    private String varString(VarSymbol maybeThis) {
-	if(maybeThis.toString().equals("this"))
-	    return "__dpj_this";
-	else
-	    return maybeThis.toString();
+    
+    /**
+     * Print an SPMD loop as an ordinary loop
+     */
+    private void printSPMDStat(JCStatement loop) throws IOException {
+	setSPMD(loop, false);
+	try {
+	    printStat(loop);
+	} finally {
+	    setSPMD(loop, true);
+	}
     }
     
-    public void visitDPJForLoop(DPJForLoop tree) {
-	if (codeGenMode == NONE) {
-	    try {
-		if (tree.isNondet) {
-		    print("foreach_nd (");
-		} else {
-		    print("foreach (");
-		}
-		long flags = tree.var.mods.flags;
-		tree.var.mods.flags &= ~Flags.FINAL;
-		printExpr(tree.var);
-		tree.var.mods.flags = flags;
-		print(" in ");
-		printExpr(tree.start);
-		if (tree.length != null) {
-		    print(", ");
-		    printExpr(tree.length);
-		}
-		if (tree.stride != null) {
-		    print(", ");
-		    printExpr(tree.stride);
-		}
-		print(") ");
-		printStat(tree.body);
-	    }
-	    catch(IOException e) {
-		throw new UncheckedIOException(e);
-	    }
-	} else if(sequential || tree.length==null) {
-	    seqDPJForLoop(tree);
-	} else {
-	    parDPJForLoop(tree);
+    private static void setSPMD(JCStatement loop, boolean isSPMD) {
+	switch (loop.getTag()) {
+	case JCTree.DOLOOP: ((JCDoWhileLoop) loop).isSPMD = isSPMD; break;
+	case JCTree.WHILELOOP: ((JCWhileLoop) loop).isSPMD = isSPMD; break;
+	case JCTree.FORLOOP: ((JCForLoop) loop).isSPMD = isSPMD; break;
+	}
+    }
+    
+    /**
+     * Generate code for a foreach in the body of an SPMD loop, as run
+     * by one member of the team:  run the member's chunk of the
+     * iterations, then wait for the other members.  A member that
+     * finds the barrier cancelled stops.
+     */
+    private void printSPMDPhase(DPJForLoop tree) {
+	try {
+	    print("{\n");
+	    indent();
+	    printAligned("int __dpj_begin = ");
+	    printExpr(tree.start);
+	    print(";\n");
+	    printAligned("int __dpj_length = ");
+	    printExpr(tree.length);
+	    print(";\n");
+	    printAligned("int __dpj_stride = ");
+	    if (tree.stride == null)
+		print("1");
+	    else
+		printExpr(tree.stride);
+	    print(";\n");
+	    // Neighbouring members compute the same shared split point
+	    String align = foreachSchedule(tree)[3];
+	    printAligned("int __dpj_chunk = __dpj_length / __dpj_team;\n");
+	    printAligned("int __dpj_lo = DPJRuntime.RuntimeState.alignSplit(__dpj_begin, (int) ((long) __dpj_length * __dpj_member / __dpj_team), __dpj_stride, __dpj_chunk, "+align+");\n");
+	    printAligned("int __dpj_hi = (__dpj_member + 1 == __dpj_team) ? __dpj_length : DPJRuntime.RuntimeState.alignSplit(__dpj_begin, (int) ((long) __dpj_length * (__dpj_member + 1) / __dpj_team), __dpj_stride, __dpj_chunk, "+align+");\n");
+	    String var = tree.var.name.toString();
+	    printAligned("for (int "+var+" = __dpj_begin + __dpj_lo * __dpj_stride, __dpj_k = __dpj_lo; __dpj_k < __dpj_hi; "+
+		    var+" += __dpj_stride, ++__dpj_k) {\n");
+	    indent();
+	    align();
+	    // Parallel constructs nested in the body are generated as usual
+	    inSPMDMember = false;
+	    printStat(tree.body);
+	    inSPMDMember = true;
+	    println();
+	    undent();
+	    printAligned("}\n");
+	    printAligned("if (!__dpj_barrier.await()) return;\n");
+	    undent();
+	    printAligned("}");
+	}
+	catch (IOException e) {
+	    throw new UncheckedIOException(e);
 	}
     }
     
@@ -1313,6 +2676,15 @@ public class Pretty extends JCTree.Visitor {
 	    }
 	}		
 	try {
+            if (inSeqClone && tree.expr.getTag() == JCTree.APPLY &&
+        	    guardsSeqClone((JCMethodInvocation) tree.expr)) {
+        	// A for loop update can't be an if statement
+        	if (prec == TreeInfo.notExpression)
+        	    printGuardedSeqCall((JCMethodInvocation) tree.expr, true);
+        	else
+        	    printSeqCall((JCMethodInvocation) tree.expr, "");
+        	return;
+            }
             printExpr(tree.expr);
             if (prec == TreeInfo.notExpression) print(";");
         } catch (IOException e) {
@@ -1402,7 +2774,17 @@ public class Pretty extends JCTree.Visitor {
     
     public void visitApply(JCMethodInvocation tree) {
 	try {
-            if (!tree.typeargs.isEmpty() ||
+            if (inSeqClone && guardsSeqClone(tree)) {
+                printGuardedSeqCall(tree, false);
+                return;
+            }
+            if (inSeqClone && bindsSeqClone(tree)) {
+                if (tree.meth.getTag() == JCTree.SELECT) {
+                    printExpr(((JCFieldAccess) tree.meth).selected);
+                    print(".");
+                }
+                print(TreeInfo.name(tree.meth) + SEQ_SUFFIX);
+            } else if (!tree.typeargs.isEmpty() ||
         	    !tree.regionArgs.isEmpty()) {
                 if (tree.meth.getTag() == JCTree.SELECT) {
                     JCFieldAccess left = (JCFieldAccess)tree.meth;
@@ -1448,7 +2830,8 @@ public class Pretty extends JCTree.Visitor {
                 printExpr(tree.encl);
                 print(".");
             }
-            if ((tree.constructor.flags() & ARRAYCONSTR) != 0) {
+            if (tree.constructor != null &&
+        	    (tree.constructor.flags() & ARRAYCONSTR) != 0) {
                 // Convert array constructor call to regular Java array         
 		ClassType ct = (ClassType) tree.clazz.type;
                 printArrayConstructor(ct.cellType, tree.args);
@@ -1474,6 +2857,8 @@ public class Pretty extends JCTree.Visitor {
             print(")");
             if (tree.def != null) {
                 Name enclClassNamePrev = enclClassName;
+                Symbol enclClassSymPrev = enclClassSym;
+                enclClassSym = tree.def.sym;
                 enclClassName =
                         tree.def.name != null ? tree.def.name :
                             tree.type != null && tree.type.tsym.name != tree.type.tsym.name.table.empty ? tree.type.tsym.name :
@@ -1481,6 +2866,7 @@ public class Pretty extends JCTree.Visitor {
                 //if ((tree.def.mods.flags & Flags.ENUM) != 0) print("/*enum*/");
                 printBlock(tree.def.defs);
                 enclClassName = enclClassNamePrev;
+                enclClassSym = enclClassSymPrev;
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -1539,6 +2925,10 @@ public class Pretty extends JCTree.Visitor {
     }
     
     public void visitSpawn(DPJSpawn tree) {
+	if (parallel) {
+	    parSpawn(tree);
+	    return;
+	}
 	try {
 	    if (codeGenMode == NONE) {
 		print("spawn ");
@@ -1564,7 +2954,76 @@ public class Pretty extends JCTree.Visitor {
 	}
     }
 
+    /**
+     * Generate a task for the body of a spawn, and spawn it into the
+     * current finish scope.  The finish scope joins the task.
+     */
+    public void parSpawn(DPJSpawn tree) {
+	boolean savedPrintDPJ = Types.printDPJ;
+	Types.printDPJ = false;
+	try {
+	    String stName = "__dpj_S"+dpj_tname++;
+	    Set<VarSymbol> copyIn = new LinkedHashSet(tree.usedVars);
+	    copyIn.removeAll(tree.declaredVars);
+	    Set<VarSymbol> copyOut = new LinkedHashSet(tree.definedVars);
+	    copyOut.removeAll(tree.declaredVars);
+	    removeThis(copyIn);
+	    removeThis(copyOut);
+	    println();
+	    if(copyOut.size()>0) {
+		// In real life this should have been caught by the type checker.
+		align();
+		print("Error: Assignment inside spawn to local variable declared prior to spawn\n");
+	    }
+
+	    align();
+	    print("class " + stName + " extends DPJRuntime.Finish." +
+		  (codeGenMode == PAR_JUC ? "JUCTask" : "Task") + " {\n");
+	    indent();
+	    printCopyInFields(copyIn);
+	    printInstrumentField();
+	    printCopyInConstructor(stName, copyIn);
+
+	    //Generate run method
+	    align();
+	    print("protected void run() {\n");
+	    indent();
+	    printInstrumentEnter("enterBranch(__dpj_construct)");
+	    align();
+	    printOwner = true;
+	    printStat(tree.body);
+	    printOwner = false;
+	    println();
+	    printInstrumentExit("exitBranch()");
+	    undent();
+	    align();
+	    print("}\n");
+
+	    //close class block
+	    undent();
+	    align();
+	    print("};\n");
+
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.openSpawn();\n");
+	    align();
+	    print("DPJRuntime.Finish.spawnTask(new "+stName+"("+varList(copyIn)+"));");
+	    if (instrument) {
+		println();
+		printAligned("DPJRuntime.Instrument.close();");
+	    }
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	} finally {
+	    Types.printDPJ = savedPrintDPJ;
+	}
+    }
+
     public void visitFinish(DPJFinish tree) {
+	if (parallel) {
+	    parFinish(tree);
+	    return;
+	}
 	try {
 	    if (codeGenMode == NONE) {
 		print("dpjfinish ");
@@ -1582,6 +3041,161 @@ public class Pretty extends JCTree.Visitor {
 	    throw new UncheckedIOException(e);
 	}
     }
+
+    /**
+     * Generate a task for the body of a finish.  The task opens a new
+     * finish scope, runs the body, and joins every task spawned in
+     * the scope.  As for cobegin, the outermost finish is submitted
+     * to the pool, and a nested finish runs inline in the current
+     * task.
+     */
+    public void parFinish(DPJFinish tree) {
+	boolean savedPrintDPJ = Types.printDPJ;
+	Types.printDPJ = false;
+	try {
+	    String arr = "__dpj_s"+dpj_tname++;
+	    String stName = "__dpj_S"+dpj_tname++;
+	    Set<VarSymbol> copyIn = new LinkedHashSet(tree.usedVars);
+	    copyIn.removeAll(tree.declaredVars);
+	    Set<VarSymbol> copyOut = new LinkedHashSet(tree.definedVars);
+	    copyOut.removeAll(tree.declaredVars);
+	    removeThis(copyIn);
+	    removeThis(copyOut);
+	    Set<VarSymbol> copyAll = new LinkedHashSet(copyIn);
+	    copyAll.addAll(copyOut);
+	    println();
+
+	    align();
+	    print("class " + stName + " extends RecursiveAction {\n");
+	    indent();
+	    printCopyInFields(copyAll);
+	    printInstrumentField();
+	    printCopyInConstructor(stName, copyIn);
+
+	    //Generate run method
+	    align();
+	    print("protected void compute() {\n");
+	    indent();
+	    align();
+	    print("DPJRuntime.Finish __dpj_finish = DPJRuntime.Finish.enter();\n");
+	    align();
+	    print("try {\n");
+	    indent();
+	    printInstrumentEnter("enterBranch(__dpj_construct)");
+	    align();
+	    printOwner = true;
+	    printStat(tree.body);
+	    printOwner = false;
+	    println();
+	    printInstrumentExit("exitBranch()");
+	    undent();
+	    align();
+	    print("} finally {\n");
+	    indent();
+	    align();
+	    print("__dpj_finish.exit();\n");
+	    undent();
+	    align();
+	    print("}\n");
+	    undent();
+	    align();
+	    print("}\n");
+
+	    //close class block
+	    undent();
+	    align();
+	    print("};\n");
+
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.openFinish();\n");
+	    align();
+	    print(stName+" "+arr+" = new "+stName+"("+varList(copyIn)+");\n");
+	    align();
+	    print("DPJRuntime.RuntimeState.invoke("+arr+");\n");
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.close();\n");
+
+	    //Generate copy out assignments
+	    for(VarSymbol var : copyOut) {
+		align();
+		print(var.toString()+" = "+arr+"."+var.toString()+";\n");
+	    }
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	} finally {
+	    Types.printDPJ = savedPrintDPJ;
+	}
+    }
+
+    /**
+     * Remove 'this' from a set of copied variables.  The generated
+     * task classes refer to the enclosing instance directly.
+     */
+    private void removeThis(Set<VarSymbol> vars) {
+	for (VarSymbol vs : vars) {
+	    if (vs.name.toString().equals("this")) {
+		vars.remove(vs);
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Declare the fields of a task class that hold copied variables
+     */
+    private void printCopyInFields(Set<VarSymbol> vars) throws IOException {
+	for(VarSymbol var : vars) {
+	    align();
+	    printType(var.type);
+	    print(" ");
+	    print(var.toString()+";\n");
+	}
+    }
+
+    /**
+     * Generate a task class constructor that copies in the given
+     * variables
+     */
+    private void printCopyInConstructor(String stName, Set<VarSymbol> copyIn) 
+	throws IOException {
+	align();
+	print(stName+"(");
+	boolean needsComma = false;
+	for(VarSymbol var : copyIn) {
+	    if (needsComma)
+		print(",");
+	    else
+		needsComma=true;
+	    printType(var.type);
+	    print(" ");
+	    print(var.toString());
+	}
+	print(") {\n");
+	indent();
+	for(VarSymbol var : copyIn) {
+	    align();
+	    print("this."+var.toString()+"="+var.toString()+";\n");
+	}
+	undent();
+	align();
+	print("}\n");
+    }
+
+    /**
+     * The comma-separated names of the given variables
+     */
+    private String varList(Set<VarSymbol> vars) {
+	String result = "";
+	boolean needsComma = false;
+	for(VarSymbol var : vars) {
+	    if (needsComma)
+		result += ",";
+	    else
+		needsComma = true;
+	    result += var.toString();
+	}
+	return result;
+    }
     
     private int dpj_tname = 0;    
     public void visitCobegin(DPJCobegin tree) {
@@ -1607,7 +3221,7 @@ public class Pretty extends JCTree.Visitor {
 	try {
 	    if (codeGenMode == NONE) {
 		print("atomic ");
-	    } else if (codeGenMode == PAR) {
+	    } else if (parallel) {
 		//TODO Use javac's normal error logging
 		throw new Error("Nondeterministic constructs are not supported");
 	    }
@@ -1661,6 +3275,13 @@ public class Pretty extends JCTree.Visitor {
 	    String arr = "__dpj_s"+dpj_tname++;
 	    int orig_dpj_tname = dpj_tname;
 	    println();
+	    // Unless the runtime says tasks are worth creating, run the
+	    // branches in the current task.  Instrumented code always
+	    // creates them, to measure the parallelism of the program.
+	    if (!instrument) {
+		printAligned("if (DPJRuntime.RuntimeState.splitCobegin()) {\n");
+		indent();
+	    }
 	    int i=0;
 	    for(JCStatement statement : body.stats)
 	    {
@@ -1668,9 +3289,9 @@ public class Pretty extends JCTree.Visitor {
 		String stName = "__dpj_S"+dpj_tname++;
 		print("class " + stName + " extends RecursiveAction {\n");
 		indent();
-		Set<VarSymbol> copyIn = new HashSet(tree.usedVars[i]);
+		Set<VarSymbol> copyIn = new LinkedHashSet(tree.usedVars[i]);
 		copyIn.removeAll(tree.declaredVars[i]);
-		Set<VarSymbol> copyOut = new HashSet(tree.definedVars[i]);
+		Set<VarSymbol> copyOut = new LinkedHashSet(tree.definedVars[i]);
 		copyOut.removeAll(tree.declaredVars[i]);
 		// TODO:  Don't put 'this' in in the first place!
 		for (VarSymbol vs : copyIn) {
@@ -1680,7 +3301,20 @@ public class Pretty extends JCTree.Visitor {
 			 break;
 		     }
 		}
-		Set<VarSymbol> copyAll = new HashSet(copyIn);
+		// As for foreach_nd, don't copy field values in/out, which
+		// would lose the updates made through the STM system
+		if (tree.isNondet) {
+		    Set<VarSymbol> dontInclude = new LinkedHashSet<VarSymbol>();
+		    for (VarSymbol var : copyIn)
+			if (var.owner.kind != Kinds.MTH)
+			    dontInclude.add(var);
+		    for (VarSymbol var : copyOut)
+			if (var.owner.kind != Kinds.MTH)
+			    dontInclude.add(var);
+		    copyIn.removeAll(dontInclude);
+		    copyOut.removeAll(dontInclude);
+		}
+		Set<VarSymbol> copyAll = new LinkedHashSet(copyIn);
 		copyAll.addAll(copyOut);
 
 		
@@ -1692,6 +3326,10 @@ public class Pretty extends JCTree.Visitor {
 		    print(" ");
 		    print(var.toString()+";\n");
 		}
+		printInstrumentField();
+		printScopeField();
+		if (!instrument)
+		    printAligned("int __dpj_depth = DPJRuntime.RuntimeState.cobeginDepth();\n");
 		
 		//Generate constructor for class
 		align();
@@ -1721,11 +3359,28 @@ public class Pretty extends JCTree.Visitor {
 		align();
 		print("protected void compute() {\n");
 		indent();
+		printInstrumentEnter("enterBranch(__dpj_construct)");
+		printScopeEnter();
+		if (!instrument) {
+		    printAligned("int __dpj_saved = DPJRuntime.RuntimeState.enterCobegin(__dpj_depth);\n");
+		    printAligned("try {\n");
+		    indent();
+		}
 		align();
 		printOwner = true;
 		printStat(statement);
 		printOwner = false;
 		println();
+		if (!instrument) {
+		    undent();
+		    printAligned("} finally {\n");
+		    indent();
+		    printAligned("DPJRuntime.RuntimeState.exitCobegin(__dpj_saved);\n");
+		    undent();
+		    printAligned("}\n");
+		}
+		printScopeExit();
+		printInstrumentExit("exitBranch()");
 		undent();
 		align();
 		print("}\n");
@@ -1761,6 +3416,8 @@ public class Pretty extends JCTree.Visitor {
 	    }
 	    
 	    //Okay, now generate the actual array and coInvoke call
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.openCobegin();\n");
 	    align();
 	    print("RecursiveAction[] "+arr+" = {");
 	    boolean needsComma=false;
@@ -1774,48 +3431,9 @@ public class Pretty extends JCTree.Visitor {
 	    }
 	    print("};\n");
 	    align();
-	    int cobegin_wrapper = dpj_tname++;
-	    print("class __dpj_S"+cobegin_wrapper+" extends RecursiveAction {\n");
-	    indent();
-	    align();
-	    print("RecursiveAction[] __dpj_toforkjoin;\n");
-	    align();
-	    print("__dpj_S"+cobegin_wrapper+"(RecursiveAction[] __dpj_toforkjoin_) {\n");
-	    indent();
-	    align();
-	    print("__dpj_toforkjoin = __dpj_toforkjoin_;\n");
-	    undent();
-	    align();
-	    print("}\n");
-	    align();
-	    print("protected void compute() {\n");
-	    indent();
-	    align();
-	    print("RecursiveAction.forkJoin(__dpj_toforkjoin);\n");
-	    undent();
-	    align();
-	    print("}\n"); //end compute
-	    undent();
-	    align();
-	    print("};\n"); //end cobegin_wrapper class
-	    align();
-	    print("if(!DPJRuntime.RuntimeState.insideParallelTask) {\n");
-	    indent();
-	    align();
-            print("DPJRuntime.RuntimeState.insideParallelTask = true;\n");
-	    align();
-	    print("DPJRuntime.RuntimeState.pool.invoke(new __dpj_S"+cobegin_wrapper+"("+arr+"));\n");
-	    undent();
-	    align();
-	    print("DPJRuntime.RuntimeState.insideParallelTask = false;\n");
-	    align();
-            print("}\n");
-	    align();
-	    print("else\n");
-	    indent();
-	    align();
-	    print("RecursiveAction.forkJoin("+arr+");\n");
-	    undent();
+	    print("DPJRuntime.RuntimeState.invokeAll("+arr+");\n");
+	    if (instrument)
+		printAligned("DPJRuntime.Instrument.close();\n");
 	    
 	    //Generate copy out assignments
 	    for(String assign : copyOutAssign)
@@ -1823,6 +3441,26 @@ public class Pretty extends JCTree.Visitor {
 		align();
 		print(assign);
 	    }
+	    // The inlined branches run sequentially, so the methods they
+	    // call run their sequential versions
+	    if (!instrument) {
+		String saved = "__dpj_seq" + dpj_tname++;
+		undent();
+		printAligned("} else {\n");
+		indent();
+		printAligned("boolean " + saved + 
+			" = DPJRuntime.RuntimeState.enterSequential();\n");
+		printAligned("try ");
+		printCobeginBlock(body.stats);
+		print(" finally {\n");
+		indent();
+		printAligned("DPJRuntime.RuntimeState.exitSequential(" + saved +
+			");\n");
+		undent();
+		printAligned("}\n");
+		undent();
+		printAligned("}\n");
+	    }
 	}
 	catch(IOException e) {
 	    throw new UncheckedIOException(e);
@@ -2154,6 +3792,13 @@ public class Pretty extends JCTree.Visitor {
 
     public void visitTypeApply(JCTypeApply tree) {
 	try {
+            // The cell type of an array class depends on its arguments,
+            // so print this instance rather than the functor, whose
+            // symbol holds the cell type of the last instance attributed
+            if (tree.type != null && isArrayClass(tree.type)) {
+        	printType(tree.type);
+        	return;
+            }
             printExpr(tree.functor);
             Symbol functorSymbol = tree.functor.getSymbol();
             if (functorSymbol != null && 
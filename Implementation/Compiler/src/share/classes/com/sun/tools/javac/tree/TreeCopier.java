@@ -25,7 +25,7 @@
 
 package com.sun.tools.javac.tree;
 
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import com.sun.source.tree.AnnotationTree;
@@ -293,7 +293,9 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
         JCDoWhileLoop t = (JCDoWhileLoop) node;
         JCStatement body = copy(t.body, p);
         JCExpression cond = copy(t.cond, p);
-        return M.at(t.pos).DoLoop(body, cond);
+        JCDoWhileLoop result = M.at(t.pos).DoLoop(body, cond);
+        result.isSPMD = t.isSPMD;
+        return result;
     }
 
     public JCTree visitErroneous(ErroneousTree node, P p) {
@@ -322,7 +324,9 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
         JCExpression cond = copy(t.cond, p);
         List<JCExpressionStatement> step = copy(t.step, p);
         JCStatement body = copy(t.body, p);
-        return M.at(t.pos).ForLoop(init, cond, step, body);
+        JCForLoop result = M.at(t.pos).ForLoop(init, cond, step, body);
+        result.isSPMD = t.isSPMD;
+        return result;
     }
 
     public JCTree visitIdentifier(IdentifierTree node, P p) {
@@ -381,6 +385,7 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
         JCMethodDecl result = M.at(t.pos).MethodDef(mods, t.name, restype, rgnParamInfo,
         	typarams, params, thrown, body, defaultValue, effects);
         result.sym = t.sym;
+        result.commutativeKey = t.commutativeKey;
         return result;
     }
 
@@ -550,7 +555,9 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
         JCWhileLoop t = (JCWhileLoop) node;
         JCStatement body = copy(t.body, p);
         JCExpression cond = copy(t.cond, p);
-        return M.at(t.pos).WhileLoop(cond, body);
+        JCWhileLoop result = M.at(t.pos).WhileLoop(cond, body);
+        result.isSPMD = t.isSPMD;
+        return result;
     }
 
     public JCTree visitWildcard(WildcardTree node, P p) {
@@ -634,13 +641,25 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
     public JCTree visitSpawn(SpawnTree node, P p) {
 	DPJSpawn t = (DPJSpawn) node;
 	JCStatement body = copy(t.body, p);
-	return M.at(t.pos).Spawn(body);
+	DPJSpawn result = M.at(t.pos).Spawn(body);
+
+	result.declaredVars = new LinkedHashSet<VarSymbol>(t.declaredVars);
+	result.definedVars = new LinkedHashSet<VarSymbol>(t.definedVars);
+	result.usedVars = new LinkedHashSet<VarSymbol>(t.usedVars);
+
+	return result;
     }
     
     public JCTree visitFinish(FinishTree node, P p) {
 	DPJFinish t = (DPJFinish) node;
 	JCStatement body = copy(t.body, p);
-	return M.at(t.pos).Finish(body);
+	DPJFinish result = M.at(t.pos).Finish(body);
+
+	result.declaredVars = new LinkedHashSet<VarSymbol>(t.declaredVars);
+	result.definedVars = new LinkedHashSet<VarSymbol>(t.definedVars);
+	result.usedVars = new LinkedHashSet<VarSymbol>(t.usedVars);
+
+	return result;
     }
     
     public JCTree visitCobegin(CobeginTree node, P p) {
@@ -653,9 +672,9 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
 	result.definedVars = new Set[t.bodySize];
 	result.usedVars = new Set[t.bodySize];
 	for (int i = 0; i < t.bodySize; i++) {
-	    result.declaredVars[i] = new HashSet<VarSymbol>(t.declaredVars[i]);
-	    result.definedVars[i] = new HashSet<VarSymbol>(t.definedVars[i]);
-	    result.usedVars[i] = new HashSet<VarSymbol>(t.usedVars[i]);
+	    result.declaredVars[i] = new LinkedHashSet<VarSymbol>(t.declaredVars[i]);
+	    result.definedVars[i] = new LinkedHashSet<VarSymbol>(t.definedVars[i]);
+	    result.usedVars[i] = new LinkedHashSet<VarSymbol>(t.usedVars[i]);
 	}
 	
 	return result;
@@ -666,10 +685,11 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
 	JCStatement body = copy(t.body, p);
 	DPJAtomic result = M.at(t.pos).Atomic(body);
 	
-	result.declaredVars = new HashSet<VarSymbol>(t.declaredVars);
-	result.definedVars = new HashSet<VarSymbol>(t.definedVars);
-	result.usedVars = new HashSet<VarSymbol>(t.usedVars);
+	result.declaredVars = new LinkedHashSet<VarSymbol>(t.declaredVars);
+	result.definedVars = new LinkedHashSet<VarSymbol>(t.definedVars);
+	result.usedVars = new LinkedHashSet<VarSymbol>(t.usedVars);
 	result.aliveAtEnd = t.aliveAtEnd;
+	result.barrierEffects = t.barrierEffects;
 	
 	return result;
     }
@@ -689,9 +709,11 @@ public class TreeCopier<P> implements TreeVisitor<JCTree,P> {
 	JCStatement body = copy(t.body, p);
 	DPJForLoop result = M.at(t.pos).DPJForLoop(t.var, start, length, stride, body, t.isNondet);
 	
-	result.declaredVars = new HashSet<VarSymbol>(t.declaredVars);
-	result.definedVars = new HashSet<VarSymbol>(t.definedVars);
-	result.usedVars = new HashSet<VarSymbol>(t.usedVars);
+	result.declaredVars = new LinkedHashSet<VarSymbol>(t.declaredVars);
+	result.definedVars = new LinkedHashSet<VarSymbol>(t.definedVars);
+	result.usedVars = new LinkedHashSet<VarSymbol>(t.usedVars);
+	result.reductionVars = copy(t.reductionVars, p);
+	result.reductionOps = t.reductionOps;
 	
 	return result;
     }
@@ -163,6 +163,28 @@ public class Log {
 	this(context, defaultWriter, defaultWriter, defaultWriter);
     }
 
+    /** Construct a log that defers the diagnostics reported to it, with
+     *  the same settings as the given log.  The log is not entered in
+     *  any context.
+     */
+    protected Log(Log log) {
+	this.errWriter = log.errWriter;
+	this.warnWriter = log.warnWriter;
+	this.noticeWriter = log.noticeWriter;
+	this.diags = log.diags;
+	this.dumpOnError = log.dumpOnError;
+	this.promptOnError = log.promptOnError;
+	this.emitWarnings = log.emitWarnings;
+	this.multipleErrors = log.multipleErrors;
+	this.MaxErrors = log.MaxErrors;
+	this.MaxWarnings = log.MaxWarnings;
+	this.showSourceLine = log.showSourceLine;
+	this.diagFormatter = log.diagFormatter;
+	this.diagListener = log.diagListener;
+	this.endPosTables = log.endPosTables;
+	this.deferred = new ListBuffer<JCDiagnostic>();
+    }
+
     /** Get the Log instance for this context. */
     public static Log instance(Context context) {
 	Log instance = context.get(logKey);
@@ -191,6 +213,11 @@ public class Log {
     
     private Map<JavaFileObject, Map<JCTree, Integer>> endPosTables;
 
+    /** The diagnostics held back by a deferred log, or null if diagnostics
+     *  are written as they are reported.  See deferredLog.
+     */
+    private ListBuffer<JCDiagnostic> deferred;
+
     /** The buffer containing the file that's currently translated.
      */
     private char[] buf = null;
@@ -217,6 +244,30 @@ public class Log {
         endPosTables.put(name, table);
     }
 
+    /** Return a new log that holds back the diagnostics reported to it,
+     *  counting them but not writing them, until they are reported
+     *  through this log by reportDeferred.  A deferred log has its own
+     *  state, so it may be used by another thread while this log is in
+     *  use.
+     */
+    public Log deferredLog() {
+	return new Log(this);
+    }
+
+    /** Report the diagnostics held back by a deferred log, in the order
+     *  they were reported to it.
+     */
+    public void reportDeferred(Log log) {
+	for (JCDiagnostic diag : log.deferred) {
+	    // Line numbers are computed by the log that made the diagnostic,
+	    // from its current source
+	    JavaFileObject prev = log.useSource(diag.getSource());
+	    report(diag);
+	    log.useSource(prev);
+	}
+	log.deferred.clear();
+    }
+
     /** Re-assign source, returning previous setting.
      */
     public JavaFileObject useSource(final JavaFileObject name) {
@@ -576,6 +627,11 @@ public class Log {
      * Write out a diagnostic.
      */
     protected void writeDiagnostic(JCDiagnostic diag) {
+        if (deferred != null) {
+            deferred.append(diag);
+            return;
+        }
+
         if (diagListener != null) {
 	    try {
 		diagListener.report(diag);
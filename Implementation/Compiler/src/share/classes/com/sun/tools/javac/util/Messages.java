@@ -157,7 +157,9 @@ public class Messages {
             else if (key.equals("compiler.err.region.param.must.start.rpl"))
         	msg = "region parameter must start RPL";
             else if (key.equals("compiler.err.bad.effect.summary"))
-        	msg = "bad effect summary";
+        	msg = "bad effect summary\nmissing: {0}";
+            else if (key.equals("compiler.err.bad.subclass.effects"))
+        	msg = "effects are not covered by overridden effects in class {0}\nmissing: {1}";
             else if (key.equals("compiler.warn.interference.cobegin"))
         	msg = "interference between statements in cobegin";
             else if (key.equals("compiler.warn.interference.foreach"))
@@ -172,6 +174,16 @@ public class Messages {
         	msg = "RPL parameter constraints violated";
             else if (key.equals("compiler.err.rpls.not.disjoint"))
         	msg = "RPLs are not disjoint";
+            else if (key.equals("compiler.err.reduction.var.not.local"))
+        	msg = "reduction variable {0} must be a non-final local variable";
+            else if (key.equals("compiler.err.reduction.bad.type"))
+        	msg = "reduction operator {0} cannot be applied to type {1}";
+            else if (key.equals("compiler.err.reduction.var.misuse"))
+        	msg = "reduction variable {0} may be used in foreach only as {0} {1}= ...";
+            else if (key.equals("compiler.err.foreach.schedule.too.small"))
+        	msg = "ForeachSchedule {0} must be at least {1}";
+            else if (key.equals("compiler.err.call.needs.clone"))
+        	msg = "{0} in {1} is called in an atomic or nonint block, so it must be annotated @Clone";
             else
 		msg = "compiler message file broken: key=" + key;
 	}
@@ -85,31 +85,33 @@ public class Name implements javax.lang.model.element.Name {
      *  Assume that bytes are in utf8 format.
      */
     public static Name fromUtf(Table table, byte cs[], int start, int len) {
-        int h = hashValue(cs, start, len) & table.hashMask;
-        Name n = table.hashes[h];
-	byte[] names = table.names;
-        while (n != null &&
-               (n.len != len || !equals(names, n.index, cs, start, len)))
-            n = n.next;
-        if (n == null) {
-	    int nc = table.nc;
-	    while (nc + len > names.length) {
+	synchronized (table) {
+	    int h = hashValue(cs, start, len) & table.hashMask;
+	    Name n = table.hashes[h];
+	    byte[] names = table.names;
+	    while (n != null &&
+		   (n.len != len || !equals(names, n.index, cs, start, len)))
+		n = n.next;
+	    if (n == null) {
+		int nc = table.nc;
+		while (nc + len > names.length) {
 //		System.err.println("doubling name buffer of length + " + names.length + " to fit " + len + " bytes");//DEBUG
-		byte[] newnames = new byte[names.length * 2];
-		System.arraycopy(names, 0, newnames, 0, names.length);
-		names = table.names = newnames;
+		    byte[] newnames = new byte[names.length * 2];
+		    System.arraycopy(names, 0, newnames, 0, names.length);
+		    names = table.names = newnames;
+		}
+		System.arraycopy(cs, start, names, nc, len);
+		n = new Name();
+		n.table = table;
+		n.index = nc;
+		n.len = len;
+		n.next = table.hashes[h];
+		table.hashes[h] = n;
+		table.nc = nc + len;
+		if (len == 0) table.nc++;
 	    }
-	    System.arraycopy(cs, start, names, nc, len);
-            n = new Name();
-	    n.table = table;
-            n.index = nc;
-            n.len = len;
-            n.next = table.hashes[h];
-            table.hashes[h] = n;
-	    table.nc = nc + len;
-            if (len == 0) table.nc++;
-        }
-        return n;
+	    return n;
+	}
     }
 
     /** Create a name from the bytes in array cs.
@@ -122,33 +124,35 @@ public class Name implements javax.lang.model.element.Name {
     /** Create a name from the characters in cs[start..start+len-1].
      */
     public static Name fromChars(Table table, char[] cs, int start, int len) {
-	int nc = table.nc;
-	byte[] names = table.names;
-	while (nc + len * 3 >= names.length) {
+	synchronized (table) {
+	    int nc = table.nc;
+	    byte[] names = table.names;
+	    while (nc + len * 3 >= names.length) {
 //	    System.err.println("doubling name buffer of length " + names.length + " to fit " + len + " chars");//DEBUG
-	    byte[] newnames = new byte[names.length * 2];
-	    System.arraycopy(names, 0, newnames, 0, names.length);
-	    names = table.names = newnames;
-	}
-	int nbytes =
-	    Convert.chars2utf(cs, start, names, nc, len) - nc;
-        int h = hashValue(names, nc, nbytes) & table.hashMask;
-        Name n = table.hashes[h];
-        while (n != null &&
-               (n.len != nbytes ||
-		!equals(names, n.index, names, nc, nbytes)))
-            n = n.next;
-        if (n == null) {
-            n = new Name();
-	    n.table = table;
-            n.index = nc;
-            n.len = nbytes;
-            n.next = table.hashes[h];
-            table.hashes[h] = n;
-	    table.nc = nc + nbytes;
-	    if (nbytes == 0) table.nc++;
+		byte[] newnames = new byte[names.length * 2];
+		System.arraycopy(names, 0, newnames, 0, names.length);
+		names = table.names = newnames;
+	    }
+	    int nbytes =
+		Convert.chars2utf(cs, start, names, nc, len) - nc;
+	    int h = hashValue(names, nc, nbytes) & table.hashMask;
+	    Name n = table.hashes[h];
+	    while (n != null &&
+		   (n.len != nbytes ||
+		    !equals(names, n.index, names, nc, nbytes)))
+		n = n.next;
+	    if (n == null) {
+		n = new Name();
+		n.table = table;
+		n.index = nc;
+		n.len = nbytes;
+		n.next = table.hashes[h];
+		table.hashes[h] = n;
+		table.nc = nc + nbytes;
+		if (nbytes == 0) table.nc++;
+	    }
+	    return n;
 	}
-	return n;
     }
 
     /** Create a name from the characters in string s.
@@ -470,6 +474,7 @@ public class Name implements javax.lang.model.element.Name {
 	    RuntimeInvisibleParameterAnnotations = fromString("RuntimeInvisibleParameterAnnotations");
 	    Value = fromString("Value");
 	    EnclosingMethod = fromString("EnclosingMethod");
+	    DPJSignature = fromString("DPJSignature");
 
 	    desiredAssertionStatus = fromString("desiredAssertionStatus");
 		
@@ -609,6 +614,7 @@ public class Name implements javax.lang.model.element.Name {
 
 	public final Name Value;
 	public final Name EnclosingMethod;
+	public final Name DPJSignature;
 
 	public final Name desiredAssertionStatus;
 		
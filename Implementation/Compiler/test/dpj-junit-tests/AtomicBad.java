@@ -41,4 +41,8 @@ public class AtomicBad extends DPJTestCase {
 	compileExpectingErrors("MethodRegionParamsBad", 1);
     }
     
+    @Test public void testCallNeedsClone() throws Throwable {
+	generateExpectingErrors("CallNeedsClone", 2);
+    }
+    
 }
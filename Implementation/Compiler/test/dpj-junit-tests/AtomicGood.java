@@ -47,4 +47,9 @@ public class AtomicGood extends DPJTestCase {
     @Test public void testAtomicParameterEffects() throws Throwable {
 	compile("AtomicParameterEffects");
     }
+
+    @Test public void testCloneCall() throws Throwable {
+	compile("CloneCall");
+	generateExpectingErrors("CloneCall", 0);
+    }
 }
@@ -42,4 +42,8 @@ public class ClassEffectParamsGood extends DPJTestCase {
     @Test public void testInterfaceExtends() throws Throwable {
 	compile("InterfaceExtends");
     }
+    
+    @Test public void testInvokeThroughEffectParam() throws Throwable {
+	compile("InvokeThroughEffectParam");
+    }
 }
@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.sun.tools.javac.code.Constraints;
+import com.sun.tools.javac.code.Effect;
+import com.sun.tools.javac.code.Effects;
+import com.sun.tools.javac.code.Scope;
+import com.sun.tools.javac.code.Source;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.VarSymbol;
+import com.sun.tools.javac.code.Type.ClassType;
+import com.sun.tools.javac.comp.AttrContext;
+import com.sun.tools.javac.comp.Env;
+import com.sun.tools.javac.jvm.ClassReader;
+import com.sun.tools.javac.jvm.DPJSignatures;
+import com.sun.tools.javac.jvm.Target;
+import com.sun.tools.javac.main.OptionName;
+import com.sun.tools.javac.tree.JCTree.JCClassDecl;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.JavacFileManager;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Options;
+import com.sun.tools.javac.util.Pair;
+
+/**
+ * Test the DPJ signatures in class files (see jvm.DPJSignatures):  a
+ * class compiled with -bytecode and read back from its class file
+ * must have the DPJ signature it had in the source, except for the
+ * losses that DPJSignatures documents.  These tests need the runtime
+ * classes, and are skipped if they are not built.
+ */
+public class ClassFileSignatures extends DPJTestCase {
+
+    private File runtime;
+    private File outDir;
+
+    public ClassFileSignatures() {
+	super("ClassFileSignatures");
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+	try {
+	    runtime = runtimeClasses();
+	    if (runtime == null) return;
+	    outDir = makeTempDir();
+	} catch (Exception e) {
+	    throw e;
+	} catch (Throwable t) {
+	    throw new Error(t);
+	}
+    }
+
+    @Override
+    protected void tearDown() {
+	if (outDir != null) deleteAll(outDir);
+    }
+
+    @Test public void testExact() throws Throwable {
+	if (runtime == null) return;
+	Map<String,String> source = describeSource("Exact");
+	Map<String,String> classFile = describeClassFile("Exact");
+	assertEquals(source.toString(), declared(classFile, source).toString());
+    }
+
+    /**
+     * The losses documented in DPJSignatures, and nothing else
+     */
+    /**
+     * Sequential code, which Lower translates for Gen, writes the same
+     * signatures as the erased Java code
+     */
+    @Test public void testExactSequential() throws Throwable {
+	if (runtime == null) return;
+	Map<String,String> source = describeSource("Exact");
+	Map<String,String> classFile = describeClassFile("Exact", "-seq");
+	assertEquals(source.toString(), declared(classFile, source).toString());
+    }
+
+    @Test public void testLossy() throws Throwable {
+	if (runtime == null) return;
+	Map<String,String> expected = describeSource("Lossy");
+	lose(expected, "Lossy", "Cell<Q>", "Cell");
+	lose(expected, "Lossy.shift", "[i + 1]", "[?]");
+	Map<String,String> classFile = describeClassFile("Lossy");
+	assertEquals(expected.toString(), 
+		declared(classFile, expected).toString());
+    }
+
+    /**
+     * What is lost only makes code compiled against the class file
+     * more conservative:  Client has no interference against the
+     * source of Lossy, but has against its class file
+     */
+    @Test public void testLossIsConservative() throws Throwable {
+	if (runtime == null) return;
+	String fromSource = compileClient("-sourcepath", 
+		loadFile(dirname).getPath());
+	assertFalse(fromSource, fromSource.contains("interference"));
+	dpjc("Lossy", runtime, outDir, "-bytecode");
+	String fromClassFile = compileClient();
+	assertTrue(fromClassFile, fromClassFile.contains("interference"));
+    }
+
+    /**
+     * Attribute a file, and describe the classes declared in it
+     */
+    private Map<String,String> describeSource(String filename)
+	    throws Throwable {
+	Map<String,String> result = new TreeMap<String,String>();
+	for (Pair<Env<AttrContext>, JCClassDecl> pair : compile(filename))
+	    describe(pair.snd.sym, result);
+	return result;
+    }
+
+    /**
+     * Compile a file with -bytecode and the given options, read the
+     * classes back from the class files, and describe them
+     */
+    private Map<String,String> describeClassFile(String filename,
+	    String... dpjcArgs) throws Throwable {
+	ArrayList<String> dpjcOptions = 
+	    new ArrayList<String>(Arrays.asList(dpjcArgs));
+	dpjcOptions.add("-bytecode");
+	dpjcOptions.add("-g");
+	dpjc(filename, runtime, outDir, 
+		dpjcOptions.toArray(new String[dpjcOptions.size()]));
+	Context context = new Context();
+	JavacFileManager.preRegister(context);
+	Options options = Options.instance(context);
+	options.put(OptionName.SOURCE, Source.JDK1_5.name);
+	options.put(OptionName.TARGET, Target.JDK1_5.name);
+	options.put("save-parameter-names", "save-parameter-names");
+	options.put(OptionName.CLASSPATH,
+		outDir.getPath() + File.pathSeparator + runtime.getPath());
+	DPJSignatures.instance(context).readSignatures = true;
+	ClassReader reader = ClassReader.instance(context);
+	Name.Table names = Name.Table.instance(context);
+	Map<String,String> result = new TreeMap<String,String>();
+	for (File file : outDir.listFiles()) {
+	    String name = file.getName();
+	    if (!name.endsWith(".class")) continue;
+	    name = name.substring(0, name.length() - ".class".length());
+	    describe(reader.loadClass(names.fromString(name)), result);
+	}
+	return result;
+    }
+
+    /**
+     * Describe the DPJ signature of a class and its fields and
+     * methods, one entry per symbol
+     */
+    private void describe(ClassSymbol c, Map<String,String> result) {
+	ClassType ct = (ClassType) c.type;
+	StringBuilder typarams = new StringBuilder();
+	for (Type t : ct.getTypeArguments())
+	    typarams.append(t).append(" extends ").append(t.getUpperBound())
+		.append(' ');
+	result.put(c.name.toString(), typarams.toString() +
+		ct.getRPLArguments() + " " + ct.getEffectArguments() + " " +
+		describe(c.constraints) + " " + ct.supertype_field + " " +
+		ct.interfaces_field);
+	for (Scope.Entry e = c.members().elems; e != null; e = e.sibling) {
+	    String key = c.name + "." + e.sym.name;
+	    if (e.sym instanceof VarSymbol) {
+		VarSymbol v = (VarSymbol) e.sym;
+		result.put(key, v.type + " in " + v.rpl);
+	    } else if (e.sym instanceof MethodSymbol) {
+		MethodSymbol m = (MethodSymbol) e.sym;
+		result.put(key, m.rgnParams + " " + m.effectparams + " " +
+			describe(m.constraints) + " " + m.type + " " +
+			sorted(m.effects));
+	    } else {
+		result.put(key, e.sym.toString());
+	    }
+	}
+    }
+
+    /**
+     * Run dpjc on Client, with the class files of outDir on the class
+     * path, and return what it printed
+     */
+    private String compileClient(String... options) throws Throwable {
+	File clientDir = new File(outDir, "client");
+	clientDir.mkdir();
+	ArrayList<String> args = new ArrayList<String>(Arrays.asList(options));
+	args.add("-d");
+	args.add(clientDir.getPath());
+	args.add("-cp");
+	args.add(outDir.getPath() + File.pathSeparator + runtime.getPath());
+	args.add(loadFile(dirname + "/Client.java").getPath());
+	StringWriter diagnostics = new StringWriter();
+	com.sun.tools.javac.main.Main compiler = 
+	    new com.sun.tools.javac.main.Main("dpjc", 
+		    new PrintWriter(diagnostics, true));
+	int result = compiler.compile(args.toArray(new String[args.size()]), 
+		true);
+	assertEquals(diagnostics.toString(), 0, result);
+	return diagnostics.toString();
+    }
+
+    /**
+     * Change the expected description of a symbol as the class file
+     * loses it
+     */
+    private void lose(Map<String,String> description, String key, 
+	    String from, String to) {
+	String entry = description.get(key);
+	assertTrue(entry, entry.contains(from));
+	description.put(key, entry.replace(from, to));
+    }
+
+    /**
+     * The entries of a class file description for the symbols declared
+     * in the source; the generated code adds others
+     */
+    private Map<String,String> declared(Map<String,String> classFile,
+	    Map<String,String> source) {
+	Map<String,String> result = new TreeMap<String,String>();
+	for (String key : source.keySet())
+	    result.put(key, classFile.get(key));
+	return result;
+    }
+
+    private String describe(Constraints constraints) {
+	if (constraints == null) return "null";
+	return constraints.disjointRPLs + " " + 
+	    constraints.noninterferingEffects;
+    }
+
+    /**
+     * The effects, written in a fixed order
+     */
+    private Set<String> sorted(Effects effects) {
+	Set<String> result = new TreeSet<String>();
+	for (Effect e : effects) result.add(e.toString());
+	return result;
+    }
+}
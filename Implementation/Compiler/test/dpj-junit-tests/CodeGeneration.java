@@ -0,0 +1,340 @@
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Test the Java code that dpjc generates, by comparing it with the
+ * expected code and by running it.  These tests need the runtime
+ * classes, and are skipped if they are not built.
+ */
+public class CodeGeneration extends DPJTestCase {
+
+    private static final String[] THREADS = 
+    { "--dpj-num-threads", "4", "--dpj-foreach-cutoff", "1" };
+
+    public CodeGeneration() {
+	super("CodeGeneration");
+    }
+
+    private void runCompare(String filename, String[] options,
+	    String expected, String... args) throws Throwable {
+	String output = compileAndRun(filename, options, args);
+	if (output != null) assertEquals(expected, output.trim());
+    }
+
+    /**
+     * Like runCompare, for a program that uses the region parameters
+     * of runtime classes (see runtimeSourcePath)
+     */
+    private void runCompareWithSources(String filename, String expected,
+	    String... args) throws Throwable {
+	runCompareWithSources(filename, new String[0], expected, args);
+    }
+
+    private void runCompareWithSources(String filename, String[] options,
+	    String expected, String... args) throws Throwable {
+	File sources = runtimeSourcePath();
+	if (sources == null) return;
+	try {
+	    String[] sourceOptions = new String[options.length + 3];
+	    System.arraycopy(options, 0, sourceOptions, 3, options.length);
+	    sourceOptions[0] = "-sourcepath";
+	    sourceOptions[1] = sources.getPath();
+	    sourceOptions[2] = "-Xprefer:source";
+	    runCompare(filename, sourceOptions, expected, args);
+	} finally {
+	    deleteAll(sources);
+	}
+    }
+
+    @Test public void testFinishScope() throws Throwable {
+	generateAndCompare("FinishScope");
+    }
+
+    @Test public void testFinishScopeRun() throws Throwable {
+	runCompare("FinishScope", new String[0], "task 2\ndone", THREADS);
+    }
+
+    @Test public void testFinishScopeRunJUC() throws Throwable {
+	runCompare("FinishScope", new String[] { "-juc" }, "task 2\ndone", 
+		THREADS);
+    }
+
+    @Test public void testFinishScopeRunCommonPool() throws Throwable {
+	runCompare("FinishScope", new String[] { "-juc" }, "task 2\ndone", 
+		"--dpj-common-pool", "--dpj-foreach-cutoff", "1");
+    }
+
+    @Test public void testIteratorReduction() throws Throwable {
+	generateAndCompare("IteratorReduction");
+    }
+
+    @Test public void testIteratorReductionRun() throws Throwable {
+	String expected = compileAndRun("IteratorReduction", new String[0],
+		THREADS);
+	if (expected == null) return;
+	for (int i = 0; i < 3; ++i) {
+	    runCompare("IteratorReduction", new String[0], expected.trim(),
+		    "--dpj-num-threads", "4", "--dpj-foreach-cutoff", "1",
+		    "--dpj-foreach-adaptive");
+	}
+    }
+
+    @Test public void testSeqClone() throws Throwable {
+	generateAndCompare("SeqClone");
+    }
+
+    /**
+     * With one thread every method runs its sequential version, but
+     * the results, including the floating-point reduction, are the
+     * same as with four
+     */
+    @Test public void testSeqCloneRun() throws Throwable {
+	String expected = "89 610 666\n2010\n7.485470860550345";
+	runCompare("SeqClone", new String[0], expected, 
+		"--dpj-num-threads", "1");
+	runCompare("SeqClone", new String[0], expected, 
+		"--dpj-num-threads", "4");
+    }
+
+    @Test public void testOutline() throws Throwable {
+	generateAndCompare("Outline");
+    }
+
+    @Test public void testOutlineRun() throws Throwable {
+	runCompare("Outline", new String[0], "20540 4840 1060 1600", THREADS);
+	runCompare("Outline", new String[] { "-juc" }, "20540 4840 1060 1600",
+		THREADS);
+    }
+
+    @Test public void testAtomicCounter() throws Throwable {
+	for (int i = 0; i < 3; ++i) {
+	    runCompare("AtomicCounter", new String[0], "1111 499501", 
+		    THREADS);
+	}
+    }
+
+    /**
+     * Commutative methods that only accumulate into int and long fields
+     * use field updaters, others lock a stripe of their key parameter,
+     * and hand-synchronized ones are left as they are
+     */
+    @Test public void testCommutative() throws Throwable {
+	generateAndCompare("Commutative");
+    }
+
+    @Test public void testCommutativeRun() throws Throwable {
+	String expected = "2000 4294967795500 -499500\n50800 509500 3000";
+	for (int i = 0; i < 3; ++i) {
+	    runCompare("Commutative", new String[0], expected, THREADS);
+	    runCompare("Commutative", new String[] { "-juc" }, expected,
+		    THREADS);
+	}
+    }
+
+    /**
+     * Instrumented sequential and parallel code record the same
+     * constructs, and measure about the same parallelism:  the
+     * program's work is 11 sleeps, on a critical path of 2
+     */
+    @Test public void testInstrumentedRun() throws Throwable {
+	String seq = compileAndRun("Instrumented",
+		new String[] { "-seq", "-instrument" });
+	if (seq == null) return;
+	String par = compileAndRun("Instrumented",
+		new String[] { "-instrument" }, THREADS);
+	String[] seqLines = seq.trim().split("\n");
+	String[] parLines = par.trim().split("\n");
+	assertEquals("tasks 9 4", seqLines[0]);
+	assertEquals("tasks 9 4", parLines[0]);
+	String[] seqResults = seqLines[1].split(" ");
+	String[] parResults = parLines[1].split(" ");
+	for (int i = 0; i < 2; ++i) {
+	    double s = Double.parseDouble(seqResults[i]);
+	    double p = Double.parseDouble(parResults[i]);
+	    assertTrue(seqLines[1] + " vs. " + parLines[1],
+		    Math.abs(s - p) < 0.15 * s);
+	}
+	double speedup = Double.parseDouble(parResults[1]);
+	assertTrue(parLines[1], speedup > 4 && speedup <= 5.5);
+    }
+
+    /**
+     * Sequential code compiled to class files is lowered for Gen, with
+     * no Java source in between, and computes the same results as the
+     * parallel code
+     */
+    @Test public void testLoweredRun() throws Throwable {
+	String expected = "285 120 10 20\n-1 81 130 300";
+	runCompare("Lowered", new String[] { "-seq" }, expected);
+	runCompare("Lowered", new String[0], expected, THREADS);
+	File runtime = runtimeClasses();
+	if (runtime == null) return;
+	File outDir = makeTempDir();
+	try {
+	    dpjc("Lowered", runtime, outDir, "-seq", "-bytecode");
+	    assertTrue(new File(outDir, "Lowered.class").exists());
+	    assertFalse(new File(outDir, "Lowered.java").exists());
+	} finally {
+	    deleteAll(outDir);
+	}
+    }
+
+    /**
+     * Fused and unfused loops must compute the same results; if the
+     * last two loops were wrongly fused, f would read elements of e
+     * not yet written
+     */
+    @Test public void testForeachFusionRun() throws Throwable {
+	String expected = "499500 1000000 1499500 1998";
+	for (int i = 0; i < 3; ++i) {
+	    runCompare("ForeachFusion", new String[0], expected, THREADS);
+	    runCompare("ForeachFusion", 
+		    new String[] { "-XDnoForeachFusion" }, expected, THREADS);
+	}
+    }
+
+    /**
+     * The parameters given in ForeachSchedule annotations replace the
+     * runtime settings for their loops only
+     */
+    @Test public void testSchedule() throws Throwable {
+	generateAndCompare("Schedule");
+    }
+
+    @Test public void testScheduleBad() throws Throwable {
+	generateExpectingErrors("ScheduleBad", 2);
+    }
+
+    /**
+     * Every loop runs each iteration once, when the runtime splits
+     * adaptively, and when the runtime settings would split a range
+     * into pieces as large as itself
+     */
+    @Test public void testScheduleRun() throws Throwable {
+	String expected = "split 0\nadaptive 0\nstatic 0\nglobal 0\nstride 0";
+	runCompare("Schedule", new String[0], expected, THREADS);
+	runCompare("Schedule", new String[0], expected, 
+		"--dpj-num-threads", "4", "--dpj-foreach-cutoff", "1",
+		"--dpj-foreach-adaptive");
+	runCompare("Schedule", new String[] { "-juc" }, expected, 
+		"--dpj-num-threads", "4", "--dpj-foreach-cutoff", "1",
+		"--dpj-foreach-adaptive");
+	runCompare("Schedule", new String[0], expected, 
+		"--dpj-num-threads", "4", "--dpj-foreach-cutoff", "0");
+	runCompare("Schedule", new String[0], expected, 
+		"--dpj-num-threads", "4", "--dpj-foreach-split", "1");
+    }
+
+    @Test public void testSPMD() throws Throwable {
+	generateAndCompare("SPMD", "-spmd");
+    }
+
+    /**
+     * The team gives the same results as separate foreach loops, in
+     * either kind of pool
+     */
+    @Test public void testSPMDRun() throws Throwable {
+	String expected = "461343 411752 7981 10\nphase 0";
+	runCompare("SPMD", new String[0], expected, THREADS);
+	for (int i = 0; i < 3; ++i) {
+	    runCompare("SPMD", new String[] { "-spmd" }, expected, THREADS);
+	    runCompare("SPMD", new String[] { "-spmd", "-juc" }, expected, 
+		    THREADS);
+	}
+    }
+
+    /**
+     * A split partition has the same segments as a partition that
+     * creates them up front, and rejects the same indices
+     */
+    @Test public void testSplitPartitionRun() throws Throwable {
+	runCompareWithSources("SplitPartition",
+		"eager 2 [1..4] [5..10]\n" +
+		"split 2 [1..4] [5..10]\n" +
+		"eager exclude 2 [1..4] [6..10]\n" +
+		"split exclude 2 [1..4] [6..10]\n" +
+		"split no exclude 2 [1..4] [5..10]\n" +
+		"split 0 2 [] [1..10]\n" +
+		"split 0 exclude 2 [] [2..10]\n" +
+		"split n 2 [1..10] []\n" +
+		"split n-1 exclude 2 [1..9] []\n" +
+		"split -1 false out of bounds\n" +
+		"split 11 false out of bounds\n" +
+		"split 10 true out of bounds\n" +
+		"get -1 out of bounds\n" +
+		"get 2 out of bounds");
+    }
+
+    /**
+     * Iterator-form foreach loops with no reduction visit each element
+     * of the runtime arrays, slices and sets once, whether the
+     * iterators are split or not
+     */
+    @Test public void testArrayIteratorsRun() throws Throwable {
+	String expected = 
+	    "slice 1000 499500 0 0\n" +
+	    "array 1000 499500 0 0\n" +
+	    "strings 1000 499500 0 0\n" +
+	    "set 1000 499500 0 0\n" +
+	    "empty 0 0 0 0";
+	runCompareWithSources("ArrayIterators", new String[] { "-seq" },
+		expected);
+	for (int i = 0; i < 3; ++i) {
+	    runCompareWithSources("ArrayIterators", expected, THREADS);
+	    runCompareWithSources("ArrayIterators", new String[] { "-juc" },
+		    expected, THREADS);
+	}
+    }
+
+    /**
+     * The split points of an aligned partition are whole cache lines
+     * apart when the segments are long enough, and the segments cover
+     * the array when they are not, or when there are more segments
+     * than elements
+     */
+    @Test public void testAlignedPartitionRun() throws Throwable {
+	String expected = 
+	    "int 4 4 covers aligned near\n" +
+	    "int 7 7 covers aligned near\n" +
+	    "double 4 4 covers aligned near\n" +
+	    "double 7 7 covers aligned near\n" +
+	    "short 4 4 covers near\n" +
+	    "tiny 5 3 covers near\n" +
+	    "one 1 1 covers aligned near\n" +
+	    "segments = 0\n" +
+	    "96 112 5 8 100 100";
+	runCompareWithSources("AlignedPartition", expected);
+	runCompareWithSources("AlignedPartition", expected, 
+		"--dpj-cache-line", "128");
+    }
+
+    /**
+     * A cobegin that runs its branches in the current task copies out
+     * the same values as one that creates tasks
+     */
+    @Test public void testCobeginSurplusRun() throws Throwable {
+	String expected = "17711 333328333350000";
+	for (String surplus : new String[] { "-1", "3", "0" }) {
+	    runCompare("CobeginSurplus", new String[0], expected,
+		    "--dpj-num-threads", "4", "--dpj-cobegin-surplus", surplus);
+	    runCompare("CobeginSurplus", new String[] { "-juc" }, expected,
+		    "--dpj-num-threads", "4", "--dpj-cobegin-surplus", surplus);
+	}
+	runCompare("CobeginSurplus", new String[0], expected,
+		"--dpj-num-threads", "4");
+    }
+
+    /**
+     * Code in foreach pieces at or below the cutoff, and the methods
+     * it calls, run sequentially; the flag is cleared after the loop
+     */
+    @Test public void testSequentialLeavesRun() throws Throwable {
+	String expected = "1000 1000 false false";
+	runCompare("SequentialLeaves", new String[0], expected,
+		"--dpj-num-threads", "4");
+	runCompare("SequentialLeaves", new String[0], expected, THREADS);
+	runCompare("SequentialLeaves", new String[] { "-juc" }, expected, 
+		THREADS);
+    }
+}
@@ -2,7 +2,18 @@ import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.tools.JavaFileManager;
 
@@ -129,13 +140,120 @@ public abstract class DPJTestCase extends TestCase {
 	assertEquals(expected.toString().trim(), actual.trim());
     }
 
-    /* PRIVATE HELPER FUNCTIONS */
+    /**
+     * Generate Java code for a file with dpjc, and compare the code
+     * generated for it with <filename>.java.expected.  The options
+     * are passed to dpjc, so for instance "-seq" compares the
+     * sequential code.  Code generation needs the runtime classes; if
+     * they are not built, the test is skipped.
+     * 
+     * @param filename
+     * @param options
+     * @throws Throwable
+     */
+    protected void generateAndCompare(String filename, 
+	    String... options) throws Throwable {
+	File runtime = runtimeClasses();
+	if (runtime == null) return;
+	File outDir = makeTempDir();
+	try {
+	    dpjc(filename, runtime, outDir, options);
+	    File generated = new File(outDir, filename + ".java");
+	    compareWithExpected(readFile(generated),
+		    dirname + "/" + filename + ".java.expected");
+	} finally {
+	    deleteAll(outDir);
+	}
+    }
+    
+    /**
+     * Generate Java code for a file with dpjc, and check the number of
+     * errors it reports.  Some errors, such as calls in atomic blocks
+     * to methods that are not @Clone, are found only while generating
+     * code.  Code generation needs the runtime classes; if they are
+     * not built, the test is skipped.
+     * 
+     * @param filename
+     * @param nerrors
+     * @param options
+     * @throws Throwable
+     */
+    protected void generateExpectingErrors(String filename, int nerrors,
+	    String... options) throws Throwable {
+	File runtime = runtimeClasses();
+	if (runtime == null) return;
+	File outDir = makeTempDir();
+	try {
+	    StringWriter diagnostics = new StringWriter();
+	    runDpjc(filename, runtime, outDir, diagnostics, options);
+	    Matcher count = Pattern.compile("^(\\d+) errors?$", 
+		    Pattern.MULTILINE).matcher(diagnostics.toString());
+	    int actual = count.find() ? Integer.parseInt(count.group(1)) : 0;
+	    assertEquals(diagnostics.toString(), nerrors, actual);
+	} finally {
+	    deleteAll(outDir);
+	}
+    }
+    
+    /**
+     * Compile a file to class files with dpjc -bytecode, run the main
+     * method of the class with the same name, and return everything
+     * it printed to System.out.  The program runs in its own class
+     * loader, so each run gets a fresh copy of the runtime state.
+     * Returns null if the runtime classes are not built.
+     * 
+     * @param filename
+     * @param options Options to dpjc
+     * @param args Arguments to main
+     * @return The output of the program
+     * @throws Throwable
+     */
+    protected String compileAndRun(String filename, String[] options,
+	    String... args) throws Throwable {
+	File runtime = runtimeClasses();
+	if (runtime == null) return null;
+	File outDir = makeTempDir();
+	PrintStream savedOut = System.out;
+	try {
+	    ArrayList<String> dpjcOptions = 
+		new ArrayList<String>(Arrays.asList(options));
+	    dpjcOptions.add("-bytecode");
+	    dpjc(filename, runtime, outDir, 
+		    dpjcOptions.toArray(new String[dpjcOptions.size()]));
+	    URLClassLoader loader = new URLClassLoader(new URL[] {
+		    outDir.toURI().toURL(), runtime.toURI().toURL() },
+		    ClassLoader.getSystemClassLoader().getParent());
+	    Method main = loader.loadClass(filename).getMethod("main", 
+		    String[].class);
+	    ByteArrayOutputStream output = new ByteArrayOutputStream();
+	    System.setOut(new PrintStream(output, true));
+	    try {
+		main.invoke(null, (Object) args);
+	    } catch (InvocationTargetException e) {
+		throw e.getCause();
+	    }
+	    System.out.flush();
+	    return output.toString();
+	} finally {
+	    System.setOut(savedOut);
+	    deleteAll(outDir);
+	}
+    }
+
+    /* HELPER FUNCTIONS */
     
     /**
      * Load a file from disk
      * @param	filename
      */
-    private File loadFile(String filename) {
+    protected File loadFile(String filename) {
+	return new File(compilerDir() + "test/dpj-programs/" + filename);
+    }
+    
+    /**
+     * Path of the Compiler project, ending in a separator
+     */
+    private String compilerDir() {
 	String curdir = new File(".").getAbsolutePath();
 	String target = "Compiler" + System.getProperty("file.separator");
 	int index = curdir.lastIndexOf(target);
@@ -143,8 +261,156 @@ public abstract class DPJTestCase extends TestCase {
 	    throw new Error("Cannot locate directory " + target + "test/dpj-programs");
 	}
 	int len = index + target.length();
-	String dir = curdir.substring(0, len) + "test/dpj-programs/";
-	return new File(dir + filename);	
+	return curdir.substring(0, len);
+    }
+    
+    /**
+     * The runtime classes that generated code is compiled against:
+     * the directory given by the dpj.runtime.classes property, or else
+     * ../Runtime/classes relative to the Compiler project.  Returns
+     * null if the directory does not exist.
+     */
+    protected File runtimeClasses() {
+	String path = System.getProperty("dpj.runtime.classes");
+	File dir = new File(path != null ? path : 
+	    compilerDir() + "../Runtime/classes");
+	if (!dir.isDirectory()) {
+	    System.err.println("Runtime classes not found; skipping " +
+		    getName());
+	    return null;
+	}
+	return dir;
+    }
+
+    /**
+     * Make a source path holding the runtime sources, for programs
+     * that use the region parameters of runtime classes:  the
+     * runtime classes are compiled with plain javac, so their class
+     * files do not record them.  The sources come from the directory
+     * given by the dpj.runtime.sources property, or else
+     * ../Runtime/dpj relative to the Compiler project, and the
+     * templates are expanded as expand.pl does.  Pass the result to
+     * dpjc with -sourcepath and -Xprefer:source, and delete it when
+     * done.  Returns null if the directory does not exist.
+     */
+    protected File runtimeSourcePath() throws Throwable {
+	String path = System.getProperty("dpj.runtime.sources");
+	File dir = new File(path != null ? path : 
+	    compilerDir() + "../Runtime/dpj");
+	if (!dir.isDirectory()) {
+	    System.err.println("Runtime sources not found; skipping " +
+		    getName());
+	    return null;
+	}
+	File result = makeTempDir();
+	File pkg = new File(result, "DPJRuntime");
+	pkg.mkdir();
+	String[][] targets = {
+	    { "char", "Char", "Character" }, { "boolean", "Boolean", "Boolean" },
+	    { "byte", "Byte", "Byte" }, { "double", "Double", "Double" },
+	    { "float", "Float", "Float" }, { "int", "Int", "Integer" },
+	    { "String", "String", "String" }
+	};
+	for (File file : dir.listFiles()) {
+	    String name = file.getName();
+	    if (name.endsWith(".java")) {
+		writeFile(new File(pkg, name), readFile(file));
+	    } else if (name.endsWith(".tpt")) {
+		String template = readFile(file);
+		String prefix = name.substring(0, name.length() - 4);
+		for (String[] target : targets) {
+		    writeFile(new File(pkg, prefix + target[1] + ".java"),
+			    template.replace("$^", target[2]).
+			    replace("$$", target[1]).replace("$", target[0]));
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Run dpjc on a file, with the runtime classes on the class path
+     * and output in outDir, and check that it reports no errors
+     */
+    protected void dpjc(String filename, File runtime, File outDir,
+	    String... options) {
+	StringWriter diagnostics = new StringWriter();
+	int result = runDpjc(filename, runtime, outDir, diagnostics, options);
+	assertEquals(diagnostics.toString(), 0, result);
+    }
+
+    /**
+     * Run dpjc on a file, with the runtime classes on the class path
+     * and output in outDir, writing its diagnostics to diagnostics
+     * 
+     * @return The exit status of dpjc
+     */
+    private int runDpjc(String filename, File runtime, File outDir,
+	    StringWriter diagnostics, String... options) {
+	ArrayList<String> args = new ArrayList<String>(Arrays.asList(options));
+	args.add("-nowarn");
+	args.add("-d");
+	args.add(outDir.getPath());
+	args.add("-cp");
+	args.add(runtime.getPath());
+	args.add(loadFile(dirname + "/" + filename + ".java").getPath());
+	com.sun.tools.javac.main.Main compiler = 
+	    new com.sun.tools.javac.main.Main("dpjc", 
+		    new PrintWriter(diagnostics, true));
+	return compiler.compile(args.toArray(new String[args.size()]), true);
+    }
+
+    /**
+     * Read a file into a string, with platform line separators
+     */
+    protected String readFile(File file) throws Throwable {
+	StringWriter result = new StringWriter();
+	PrintWriter p = new PrintWriter(result);
+	BufferedReader r = new BufferedReader(new FileReader(file));
+	try {
+	    for (String line = r.readLine(); line != null; line = r.readLine()) {
+		p.print(line);
+		p.println();
+	    }
+	} finally {
+	    r.close();
+	}
+	p.flush();
+	return result.toString();
+    }
+
+    /**
+     * Write a string to a file
+     */
+    protected void writeFile(File file, String text) throws Throwable {
+	FileWriter out = new FileWriter(file);
+	try {
+	    out.write(text);
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * Make a new empty temporary directory
+     */
+    protected File makeTempDir() throws Throwable {
+	File dir = File.createTempFile("dpj", "");
+	if (!dir.delete() || !dir.mkdir()) {
+	    throw new Error("Cannot create directory " + dir);
+	}
+	return dir;
+    }
+    
+    /**
+     * Delete a file, or a directory and everything in it
+     */
+    protected void deleteAll(File file) {
+	File[] children = file.listFiles();
+	if (children != null) {
+	    for (File child : children) deleteAll(child);
+	}
+	file.delete();
     }
 
     /**
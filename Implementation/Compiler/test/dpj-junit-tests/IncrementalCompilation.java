@@ -0,0 +1,174 @@
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Test incremental compilation (option -incremental):  after a change,
+ * dpjc must check again exactly the compilation units whose source, or
+ * the signature of some class they use, has changed.  Cell declares
+ * a method that User calls; Other is independent of both.  These
+ * tests need the runtime classes, and are skipped if they are not
+ * built.
+ */
+public class IncrementalCompilation extends DPJTestCase {
+
+    private static final String[] UNITS = { "Cell", "Other", "User" };
+
+    private File runtime;
+    private File tempDir;
+    private File srcDir;
+    private File outDir;
+    private File cache;
+
+    public IncrementalCompilation() {
+	super("IncrementalCompilation");
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+	try {
+	    runtime = runtimeClasses();
+	    if (runtime == null) return;
+	    tempDir = makeTempDir();
+	    srcDir = new File(tempDir, "src");
+	    outDir = new File(tempDir, "out");
+	    srcDir.mkdir();
+	    outDir.mkdir();
+	    cache = new File(tempDir, "cache");
+	    for (String unit : UNITS) {
+		writeFile(source(unit), 
+			readFile(loadFile(dirname + "/" + unit + ".java")));
+	    }
+	} catch (Exception e) {
+	    throw e;
+	} catch (Throwable t) {
+	    throw new Error(t);
+	}
+    }
+
+    @Override
+    protected void tearDown() {
+	if (tempDir != null) deleteAll(tempDir);
+    }
+
+    @Test public void testUnchanged() throws Throwable {
+	if (runtime == null) return;
+	build(0);
+	assertSkipped(build(0), "Cell", "Other", "User");
+    }
+
+    /**
+     * A change to a method body leaves the signature of Cell as it was,
+     * so User is not checked again
+     */
+    @Test public void testEditedSource() throws Throwable {
+	if (runtime == null) return;
+	build(0);
+	edit("Cell", "value = v;", "value = v + 1;");
+	assertSkipped(build(0), "Other", "User");
+    }
+
+    /**
+     * A change to the effect summary of Cell.set makes User check
+     * again, and fail:  fill no longer covers the effects of set
+     */
+    @Test public void testChangedCalleeSummary() throws Throwable {
+	if (runtime == null) return;
+	build(0);
+	edit("Cell", "region R;", "region R, S;");
+	edit("Cell", "writes R {", "writes R, S {");
+	String diagnostics = build(1);
+	assertSkipped(diagnostics, "Other");
+	assertTrue(diagnostics, diagnostics.contains("User.java"));
+	edit("User", "writes Cell.R {", "writes Cell.R, Cell.S {");
+	assertSkipped(build(0), "Other");
+	assertSkipped(build(0), "Cell", "Other", "User");
+    }
+
+    @Test public void testDeletedOutput() throws Throwable {
+	if (runtime == null) return;
+	build(0);
+	File output = new File(outDir, "User.java");
+	assertTrue(output.delete());
+	assertSkipped(build(0), "Cell", "Other");
+	assertTrue(output.exists());
+    }
+
+    @Test public void testChangedOptions() throws Throwable {
+	if (runtime == null) return;
+	build(0);
+	assertSkipped(build(0, "-seq"));
+	assertSkipped(build(0, "-seq"), "Cell", "Other", "User");
+    }
+
+    /**
+     * With -bytecode, the generated code of the units checked again is
+     * compiled without the skipped units, so it must find their classes
+     * in the output directory
+     */
+    @Test public void testBytecode() throws Throwable {
+	if (runtime == null) return;
+	build(0, "-bytecode");
+	File userClass = new File(outDir, "User.class");
+	assertTrue(userClass.delete());
+	edit("User", "cells[i].set(i);", "cells[i].set(i + 1);");
+	assertSkipped(build(0, "-bytecode"), "Cell", "Other");
+	assertTrue(userClass.exists());
+    }
+
+    /**
+     * Run dpjc -incremental on all the units, check its exit status,
+     * and return what it printed
+     */
+    private String build(int status, String... options) throws Throwable {
+	ArrayList<String> args = new ArrayList<String>(Arrays.asList(options));
+	args.add("-incremental");
+	args.add(cache.getPath());
+	args.add("-XDverboseCompilePolicy");
+	args.add("-nowarn");
+	args.add("-d");
+	args.add(outDir.getPath());
+	args.add("-cp");
+	args.add(runtime.getPath());
+	for (String unit : UNITS) 
+	    args.add(source(unit).getPath());
+	StringWriter diagnostics = new StringWriter();
+	com.sun.tools.javac.main.Main compiler = 
+	    new com.sun.tools.javac.main.Main("dpjc", 
+		    new PrintWriter(diagnostics, true));
+	int result = compiler.compile(args.toArray(new String[args.size()]), 
+		true);
+	assertEquals(diagnostics.toString(), status, result);
+	return diagnostics.toString();
+    }
+
+    /**
+     * Check that a build skipped exactly the given units
+     */
+    private void assertSkipped(String diagnostics, String... units) {
+	Set<String> skipped = new TreeSet<String>();
+	Matcher m = Pattern.compile("\\[skipping unchanged .*?(\\w+)\\.java\\]")
+		.matcher(diagnostics);
+	while (m.find()) skipped.add(m.group(1));
+	assertEquals(diagnostics, 
+		new TreeSet<String>(Arrays.asList(units)), skipped);
+    }
+
+    private File source(String unit) {
+	return new File(srcDir, unit + ".java");
+    }
+
+    private void edit(String unit, String from, String to) throws Throwable {
+	String text = readFile(source(unit));
+	assertTrue(text, text.contains(from));
+	writeFile(source(unit), text.replace(from, to));
+    }
+}
@@ -37,4 +37,8 @@ public class InterferenceCobeginBad extends DPJTestCase {
     @Test public void testLocalRegions() throws Throwable {
 	compileExpectingWarnings("LocalRegions", 1);
     }
+    
+    @Test public void testNonFinalIndex() throws Throwable {
+	compileExpectingWarnings("NonFinalIndex", 1);
+    }
 }
@@ -20,4 +20,8 @@ public class InterferenceCobeginGood extends DPJTestCase {
 	compile("LocalRegions");
     }
     
+    @Test public void testAffineIndices() throws Throwable {
+	compile("AffineIndices");
+    }
+    
 }
@@ -26,5 +26,17 @@ public class InterferenceForeachBad extends DPJTestCase {
     @Test public void testScopedLocalEffects() throws Throwable {
 	compileExpectingWarnings("ScopedLocalRegions", 1);
     }
+    
+    @Test public void testAffineIndices() throws Throwable {
+	compileExpectingWarnings("AffineIndices", 1);
+    }
+    
+    @Test public void testBodyLocalIndex() throws Throwable {
+	compileExpectingWarnings("BodyLocalIndex", 1);
+    }
+    
+    @Test public void testIncrement() throws Throwable {
+	compileExpectingWarnings("Increment", 1);
+    }
 
 }
@@ -20,4 +20,8 @@ public class InterferenceForeachGood extends DPJTestCase {
 	compile("ScopedLocalRegions");
     }
     
+    @Test public void testAffineIndices() throws Throwable {
+	compile("AffineIndices");
+    }
+    
 }
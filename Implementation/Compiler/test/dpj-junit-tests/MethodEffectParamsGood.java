@@ -32,4 +32,8 @@ public class MethodEffectParamsGood extends DPJTestCase {
     @Test public void testSubstArgsInEffect() throws Throwable {
 	compile("SubstArgsInEffect");
     }
-}
\ No newline at end of file
+    
+    @Test public void testInvokeThroughEffectParam() throws Throwable {
+	compile("InvokeThroughEffectParam");
+    }
+}
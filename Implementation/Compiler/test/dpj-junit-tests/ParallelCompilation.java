@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.sun.tools.javac.code.Scope;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.jvm.ClassReader;
+import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.JavacFileManager;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Name;
+
+/**
+ * Test the parallel compile policy (-XDcompilePolicy=parallel), and
+ * the compiler state that its threads share.  The policy must report
+ * the same diagnostics, in the same order, as the simple policy.
+ */
+public class ParallelCompilation extends DPJTestCase {
+
+    private static final int THREADS = 8;
+
+    public ParallelCompilation() {
+	super(".");
+    }
+
+    /**
+     * Run a task on THREADS threads at once, rethrowing the first
+     * exception any of them throws
+     */
+    private void runConcurrently(final Task task) throws Throwable {
+	final Throwable[] failures = new Throwable[THREADS];
+	Thread[] threads = new Thread[THREADS];
+	for (int i = 0; i < THREADS; ++i) {
+	    final int id = i;
+	    threads[i] = new Thread() {
+		public void run() {
+		    try {
+			task.run(id);
+		    } catch (Throwable t) {
+			failures[id] = t;
+		    }
+		}
+	    };
+	}
+	for (Thread t : threads) t.start();
+	for (Thread t : threads) t.join();
+	for (Throwable t : failures)
+	    if (t != null) throw t;
+    }
+
+    private interface Task {
+	void run(int thread) throws Throwable;
+    }
+
+    /**
+     * Compile a file with dpjc and the given compile policy, and
+     * return the diagnostics.  The stack frames of a crash are left
+     * out, since the policies call the failing phase from different
+     * places.
+     */
+    private String dpjcDiagnostics(File file, String policy) {
+	ArrayList<String> args = new ArrayList<String>(Arrays.asList(
+		"-XDcompilePolicy=" + policy, "-XDcompileThreads=4",
+		"-d", System.getProperty("java.io.tmpdir")));
+	File runtime = runtimeClasses();
+	if (runtime != null) {
+	    args.add("-cp");
+	    args.add(runtime.getPath());
+	}
+	args.add(file.getPath());
+	StringWriter diagnostics = new StringWriter();
+	new com.sun.tools.javac.main.Main("dpjc",
+		new PrintWriter(diagnostics, true))
+	    .compile(args.toArray(new String[args.size()]), true);
+	StringBuilder result = new StringBuilder();
+	for (String line : diagnostics.toString().split("\n")) {
+	    if (!line.startsWith("\tat "))
+		result.append(line).append("\n");
+	}
+	return result.toString();
+    }
+
+    /**
+     * Every program in the *Bad directories gets the same diagnostics
+     * under either policy.  The effects missing from a summary are
+     * part of the diagnostic, so they come out in the same order too.
+     */
+    @Test public void testBadDiagnostics() throws Throwable {
+	int checked = 0, explained = 0;
+	for (File dir : loadFile("").listFiles()) {
+	    if (!dir.isDirectory() || !dir.getName().endsWith("Bad"))
+		continue;
+	    for (File file : dir.listFiles()) {
+		if (!file.getName().endsWith(".java"))
+		    continue;
+		String simple = dpjcDiagnostics(file, "simple");
+		assertTrue(file.getPath(), simple.length() > 0);
+		assertEquals(file.getPath(), simple,
+			dpjcDiagnostics(file, "parallel"));
+		++checked;
+		if (simple.contains("bad effect summary\nmissing: "))
+		    ++explained;
+	    }
+	}
+	assertTrue(checked > 0);
+	assertTrue(explained > 0);
+    }
+
+    /**
+     * Threads entering the same names at once get the same Name
+     */
+    @Test public void testNameTable() throws Throwable {
+	final Name.Table table = new Name.Table();
+	final int count = 4096;
+	final Name[][] names = new Name[THREADS][count];
+	runConcurrently(new Task() {
+	    public void run(int thread) {
+		// Each thread enters the names in a different order; an
+		// odd multiplier permutes the indices, as count is a
+		// power of two
+		for (int i = 0; i < count; ++i) {
+		    int k = (i * (2 * thread + 1)) % count;
+		    names[thread][k] = Name.fromString(table, "name" + k);
+		}
+	    }
+	});
+	for (int k = 0; k < count; ++k) {
+	    assertEquals("name" + k, names[0][k].toString());
+	    for (int t = 1; t < THREADS; ++t)
+		assertSame(names[0][k], names[t][k]);
+	}
+    }
+
+    /**
+     * Make a context in which classes can be read from the class path
+     */
+    private Context compilerContext() {
+	Context context = new Context();
+	JavacFileManager.preRegister(context);
+	JavaCompiler.instance(context);
+	return context;
+    }
+
+    private static final String[] CLASSES = {
+	"java.util.HashMap", "java.util.TreeMap", "java.util.ArrayList",
+	"java.util.LinkedList", "java.util.concurrent.ConcurrentHashMap",
+	"java.lang.StringBuilder"
+    };
+
+    private static int memberCount(ClassSymbol c) {
+	int count = 0;
+	for (Scope.Entry e = c.members().elems; e != null; e = e.sibling)
+	    ++count;
+	return count;
+    }
+
+    /**
+     * A class completed by several threads at once is completed once,
+     * and every thread sees all of its members
+     */
+    @Test public void testSymbolCompletion() throws Throwable {
+	Context context = compilerContext();
+	final Name.Table names = Name.Table.instance(context);
+	final ClassReader reader = ClassReader.instance(context);
+	final int[][] counts = new int[THREADS][CLASSES.length];
+	runConcurrently(new Task() {
+	    public void run(int thread) {
+		for (int i = 0; i < CLASSES.length; ++i) {
+		    int k = (i + thread) % CLASSES.length;
+		    ClassSymbol c =
+			reader.enterClass(names.fromString(CLASSES[k]));
+		    c.complete();
+		    counts[thread][k] = memberCount(c);
+		}
+	    }
+	});
+	for (int k = 0; k < CLASSES.length; ++k) {
+	    ClassSymbol c = reader.enterClass(names.fromString(CLASSES[k]));
+	    assertNull(c.completer);
+	    assertTrue(CLASSES[k], memberCount(c) > 0);
+	    for (int t = 0; t < THREADS; ++t)
+		assertEquals(CLASSES[k], memberCount(c), counts[t][k]);
+	}
+    }
+
+    /**
+     * Some class types, read in the given context
+     */
+    private static ArrayList<Type> someTypes(Context context) {
+	Name.Table names = Name.Table.instance(context);
+	ClassReader reader = ClassReader.instance(context);
+	Symtab syms = Symtab.instance(context);
+	ArrayList<Type> result = new ArrayList<Type>();
+	for (String name : CLASSES)
+	    result.add(reader.enterClass(names.fromString(name)).type);
+	result.add(syms.stringType);
+	result.add(syms.objectType);
+	return result;
+    }
+
+    /**
+     * The type relations and caches shared by the threads give the
+     * same answers as on one thread
+     */
+    @Test public void testTypes() throws Throwable {
+	Context context = compilerContext();
+	Types types = Types.instance(context);
+	ArrayList<Type> ts = someTypes(context);
+	final int n = ts.size();
+	final String[][] expected = new String[n][n];
+	for (int i = 0; i < n; ++i) {
+	    for (int j = 0; j < n; ++j)
+		expected[i][j] = relations(types, ts.get(i), ts.get(j));
+	}
+	// The threads start from empty caches
+	Context shared = compilerContext();
+	final Types sharedTypes = Types.instance(shared);
+	final ArrayList<Type> sharedTs = someTypes(shared);
+	runConcurrently(new Task() {
+	    public void run(int thread) {
+		for (int r = 0; r < 20; ++r) {
+		    for (int i = 0; i < n; ++i) {
+			int a = (i + thread) % n;
+			for (int b = 0; b < n; ++b) {
+			    assertEquals(expected[a][b], relations(sharedTypes,
+				    sharedTs.get(a), sharedTs.get(b)));
+			}
+		    }
+		}
+	    }
+	});
+    }
+
+    private static String relations(Types types, Type t, Type s) {
+	return sorted(types.closure(t)) + " " + types.isDerivedRaw(t) + " " +
+	    types.isCastable(t, s) + " " +
+	    types.disjointTypes(List.of(t), List.of(s)) + " " +
+	    sorted(types.lub(types.erasure(t), types.erasure(s)));
+    }
+
+    /**
+     * The parts of a list or intersection of types, sorted:  types of
+     * the same rank are ordered by their names' places in the name
+     * table, which depend on the order the classes were completed in
+     */
+    private static String sorted(Object types) {
+	String[] parts = types.toString().split("[,&]");
+	Arrays.sort(parts);
+	return Arrays.toString(parts);
+    }
+
+    /**
+     * Deferred logs used by several threads at once count their own
+     * diagnostics, write nothing until they are reported, and are
+     * then written in the order they are reported
+     */
+    @Test public void testDeferredLogs() throws Throwable {
+	Context context = new Context();
+	StringWriter output = new StringWriter();
+	context.put(Log.outKey, new PrintWriter(output, true));
+	final Log log = Log.instance(context);
+	// Within the default limit of 100 errors
+	final int count = 10;
+	final Log[] logs = new Log[THREADS];
+	for (int t = 0; t < THREADS; ++t)
+	    logs[t] = log.deferredLog();
+	runConcurrently(new Task() {
+	    public void run(int thread) {
+		for (int i = 0; i < count; ++i)
+		    logs[thread].error("reduction.var.not.local",
+			    "v" + thread + "_" + i);
+	    }
+	});
+	assertEquals("", output.toString());
+	for (int t = 0; t < THREADS; ++t)
+	    assertEquals(count, logs[t].nerrors);
+	for (int t = THREADS - 1; t >= 0; --t)
+	    log.reportDeferred(logs[t]);
+	assertEquals(THREADS * count, log.nerrors);
+	String[] lines = output.toString().split("\n");
+	assertEquals(THREADS * count, lines.length);
+	int line = 0;
+	for (int t = THREADS - 1; t >= 0; --t) {
+	    for (int i = 0; i < count; ++i) {
+		assertTrue(lines[line],
+			lines[line].contains(" v" + t + "_" + i + " "));
+		++line;
+	    }
+	}
+    }
+}
@@ -72,8 +72,55 @@ public class PrettyPrinting extends DPJTestCase {
 	prettyCompare("Foreach");
     }
     
+    @Test public void testForeachFusion() throws Throwable {
+	prettyCompare("ForeachFusion");
+    }
+
+    @Test public void testForeachReduction() throws Throwable {
+	prettyCompare("ForeachReduction");
+    }
+    
+    @Test public void testForeachIteratorReduction() throws Throwable {
+	prettyCompare("ForeachIteratorReduction");
+    }
+    
     @Test public void testCobegin() throws Throwable {
 	prettyCompare("Cobegin");
     }
     
+    /**
+     * The STM barriers are inserted only when generating parallel
+     * code, so compare the code dpjc generates
+     */
+    @Test public void testAtomicBarriers() throws Throwable {
+	generateAndCompare("AtomicBarriers");
+    }
+
+    /**
+     * An access in an atomic block keeps its barrier only if a
+     * concurrent transaction may touch the same location:  another
+     * iteration of foreach_nd, or a caller, if the method summary
+     * declares the atomic region
+     */
+    @Test public void testBarrierElision() throws Throwable {
+	generateAndCompare("BarrierElision");
+    }
+
+    /**
+     * -disablenonintopt turns off every log-only access
+     */
+    @Test public void testBarrierElisionDisabled() throws Throwable {
+	File runtime = runtimeClasses();
+	if (runtime == null) return;
+	File outDir = makeTempDir();
+	try {
+	    dpjc("BarrierElision", runtime, outDir, "-disablenonintopt");
+	    String generated = readFile(new File(outDir, "BarrierElision.java"));
+	    assertFalse(generated.contains("LogOnly"));
+	    assertEquals(4, generated.split("onWriteAccess\\(").length - 1);
+	} finally {
+	    deleteAll(outDir);
+	}
+    }
+    
 }
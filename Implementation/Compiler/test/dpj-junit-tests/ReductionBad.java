@@ -0,0 +1,34 @@
+/**
+ * These tests verify that misuses of foreach reduction variables are
+ * being caught.
+ */
+
+import org.junit.Test;
+
+public class ReductionBad extends DPJTestCase {
+
+    public ReductionBad() {
+	super("ReductionBad");
+    }
+    
+    @Test public void testReadInBody() throws Throwable {
+	compileExpectingErrors("ReadInBody", 1);
+    }
+    
+    @Test public void testWrongOperator() throws Throwable {
+	compile("WrongOperator", 1, 1);
+    }
+    
+    @Test public void testNestedNotReduced() throws Throwable {
+	compile("NestedNotReduced", 1, 2);
+    }
+    
+    @Test public void testFieldReduction() throws Throwable {
+	compileExpectingErrors("FieldReduction", 1);
+    }
+    
+    @Test public void testBadType() throws Throwable {
+	compileExpectingErrors("BadType", 1);
+    }
+    
+}
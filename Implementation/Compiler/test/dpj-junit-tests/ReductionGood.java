@@ -0,0 +1,30 @@
+/**
+ * These tests check foreach loops with reductions that should compile
+ * without errors or warnings.
+ */
+
+import org.junit.Test;
+
+public class ReductionGood extends DPJTestCase {
+
+    public ReductionGood() {
+	super("ReductionGood");
+    }
+    
+    @Test public void testSum() throws Throwable {
+	compile("Sum");
+    }
+    
+    @Test public void testMultipleReductions() throws Throwable {
+	compile("MultipleReductions");
+    }
+    
+    @Test public void testNestedReduction() throws Throwable {
+	compile("NestedReduction");
+    }
+    
+    @Test public void testIteratorSum() throws Throwable {
+	compile("IteratorSum");
+    }
+    
+}
@@ -0,0 +1,22 @@
+class Cell {
+    region atomic R;
+    int value in R;
+    Cell(int value) writes R { this.value = value; }
+}
+
+class CallNeedsClone {
+    region atomic R;
+    int count in R;
+    Cell last in R;
+    void add(int n) writes R { count += n; }
+    void m() {
+	foreach_nd (int i in 0, 10) {
+	    atomic {
+		// Missing @Clone on add
+		add(i);
+		// Missing @Clone on the constructor
+		last = new Cell(i);
+	    }
+	}
+    }
+}
@@ -0,0 +1,14 @@
+@interface Clone {}
+
+class CloneCall {
+    region atomic R;
+    int count in R;
+    @Clone void add(int n) writes R { count += n; }
+    int twice(int n) pure { return 2 * n; }
+    void m() {
+	foreach_nd (int i in 0, 10) {
+	    // add is @Clone, twice is pure, Math.abs is in the library
+	    atomic add(twice(Math.abs(i)));
+	}
+    }
+}
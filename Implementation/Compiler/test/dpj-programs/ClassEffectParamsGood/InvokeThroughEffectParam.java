@@ -0,0 +1,13 @@
+interface Gen<effect E> {
+    void op() effect E;
+}
+
+class Wrap<effect E> {
+    Gen<effect E> g in Root;
+    void op() {
+	g.op();
+    }
+    void opWithin() reads Root effect E {
+	g.op();
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * The two calls write disjoint regions [1] and [2] of the array in
+ * Lossy, but the class file only says they write [?]
+ */
+class Client {
+    void run(Lossy<Cell<Root>, Root> l) {
+	cobegin {
+	    l.shift(0);
+	    l.shift(1);
+	}
+    }
+}
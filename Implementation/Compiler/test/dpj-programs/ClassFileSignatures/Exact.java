@@ -0,0 +1,60 @@
+/**
+ * Signatures that the DPJSignature attribute keeps exactly
+ */
+class Exact<region P1, P2; effect E | P1 # P2> {
+    region A, B;
+    region atomic C;
+    int x in P1;
+    int y in P2:A;
+    Exact<P1, P2, effect E> next in P1:*;
+    int[]<P2:[i]>#i cells in B;
+
+    void set(int v) writes P1 {
+	x = v;
+    }
+
+    int get() reads P1, P2:A {
+	return x + y;
+    }
+
+    <region R>void copy(int[]<R> other) reads R writes P2:A {
+	y = other[0];
+    }
+
+    <region R1, R2 | R1 # R2>void swap(Exact<R1, R2, pure> a,
+					  Exact<R2, R1, pure> b)
+	writes R1, R2 {
+	int t = a.x;
+	a.x = b.x;
+	b.x = t;
+    }
+
+    void fill(final int i) reads B writes P2:[i] {
+	cells[i] = i;
+    }
+
+    void fillFirst() reads B writes P2:[0] {
+	cells[0] = 1;
+    }
+
+    void through(final Exact<P1, P2, pure> other) writes other:* {
+    }
+
+    void bump() writes atomic C {
+    }
+
+    void run() effect E {
+    }
+
+    void both() writes P1 effect E {
+	x = 0;
+    }
+
+    commutative void add(int v) writes P1 {
+	x += v;
+    }
+
+    int nothing() pure {
+	return 0;
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Signatures that the DPJSignature attribute cannot keep exactly:  the
+ * index expression i + 1 is read back as [?], and the bound of T as
+ * the erased Cell
+ */
+class Cell<region P> {
+    int v in P;
+}
+
+class Lossy<type T extends Cell<Q>; region Q> {
+    region B;
+    int[]<[i]>#i cells in B;
+    T t;
+
+    void shift(final int i) reads B writes [i + 1] {
+	cells[i + 1] = 0;
+    }
+
+    void through(final Cell<B> c) writes c:* {
+    }
+
+    void unsummarized() {
+    }
+
+    int read() reads Root, Q {
+	return t.v;
+    }
+}
@@ -0,0 +1,98 @@
+import DPJRuntime.*;
+
+/**
+ * The segments of an aligned partition cover the array in order, and
+ * each split point is moved to an element that starts a cache line,
+ * unless that would change the length of a segment by half or more.
+ * The program does not know where the array starts, so it checks
+ * that the split points are whole cache lines apart.
+ */
+public class AlignedPartition {
+
+    /**
+     * Describe the segments of a partition of a slice with its first
+     * element at start:  how many, how many are nonempty, whether they
+     * cover the slice in order, whether the split points are whole
+     * lines apart, and whether each is less than half a segment from
+     * the point an even split would choose
+     */
+    static String describe(int start, int length, int[] starts, 
+			   int[] lengths, int perLine) {
+	int segments = starts.length;
+	int nonempty = 0;
+	boolean covers = true, aligned = true, near = true;
+	int next = start;
+	int chunk = length / segments;
+	for (int i = 0; i < segments; ++i) {
+	    if (lengths[i] > 0) ++nonempty;
+	    if (starts[i] != next || lengths[i] < 0) covers = false;
+	    next = starts[i] + lengths[i];
+	    if (i > 0) {
+		if ((starts[i] - starts[1]) % perLine != 0) aligned = false;
+		int even = start + (int) ((long) length * i / segments);
+		if (2 * Math.abs(starts[i] - even) >= Math.max(chunk, 1)) 
+		    near = false;
+	    }
+	}
+	if (next != start + length) covers = false;
+	return segments + " " + nonempty + (covers ? " covers" : "") +
+	    (aligned ? " aligned" : "") + (near ? " near" : "");
+    }
+
+    static <region R>String describeInt(ArraySliceInt<R> A, int segments)
+    {
+	final PartitionInt<R> p = PartitionInt.alignedPartition(A, segments);
+	int[] starts = new int[p.length];
+	int[] lengths = new int[p.length];
+	for (int i = 0; i < p.length; ++i) {
+	    starts[i] = p.get(i).start;
+	    lengths[i] = p.get(i).length;
+	}
+	return describe(A.start, A.length, starts, lengths,
+			RuntimeState.dpjCacheLineSize / 4);
+    }
+
+    static <region R>String describeDouble(ArraySliceDouble<R> A, 
+					   int segments) {
+	final PartitionDouble<R> p = 
+	    PartitionDouble.alignedPartition(A, segments);
+	int[] starts = new int[p.length];
+	int[] lengths = new int[p.length];
+	for (int i = 0; i < p.length; ++i) {
+	    starts[i] = p.get(i).start;
+	    lengths[i] = p.get(i).length;
+	}
+	return describe(A.start, A.length, starts, lengths,
+			RuntimeState.dpjCacheLineSize / 8);
+    }
+
+    public static void main(String[] args) {
+	ArraySliceInt<Root> ints = 
+	    new ArraySliceInt<Root>(new ArrayInt<Root>(1003)).subslice(3, 1000);
+	ArraySliceDouble<Root> doubles = 
+	    new ArraySliceDouble<Root>(new ArrayDouble<Root>(1003)).
+	    subslice(3, 1000);
+	System.out.println("int " + describeInt(ints, 4));
+	System.out.println("int " + describeInt(ints, 7));
+	System.out.println("double " + describeDouble(doubles, 4));
+	System.out.println("double " + describeDouble(doubles, 7));
+	// Segments too short to move the split points
+	System.out.println("short " + describeInt(ints.subslice(0, 10), 4));
+	// More segments than elements
+	System.out.println("tiny " + describeInt(ints.subslice(0, 3), 5));
+	System.out.println("one " + describeInt(ints, 1));
+	try {
+	    PartitionInt.alignedPartition(ints, 0);
+	    System.out.println("0 segments ok");
+	} catch (IllegalArgumentException e) {
+	    System.out.println(e.getMessage());
+	}
+	// The split points of foreach loops
+	System.out.println(RuntimeState.alignSplit(0, 100, 1, 100, 16) + " " +
+			   RuntimeState.alignSplit(0, 104, 1, 100, 16) + " " +
+			   RuntimeState.alignSplit(-5, 10, 1, 100, 16) + " " +
+			   RuntimeState.alignSplit(0, 8, 1, 10, 16) + " " +
+			   RuntimeState.alignSplit(0, 100, 2, 100, 16) + " " +
+			   RuntimeState.alignSplit(0, 100, 1, 100, 1));
+    }
+}
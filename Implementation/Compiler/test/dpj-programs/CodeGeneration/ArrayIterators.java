@@ -0,0 +1,71 @@
+import DPJRuntime.*;
+
+/**
+ * Iterator-form foreach loops with no reduction, over the iterators of
+ * runtime arrays, slices and sets.  The iterators split in half, so in
+ * parallel code the body runs for pieces of the loop on different
+ * workers; every element must still be visited exactly once.  The
+ * bodies record the elements through a commutative method.
+ */
+public class ArrayIterators {
+    region Data, Visits;
+
+    static final int N = 1000;
+
+    static class Visitor<region R> {
+	final boolean[]<R> seen = new boolean[N]<R>;
+	int count in R;
+	int duplicates in R;
+	long sum in R;
+
+	commutative void visit(int x) writes R {
+	    if (seen[x]) ++duplicates;
+	    seen[x] = true;
+	    ++count;
+	    sum += x;
+	}
+
+	String result(int n) reads R {
+	    int missing = 0;
+	    for (int i = 0; i < n; ++i)
+		if (!seen[i]) ++missing;
+	    return count + " " + sum + " " + duplicates + " " + missing;
+	}
+    }
+
+    public static void main(String[] args) {
+	ArrayInt<Data> a = new ArrayInt<Data>(N + 10);
+	for (int i = 0; i < a.length; ++i) a[i] = i - 10;
+	ArraySliceInt<Data> A = new ArraySliceInt<Data>(a).subslice(10, N);
+
+	final Visitor<Visits> slice = new Visitor<Visits>();
+	foreach (Integer x in A.iterator())
+	    slice.visit(x);
+	System.out.println("slice " + slice.result(N));
+
+	final Visitor<Visits> array = new Visitor<Visits>();
+	foreach (Integer x in new ArrayIteratorInt<Data>(a, 10, N))
+	    array.visit(x);
+	System.out.println("array " + array.result(N));
+
+	ArraySlice<String,Data> S = new ArraySlice<String,Data>(N);
+	for (int i = 0; i < N; ++i) S.put(i, String.valueOf(i));
+	final Visitor<Visits> strings = new Visitor<Visits>();
+	foreach (String s in S.iterator())
+	    strings.visit(Integer.parseInt(s));
+	System.out.println("strings " + strings.result(N));
+
+	SequentialHashSet<Integer,Data> set =
+	    new SequentialHashSet<Integer,Data>();
+	for (int i = 0; i < N; ++i) set.add(i);
+	final Visitor<Visits> elements = new Visitor<Visits>();
+	foreach (Integer x in set.elements())
+	    elements.visit(x);
+	System.out.println("set " + elements.result(N));
+
+	final Visitor<Visits> empty = new Visitor<Visits>();
+	foreach (Integer x in A.subslice(5, 0).iterator())
+	    empty.visit(x);
+	System.out.println("empty " + empty.result(0));
+    }
+}
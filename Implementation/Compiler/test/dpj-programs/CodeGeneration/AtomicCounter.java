@@ -0,0 +1,30 @@
+@interface Clone {}
+
+/**
+ * Updates made in atomic blocks of foreach_nd and cobegin_nd are not
+ * lost when the blocks conflict.
+ */
+public class AtomicCounter {
+    region atomic R;
+    int count in R;
+    long total in R;
+
+    @Clone void add(int n) writes R {
+	count++;
+	total += n;
+    }
+
+    public static void main(String[] args) {
+	final AtomicCounter c = new AtomicCounter();
+	foreach_nd (int i in 0, 1000) {
+	    atomic c.add(i);
+	}
+	foreach_nd (int i in 0, 100)
+	    atomic c.count++;
+	cobegin_nd {
+	    atomic c.add(1);
+	    atomic c.count += 10;
+	}
+	System.out.println(c.count + " " + c.total);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Recursive cobegins whose branches assign local variables of the
+ * enclosing method.  Whether a cobegin creates tasks or runs its
+ * branches in the current task depends on the load and on
+ * --dpj-cobegin-surplus, but the values copied out of the branches,
+ * and so the results, must not.
+ */
+public class CobeginSurplus {
+
+    static int fib(int n) pure {
+	if (n < 2) return n;
+	int x, y;
+	cobegin {
+	    x = fib(n - 1);
+	    y = fib(n - 2);
+	}
+	return x + y;
+    }
+
+    static long sumSquares(int lo, int hi) pure {
+	if (hi - lo < 8) {
+	    long sum = 0;
+	    for (int i = lo; i < hi; ++i) sum += (long) i * i;
+	    return sum;
+	}
+	int mid = (lo + hi) / 2;
+	long left, right;
+	int leftCount = 0, rightCount = 0;
+	cobegin {
+	    {
+		long sum = sumSquares(lo, mid);
+		left = sum;
+		leftCount = mid - lo;
+	    }
+	    {
+		long sum = sumSquares(mid, hi);
+		right = sum;
+		rightCount = hi - mid;
+	    }
+	}
+	if (leftCount + rightCount != hi - lo) return -1;
+	return left + right;
+    }
+
+    public static void main(String[] args) {
+	System.out.println(fib(22) + " " + sumSquares(0, 100000));
+    }
+}
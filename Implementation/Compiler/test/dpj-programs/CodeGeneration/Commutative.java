@@ -0,0 +1,81 @@
+/**
+ * Invocations of commutative methods run in parallel in the foreach
+ * loops of main, so their bodies are synchronized in the generated
+ * code.  Counter only adds to its int and long fields, so it uses
+ * atomic field updaters.  Histogram is locked on the stripe of its
+ * index parameter k, the first final parameter whose values separate
+ * the effects; n does not.  Tally already synchronizes by hand, so its
+ * bodies are left as they are.
+ */
+public class Commutative {
+    region C, H, T;
+
+    static class Counter<region R> {
+	int count in R;
+	long total in R;
+	int balance in R;
+
+	commutative void add(int n) writes R {
+	    count++;
+	    total += n;
+	    this.balance -= n;
+	}
+
+	commutative void addLong(long n) writes R {
+	    total += n;
+	    ++this.count;
+	}
+    }
+
+    static class Histogram<region R> {
+	static final int N = 10;
+
+	final int[]<R:[i]>#i bins = new int[N]<R:[i]>#i;
+
+	commutative void add(final int n, final int k) writes R:[k] {
+	    bins[k] += n;
+	}
+
+	// No parameter separates the effects, so all invocations share
+	// one lock
+	commutative void addAll(final int n) writes R:* {
+	    for (int i = 0; i < N; ++i)
+		bins[i] += n;
+	}
+    }
+
+    static class Tally<region R> {
+	int count in R;
+
+	commutative synchronized void add() writes R {
+	    ++count;
+	}
+
+	commutative void addLocked(int n) writes R {
+	    synchronized (this) {
+		count += n;
+	    }
+	}
+    }
+
+    public static void main(String[] args) {
+	final Counter<C> counter = new Counter<C>();
+	final Histogram<H> histogram = new Histogram<H>();
+	final Tally<T> tally = new Tally<T>();
+	foreach (int i in 0, 1000) {
+	    counter.add(i);
+	    counter.addLong(1L << 32);
+	    histogram.add(i, i % Histogram.N);
+	    tally.add();
+	    tally.addLocked(2);
+	}
+	// The two methods of Histogram use different locks
+	foreach (int i in 0, 1000)
+	    histogram.addAll(1);
+	int bins = 0;
+	for (int i = 0; i < Histogram.N; ++i) bins += histogram.bins[i];
+	System.out.println(counter.count + " " + counter.total + " " +
+			   counter.balance);
+	System.out.println(histogram.bins[3] + " " + bins + " " + tally.count);
+    }
+}
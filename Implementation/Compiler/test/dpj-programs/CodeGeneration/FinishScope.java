@@ -0,0 +1,77 @@
+import DPJRuntime.*;
+
+/**
+ * Tasks created by cobegin and foreach inside a dpjfinish run with
+ * the scope of that dpjfinish, whichever worker runs them, so the
+ * spawns they execute are joined by it.  A spawned task that throws
+ * does not keep the dpjfinish from joining the others.
+ */
+public class FinishScope {
+    static final int N = 64;
+
+    static void work(boolean[] done, int i) {
+	try {
+	    Thread.sleep(1);
+	} catch (InterruptedException e) {}
+	done[i] = true;
+    }
+
+    static void spawnWork(Finish scope, boolean[] inScope, 
+			  boolean[] done, int i) {
+	inScope[i] = Finish.current() == scope;
+	spawn work(done, i);
+    }
+
+    static void fail(int i) {
+	throw new IllegalStateException("task " + i);
+    }
+
+    static void check(String what, boolean[] inScope, boolean[] done) {
+	for (int i = 0; i < N; ++i) {
+	    if (!inScope[i]) System.out.println(what + " " + i + " not in scope");
+	    if (!done[i]) System.out.println(what + " " + i + " not joined");
+	}
+    }
+
+    public static void main(String[] args) {
+	boolean[] inScope = new boolean[N];
+	boolean[] done = new boolean[N];
+	dpjfinish {
+	    Finish scope = Finish.current();
+	    foreach (int i in 0, N) {
+		spawnWork(scope, inScope, done, i);
+	    }
+	}
+	check("foreach", inScope, done);
+	inScope = new boolean[N];
+	done = new boolean[N];
+	dpjfinish {
+	    Finish scope = Finish.current();
+	    cobegin {
+		for (int i = 0; i < N; i += 2) spawnWork(scope, inScope, done, i);
+		for (int i = 1; i < N; i += 2) spawnWork(scope, inScope, done, i);
+	    }
+	}
+	check("cobegin", inScope, done);
+	// The failing tasks are spawned last, so they are joined first
+	done = new boolean[N];
+	try {
+	    dpjfinish {
+		for (int i = 0; i < N; ++i) {
+		    spawn work(done, i);
+		}
+		spawn fail(1);
+		spawn fail(2);
+	    }
+	    System.out.println("no exception");
+	} catch (IllegalStateException e) {
+	    Throwable cause = e;
+	    while (cause.getCause() != null) cause = cause.getCause();
+	    System.out.println(cause.getMessage());
+	}
+	for (int i = 0; i < N; ++i) {
+	    if (!done[i]) System.out.println("throw " + i + " not joined");
+	}
+	System.out.println("done");
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * The first three loops of run are fused into one, the last two are
+ * not:  the second reads what the first wrote for the previous index.
+ * The results must be the same with and without fusion.
+ */
+public class ForeachFusion {
+    region A, B, C, E, F;
+
+    static final int N = 1000;
+
+    int[]<A:[i]>#i a in A = new int[N]<A:[i]>#i;
+    int[]<B:[i]>#i b in B = new int[N]<B:[i]>#i;
+    int[]<C:[i]>#i c in C = new int[N]<C:[i]>#i;
+    int[]<E:[i]>#i e in E = new int[N]<E:[i]>#i;
+    int[]<F:[i]>#i f in F = new int[N]<F:[i]>#i;
+
+    void run() {
+	foreach (int i in 0, N)
+	    a[i] = i;
+	foreach (int i in 0, N)
+	    b[i] = 2 * a[i] + 1;
+	foreach (int k in 0, N)
+	    c[k] = a[k] + b[k];
+	foreach (int i in 0, N)
+	    e[i] = 2 * i;
+	foreach (int j in 0, N)
+	    f[j] = e[j] - (j > 0 ? e[j - 1] : 0);
+    }
+
+    public static void main(String[] args) {
+	ForeachFusion t = new ForeachFusion();
+	t.run();
+	long sa = 0, sb = 0, sc = 0, sf = 0;
+	for (int i = 0; i < N; ++i) {
+	    sa += t.a[i];
+	    sb += t.b[i];
+	    sc += t.c[i];
+	    sf += t.f[i];
+	}
+	System.out.println(sa + " " + sb + " " + sc + " " + sf);
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.Map;
+
+/**
+ * The instrumentation measures the same task graph whether the
+ * program runs sequentially or in parallel:  a foreach of 8 iterations
+ * followed by a cobegin of 3 statements.  Each piece of work sleeps,
+ * so its time does not depend on how many threads share the
+ * processors.
+ */
+public class Instrumented {
+
+    static void work(int millis) pure {
+	try {
+	    Thread.sleep(millis);
+	} catch (InterruptedException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    static void run() {
+	foreach (int i in 0, 8)
+	    work(20);
+	cobegin {
+	    work(20);
+	    work(20);
+	    work(20);
+	}
+    }
+
+    public static void main(String[] args) {
+	DPJRuntime.Instrument.start();
+	run();
+	DPJRuntime.Instrument.end();
+	// Each construct shows up as a rise in the number of tasks to
+	// one more than its number of branches
+	StringBuilder rises = new StringBuilder("tasks");
+	int previous = 0;
+	for (int tasks : DPJRuntime.Instrument.getTasksMap().values()) {
+	    if (tasks > previous + 1) rises.append(" " + tasks);
+	    previous = tasks;
+	}
+	System.out.println(rises);
+	System.out.println(DPJRuntime.Instrument.averageWidth() + " " +
+			   DPJRuntime.Instrument.idealSpeedup());
+    }
+}
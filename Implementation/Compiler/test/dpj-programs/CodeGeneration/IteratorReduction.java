@@ -0,0 +1,32 @@
+import DPJRuntime.*;
+
+/**
+ * A foreach over an iterator with a reduction splits statically, so
+ * partial results are combined in the same order on every run.
+ */
+class Range extends DPJIterator<Integer> {
+    int lo, hi;
+    Range(int lo, int hi) { this.lo = lo; this.hi = hi; }
+    public Status<Integer> next() {
+	if (lo < hi) return status.element(lo++);
+	return status.done();
+    }
+    public int size() { return hi - lo; }
+    public DPJIterator<Integer> split() {
+	if (hi - lo < 2) return null;
+	int mid = (lo + hi) >>> 1;
+	Range r = new Range(mid, hi);
+	hi = mid;
+	return r;
+    }
+}
+
+public class IteratorReduction {
+    public static void main(String[] args) {
+	double sum = 0;
+	foreach (Integer i in new Range(0, 1000); +:sum) {
+	    sum += 1.0 / (i + 1);
+	}
+	System.out.println(sum);
+    }
+}
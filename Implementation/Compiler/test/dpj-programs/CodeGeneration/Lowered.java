@@ -0,0 +1,75 @@
+import DPJRuntime.*;
+
+/**
+ * The DPJ statements that Lower translates for sequential code compiled
+ * straight to class files:  foreach loops in both forms, with and
+ * without a stride and with reductions; cobegin; spawn in dpjfinish;
+ * and region declarations, as class members and as locals.  A local
+ * class in a nested loop body captures the variables of its iteration.
+ */
+class Countdown extends DPJIterator<Integer> {
+    int n;
+    Countdown(int n) { this.n = n; }
+    public Status<Integer> next() {
+	if (n > 0) return status.element(n--);
+	return status.done();
+    }
+    public int size() { return n; }
+    public DPJIterator<Integer> split() { return null; }
+}
+
+interface Value {
+    int get();
+}
+
+public class Lowered {
+    region A, B, C;
+
+    static class Cell<region R> {
+	long v in R;
+    }
+
+    final int[]<A:[i]>#i squares = new int[10]<A:[i]>#i;
+    final Cell<B> strided = new Cell<B>();
+    final Cell<C> branches = new Cell<C>();
+
+    String run() {
+	region Local;
+	foreach (int i in 0, 10)
+	    squares[i] = i * i;
+	// 3, 8, 13, 18, 23
+	foreach (int i in 3, 5, 5)
+	    strided.v += i;
+	long sum = 0, product = 1;
+	foreach (int i in 0, 10; +:sum)
+	    sum += squares[i];
+	foreach (Integer i in new Countdown(5); *:product)
+	    product *= i;
+	final Value[]<Local> values = new Value[4]<Local>;
+	foreach (int i in 0, 2) {
+	    foreach (int j in 0, 2) {
+		final int k = 2 * i + j;
+		values[k] = new Value() {
+		    public int get() { return 10 * k; }
+		};
+	    }
+	}
+	cobegin {
+	    strided.v *= 2;
+	    branches.v += 100;
+	}
+	dpjfinish {
+	    spawn squares[0] = -1;
+	    spawn branches.v *= 3;
+	}
+	return sum + " " + product + " " + values[1].get() + " " +
+	    values[2].get();
+    }
+
+    public static void main(String[] args) {
+	Lowered l = new Lowered();
+	System.out.println(l.run());
+	System.out.println(l.squares[0] + " " + l.squares[9] + " " +
+			   l.strided.v + " " + l.branches.v);
+    }
+}
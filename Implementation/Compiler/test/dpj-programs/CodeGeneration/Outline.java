@@ -0,0 +1,71 @@
+/**
+ * The bodies of indexed foreach loops move into private methods of
+ * the class being printed.  A loop in an initializer of a local or
+ * anonymous class declared in a method is not in a method of that
+ * class, so it keeps the task class form.
+ */
+public class Outline {
+    static final int N = 40;
+
+    int scale = 3;
+
+    static int[] squares(int n) {
+	final int[] result = new int[n];
+	foreach (int i in 0, n) {
+	    result[i] = i * i;
+	}
+	return result;
+    }
+
+    int[] multiples(int n, final int offset) {
+	final int[] result = new int[2 * n];
+	foreach (int i in 0, n, 2) {
+	    result[i] = scale * i + offset;
+	    result[i + 1] = -1;
+	}
+	return result;
+    }
+
+    static int[] local(final int n) {
+	class Filler {
+	    int[] values = new int[n];
+	    Filler(final int k) {
+		foreach (int i in 0, n) {
+		    values[i] = k + i;
+		}
+	    }
+	}
+	return new Filler(7).values;
+    }
+
+    static int[] anonymous(final int n) {
+	Object o = new Object() {
+	    int[] values = new int[n];
+	    {
+		foreach (int i in 0, n) {
+		    values[i] = odd(i);
+		}
+	    }
+	    int odd(int i) {
+		return 2 * i + 1;
+	    }
+	    public String toString() {
+		return String.valueOf(sum(values));
+	    }
+	};
+	return new int[] { Integer.parseInt(o.toString()) };
+    }
+
+    static int sum(int[] a) {
+	int s = 0;
+	for (int i = 0; i < a.length; ++i) s += a[i];
+	return s;
+    }
+
+    public static void main(String[] args) {
+	System.out.println(sum(squares(N)) + " " +
+			   sum(new Outline().multiples(N, 5)) + " " +
+			   sum(local(N)) + " " +
+			   sum(anonymous(N)));
+    }
+}
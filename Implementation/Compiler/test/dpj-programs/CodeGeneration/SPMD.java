@@ -0,0 +1,85 @@
+/**
+ * With -spmd, the sequential loops in Grid, whose bodies are only
+ * foreach loops, run in one team of tasks.  Each phase of a step reads
+ * elements that other members wrote in the phase before, so the
+ * results are right only if the members wait for each other after
+ * each foreach.  Inside the cobegin in main, the loops run as ordinary
+ * foreach loops instead.
+ */
+public class SPMD {
+    region G1, G2, G3;
+
+    static class Grid<region R> {
+	region A, B;
+
+	static final int N = 1000;
+
+	int[]<R:A:[i]>#i a in R:A = new int[N]<R:A:[i]>#i;
+	int[]<R:B:[i]>#i b in R:B = new int[N]<R:B:[i]>#i;
+
+	Grid(int seed) writes R:A:* {
+	    for (int i = 0; i < N; ++i) a[i] = (i * seed) % 17;
+	}
+
+	void smooth(int steps) reads R:A, R:B writes R:A:*, R:B:* {
+	    for (int s = 0; s < steps; ++s) {
+		foreach (int i in 1, N - 2)
+		    b[i] = (a[i - 1] + a[i] + a[i + 1]) % 1009;
+		foreach (int i in 1, N - 2)
+		    a[i] = b[i] + 1;
+	    }
+	}
+
+	// The loop control assigns s, which is copied out of the team
+	int shift(int limit) reads R:A, R:B writes R:A:*, R:B:* {
+	    int s = 0;
+	    do {
+		foreach (int i in 0, N - 1)
+		    b[i] = a[i + 1];
+		foreach (int i in 0, N - 1)
+		    a[i] = b[i];
+	    } while (++s < limit);
+	    return s;
+	}
+
+	void fail() reads R:A writes R:A:* {
+	    for (int s = 0; s < 3; ++s) {
+		foreach (int i in 0, N) {
+		    if (i == N / 2)
+			throw new IllegalStateException("phase " + s);
+		    a[i] = i;
+		}
+	    }
+	}
+
+	long sum() reads R:A:* {
+	    long result = 0;
+	    for (int i = 0; i < N; ++i) result += a[i];
+	    return result;
+	}
+    }
+
+    public static void main(String[] args) {
+	Grid<G1> g1 = new Grid<G1>(3);
+	Grid<G2> g2 = new Grid<G2>(5);
+	Grid<G3> g3 = new Grid<G3>(7);
+	g1.smooth(20);
+	int shifted = g1.shift(10);
+	cobegin {
+	    g2.smooth(20);
+	    g3.shift(10);
+	}
+	System.out.println(g1.sum() + " " + g2.sum() + " " + g3.sum() + " " +
+			   shifted);
+	// The other members stop at the next barrier, so what the loop
+	// wrote before then depends on the schedule
+	try {
+	    g1.fail();
+	} catch (IllegalStateException e) {
+	    // A java.util.concurrent pool wraps the exception of a task
+	    Throwable cause = e;
+	    while (cause.getCause() != null) cause = cause.getCause();
+	    System.out.println(cause.getMessage());
+	}
+    }
+}
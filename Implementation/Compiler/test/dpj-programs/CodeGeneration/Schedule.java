@@ -0,0 +1,52 @@
+import DPJRuntime.*;
+
+/**
+ * Loops with their own splitting parameters.  Every loop must run
+ * each of its iterations exactly once, whatever the parameters, and
+ * whether the runtime splits statically or adaptively.
+ */
+public class Schedule {
+    region A;
+
+    static final int N = 1000;
+
+    int[]<A:[i]>#i a in A = new int[N]<A:[i]>#i;
+
+    void run() {
+	foreach (@ForeachSchedule(split=3, cutoff=4) int i in 0, N)
+	    a[i] += i;
+	check("split", 1);
+	foreach (@ForeachSchedule(mode=ForeachSchedule.ADAPTIVE, cutoff=1)
+		 int i in 0, N)
+	    a[i] += i;
+	check("adaptive", 2);
+	foreach (@ForeachSchedule(mode=ForeachSchedule.STATIC, split=4,
+				  cutoff=1, align=16) int i in 0, N)
+	    a[i] += i;
+	check("static", 3);
+	// Not fused, so each loop keeps its own schedule
+	foreach (@ForeachSchedule(split=3) int i in 0, N)
+	    a[i] += i;
+	foreach (int i in 0, N)
+	    a[i] += i;
+	check("global", 5);
+	// One iteration per task, over every other element
+	foreach (@ForeachSchedule(split=2, cutoff=1) int i in 0, N / 2, 2)
+	    a[i] -= i;
+	check("stride", 5);
+    }
+
+    void check(String loop, int times) reads A:* {
+	int wrong = 0;
+	for (int i = 0; i < N; ++i) {
+	    int expected = (loop.equals("stride") && i % 2 == 0) ? 
+		(times - 1) * i : times * i;
+	    if (a[i] != expected) ++wrong;
+	}
+	System.out.println(loop + " " + wrong);
+    }
+
+    public static void main(String[] args) {
+	new Schedule().run();
+    }
+}
@@ -0,0 +1,15 @@
+import DPJRuntime.*;
+
+/**
+ * A split factor below 2 or a cutoff below 1 is an error
+ */
+public class ScheduleBad {
+    void run(int[] a) {
+	foreach (@ForeachSchedule(split=1, cutoff=4) int i in 0, 10)
+	    a[i] = i;
+	foreach (@ForeachSchedule(cutoff=0) int i in 0, 10)
+	    a[i] = i;
+	foreach (@ForeachSchedule(split=2, cutoff=1) int i in 0, 10)
+	    a[i] = i;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Sequential versions of methods, and how calls in them choose
+ * between the sequential and parallel versions of the callee
+ */
+public class SeqClone {
+    // Overridable, so calls on this test the class of this
+    int count(int n) {
+	if (n <= 1) return 1;
+	int a, b;
+	cobegin {
+	    a = count(n - 1);
+	    b = this.count(n - 2);
+	}
+	return a + b;
+    }
+
+    int twice(int n) {
+	int a, b;
+	cobegin {
+	    a = count(n);
+	    b = this.count(n);
+	}
+	return a + b;
+    }
+
+    // Static, so calls bind to the sequential version
+    static int fib(int n) {
+	if (n <= 1) return n;
+	int a, b;
+	cobegin {
+	    a = fib(n - 1);
+	    b = SeqClone.fib(n - 2);
+	}
+	return a + b;
+    }
+
+    // Final, so calls bind to the sequential version
+    final void fill(int[] x, int lo, int hi) {
+	if (hi - lo <= 2) {
+	    for (int i = lo; i < hi; ++i) x[i] = i;
+	    return;
+	}
+	int mid = (lo + hi) / 2;
+	cobegin {
+	    fill(x, lo, mid);
+	    this.fill(x, mid, hi);
+	}
+    }
+
+    // Partial sums combine in the same order in both versions
+    static double harmonic(int n) {
+	double sum = 0;
+	foreach (int i in 0, n; +:sum) {
+	    sum += 1.0 / (i + 1);
+	}
+	return sum;
+    }
+
+    static class Sub extends SeqClone {
+	int count(int n) {
+	    return 1000 + n;
+	}
+    }
+
+    public static void main(String[] args) {
+	SeqClone s = new SeqClone();
+	int[] x = new int[37];
+	s.fill(x, 0, x.length);
+	int sum = 0;
+	for (int i = 0; i < x.length; ++i) sum += x[i];
+	System.out.println(s.count(10) + " " + fib(15) + " " + sum);
+	// Sub.count doesn't recurse, so this is 1005 + 1005
+	System.out.println(new Sub().twice(5));
+	System.out.println(harmonic(1000));
+    }
+}
@@ -0,0 +1,35 @@
+import DPJRuntime.*;
+
+/**
+ * The pieces of a foreach at or below the cutoff run sequentially,
+ * and so do the methods they call.  Outside them, with more than one
+ * worker, code runs in parallel.
+ */
+public class SequentialLeaves {
+    static final int N = 1000;
+
+    static boolean branches() pure {
+	boolean a, b;
+	cobegin {
+	    a = RuntimeState.runSequential();
+	    b = RuntimeState.runSequential();
+	}
+	return a && b;
+    }
+
+    public static void main(String[] args) {
+	boolean[]<[i]>#i leaf = new boolean[N]<[i]>#i;
+	boolean[]<[i]>#i branch = new boolean[N]<[i]>#i;
+	foreach (int i in 0, N) {
+	    leaf[i] = RuntimeState.runSequential();
+	    branch[i] = branches();
+	}
+	int leaves = 0, branches = 0;
+	for (int i = 0; i < N; ++i) {
+	    if (leaf[i]) ++leaves;
+	    if (branch[i]) ++branches;
+	}
+	System.out.println(leaves + " " + branches + " " + branches() + " " +
+			   RuntimeState.runSequential());
+    }
+}
@@ -0,0 +1,61 @@
+import DPJRuntime.*;
+
+/**
+ * A split partition creates its segments when they are asked for, but
+ * they must be the same as the segments of a partition that creates
+ * them up front.  The array partitioned is a slice that does not
+ * start at 0.
+ */
+public class SplitPartition {
+
+    static <region R>String describe(ArraySliceInt<R> s) reads R {
+	if (s.length == 0) return "[]";
+	return "[" + s.get(0) + ".." + s.get(s.length - 1) + "]";
+    }
+
+    static <region R>void show(String what, final PartitionInt<R> p) {
+	System.out.println(what + " " + p.length + " " + describe(p.get(0)) +
+			   " " + describe(p.get(1)));
+    }
+
+    static <region R>void splitOutOfBounds(ArraySliceInt<R> A, int idx,
+					   boolean exclude) {
+	try {
+	    PartitionInt.splitPartition(A, idx, exclude);
+	    System.out.println("split " + idx + " " + exclude + " ok");
+	} catch (ArrayIndexOutOfBoundsException e) {
+	    System.out.println("split " + idx + " " + exclude + 
+			       " out of bounds");
+	}
+    }
+
+    static <region R>void getOutOfBounds(final PartitionInt<R> p, int idx) {
+	try {
+	    p.get(idx);
+	    System.out.println("get " + idx + " ok");
+	} catch (ArrayIndexOutOfBoundsException e) {
+	    System.out.println("get " + idx + " out of bounds");
+	}
+    }
+
+    public static void main(String[] args) {
+	ArrayInt<Root> elts = new ArrayInt<Root>(12);
+	for (int i = 0; i < elts.length; ++i) elts[i] = i;
+	// Elements 1 through 10
+	ArraySliceInt<Root> A = new ArraySliceInt<Root>(elts).subslice(1, 10);
+	show("eager", new PartitionInt<Root>(A, 4));
+	show("split", PartitionInt.splitPartition(A, 4));
+	show("eager exclude", new PartitionInt<Root>(A, 4, true));
+	show("split exclude", PartitionInt.splitPartition(A, 4, true));
+	show("split no exclude", PartitionInt.splitPartition(A, 4, false));
+	show("split 0", PartitionInt.splitPartition(A, 0));
+	show("split 0 exclude", PartitionInt.splitPartition(A, 0, true));
+	show("split n", PartitionInt.splitPartition(A, 10));
+	show("split n-1 exclude", PartitionInt.splitPartition(A, 9, true));
+	splitOutOfBounds(A, -1, false);
+	splitOutOfBounds(A, 11, false);
+	splitOutOfBounds(A, 10, true);
+	getOutOfBounds(PartitionInt.splitPartition(A, 4), -1);
+	getOutOfBounds(PartitionInt.splitPartition(A, 4), 2);
+    }
+}
@@ -0,0 +1,7 @@
+class Cell {
+    region R;
+    int value in R;
+    void set(int v) writes R {
+	value = v;
+    }
+}
@@ -0,0 +1,5 @@
+class Other {
+    int twice(int x) pure {
+	return 2 * x;
+    }
+}
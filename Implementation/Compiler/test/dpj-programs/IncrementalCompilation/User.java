@@ -0,0 +1,7 @@
+class User {
+    // Checked against the summary of Cell.set
+    void fill(Cell[] cells) reads Root writes Cell.R {
+	for (int i = 0; i < cells.length; ++i)
+	    cells[i].set(i);
+    }
+}
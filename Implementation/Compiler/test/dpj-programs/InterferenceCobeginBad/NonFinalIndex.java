@@ -0,0 +1,11 @@
+class C {
+    int[]<[i]>#i A = new int[100]<[i]>#i;
+    void m() {
+	// k is not final, so k and k+1 need not be different cells
+	int k = 3;
+	cobegin {
+	    A[k] = 1;
+	    A[k+1] = 2;
+	}
+    }
+}
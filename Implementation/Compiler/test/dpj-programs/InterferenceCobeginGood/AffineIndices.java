@@ -0,0 +1,13 @@
+class C {
+    int[]<[i]>#i A = new int[100]<[i]>#i;
+    void m(final int j) {
+	cobegin {
+	    A[j] = 1;
+	    A[j+1] = 2;
+	}
+	cobegin {
+	    A[2*j] = 1;
+	    A[2*j+1] = 2;
+	}
+    }
+}
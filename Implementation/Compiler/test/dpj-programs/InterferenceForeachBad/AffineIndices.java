@@ -0,0 +1,9 @@
+class C {
+    int[]<[i]>#i A = new int[100]<[i]>#i;
+    void m() {
+	// Iteration i writes the cell that iteration i+1 reads
+	foreach (int i in 0, 50) {
+	    A[i] = A[i+1];
+	}
+    }
+}
@@ -0,0 +1,11 @@
+class C {
+    int[]<[i]>#i A = new int[100]<[i]>#i;
+    void m() {
+	// j is final, but has a different value in each iteration
+	foreach (int i in 0, 50) {
+	    final int j = i;
+	    A[j] = 1;
+	    A[j+1] = 2;
+	}
+    }
+}
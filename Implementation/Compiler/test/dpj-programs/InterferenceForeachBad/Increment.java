@@ -0,0 +1,9 @@
+class C {
+    int count;
+    void m() {
+	// Every iteration increments the same field
+	foreach (int i in 0, 50) {
+	    count++;
+	}
+    }
+}
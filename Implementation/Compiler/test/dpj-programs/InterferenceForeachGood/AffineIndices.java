@@ -0,0 +1,16 @@
+class C {
+    int[]<[i]>#i A = new int[100]<[i]>#i;
+    void evenOdd() {
+	// 2*i and 2*i+1 never meet, in the same or any other iteration
+	foreach (int i in 0, 50) {
+	    A[2*i] = 1;
+	    A[2*i+1] = 2;
+	}
+    }
+    void offset(final int k) {
+	// k is the same in every iteration, so i+k is distinct
+	foreach (int i in 0, 50) {
+	    A[i+k] = i;
+	}
+    }
+}
@@ -0,0 +1,12 @@
+interface Gen<effect E> {
+    void op() effect E;
+}
+
+class InvokeThroughEffectParam {
+    <effect E>void apply(Gen<effect E> g) {
+	g.op();
+    }
+    <effect E>void applyWithin(Gen<effect E> g) effect E {
+	g.op();
+    }
+}
@@ -0,0 +1,17 @@
+@interface Clone {}
+
+class AtomicBarriers {
+    region atomic R;
+    int count in R;
+    double total in R;
+    @Clone void add(int n) writes R {
+	count += n;
+	total = total + count;
+    }
+    void m() {
+	cobegin_nd {
+	    atomic add(1);
+	    atomic count++;
+	}
+    }
+}
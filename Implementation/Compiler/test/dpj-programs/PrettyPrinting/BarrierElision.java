@@ -0,0 +1,28 @@
+class BarrierElision<region atomic R> {
+    region atomic S;
+    int x in R;
+    int y in S;
+
+    // Each iteration has its own region r, so no other transaction
+    // can touch c.x, but every iteration writes y
+    void local() writes atomic S {
+	foreach_nd (int i in 0, 10) {
+	    region atomic r;
+	    BarrierElision<r> c = new BarrierElision<r>();
+	    atomic {
+		c.x += i;
+		y += i;
+	    }
+	}
+    }
+
+    // No transaction runs in parallel with the block here...
+    void unsummarized() writes S {
+	atomic y = 1;
+    }
+
+    // ...but callers of this method may run it in parallel with others
+    void summarized() writes atomic S {
+	atomic y = 2;
+    }
+}
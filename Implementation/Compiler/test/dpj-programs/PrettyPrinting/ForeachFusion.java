@@ -0,0 +1,57 @@
+/**
+ * Adjacent foreach loops over the same range are fused when the
+ * fused loop is still noninterfering
+ */
+
+class C {
+    region A, B, D;
+    int[]<A:[i]>#i a in A = new int[10]<A:[i]>#i;
+    int[]<B:[i]>#i b in B = new int[10]<B:[i]>#i;
+    int[]<D:[i]>#i d in D = new int[10]<D:[i]>#i;
+
+    // Fused into one loop:  each iteration reads only what the same
+    // iteration of the loops before it wrote
+    void fused() {
+	foreach (int i in 0, 10)
+	    a[i] = i;
+	foreach (int j in 0, 10)
+	    b[j] = a[j] + 1;
+	foreach (int k in 0, 10)
+	    d[k] = a[k] + b[k];
+    }
+
+    // Fused, with the same index variable in both loops
+    void sameIndex() {
+	foreach (int i in 0, 10)
+	    a[i] = i;
+	foreach (int i in 0, 10)
+	    b[i] = a[i] + 1;
+    }
+
+    // Not fused:  the second loop reads what the first wrote for the
+    // neighboring index
+    void neighbor() {
+	foreach (int i in 0, 9)
+	    a[i] = i;
+	foreach (int j in 0, 9)
+	    b[j] = a[j + 1];
+    }
+
+    // Not fused:  different ranges and strides
+    void ranges() {
+	foreach (int i in 0, 10)
+	    a[i] = i;
+	foreach (int j in 0, 9)
+	    b[j] = j;
+	foreach (int k in 0, 5, 2)
+	    d[k] = k;
+    }
+
+    // Not fused:  nondeterministic loops are left alone
+    void nondet() {
+	foreach_nd (int i in 0, 10)
+	    a[i] = i;
+	foreach_nd (int j in 0, 10)
+	    b[j] = j;
+    }
+}
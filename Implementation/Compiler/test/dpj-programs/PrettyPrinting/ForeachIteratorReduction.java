@@ -0,0 +1,19 @@
+/**
+ * Iterator form of parallel for with reductions
+ */
+
+abstract class Elements {
+    abstract int size();
+}
+
+class C {
+    int m1(Elements it) {
+	int sum = 0;
+	boolean all = true;
+	foreach (Integer x in it; +:sum, &:all) {
+	    sum += x;
+	    all &= x > 0;
+	}
+	return sum;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Parallel for with reductions
+ */
+
+class C {
+    int m1(int[] A) {
+	int sum = 0;
+	boolean all = true;
+	foreach (int i in 0, A.length; +:sum, &:all) {
+	    sum += A[i];
+	    all &= A[i] > 0;
+	}
+	return sum;
+    }
+}
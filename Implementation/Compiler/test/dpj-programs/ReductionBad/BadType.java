@@ -0,0 +1,7 @@
+class C {
+    void m() {
+	String s = "";
+	// Reductions are on primitive types only
+	foreach (int i in 0, 10; +:s) { }
+    }
+}
@@ -0,0 +1,9 @@
+class C {
+    int sum;
+    void m(int[] A) {
+	// Only local variables may be reduction variables
+	foreach (int i in 0, A.length; +:sum) {
+	    sum += A[i];
+	}
+    }
+}
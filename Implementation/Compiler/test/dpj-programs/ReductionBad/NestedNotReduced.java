@@ -0,0 +1,11 @@
+class C {
+    void m(int[] A) {
+	int sum = 0;
+	// The inner foreach must also reduce sum
+	foreach (int i in 0, A.length; +:sum) {
+	    foreach (int j in 0, A.length) {
+		sum += A[j];
+	    }
+	}
+    }
+}
@@ -0,0 +1,9 @@
+class C {
+    void m(int[] A) {
+	int sum = 0;
+	// Reading sum inside the loop would see a partial result
+	foreach (int i in 0, A.length; +:sum) {
+	    int y = sum;
+	}
+    }
+}
@@ -0,0 +1,8 @@
+class C {
+    void m(int[] A) {
+	int sum = 0;
+	foreach (int i in 0, A.length; +:sum) {
+	    sum *= A[i];
+	}
+    }
+}
@@ -0,0 +1,14 @@
+abstract class Elements {
+    abstract int size();
+}
+
+class C {
+    int sum(Elements it) {
+	int sum = 0;
+	// The iterator form combines partial sums the same way
+	foreach (Integer x in it; +:sum) {
+	    sum += x;
+	}
+	return sum;
+    }
+}
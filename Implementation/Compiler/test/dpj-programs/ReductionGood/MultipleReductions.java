@@ -0,0 +1,14 @@
+class C {
+    void m(int[] A) {
+	long sum = 0;
+	double prod = 1;
+	boolean all = true;
+	int bits = 0;
+	foreach (int i in 0, A.length; +:sum, *:prod, &:all, ^:bits) {
+	    sum += A[i];
+	    prod *= 2;
+	    all &= A[i] > 0;
+	    bits ^= A[i];
+	}
+    }
+}
@@ -0,0 +1,13 @@
+class C {
+    int m(int[] A, int n) {
+	int sum = 0;
+	// The inner foreach may update sum, because it reduces sum with
+	// the same operator
+	foreach (int i in 0, n; +:sum) {
+	    foreach (int j in 0, n; +:sum) {
+		sum += A[i*n+j];
+	    }
+	}
+	return sum;
+    }
+}
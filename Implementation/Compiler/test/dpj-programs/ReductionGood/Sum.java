@@ -0,0 +1,10 @@
+class C {
+    int sum(int[] A) {
+	int sum = 0;
+	// Partial sums are combined after the loop
+	foreach (int i in 0, A.length; +:sum) {
+	    sum += A[i];
+	}
+	return sum;
+    }
+}
@@ -0,0 +1,94 @@
+package DPJRuntime;
+
+/**
+ * <p>An {@code ArrayIterator} is a {@link DPJIterator} over the cells
+ * of an {@link Array} between two indices, in index order.  It splits
+ * in half, so the iterator form of {@code foreach} can visit the cells
+ * in parallel:
+ *
+ * <p><blockquote><pre>
+ * // Visit the cells of slice A
+ * foreach (T x in A.iterator()) {
+ *     ...
+ * }
+ * </pre></blockquote><p>
+ *
+ * The iterator reads the cells as it returns them, so the loop body
+ * must not write them.
+ *
+ * @param <T> The type of a cell of the array
+ * @param <R> The region of a cell of the array
+ */
+public class ArrayIterator<type T,region R> extends DPJIterator<T> {
+
+    /**
+     * The array
+     */
+    private final Array<T,R> elts;
+
+    /**
+     * The index of the next cell to return
+     */
+    private int next;
+
+    /**
+     * The index after the last cell to return
+     */
+    private int end;
+
+    /**
+     * Creates an {@code ArrayIterator} over all the cells of an array.
+     *
+     * @param elts  The array
+     */
+    public ArrayIterator(Array<T,R> elts) pure {
+	this(elts, 0, elts.length);
+    }
+
+    /**
+     * Creates an {@code ArrayIterator} over the cells {@code start}
+     * through {@code start+length-1} of an array.
+     *
+     * <p>Throws {@code ArrayIndexOutOfBoundsException} if the
+     * interval is not in bounds for the array.
+     *
+     * @param elts   The array
+     * @param start  The index of the first cell
+     * @param length The number of cells
+     */
+    public ArrayIterator(Array<T,R> elts, int start, int length) pure {
+	if (start < 0 || length < 0 || start + length > elts.length) {
+	    throw new ArrayIndexOutOfBoundsException();
+	}
+	this.elts = elts;
+	this.next = start;
+	this.end = start + length;
+    }
+
+    public Status<T> next() {
+	if (next < end) {
+	    return status.element(elts[next++]);
+	}
+	return status.done();
+    }
+
+    public int size() {
+	return end - next;
+    }
+
+    /**
+     * Splits off the second half of the remaining cells.
+     *
+     * @return An iterator over the second half, or {@code null} if
+     * fewer than two cells remain
+     */
+    public DPJIterator<T> split() {
+	if (end - next < 2) {
+	    return null;
+	}
+	int mid = (next + end) >>> 1;
+	ArrayIterator<T,R> rest = new ArrayIterator<T,R>(elts, mid, end - mid);
+	end = mid;
+	return rest;
+    }
+}
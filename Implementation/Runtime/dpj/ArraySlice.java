@@ -145,6 +145,18 @@ public class ArraySlice<type T,region R> {
      */
     public Array<T,R> toArray() pure { return elts; }
 
+    /**
+     * Returns a {@link DPJIterator} over the elements of this {@code
+     * ArraySlice}, in index order, for the iterator form of {@code
+     * foreach}.  The iterator splits in half, so the loop can run in
+     * parallel.
+     *
+     * @return An iterator over the elements of this {@code ArraySlice}
+     */
+    public DPJIterator<T> iterator() pure {
+	return new ArrayIterator<T,R>(elts, start, length);
+    }
+
     /**
      * Returns a string representation of this {@code ArraySlice}.
      *
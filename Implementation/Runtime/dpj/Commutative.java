@@ -0,0 +1,57 @@
+package DPJRuntime;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locks for the synchronization that the DPJ compiler generates for
+ * {@code commutative} methods.  Invocations of the same commutative
+ * method may run in parallel even when their effects interfere, so
+ * the parallel code for the method body looks like this:
+ *
+ * <pre>
+ *   synchronized (Commutative.lock("C.m(int)", key)) { body }
+ * </pre>
+ *
+ * Each method has its own table of lock stripes, so invocations of
+ * different methods never contend.  When the compiler can show that
+ * invocations with different values of an integer parameter have
+ * disjoint effects, it passes that parameter as the key, and only
+ * invocations whose keys fall on the same stripe exclude each other.
+ * Otherwise the key is 0 and all invocations of the method share one
+ * lock.  User code should never call this class directly.
+ */
+public class Commutative {
+
+    /**
+     * The log of the number of stripes per method
+     */
+    private static final int LOG_STRIPES = 6;
+
+    /**
+     * The lock stripes of each commutative method invoked so far
+     */
+    private static final ConcurrentHashMap<String,Object[]> stripes =
+	new ConcurrentHashMap<String,Object[]>();
+
+    /**
+     * Returns the lock that guards the invocations of {@code method}
+     * with the given key.
+     *
+     * @param method The method, as named by the compiler
+     * @param key    The key of the invocation
+     */
+    public static Object lock(String method, int key) {
+	Object[] locks = stripes.get(method);
+	if (locks == null) {
+	    Object[] fresh = new Object[1 << LOG_STRIPES];
+	    for (int i = 0; i < fresh.length; ++i)
+		fresh[i] = new Object();
+	    locks = stripes.putIfAbsent(method, fresh);
+	    if (locks == null)
+		locks = fresh;
+	}
+	// Fibonacci hashing spreads consecutive keys over the stripes
+	return locks[(key * 0x9E3779B9) >>> (32 - LOG_STRIPES)];
+    }
+
+}
@@ -0,0 +1,340 @@
+package DPJRuntime;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A transaction of the software transactional memory that runs DPJ
+ * {@code atomic} blocks.  Each thread has one {@code Context}, which
+ * it reuses for every transaction it runs; the compiler obtains it
+ * with {@link DPJContextDelegator#getInstance} and passes it to the
+ * barriers that it inserts for accesses to atomic regions.
+ *
+ * <p>The algorithm is word-based, in the style of TL2.  Each location
+ * hashes to one of a fixed table of versioned locks.  A lock word is
+ * even when the lock is free and holds the global version at which
+ * its locations were last written; it is odd while a committing
+ * transaction holds it.
+ *
+ * <ul>
+ * <li>{@link #init} samples the global version clock.
+ *
+ * <li>A read checks that the lock of the location is free and no
+ * newer than the sampled version, both before and after the location
+ * is read.  If the check fails, the transaction aborts.  So every
+ * transaction sees a consistent snapshot, even one that will abort.
+ *
+ * <li>A write goes to a redo log, and later reads of the same location
+ * find it there.
+ *
+ * <li>{@link #commit} locks the locations in the redo log, advances
+ * the clock, and checks the locks of the locations read again.  Then
+ * it writes the redo log to memory and releases the locks with the
+ * new version.
+ * </ul>
+ *
+ * When a transaction aborts, the code generated for the {@code
+ * atomic} block calls {@link #rollback} and runs the block again.
+ * User code should never call this class directly.
+ */
+public final class Context extends NonintContext {
+
+    /**
+     * The global version clock
+     */
+    private static final AtomicLong clock = new AtomicLong();
+
+    /**
+     * The log of the number of versioned locks
+     */
+    private static final int LOG_LOCKS = 20;
+
+    /**
+     * The versioned locks
+     */
+    private static final AtomicLongArray locks =
+	new AtomicLongArray(1 << LOG_LOCKS);
+
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private static final ThreadLocal<Context> current =
+	new ThreadLocal<Context>() {
+	    @Override protected Context initialValue() {
+		return new Context();
+	    }
+	};
+
+    /**
+     * The value of a lock held by this transaction
+     */
+    private final long lockedWord = (nextId.incrementAndGet() << 1) | 1;
+
+    /**
+     * The clock value sampled when the transaction started
+     */
+    private long readVersion;
+
+    /**
+     * The lock and lock word seen by the last {@link #beforeRead}
+     */
+    private int pendingLock;
+    private long pendingWord;
+
+    /**
+     * The locks of the locations read
+     */
+    private int[] readSet = new int[64];
+    private int readSize;
+
+    /**
+     * The redo log, and an open hash table of its entries (index + 1,
+     * or 0 for an empty slot)
+     */
+    private Object[] writeBase = new Object[16];
+    private long[] writeOffset = new long[16];
+    private byte[] writeKind = new byte[16];
+    private long[] writeBits = new long[16];
+    private Object[] writeRef = new Object[16];
+    private int[] writeLock = new int[16];
+    private long[] writeSaved = new long[16];
+    private int writeSize;
+    private int[] writeTable = new int[32];
+
+    /**
+     * The number of times in a row the current atomic block has
+     * aborted on this thread
+     */
+    private int aborts;
+
+    private Context() {}
+
+    /**
+     * The transaction of the current thread
+     */
+    static Context getInstance() {
+	return current.get();
+    }
+
+    /**
+     * Start a transaction
+     *
+     * @param blockId The atomic block it runs, as numbered by the
+     *                compiler
+     */
+    public void init(int blockId) {
+	if (aborts > 0)
+	    backOff();
+	readVersion = clock.get();
+    }
+
+    /**
+     * Try to commit the transaction.  If that fails, the transaction
+     * is rolled back.
+     *
+     * @return Whether the transaction committed
+     */
+    public boolean commit() {
+	if (writeSize == 0) {
+	    finish();
+	    return true;
+	}
+	// Lock the locations written.  A location whose lock is newer
+	// than the snapshot may have been read, so abort then too.
+	for (int i = 0; i < writeSize; ++i) {
+	    int lock = writeLock[i];
+	    long word = locks.get(lock);
+	    if (word == lockedWord) {
+		writeSaved[i] = -1;
+	    } else if ((word & 1) != 0 || (word >>> 1) > readVersion ||
+		       !locks.compareAndSet(lock, word, lockedWord)) {
+		unlock(i);
+		rollback();
+		return false;
+	    } else {
+		writeSaved[i] = word;
+	    }
+	}
+	long writeVersion = clock.incrementAndGet();
+	// If nobody else committed since the snapshot, the reads are
+	// still valid
+	if (writeVersion != readVersion + 1) {
+	    for (int i = 0; i < readSize; ++i) {
+		long word = locks.get(readSet[i]);
+		if (word != lockedWord &&
+		    ((word & 1) != 0 || (word >>> 1) > readVersion)) {
+		    unlock(writeSize);
+		    rollback();
+		    return false;
+		}
+	    }
+	}
+	for (int i = 0; i < writeSize; ++i)
+	    store(writeBase[i], writeOffset[i], writeKind[i], writeBits[i],
+		  writeRef[i]);
+	long released = writeVersion << 1;
+	for (int i = 0; i < writeSize; ++i)
+	    if (writeSaved[i] != -1)
+		locks.set(writeLock[i], released);
+	finish();
+	return true;
+    }
+
+    /**
+     * Abandon the transaction:  undo the writes done in place and
+     * discard the logs
+     */
+    public void rollback() {
+	undo();
+	clear();
+	++aborts;
+    }
+
+    /**
+     * Note the lock word of a location about to be read
+     */
+    void beforeRead(Object base, long offset) {
+	int lock = lockOf(base, offset);
+	pendingLock = lock;
+	pendingWord = locks.get(lock);
+    }
+
+    /**
+     * Check a location read since the last {@link #beforeRead}.
+     *
+     * @return The index of its redo log entry, if this transaction
+     *         wrote it; otherwise -1, and the value read is valid
+     */
+    int afterRead(Object base, long offset) {
+	int lock = pendingLock;
+	if (writeSize > 0) {
+	    int entry = findWrite(base, offset, lock);
+	    if (entry >= 0)
+		return entry;
+	}
+	// Order the read of the location before the second look at its
+	// lock
+	unsafe.loadFence();
+	long word = locks.get(lock);
+	if (word != pendingWord || (word & 1) != 0 ||
+	    (word >>> 1) > readVersion)
+	    throw TransactionException.instance;
+	if (readSize == readSet.length)
+	    readSet = Arrays.copyOf(readSet, 2 * readSize);
+	readSet[readSize++] = lock;
+	return -1;
+    }
+
+    /**
+     * Log a write of a location
+     */
+    void write(Object base, long offset, byte kind, long bits, Object ref) {
+	int lock = lockOf(base, offset);
+	int entry = findWrite(base, offset, lock);
+	if (entry < 0) {
+	    if (writeSize == writeBase.length)
+		growWrites();
+	    entry = writeSize++;
+	    writeBase[entry] = base;
+	    writeOffset[entry] = offset;
+	    writeLock[entry] = lock;
+	    if (2 * writeSize > writeTable.length)
+		rehash(2 * writeTable.length);
+	    else
+		insert(entry);
+	}
+	writeKind[entry] = kind;
+	writeBits[entry] = bits;
+	writeRef[entry] = ref;
+    }
+
+    /**
+     * The logged value of a redo log entry
+     */
+    long bits(int entry) {
+	return writeBits[entry];
+    }
+
+    Object ref(int entry) {
+	return writeRef[entry];
+    }
+
+    private static int lockOf(Object base, long offset) {
+	int h = System.identityHashCode(base) * 0x9E3779B9 + (int) offset;
+	h ^= h >>> 16;
+	h *= 0x85EBCA6B;
+	h ^= h >>> 13;
+	return h & ((1 << LOG_LOCKS) - 1);
+    }
+
+    private int findWrite(Object base, long offset, int lock) {
+	int mask = writeTable.length - 1;
+	for (int slot = lock & mask; ; slot = (slot + 1) & mask) {
+	    int entry = writeTable[slot] - 1;
+	    if (entry < 0)
+		return -1;
+	    if (writeBase[entry] == base && writeOffset[entry] == offset)
+		return entry;
+	}
+    }
+
+    private void insert(int entry) {
+	int mask = writeTable.length - 1;
+	int slot = writeLock[entry] & mask;
+	while (writeTable[slot] != 0)
+	    slot = (slot + 1) & mask;
+	writeTable[slot] = entry + 1;
+    }
+
+    private void rehash(int size) {
+	writeTable = new int[size];
+	for (int i = 0; i < writeSize; ++i)
+	    insert(i);
+    }
+
+    private void growWrites() {
+	int n = 2 * writeSize;
+	writeBase = Arrays.copyOf(writeBase, n);
+	writeOffset = Arrays.copyOf(writeOffset, n);
+	writeKind = Arrays.copyOf(writeKind, n);
+	writeBits = Arrays.copyOf(writeBits, n);
+	writeRef = Arrays.copyOf(writeRef, n);
+	writeLock = Arrays.copyOf(writeLock, n);
+	writeSaved = Arrays.copyOf(writeSaved, n);
+    }
+
+    /**
+     * Release the locks taken by the first n redo log entries, without
+     * changing their versions
+     */
+    private void unlock(int n) {
+	for (int i = 0; i < n; ++i)
+	    if (writeSaved[i] != -1)
+		locks.set(writeLock[i], writeSaved[i]);
+    }
+
+    private void finish() {
+	forgetUndo();
+	clear();
+	aborts = 0;
+    }
+
+    private void clear() {
+	readSize = 0;
+	if (writeSize > 0) {
+	    for (int i = 0; i < writeSize; ++i)
+		writeBase[i] = writeRef[i] = null;
+	    writeSize = 0;
+	    Arrays.fill(writeTable, 0);
+	}
+    }
+
+    /**
+     * Give the transactions that keep winning a chance to finish
+     */
+    private void backOff() {
+	if (aborts > 1)
+	    Thread.yield();
+    }
+
+}
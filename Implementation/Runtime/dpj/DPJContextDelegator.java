@@ -0,0 +1,920 @@
+package DPJRuntime;
+
+import static DPJRuntime.NonintContext.*;
+
+import java.lang.reflect.Field;
+import sun.misc.Unsafe;
+
+/**
+ * The barriers that the DPJ compiler inserts, when given {@code
+ * -nondet}, into {@code atomic} blocks and into the transactional and
+ * logging-only versions of methods annotated {@code @Clone}.  Reads
+ * and writes of locations in atomic regions go through the current
+ * {@link Context}; writes to locations in nonatomic regions are done
+ * in place and logged in its {@link NonintContext} part, so that they
+ * can be undone.
+ *
+ * <p>Fields are named by their offsets, which the compiler stores in
+ * a static field {@code f$DPJ_STM_offset} next to each field {@code f}
+ * of a top-level class, initialized with {@link #getFieldOffset}.
+ * Each top-level class with static fields also gets a field {@code
+ * $DPJ_STM_class_base}, initialized with {@link #staticFieldBase},
+ * which stands for the object that holds them.
+ *
+ * <p>There is an overload of each barrier for each primitive type,
+ * so that a value is always logged with the width of the location it
+ * belongs to.  User code should never call this class directly.
+ */
+public class DPJContextDelegator {
+
+    /**
+     * The transaction of the current thread.  The code for an {@code
+     * atomic} block calls this once, and then calls {@link
+     * Context#init} each time it runs the block.
+     */
+    public static Context getInstance() {
+	return Context.getInstance();
+    }
+
+    /**
+     * The offset of a field of a class, for use with the barriers
+     */
+    public static long getFieldOffset(Class<?> c, String name) {
+	Field field = declaredField(c, name);
+	return java.lang.reflect.Modifier.isStatic(field.getModifiers()) ?
+	    unsafe.staticFieldOffset(field) : unsafe.objectFieldOffset(field);
+    }
+
+    /**
+     * The object that holds the static fields of a class, given the
+     * name of one of them
+     */
+    public static Object staticFieldBase(Class<?> c, String name) {
+	return unsafe.staticFieldBase(declaredField(c, name));
+    }
+
+    private static Field declaredField(Class<?> c, String name) {
+	try {
+	    return c.getDeclaredField(name);
+	} catch (NoSuchFieldException e) {
+	    throw new Error(e);
+	}
+    }
+
+    /*
+     * Field reads:  "x.f" in an atomic region becomes
+     *
+     *   onReadAccess(t = beforeReadAccess(x, C.f$DPJ_STM_offset, context),
+     *                t.f, C.f$DPJ_STM_offset, context)
+     *
+     * so the location is read between the two looks at its lock.
+     */
+
+    public static <T> T beforeReadAccess(T obj, long field, Context context) {
+	context.beforeRead(obj, field);
+	return obj;
+    }
+
+    public static boolean onReadAccess(Object obj, boolean value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : (context.bits(entry) != 0);
+    }
+
+    public static byte onReadAccess(Object obj, byte value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : (byte) context.bits(entry);
+    }
+
+    public static char onReadAccess(Object obj, char value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : (char) context.bits(entry);
+    }
+
+    public static short onReadAccess(Object obj, short value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : (short) context.bits(entry);
+    }
+
+    public static int onReadAccess(Object obj, int value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : (int) context.bits(entry);
+    }
+
+    public static long onReadAccess(Object obj, long value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : context.bits(entry);
+    }
+
+    public static float onReadAccess(Object obj, float value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : Float.intBitsToFloat((int) context.bits(entry));
+    }
+
+    public static double onReadAccess(Object obj, double value, long field,
+				Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : Double.longBitsToDouble(context.bits(entry));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T onReadAccess(Object obj, T value, long field,
+				     Context context) {
+	int entry = context.afterRead(obj, field);
+	return (entry < 0) ? value : (T) context.ref(entry);
+    }
+
+    /*
+     * Field writes:  "x.f = v" in an atomic region becomes
+     * onWriteAccess(x, v, C.f$DPJ_STM_offset, context), which logs the
+     * write and returns v.  A post-increment or decrement passes the
+     * old value too, and gets it back.  A write to a static field
+     * passes the static field base of its class last.
+     */
+
+    public static boolean onWriteAccess(Object obj, boolean value, long field,
+				Context context) {
+	context.write(obj, field, BOOLEAN, (value ? 1 : 0), null);
+	return value;
+    }
+
+    public static boolean onWriteAccess(Object obj, boolean oldValue, boolean value,
+				long field, Context context) {
+	context.write(obj, field, BOOLEAN, (value ? 1 : 0), null);
+	return oldValue;
+    }
+
+    public static boolean onWriteAccess(Object obj, boolean value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, BOOLEAN, (value ? 1 : 0), null);
+	return value;
+    }
+
+    public static boolean onWriteAccess(Object obj, boolean oldValue, boolean value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, BOOLEAN, (value ? 1 : 0), null);
+	return oldValue;
+    }
+
+    public static byte onWriteAccess(Object obj, byte value, long field,
+				Context context) {
+	context.write(obj, field, BYTE, value, null);
+	return value;
+    }
+
+    public static byte onWriteAccess(Object obj, byte oldValue, byte value,
+				long field, Context context) {
+	context.write(obj, field, BYTE, value, null);
+	return oldValue;
+    }
+
+    public static byte onWriteAccess(Object obj, byte value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, BYTE, value, null);
+	return value;
+    }
+
+    public static byte onWriteAccess(Object obj, byte oldValue, byte value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, BYTE, value, null);
+	return oldValue;
+    }
+
+    public static char onWriteAccess(Object obj, char value, long field,
+				Context context) {
+	context.write(obj, field, CHAR, value, null);
+	return value;
+    }
+
+    public static char onWriteAccess(Object obj, char oldValue, char value,
+				long field, Context context) {
+	context.write(obj, field, CHAR, value, null);
+	return oldValue;
+    }
+
+    public static char onWriteAccess(Object obj, char value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, CHAR, value, null);
+	return value;
+    }
+
+    public static char onWriteAccess(Object obj, char oldValue, char value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, CHAR, value, null);
+	return oldValue;
+    }
+
+    public static short onWriteAccess(Object obj, short value, long field,
+				Context context) {
+	context.write(obj, field, SHORT, value, null);
+	return value;
+    }
+
+    public static short onWriteAccess(Object obj, short oldValue, short value,
+				long field, Context context) {
+	context.write(obj, field, SHORT, value, null);
+	return oldValue;
+    }
+
+    public static short onWriteAccess(Object obj, short value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, SHORT, value, null);
+	return value;
+    }
+
+    public static short onWriteAccess(Object obj, short oldValue, short value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, SHORT, value, null);
+	return oldValue;
+    }
+
+    public static int onWriteAccess(Object obj, int value, long field,
+				Context context) {
+	context.write(obj, field, INT, value, null);
+	return value;
+    }
+
+    public static int onWriteAccess(Object obj, int oldValue, int value,
+				long field, Context context) {
+	context.write(obj, field, INT, value, null);
+	return oldValue;
+    }
+
+    public static int onWriteAccess(Object obj, int value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, INT, value, null);
+	return value;
+    }
+
+    public static int onWriteAccess(Object obj, int oldValue, int value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, INT, value, null);
+	return oldValue;
+    }
+
+    public static long onWriteAccess(Object obj, long value, long field,
+				Context context) {
+	context.write(obj, field, LONG, value, null);
+	return value;
+    }
+
+    public static long onWriteAccess(Object obj, long oldValue, long value,
+				long field, Context context) {
+	context.write(obj, field, LONG, value, null);
+	return oldValue;
+    }
+
+    public static long onWriteAccess(Object obj, long value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, LONG, value, null);
+	return value;
+    }
+
+    public static long onWriteAccess(Object obj, long oldValue, long value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, LONG, value, null);
+	return oldValue;
+    }
+
+    public static float onWriteAccess(Object obj, float value, long field,
+				Context context) {
+	context.write(obj, field, FLOAT, Float.floatToRawIntBits(value), null);
+	return value;
+    }
+
+    public static float onWriteAccess(Object obj, float oldValue, float value,
+				long field, Context context) {
+	context.write(obj, field, FLOAT, Float.floatToRawIntBits(value), null);
+	return oldValue;
+    }
+
+    public static float onWriteAccess(Object obj, float value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, FLOAT, Float.floatToRawIntBits(value), null);
+	return value;
+    }
+
+    public static float onWriteAccess(Object obj, float oldValue, float value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, FLOAT, Float.floatToRawIntBits(value), null);
+	return oldValue;
+    }
+
+    public static double onWriteAccess(Object obj, double value, long field,
+				Context context) {
+	context.write(obj, field, DOUBLE, Double.doubleToRawLongBits(value), null);
+	return value;
+    }
+
+    public static double onWriteAccess(Object obj, double oldValue, double value,
+				long field, Context context) {
+	context.write(obj, field, DOUBLE, Double.doubleToRawLongBits(value), null);
+	return oldValue;
+    }
+
+    public static double onWriteAccess(Object obj, double value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, DOUBLE, Double.doubleToRawLongBits(value), null);
+	return value;
+    }
+
+    public static double onWriteAccess(Object obj, double oldValue, double value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, DOUBLE, Double.doubleToRawLongBits(value), null);
+	return oldValue;
+    }
+
+    public static <T> T onWriteAccess(Object obj, T value, long field,
+				Context context) {
+	context.write(obj, field, OBJECT, 0, value);
+	return value;
+    }
+
+    public static <T> T onWriteAccess(Object obj, T oldValue, T value,
+				long field, Context context) {
+	context.write(obj, field, OBJECT, 0, value);
+	return oldValue;
+    }
+
+    public static <T> T onWriteAccess(Object obj, T value, long field,
+				Context context, Object classBase) {
+	context.write(classBase, field, OBJECT, 0, value);
+	return value;
+    }
+
+    public static <T> T onWriteAccess(Object obj, T oldValue, T value,
+				long field, Context context,
+				Object classBase) {
+	context.write(classBase, field, OBJECT, 0, value);
+	return oldValue;
+    }
+
+    /*
+     * Field writes in place, to locations in nonatomic regions.  For an
+     * instance field, "x.f = v" becomes
+     *
+     *   beforeWriteAccessLogOnly(t = x, t.f, C.f$DPJ_STM_offset, context).f = v
+     *
+     * and for a static field, "C.f = v" becomes
+     *
+     *   C.f = beforeWriteAccessLogOnly(x, C.f, v, C.f$DPJ_STM_offset,
+     *                                  context, C.$DPJ_STM_class_base)
+     *
+     * Either way the old value goes to the undo log.
+     */
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, boolean oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, BOOLEAN, (oldValue ? 1 : 0), null);
+	return obj;
+    }
+
+    public static boolean beforeWriteAccessLogOnly(Object obj, boolean oldValue,
+					       boolean value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, BOOLEAN, (oldValue ? 1 : 0), null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, byte oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, BYTE, oldValue, null);
+	return obj;
+    }
+
+    public static byte beforeWriteAccessLogOnly(Object obj, byte oldValue,
+					       byte value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, BYTE, oldValue, null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, char oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, CHAR, oldValue, null);
+	return obj;
+    }
+
+    public static char beforeWriteAccessLogOnly(Object obj, char oldValue,
+					       char value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, CHAR, oldValue, null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, short oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, SHORT, oldValue, null);
+	return obj;
+    }
+
+    public static short beforeWriteAccessLogOnly(Object obj, short oldValue,
+					       short value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, SHORT, oldValue, null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, int oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, INT, oldValue, null);
+	return obj;
+    }
+
+    public static int beforeWriteAccessLogOnly(Object obj, int oldValue,
+					       int value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, INT, oldValue, null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, long oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, LONG, oldValue, null);
+	return obj;
+    }
+
+    public static long beforeWriteAccessLogOnly(Object obj, long oldValue,
+					       long value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, LONG, oldValue, null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, float oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, FLOAT, Float.floatToRawIntBits(oldValue), null);
+	return obj;
+    }
+
+    public static float beforeWriteAccessLogOnly(Object obj, float oldValue,
+					       float value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, FLOAT, Float.floatToRawIntBits(oldValue), null);
+	return value;
+    }
+
+    public static <O> O beforeWriteAccessLogOnly(O obj, double oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, DOUBLE, Double.doubleToRawLongBits(oldValue), null);
+	return obj;
+    }
+
+    public static double beforeWriteAccessLogOnly(Object obj, double oldValue,
+					       double value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, DOUBLE, Double.doubleToRawLongBits(oldValue), null);
+	return value;
+    }
+
+    public static <O,T> O beforeWriteAccessLogOnly(O obj, T oldValue,
+						long field,
+						NonintContext context) {
+	context.logUndo(obj, field, OBJECT, 0, oldValue);
+	return obj;
+    }
+
+    public static <T> T beforeWriteAccessLogOnly(Object obj, T oldValue,
+					       T value, long field,
+					       NonintContext context,
+					       Object classBase) {
+	context.logUndo(classBase, field, OBJECT, 0, oldValue);
+	return value;
+    }
+
+    /*
+     * Evaluates its first argument, a write, for its effect; used for
+     * post-increments and decrements done in place
+     */
+
+    public static boolean returnSecondValue(boolean first, boolean second) {
+	return second;
+    }
+
+    public static byte returnSecondValue(byte first, byte second) {
+	return second;
+    }
+
+    public static char returnSecondValue(char first, char second) {
+	return second;
+    }
+
+    public static short returnSecondValue(short first, short second) {
+	return second;
+    }
+
+    public static int returnSecondValue(int first, int second) {
+	return second;
+    }
+
+    public static long returnSecondValue(long first, long second) {
+	return second;
+    }
+
+    public static float returnSecondValue(float first, float second) {
+	return second;
+    }
+
+    public static double returnSecondValue(double first, double second) {
+	return second;
+    }
+
+    public static <T> T returnSecondValue(Object first, T second) {
+	return second;
+    }
+
+    /*
+     * Array element reads and writes, as for fields.  The element
+     * offset is computed only after the index is checked.
+     */
+
+    public static boolean onArrayReadAccess(boolean[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_BOOLEAN_BASE_OFFSET + (long) index * Unsafe.ARRAY_BOOLEAN_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	boolean value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : (context.bits(entry) != 0);
+    }
+
+    public static boolean onArrayWriteAccess(boolean[] array, int index, boolean value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_BOOLEAN_BASE_OFFSET + (long) index * Unsafe.ARRAY_BOOLEAN_INDEX_SCALE,
+		      BOOLEAN, (value ? 1 : 0), null);
+	return value;
+    }
+
+    public static boolean onArrayWriteAccess(boolean[] array, int index,
+					  boolean oldValue, boolean value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static boolean onArrayWriteAccessLogOnly(boolean[] array, int index,
+						 boolean value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_BOOLEAN_BASE_OFFSET + (long) index * Unsafe.ARRAY_BOOLEAN_INDEX_SCALE,
+			BOOLEAN, (array[index] ? 1 : 0), null);
+	return array[index] = value;
+    }
+
+    public static boolean onArrayWriteAccessLogOnly(boolean[] array, int index,
+						 boolean oldValue, boolean value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static byte onArrayReadAccess(byte[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_BYTE_BASE_OFFSET + (long) index * Unsafe.ARRAY_BYTE_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	byte value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : (byte) context.bits(entry);
+    }
+
+    public static byte onArrayWriteAccess(byte[] array, int index, byte value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_BYTE_BASE_OFFSET + (long) index * Unsafe.ARRAY_BYTE_INDEX_SCALE,
+		      BYTE, value, null);
+	return value;
+    }
+
+    public static byte onArrayWriteAccess(byte[] array, int index,
+					  byte oldValue, byte value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static byte onArrayWriteAccessLogOnly(byte[] array, int index,
+						 byte value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_BYTE_BASE_OFFSET + (long) index * Unsafe.ARRAY_BYTE_INDEX_SCALE,
+			BYTE, array[index], null);
+	return array[index] = value;
+    }
+
+    public static byte onArrayWriteAccessLogOnly(byte[] array, int index,
+						 byte oldValue, byte value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static char onArrayReadAccess(char[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_CHAR_BASE_OFFSET + (long) index * Unsafe.ARRAY_CHAR_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	char value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : (char) context.bits(entry);
+    }
+
+    public static char onArrayWriteAccess(char[] array, int index, char value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_CHAR_BASE_OFFSET + (long) index * Unsafe.ARRAY_CHAR_INDEX_SCALE,
+		      CHAR, value, null);
+	return value;
+    }
+
+    public static char onArrayWriteAccess(char[] array, int index,
+					  char oldValue, char value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static char onArrayWriteAccessLogOnly(char[] array, int index,
+						 char value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_CHAR_BASE_OFFSET + (long) index * Unsafe.ARRAY_CHAR_INDEX_SCALE,
+			CHAR, array[index], null);
+	return array[index] = value;
+    }
+
+    public static char onArrayWriteAccessLogOnly(char[] array, int index,
+						 char oldValue, char value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static short onArrayReadAccess(short[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_SHORT_BASE_OFFSET + (long) index * Unsafe.ARRAY_SHORT_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	short value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : (short) context.bits(entry);
+    }
+
+    public static short onArrayWriteAccess(short[] array, int index, short value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_SHORT_BASE_OFFSET + (long) index * Unsafe.ARRAY_SHORT_INDEX_SCALE,
+		      SHORT, value, null);
+	return value;
+    }
+
+    public static short onArrayWriteAccess(short[] array, int index,
+					  short oldValue, short value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static short onArrayWriteAccessLogOnly(short[] array, int index,
+						 short value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_SHORT_BASE_OFFSET + (long) index * Unsafe.ARRAY_SHORT_INDEX_SCALE,
+			SHORT, array[index], null);
+	return array[index] = value;
+    }
+
+    public static short onArrayWriteAccessLogOnly(short[] array, int index,
+						 short oldValue, short value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static int onArrayReadAccess(int[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_INT_BASE_OFFSET + (long) index * Unsafe.ARRAY_INT_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	int value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : (int) context.bits(entry);
+    }
+
+    public static int onArrayWriteAccess(int[] array, int index, int value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_INT_BASE_OFFSET + (long) index * Unsafe.ARRAY_INT_INDEX_SCALE,
+		      INT, value, null);
+	return value;
+    }
+
+    public static int onArrayWriteAccess(int[] array, int index,
+					  int oldValue, int value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static int onArrayWriteAccessLogOnly(int[] array, int index,
+						 int value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_INT_BASE_OFFSET + (long) index * Unsafe.ARRAY_INT_INDEX_SCALE,
+			INT, array[index], null);
+	return array[index] = value;
+    }
+
+    public static int onArrayWriteAccessLogOnly(int[] array, int index,
+						 int oldValue, int value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static long onArrayReadAccess(long[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_LONG_BASE_OFFSET + (long) index * Unsafe.ARRAY_LONG_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	long value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : context.bits(entry);
+    }
+
+    public static long onArrayWriteAccess(long[] array, int index, long value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_LONG_BASE_OFFSET + (long) index * Unsafe.ARRAY_LONG_INDEX_SCALE,
+		      LONG, value, null);
+	return value;
+    }
+
+    public static long onArrayWriteAccess(long[] array, int index,
+					  long oldValue, long value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static long onArrayWriteAccessLogOnly(long[] array, int index,
+						 long value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_LONG_BASE_OFFSET + (long) index * Unsafe.ARRAY_LONG_INDEX_SCALE,
+			LONG, array[index], null);
+	return array[index] = value;
+    }
+
+    public static long onArrayWriteAccessLogOnly(long[] array, int index,
+						 long oldValue, long value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static float onArrayReadAccess(float[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_FLOAT_BASE_OFFSET + (long) index * Unsafe.ARRAY_FLOAT_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	float value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : Float.intBitsToFloat((int) context.bits(entry));
+    }
+
+    public static float onArrayWriteAccess(float[] array, int index, float value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_FLOAT_BASE_OFFSET + (long) index * Unsafe.ARRAY_FLOAT_INDEX_SCALE,
+		      FLOAT, Float.floatToRawIntBits(value), null);
+	return value;
+    }
+
+    public static float onArrayWriteAccess(float[] array, int index,
+					  float oldValue, float value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static float onArrayWriteAccessLogOnly(float[] array, int index,
+						 float value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_FLOAT_BASE_OFFSET + (long) index * Unsafe.ARRAY_FLOAT_INDEX_SCALE,
+			FLOAT, Float.floatToRawIntBits(array[index]), null);
+	return array[index] = value;
+    }
+
+    public static float onArrayWriteAccessLogOnly(float[] array, int index,
+						 float oldValue, float value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    public static double onArrayReadAccess(double[] array, int index,
+					 Context context) {
+	long offset = Unsafe.ARRAY_DOUBLE_BASE_OFFSET + (long) index * Unsafe.ARRAY_DOUBLE_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	double value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : Double.longBitsToDouble(context.bits(entry));
+    }
+
+    public static double onArrayWriteAccess(double[] array, int index, double value,
+					  Context context) {
+	checkIndex(array.length, index);
+	context.write(array, Unsafe.ARRAY_DOUBLE_BASE_OFFSET + (long) index * Unsafe.ARRAY_DOUBLE_INDEX_SCALE,
+		      DOUBLE, Double.doubleToRawLongBits(value), null);
+	return value;
+    }
+
+    public static double onArrayWriteAccess(double[] array, int index,
+					  double oldValue, double value,
+					  Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static double onArrayWriteAccessLogOnly(double[] array, int index,
+						 double value,
+						 NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_DOUBLE_BASE_OFFSET + (long) index * Unsafe.ARRAY_DOUBLE_INDEX_SCALE,
+			DOUBLE, Double.doubleToRawLongBits(array[index]), null);
+	return array[index] = value;
+    }
+
+    public static double onArrayWriteAccessLogOnly(double[] array, int index,
+						 double oldValue, double value,
+						 NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T onArrayReadAccess(T[] array, int index,
+					  Context context) {
+	long offset = Unsafe.ARRAY_OBJECT_BASE_OFFSET + (long) index * Unsafe.ARRAY_OBJECT_INDEX_SCALE;
+	context.beforeRead(array, offset);
+	T value = array[index];
+	int entry = context.afterRead(array, offset);
+	return (entry < 0) ? value : (T) context.ref(entry);
+    }
+
+    public static <T> T onArrayWriteAccess(T[] array, int index, T value,
+					   Context context) {
+	checkIndex(array.length, index);
+	if (value != null &&
+	    !array.getClass().getComponentType().isInstance(value))
+	    throw new ArrayStoreException(value.getClass().getName());
+	context.write(array, Unsafe.ARRAY_OBJECT_BASE_OFFSET + (long) index * Unsafe.ARRAY_OBJECT_INDEX_SCALE,
+		      OBJECT, 0, value);
+	return value;
+    }
+
+    public static <T> T onArrayWriteAccess(T[] array, int index, T oldValue,
+					   T value, Context context) {
+	onArrayWriteAccess(array, index, value, context);
+	return oldValue;
+    }
+
+    public static <T> T onArrayWriteAccessLogOnly(T[] array, int index,
+						  T value,
+						  NonintContext context) {
+	context.logUndo(array, Unsafe.ARRAY_OBJECT_BASE_OFFSET + (long) index * Unsafe.ARRAY_OBJECT_INDEX_SCALE,
+			OBJECT, 0, array[index]);
+	return array[index] = value;
+    }
+
+    public static <T> T onArrayWriteAccessLogOnly(T[] array, int index,
+						  T oldValue, T value,
+						  NonintContext context) {
+	onArrayWriteAccessLogOnly(array, index, value, context);
+	return oldValue;
+    }
+
+    private static void checkIndex(int length, int index) {
+	if (index < 0 || index >= length)
+	    throw new ArrayIndexOutOfBoundsException(index);
+    }
+
+}
@@ -0,0 +1,121 @@
+package DPJRuntime;
+
+/**
+ * <p>A {@code DPJIterator} supplies the elements for the iterator
+ * form of the {@code foreach} statement:
+ *
+ * <p><blockquote><pre>
+ * foreach (T x in it) { ... }
+ * </pre></blockquote><p>
+ *
+ * where {@code it} is an expression of type {@code DPJIterator<T>}.
+ *
+ * <p>In sequential code, the loop calls {@link #next} until it
+ * returns a {@link Status} with no element.  In parallel code, the
+ * loop recursively calls {@link #split} while the {@link #size}
+ * estimate is greater than {@link RuntimeState#dpjForeachCutoff},
+ * running the two halves as parallel tasks, and iterates
+ * sequentially over each remaining piece.  An iterator over a
+ * collection that cannot be split simply returns {@code null} from
+ * {@code split}, in which case the loop runs sequentially.
+ *
+ * <p>As for the indexed form of {@code foreach}, the loop body may be
+ * executed in parallel for different elements, so the elements
+ * returned by an iterator and by the iterators split off from it
+ * must be distinct.
+ *
+ * @param <T> The type of an element returned by this iterator
+ */
+public abstract class DPJIterator<type T> {
+
+    /**
+     * The result of a call to {@link DPJIterator#next}: either an
+     * element, or an indication that the iteration is finished.
+     *
+     * @param <T> The type of the element
+     */
+    public static class Status<type T> {
+
+	private boolean hasElement;
+
+	private T element;
+
+	/**
+	 * Returns {@code true} if this {@code Status} holds an
+	 * element.
+	 *
+	 * @return Whether there is an element
+	 */
+	public boolean hasElement() {
+	    return hasElement;
+	}
+
+	/**
+	 * Returns the element held by this {@code Status}.
+	 *
+	 * @return The element
+	 */
+	public T getElement() {
+	    return element;
+	}
+
+	/**
+	 * Sets this {@code Status} to hold element {@code element}.
+	 *
+	 * @param element The element
+	 * @return This {@code Status}
+	 */
+	public Status<T> element(T element) {
+	    this.hasElement = true;
+	    this.element = element;
+	    return this;
+	}
+
+	/**
+	 * Sets this {@code Status} to indicate that the iteration is
+	 * finished.
+	 *
+	 * @return This {@code Status}
+	 */
+	public Status<T> done() {
+	    this.hasElement = false;
+	    this.element = null;
+	    return this;
+	}
+    }
+
+    /**
+     * A {@code Status} object that implementations of {@link #next}
+     * may reuse, to avoid allocating a new one for each element.
+     */
+    protected final Status<T> status = new Status<T>();
+
+    /**
+     * Advances the iterator and returns the next element, if there
+     * is one.
+     *
+     * @return The next element, or a {@code Status} with no element
+     * if the iteration is finished
+     */
+    public abstract Status<T> next();
+
+    /**
+     * Returns an estimate of the number of elements remaining in this
+     * iterator.  The estimate is used only to decide whether to split
+     * the iterator further, so it need not be exact.
+     *
+     * @return Estimated number of elements remaining
+     */
+    public abstract int size();
+
+    /**
+     * Splits this iterator.  If splitting is possible, returns a new
+     * iterator covering a portion of the remaining elements, and this
+     * iterator covers the rest.  Ideally, each part holds about half
+     * of the remaining elements.
+     *
+     * @return An iterator over a portion of the remaining elements,
+     * or {@code null} if this iterator cannot be split
+     */
+    public abstract DPJIterator<T> split();
+}
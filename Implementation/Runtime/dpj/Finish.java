@@ -0,0 +1,254 @@
+package DPJRuntime;
+
+import java.util.ArrayList;
+import jsr166y.RecursiveAction;
+
+/**
+ * A {@code Finish} object records the tasks created by DPJ {@code
+ * spawn} statements executed inside one dynamic instance of a {@code
+ * dpjfinish} statement, so that they can all be joined when the
+ * {@code dpjfinish} completes.
+ *
+ * <p>The DPJ compiler generates calls to the methods of this class
+ * when generating parallel code; user code should never call them
+ * directly.  The parallel code for {@code dpjfinish S} looks like
+ * this:
+ *
+ * <pre>
+ *   Finish f = Finish.enter();
+ *   try { S } finally { f.exit(); }
+ * </pre>
+ *
+ * and the code for {@code spawn S} creates a {@link Finish.Task}
+ * whose {@code run} method executes {@code S}, then passes it to
+ * {@link #spawnTask}.  A {@code spawn} executed outside of any {@code
+ * dpjfinish} runs inline, as in the sequential code.  Code compiled
+ * with the {@code -juc} option uses {@link Finish.JUCTask} instead of
+ * {@code Finish.Task}.
+ *
+ * <p>The current scope is kept per thread.  Every task the DPJ
+ * compiler generates (for {@code spawn}, {@code cobegin} and {@code
+ * foreach}) records the scope current where it is created, with
+ * {@link #current}, and makes it current while it runs, with {@link
+ * #install}.  So a {@code spawn} executed in the body of a {@code
+ * dpjfinish}, in any task the body creates, or in a method they call,
+ * is joined by that {@code dpjfinish}, whichever worker thread runs
+ * it.  Tasks created by user code with the fork-join classes directly
+ * do not record the scope, and a {@code spawn} they execute goes to
+ * whatever scope is current on the thread that runs them.
+ */
+public class Finish {
+
+    /**
+     * The innermost finish scope of the task currently executing on
+     * each thread, or {@code null} if there is none.
+     */
+    private static final ThreadLocal<Finish> current =
+	new ThreadLocal<Finish>();
+
+    /**
+     * The finish scope that was current when this one was entered
+     */
+    private final Finish parent;
+
+    /**
+     * Tasks spawned in this scope and not yet joined.  Spawned tasks
+     * may themselves spawn into this scope from other worker
+     * threads, so all access is synchronized on the list.
+     */
+    private final ArrayList<Joinable> tasks = new ArrayList<Joinable>();
+
+    private Finish(Finish parent) {
+	this.parent = parent;
+    }
+
+    // Lets exit() join either kind of task
+    private interface Joinable {
+	void joinTask();
+    }
+
+    /**
+     * A task created by a {@code spawn} statement.  While the task
+     * runs, the finish scope it was spawned into is the current scope
+     * of the executing thread, so any {@code spawn} executed
+     * (directly or through method calls) in its body is joined by
+     * the same {@code dpjfinish}.
+     */
+    public static abstract class Task extends RecursiveAction
+	implements Joinable {
+
+	/**
+	 * The finish scope this task was spawned into
+	 */
+	private Finish finish;
+
+	/**
+	 * The body of the {@code spawn} statement
+	 */
+	protected abstract void run();
+
+	protected final void compute() {
+	    Finish saved = install(finish);
+	    try {
+		run();
+	    } finally {
+		install(saved);
+	    }
+	}
+
+	public final void joinTask() {
+	    join();
+	}
+    }
+
+    /**
+     * A task created by a {@code spawn} statement in code compiled
+     * with the {@code -juc} option.  It behaves like {@link
+     * Finish.Task}, but runs in {@link RuntimeState#jucPool}.
+     */
+    public static abstract class JUCTask
+	extends java.util.concurrent.RecursiveAction
+	implements Joinable {
+
+	/**
+	 * The finish scope this task was spawned into
+	 */
+	private Finish finish;
+
+	/**
+	 * The body of the {@code spawn} statement
+	 */
+	protected abstract void run();
+
+	protected final void compute() {
+	    Finish saved = install(finish);
+	    try {
+		run();
+	    } finally {
+		install(saved);
+	    }
+	}
+
+	public final void joinTask() {
+	    join();
+	}
+    }
+
+    /**
+     * Returns the finish scope current on this thread, for a task
+     * created here to pass to {@link #install} when it runs.  The DPJ
+     * compiler generates calls to this method; user code should not
+     * call it.
+     *
+     * @return The current scope, or {@code null} if there is none
+     */
+    public static Finish current() {
+	return current.get();
+    }
+
+    /**
+     * Makes {@code scope} the current finish scope of this thread.  A
+     * task calls this with the scope it recorded when it was created,
+     * and again with the result when it is done, so a task that a
+     * worker runs while it is inside some other scope still spawns
+     * into its own.  The DPJ compiler generates calls to this method;
+     * user code should not call it.
+     *
+     * @param scope The scope to make current, or {@code null}
+     * @return The scope that was current before
+     */
+    public static Finish install(Finish scope) {
+	Finish saved = current.get();
+	if (saved != scope) current.set(scope);
+	return saved;
+    }
+
+    /**
+     * Enters a new finish scope on the current thread.
+     *
+     * @return The new scope
+     */
+    public static Finish enter() {
+	Finish result = new Finish(current.get());
+	current.set(result);
+	return result;
+    }
+
+    /**
+     * Joins all tasks spawned in this scope, including tasks spawned
+     * by those tasks, and restores the enclosing scope.  If a task
+     * throws, the others are still joined, so no task of the scope is
+     * running when this method returns; then the first exception
+     * thrown is rethrown.
+     */
+    public void exit() {
+	RuntimeException firstException = null;
+	Error firstError = null;
+	try {
+	    Joinable task;
+	    while ((task = poll()) != null) {
+		try {
+		    task.joinTask();
+		} catch (RuntimeException e) {
+		    if (firstException == null && firstError == null)
+			firstException = e;
+		} catch (Error e) {
+		    if (firstException == null && firstError == null)
+			firstError = e;
+		}
+	    }
+	} finally {
+	    current.set(parent);
+	}
+	if (firstException != null) throw firstException;
+	if (firstError != null) throw firstError;
+    }
+
+    /**
+     * Spawns a task into the current finish scope.  If there is no
+     * enclosing {@code dpjfinish}, the task is run to completion
+     * before this method returns, as in the sequential code.
+     *
+     * @param task The task to spawn
+     */
+    public static void spawnTask(Task task) {
+	Finish finish = current.get();
+	task.finish = finish;
+	if (finish == null) {
+	    RuntimeState.invoke(task);
+	} else {
+	    synchronized (finish.tasks) {
+		finish.tasks.add(task);
+	    }
+	    task.fork();
+	}
+    }
+
+    /**
+     * Spawns a task created by code compiled with the {@code -juc}
+     * option into the current finish scope.
+     *
+     * @param task The task to spawn
+     */
+    public static void spawnTask(JUCTask task) {
+	Finish finish = current.get();
+	task.finish = finish;
+	if (finish == null) {
+	    RuntimeState.invoke(task);
+	} else {
+	    synchronized (finish.tasks) {
+		finish.tasks.add(task);
+	    }
+	    task.fork();
+	}
+    }
+
+    // Removes the most recently spawned task, which is the one most
+    // likely to still be on the local queue of the joining thread.
+    private Joinable poll() {
+	synchronized (tasks) {
+	    int size = tasks.size();
+	    return (size == 0) ? null : tasks.remove(size - 1);
+	}
+    }
+}
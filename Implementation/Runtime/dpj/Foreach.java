@@ -0,0 +1,226 @@
+package DPJRuntime;
+
+import jsr166y.RecursiveAction;
+
+/**
+ * The tasks that run the indexed form of a DPJ {@code foreach} loop
+ * in parallel.  The DPJ compiler moves the body of the loop into a
+ * private method of the enclosing class, taking a range of
+ * iterations and the values the loop uses from its context.  It then
+ * creates a {@link Foreach.Body} that calls the method, and runs a
+ * {@link Foreach.Task} over the whole range:
+ *
+ * <pre>
+ *   RuntimeState.invoke(new Foreach.Task(body, start, length, stride,
+ *                                        adaptive, cutoff, split,
+ *                                        align));
+ * </pre>
+ *
+ * The task splits the range as {@link RuntimeState#splitForeach}
+ * decides, at points aligned as {@link RuntimeState#alignSplit}
+ * describes, and runs the body on each piece that it does not split.
+ * Every loop shares the splitting code here, so it is compiled once,
+ * and the two kinds of task share it through {@code Foreach.Range}.
+ * Code compiled with the {@code -juc} option uses {@link
+ * Foreach.JUCTask} instead of {@code Foreach.Task}.
+ *
+ * <p>The DPJ compiler generates uses of this class when generating
+ * parallel code; user code should never use it directly.
+ */
+public final class Foreach {
+
+    private Foreach() {}
+
+    /**
+     * The body of a {@code foreach} loop
+     */
+    public interface Body {
+
+	/**
+	 * Runs the iterations {@code begin}, {@code begin + stride},
+	 * ..., {@code begin + (length - 1) * stride} in order
+	 *
+	 * @param begin  The first index
+	 * @param length The number of iterations
+	 * @param stride The difference between successive indices
+	 */
+	void run(int begin, int length, int stride);
+    }
+
+    /**
+     * A range of iterations of a {@code foreach} loop, with the
+     * parameters for splitting it.  {@link Foreach.Task} and {@link
+     * Foreach.JUCTask} each run one range, and share the code here.
+     */
+    private static final class Range {
+
+	final Body body;
+	final int begin;
+	final int length;
+	final int stride;
+	final boolean adaptive;
+	final int cutoff;
+	final int split;
+	final int align;
+
+	/**
+	 * The finish scope current where the loop started (see {@link
+	 * Finish}).  Pieces of the range keep the same scope.
+	 */
+	final Finish scope;
+
+	Range(Body body, int begin, int length, int stride,
+	      boolean adaptive, int cutoff, int split, int align,
+	      Finish scope) {
+	    this.body = body;
+	    this.begin = begin;
+	    this.length = length;
+	    this.stride = stride;
+	    this.adaptive = adaptive;
+	    this.cutoff = cutoff;
+	    this.split = split;
+	    this.align = align;
+	    this.scope = scope;
+	}
+
+	/**
+	 * Splits this range as {@link RuntimeState#splitForeach}
+	 * decides, at points aligned as {@link RuntimeState#alignSplit}
+	 * describes.
+	 *
+	 * A range that cannot be split into {@code split} smaller
+	 * nonempty pieces, because it is too short or because the
+	 * split factor or cutoff it carries is too small, is not split.
+	 *
+	 * @return The pieces in order, or {@code null} if the range
+	 * should run in the current task
+	 */
+	Range[] pieces() {
+	    if (!RuntimeState.splitForeach(length, cutoff, adaptive))
+		return null;
+	    int nsplit = adaptive ? 2 : split;
+	    if (nsplit < 2 || length < nsplit) return null;
+	    int chunk = length / nsplit;
+	    Range[] pieces = new Range[nsplit];
+	    int lo = 0;
+	    for (int i = 0; i < nsplit; i++) {
+		int hi = (i + 1 == nsplit) ? length :
+		    RuntimeState.alignSplit(begin, chunk * (i + 1),
+					    stride, chunk, align);
+		pieces[i] = new Range(body, begin + lo * stride, hi - lo,
+				      stride, adaptive, cutoff, split,
+				      align, scope);
+		lo = hi;
+	    }
+	    return pieces;
+	}
+
+	/**
+	 * Runs the body over the whole range.  A range at or below the
+	 * cutoff runs sequentially (see {@link
+	 * RuntimeState#enterSequential}).
+	 */
+	void run() {
+	    if (length > cutoff) {
+		body.run(begin, length, stride);
+		return;
+	    }
+	    boolean saved = RuntimeState.enterSequential();
+	    try {
+		body.run(begin, length, stride);
+	    } finally {
+		RuntimeState.exitSequential(saved);
+	    }
+	}
+    }
+
+    /**
+     * A task running a range of iterations of a {@code foreach} loop
+     */
+    public static final class Task extends RecursiveAction {
+
+	private final Range range;
+
+	/**
+	 * @param body     The body of the loop
+	 * @param begin    The first index of the range
+	 * @param length   The number of iterations in the range
+	 * @param stride   The difference between successive indices
+	 * @param adaptive Whether to use adaptive splitting
+	 * @param cutoff   Minimum number of iterations per task
+	 * @param split    Number of tasks to split into, when not
+	 *                 adaptive
+	 * @param align    Alignment of the split points; see {@link
+	 *                 RuntimeState#alignSplit}
+	 */
+	public Task(Body body, int begin, int length, int stride,
+		    boolean adaptive, int cutoff, int split,
+		    int align) {
+	    this(new Range(body, begin, length, stride, adaptive, cutoff,
+			   split, align, Finish.current()));
+	}
+
+	private Task(Range range) {
+	    this.range = range;
+	}
+
+	protected void compute() {
+	    Finish outer = Finish.install(range.scope);
+	    try {
+		Range[] pieces = range.pieces();
+		if (pieces == null) {
+		    range.run();
+		    return;
+		}
+		Task[] tasks = new Task[pieces.length];
+		for (int i = 0; i < pieces.length; i++)
+		    tasks[i] = new Task(pieces[i]);
+		invokeAll(tasks);
+	    } finally {
+		Finish.install(outer);
+	    }
+	}
+    }
+
+    /**
+     * A task running a range of iterations of a {@code foreach} loop
+     * in code compiled with the {@code -juc} option.  It behaves like
+     * {@link Foreach.Task}, but runs in {@link RuntimeState#jucPool}.
+     */
+    public static final class JUCTask
+	extends java.util.concurrent.RecursiveAction {
+
+	private final Range range;
+
+	/**
+	 * The parameters are the same as for {@link Foreach.Task}.
+	 */
+	public JUCTask(Body body, int begin, int length, int stride,
+		       boolean adaptive, int cutoff, int split,
+		       int align) {
+	    this(new Range(body, begin, length, stride, adaptive, cutoff,
+			   split, align, Finish.current()));
+	}
+
+	private JUCTask(Range range) {
+	    this.range = range;
+	}
+
+	protected void compute() {
+	    Finish outer = Finish.install(range.scope);
+	    try {
+		Range[] pieces = range.pieces();
+		if (pieces == null) {
+		    range.run();
+		    return;
+		}
+		JUCTask[] tasks = new JUCTask[pieces.length];
+		for (int i = 0; i < pieces.length; i++)
+		    tasks[i] = new JUCTask(pieces[i]);
+		invokeAll(tasks);
+	    } finally {
+		Finish.install(outer);
+	    }
+	}
+    }
+}
@@ -0,0 +1,72 @@
+package DPJRuntime;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the runtime splitting parameters for a single {@code
+ * foreach} loop.  The annotation is placed on the loop variable:
+ *
+ * <p><blockquote><pre>
+ * foreach (@ForeachSchedule(mode=ForeachSchedule.ADAPTIVE, cutoff=1)
+ *          int i in 0, n) { ... }
+ * </pre></blockquote><p>
+ *
+ * Each element that is left at its default value falls back to the
+ * corresponding global setting in {@link RuntimeState}, so it may
+ * still be changed from the command line.  The element values must
+ * be compile-time constants; the DPJ compiler copies them into the
+ * parallel code it generates for the loop.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.LOCAL_VARIABLE)
+public @interface ForeachSchedule {
+
+    /**
+     * Use the global setting {@link RuntimeState#dpjForeachAdaptive}
+     */
+    int DEFAULT = 0;
+
+    /**
+     * Split the loop recursively down to the cutoff, regardless of
+     * the load on the worker threads
+     */
+    int STATIC = 1;
+
+    /**
+     * Split the loop in half only while the executing worker does
+     * not already have surplus tasks queued; see {@link
+     * RuntimeState#dpjForeachAdaptive}
+     */
+    int ADAPTIVE = 2;
+
+    /**
+     * The splitting mode: {@link #DEFAULT}, {@link #STATIC}, or
+     * {@link #ADAPTIVE}
+     */
+    int mode() default DEFAULT;
+
+    /**
+     * The minimum number of iterations allocated to a single task,
+     * overriding {@link RuntimeState#dpjForeachCutoff}.  A value
+     * given must be at least 1.  If it is left out, the global setting
+     * is used.
+     */
+    int cutoff() default -1;
+
+    /**
+     * The branching factor for static splitting, overriding {@link
+     * RuntimeState#dpjForeachSplit}.  A value given must be at least
+     * 2.  If it is left out, the global setting is used.
+     */
+    int split() default 0;
+
+    /**
+     * The alignment of the split points, overriding {@link
+     * RuntimeState#dpjForeachAlign}.  Negative means use the global
+     * setting.
+     */
+    int align() default -1;
+}
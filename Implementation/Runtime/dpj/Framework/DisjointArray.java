@@ -37,14 +37,26 @@ public final class DisjointArray<type T<region TR>, region AR>
 
     public static final class Creator<type T<region TR>, region AR> {
         public DisjointArray<T,AR> create(int size, 
-					   Class<T<Root>> fakeEltType) pure{
+					   Class<T<Root>> fakeEltType) pure {
 	    Class<T> actualEltType = (Class<T>) fakeEltType;
 	    extra166y.ParallelArray<T> array = extra166y.ParallelArray.
-    		<T>create(size, actualEltType,
-                          extra166y.ParallelArray.defaultExecutor());
+    		<T>create(size, actualEltType, PoolHolder.pool);
 	    return new DisjointArray<T,AR>(array);
 	}
     }
+
+    /**
+     * Holds the shared pool, so that {@link Creator#create} reads a
+     * final field instead of calling the lazy {@link
+     * DPJRuntime.RuntimeState#getPool}.  The holder is initialized
+     * when the first array is created, after the runtime has read the
+     * command line, so the pool still has the number of threads given
+     * there.
+     */
+    private static final class PoolHolder {
+	static final jsr166y.ForkJoinPool pool =
+	    DPJRuntime.RuntimeState.getPool();
+    }
     
     /**
      * Parallel methods for constructing, mapping and transforming
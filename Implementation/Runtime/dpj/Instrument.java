@@ -1,11 +1,11 @@
 package DPJRuntime;
 
-import java.util.Stack;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.TreeMap;
-import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.PrintWriter;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -15,171 +15,141 @@ import java.io.IOException;
  *
  * When a DPJ program is compiled with the {@code -instrument} flag,
  * the compiler generates calls to the methods of this class at
- * appropriate points in the code.
+ * appropriate points in the code.  This works for both sequential
+ * ({@code -seq -instrument}) and parallel code.
+ *
+ * <p>While the instrumentation is on, each call appends an event
+ * (kind, construct id, and time stamp) to a buffer owned by the
+ * calling thread.  The buffers hold only primitive arrays, which are
+ * allocated in fixed-size chunks and reused from one run to the next,
+ * so recording an event does no boxing, takes no lock, and touches
+ * no data shared with other threads.  All the measurements are
+ * computed from the recorded events when {@link #end} is called.
+ *
+ * <p>The events describe a tree of <i>constructs</i> ({@code
+ * foreach}, {@code cobegin}, {@code finish}, and {@code spawn}) and
+ * <i>branches</i> (a {@code foreach} iteration, one statement of a
+ * {@code cobegin}, the body of a {@code finish} or {@code spawn}).
+ * The time between two events of a thread is charged to the branch
+ * that the thread was executing, if any.  The serial time is the
+ * sum of these times, and the parallel time is the length of the
+ * critical path through the tree, so the results do not depend on
+ * how many threads actually ran the program.
  *
  * @author Robert L. Bocchino Jr.
  * @author Mohsen Vakilian
  */
 public class Instrument {
 
-    /**
-     * A simple free list allocator for managing environments
-     */
-    private static Freelist allocator = new Freelist();
-    private static class Freelist {
-	LinkedList<Environment> freelist = new LinkedList<Environment>();
+    // Construct kinds, also used as the event kinds for opening them
+    private static final byte ROOT = 0;
+    private static final byte FOREACH = 1;
+    private static final byte COBEGIN = 2;
+    private static final byte FINISH = 3;
+    private static final byte SPAWN = 4;
 
-	/**
-	 * Get an environment off the list, or make one if the list is
-	 * empty
-	 */
-	public Environment newEnv() {
-	    Environment result;
-	    if (freelist.size() > 0) {
-		result = freelist.removeLast();
-	    } else {
-		result = new Environment();
-	    }
-	    result.ID = Environment.numIDs++;
-	    return result;
-	}
+    // The other event kinds
+    private static final byte CLOSE = 5;
+    private static final byte BEGIN = 6;
+    private static final byte END = 7;
 
-	public Environment newEnv(Environment oldEnv) {
-	    Environment result = newEnv();
-	    result.parallelStartTime = 
-		oldEnv.parallelStartTime + oldEnv.parallelBranchTime;
-	    return result;
-	}
+    /**
+     * Number of events held by one chunk of a thread's buffer
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
 
-	/**
-	 * Put an environment on the list when we're done with it
-	 */
-	public void freeEnv(Environment e) {
-	    e.clear();
-	    freelist.addLast(e);
-	}
+    /**
+     * A fixed-size block of events
+     */
+    private static class Chunk {
+	final long[] times = new long[CHUNK_SIZE];
+	final int[] ids = new int[CHUNK_SIZE];
+	final byte[] kinds = new byte[CHUNK_SIZE];
+	int size;
     }
 
     /**
-     * Execution environment for measuring times
+     * The events recorded by one thread, and the stack of constructs
+     * the thread is currently executing in
      */
-    private static class Environment {
-
+    private static class Buffer {
 	/**
-	 * Timer for measuring execution times
+	 * Chunks filled so far, followed by the current chunk
 	 */
-	private Timer timer = new Timer();
+	final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+	Chunk current;
+	int numChunks;
 
-	public int ID = 0;
-	public static int numIDs = 0;
+	int[] constructs = new int[16];
+	int depth;
 
-	/**
-	 * Serial execution time (all branches)
-	 */
-	private long serialTime;
-
-	/**
-	 * Pure serial time, i.e., total time when only one thread is
-	 * executing.
-	 */
-	private long pureSerialTime;
-
-	/**
-	 * Parallel execution time (all branches)
-	 */
-	private long parallelTime;
-
-	private long parallelStartTime;
-
-	/**
-	 * Parallel execution time (one branch).  Ultimately,
-	 * parallelTime will be the maximum of all parallelBranchTimes
-	 * we encountered in this environment.
-	 */
-	private long parallelBranchTime;
+	Buffer() {
+	    current = new Chunk();
+	    chunks.add(current);
+	    numChunks = 1;
+	}
 
-	public Environment() {
+	void record(byte kind, int id) {
+	    Chunk chunk = current;
+	    if (chunk.size == CHUNK_SIZE) {
+		if (numChunks == chunks.size()) {
+		    chunks.add(new Chunk());
+		}
+		chunk = current = chunks.get(numChunks++);
+		chunk.size = 0;
+	    }
+	    int i = chunk.size++;
+	    chunk.times[i] = System.nanoTime();
+	    chunk.ids[i] = id;
+	    chunk.kinds[i] = kind;
 	}
 
-	public Environment(Environment prevEnv) {
-	    parallelStartTime = prevEnv.parallelStartTime + prevEnv.parallelTime;
+	void push(int construct) {
+	    if (depth == constructs.length)
+		constructs = Arrays.copyOf(constructs, 2 * depth);
+	    constructs[depth++] = construct;
 	}
 
-	public void clear() {
-	    serialTime = 0;
-	    parallelTime = 0;
-	    parallelBranchTime = 0;
+	int pop() {
+	    // The stack may be empty if start() ran inside a construct
+	    return (depth == 0) ? ROOT : constructs[--depth];
 	}
 
-	public void startTiming() {
-	    timer.start();
+	int top() {
+	    return (depth == 0) ? ROOT : constructs[depth-1];
 	}
 
-	public void stopTiming() {
-	    timer.stop();
-	    serialTime += timer.getElapsedTime();
-	    if (envStack.size() == 1) {
-		pureSerialTime += timer.getElapsedTime();
-	    }
-	    parallelBranchTime += timer.getElapsedTime();
+	void clear() {
+	    current = chunks.get(0);
+	    current.size = 0;
+	    numChunks = 1;
+	    depth = 0;
 	}
     }
 
     /**
-     * A simple timer class for performance measurement
+     * The buffer of each thread
      */
-    private static class Timer {
+    private static final ThreadLocal<Buffer> buffer =
+	new ThreadLocal<Buffer>();
 
-	/**
-	 * Whether the timer is on
-	 */
-	private boolean on = false;
-	
-	/**
-	 * Absolute time when the timer started
-	 */
-	private long startTime = 0;
-	
-	/**
-	 * Absolute time when the timer ended
-	 */
-	private long endTime = 0;
-	
-	/**
-	 * Time between start and end
-	 */
-	private long elapsedTime = 0;
-	
-	/**
-	 * Start the timer
-	 */
-	public void start() { 
-	    elapsedTime = 0;
-	    startTime = System.nanoTime(); 
-	}
-	
-	/**
-	 * Stop the timer
-	 */
-	public void stop() {
-	    endTime = System.nanoTime();
-	    long difference = endTime - startTime;
-	    if (difference > 0) elapsedTime = difference;
-	}
-	
-	/**
-	 * Get the elapsed time
-	 */
-	public long getElapsedTime() {
-	    return elapsedTime;
-	}
-    }
+    /**
+     * Every buffer created so far
+     */
+    private static final ArrayList<Buffer> allBuffers =
+	new ArrayList<Buffer>();
+
+    /**
+     * Source of construct ids.  Id 0 is the root construct, which
+     * holds the code between {@link #start} and {@link #end}.
+     */
+    private static final AtomicInteger nextConstruct =
+	new AtomicInteger(1);
 
     /**
-     * A stack of environments for managing scopes
+     * Switch to turn the recording on and off
      */
-    private static Stack<Environment> envStack = 
-	new Stack<Environment>();
+    private static volatile boolean on;
 
     /**
      * The final results
@@ -189,56 +159,45 @@ public class Instrument {
     private static long parallelTime;
 
     /**
-     * Switch to turn the timing on and off
+     * Start and end times of every branch on the critical-path
+     * time line, sorted
      */
-    private static boolean on;
+    private static long[] branchStarts = new long[0];
+    private static long[] branchEnds = new long[0];
 
     /**
-     * Enter time of each spawned task.
+     * Start and end times of every spawned task, in spawn order
      */
-    private static Map<Integer, Long> enterTimes = 
-	new HashMap<Integer, Long>();
+    private static long[] spawnStarts = new long[0];
+    private static long[] spawnEnds = new long[0];
 
     /**
-     * Exit time of each spawed task.
-     */
-    private static Map<Integer, Long> exitTimes = 
-	new HashMap<Integer, Long>();
-
-    private static TreeMap<Long,Integer> tasksDeltaAtTime = 
-	new TreeMap<Long,Integer>();
-
-    /** 
-     * Entry tasksDeltaAtTime[t] denotes the number of generated tasks
-     * at time `t'.
+     * Entry numOfTasksAtTime[t] denotes the number of tasks active
+     * at time `t'.  Built on demand from branchStarts and branchEnds.
      */
     private static TreeMap<Long,Integer> numOfTasksAtTime = null;
 
     // Private helper methods
 
-    private static void addToMapEntry(Map<Long, Integer> map, 
-				      Long key, Integer delta) {
-        if (!map.containsKey(key))
-            map.put(key, 0);
-        map.put(key, map.get(key) + delta);
+    private static Buffer getBuffer() {
+	Buffer result = buffer.get();
+	if (result == null) {
+	    result = new Buffer();
+	    buffer.set(result);
+	    synchronized (allBuffers) {
+		allBuffers.add(result);
+	    }
+	}
+	return result;
     }
 
-    private static Map<Long,Integer> 
-	partialSum(TreeMap<Long,Integer> map) {
-	if (numOfTasksAtTime != null) return numOfTasksAtTime;
-
-        Long[] taskTimes = map.navigableKeySet().
-	    toArray(new Long[]{});
-        numOfTasksAtTime = new TreeMap<Long,Integer>();
-	numOfTasksAtTime.put(taskTimes[0], 
-			     map.get(taskTimes[0]));
-        for (int i = 1; i < taskTimes.length; ++i) {
-            numOfTasksAtTime.put(taskTimes[i], 
-				 map.get(taskTimes[i]) + 
-				 numOfTasksAtTime.
-				 get(taskTimes[i-1]));
-        } 
-        return numOfTasksAtTime;
+    private static void open(byte kind) {
+	if (on) {
+	    Buffer b = getBuffer();
+	    int construct = nextConstruct.getAndIncrement();
+	    b.push(construct);
+	    b.record(kind, construct);
+	}
     }
 
     // Public instrumentation interface
@@ -248,28 +207,106 @@ public class Instrument {
      */
     public static void start() {
 	//
-	// Clear the map holding the number of active tasks at each
-	// moment.
+	// Discard the events of any earlier run
 	//
-	tasksDeltaAtTime = new TreeMap<Long, Integer>();
+	synchronized (allBuffers) {
+	    for (Buffer b : allBuffers)
+		b.clear();
+	}
+	nextConstruct.set(1);
+	numOfTasksAtTime = null;
 	//
-	// Turn on the instrumentation
+	// Turn on the instrumentation and begin the root branch
 	//
 	on = true;
-	//
-	// Start with a fresh stack of environments
-	//
-	envStack.clear();
-	//
-	// Push a new environment on the stack
-	//
-	Environment env = allocator.newEnv();
-	envStack.push(env);
-	addToMapEntry(tasksDeltaAtTime, 0L, 1); 
-	//
-	// Start timing in the current environment
-	//
-	env.startTiming();
+	enterBranch(ROOT);
+    }
+
+    /**
+     * Returns the innermost construct being executed by the current
+     * thread.  The DPJ compiler generates calls to this method in
+     * parallel code, so that each task can record the construct it
+     * belongs to; user code should not call it.
+     *
+     * @return Id of the current construct
+     */
+    public static int currentConstruct() {
+	return on ? getBuffer().top() : ROOT;
+    }
+
+    /**
+     * Called when a parallel task starts to run code belonging to
+     * construct {@code construct}, for example a range of {@code
+     * foreach} iterations.
+     *
+     * @param construct The id returned by {@link #currentConstruct}
+     * when the task was created
+     */
+    public static void enterTask(int construct) {
+	if (on) getBuffer().push(construct);
+    }
+
+    /**
+     * Called when a parallel task finishes running code entered with
+     * {@link #enterTask}.
+     */
+    public static void exitTask() {
+	if (on) getBuffer().pop();
+    }
+
+    /**
+     * Called at the start of a branch of construct {@code construct}.
+     *
+     * @param construct The id of the construct
+     */
+    public static void enterBranch(int construct) {
+	if (on) {
+	    Buffer b = getBuffer();
+	    b.push(construct);
+	    b.record(BEGIN, construct);
+	}
+    }
+
+    /**
+     * Called at the end of a branch.
+     */
+    public static void exitBranch() {
+	if (on) {
+	    Buffer b = getBuffer();
+	    b.record(END, b.pop());
+	}
+    }
+
+    /**
+     * Called before creating the tasks of a parallel {@code cobegin}.
+     */
+    public static void openCobegin() {
+	open(COBEGIN);
+    }
+
+    /**
+     * Called before creating the task of a parallel {@code finish}.
+     */
+    public static void openFinish() {
+	open(FINISH);
+    }
+
+    /**
+     * Called before creating the task of a parallel {@code spawn}.
+     */
+    public static void openSpawn() {
+	open(SPAWN);
+    }
+
+    /**
+     * Called after the construct most recently opened by the current
+     * thread is done.
+     */
+    public static void close() {
+	if (on) {
+	    Buffer b = getBuffer();
+	    b.record(CLOSE, b.pop());
+	}
     }
 
     /**
@@ -278,106 +315,28 @@ public class Instrument {
      * @param numIters The number of iterations in the {@code foreach}
      */
     public static void enterForeach(int numIters) {
-	if (on) {
-	    //
-	    // Stop timing in the current environment
-	    //
-	    Environment env = envStack.peek();
-	    env.stopTiming();
-	    //
-	    // Start a new environment
-	    //
-	    Environment newEnv = allocator.newEnv(env);
-	    // Add (newEnv.parallelStartTime, numIters) to map
-	    addToMapEntry(tasksDeltaAtTime, 
-			  newEnv.parallelStartTime, numIters);
-	    envStack.push(newEnv);
-	}
+	open(FOREACH);
     }
 
     /**
      * Called upon entry to a {@code foreach} iteration
      */
     public static void enterForeachIter() {
-	if (on) {
-	    //
-	    // Get the current environment off the stack
-	    //
-	    Environment env = envStack.peek();
-	    //
-	    // Starting a new branch: reset the parallel branch time
-	    //
-	    env.parallelBranchTime = 0;
-	    //
-	    // Start timing
-	    //
-	    env.startTiming();
-	}
+	if (on) enterBranch(getBuffer().top());
     }
 
     /**
      * Called upon exit from a {@code foreach} iteration
      */
     public static void exitForeachIter() {
-	if (on) {
-	    //
-	    // Get the current environment off the stack and stop
-	    // timing
-	    //
-	    Environment env = envStack.peek();
-	    env.stopTiming();
-	    //
-	    // If the current branch took longer than the previous
-	    // longest branch, update the parallel time
-	    //
-	    if (env.parallelBranchTime > env.parallelTime)
-		env.parallelTime = env.parallelBranchTime;
-	    //
-	    // Record end of iteration in map
-	    //
-	    // Add (env.parallelStartTime+env.parallelBranchTime,-1)
-	    // to map
-	    //
-	    addToMapEntry(tasksDeltaAtTime, env.parallelStartTime +
-			  env.parallelBranchTime, -1);
-	}
+	exitBranch();
     }
 
     /**
      * Called upon exit from a {@code foreach} statement.
      */
     public static void exitForeach() {
-	if (on) {
-	    //
-	    // Get the environment of the foreach off the stack and
-	    // pop out to the outer environment
-	    //
-	    Environment foreachEnv = envStack.pop();
-	    //
-	    // Get the new current (outer) environment off the stack
-	    //
-	    Environment env = envStack.peek();
-	    //
-	    // Serial and parallel times of the foreach contribute to
-	    // the serial and parallel branch times of the outer
-	    // environment.  We use the parallel time of the foreach
-	    // environment because it's done, so we know its parallel
-	    // time.  However, we update the parallel *branch* time of
-	    // the outer environment because it's not done yet so we
-	    // are computing the time of a parallel branch.  For
-	    // example, it itself could be a foreach.
-	    //
-	    env.serialTime += foreachEnv.serialTime;
-	    env.parallelBranchTime += foreachEnv.parallelTime;
-	    //
-	    // Put the popped environment back in the allocator pool
-	    //
-	    allocator.freeEnv(foreachEnv);
-	    //
-	    // Start timing again in the outer environment
-	    //
-	    env.startTiming();
-	}
+	close();
     }
 
     /**
@@ -385,20 +344,8 @@ public class Instrument {
      */
     public static void enterCobegin() {
 	if (on) {
-	    //
-	    // Stop timing in the current environment
-	    //
-	    Environment env = envStack.peek();
-	    env.stopTiming();
-	    //
-	    // Start a new environment
-	    //
-	    env = allocator.newEnv(env);
-	    envStack.push(env);
-	    //
-	    // Start timing
-	    //
-	    env.startTiming();
+	    open(COBEGIN);
+	    enterBranch(getBuffer().top());
 	}
     }
 
@@ -407,34 +354,8 @@ public class Instrument {
      */
     public static void cobeginSeparator() {
 	if (on) {
-	    //
-	    // Get the current environment off the stack and stop
-	    // timing
-	    //
-	    Environment env = envStack.peek();
-	    env.stopTiming();
-	    //
-	    // If the current branch took longer than the previous
-	    // longest branch, update the parallel time
-	    //
-	    if (env.parallelBranchTime > env.parallelTime)
-		env.parallelTime = env.parallelBranchTime;
-	    //
-            if (env.parallelBranchTime > 0) {
-	        addToMapEntry(tasksDeltaAtTime, 
-			      env.parallelStartTime, 1);
-	        addToMapEntry(tasksDeltaAtTime, 
-			      env.parallelStartTime + 
-			      env.parallelBranchTime, -1);
-            }
-	    //
-	    // Starting a new branch: reset the parallel branch time
-	    //
-	    env.parallelBranchTime = 0;
-	    //
-	    // Start timing
-	    //
-	    env.startTiming();
+	    exitBranch();
+	    enterBranch(getBuffer().top());
 	}
     }
 
@@ -443,29 +364,8 @@ public class Instrument {
      */
     public static void exitCobegin() {
 	if (on) {
-	    //
-	    // Get the environment of the cobegin off the stack and
-	    // pop out to the outer environment
-	    //
-	    Environment cobeginEnv = envStack.pop();
-	    //
-	    // Get the new current (outer) environment off the stack
-	    //
-	    Environment env = envStack.peek();
-	    //
-	    // Analogous to what we do for foreach; see comments
-	    // there.
-	    //
-	    env.serialTime += cobeginEnv.serialTime;
-	    env.parallelBranchTime += cobeginEnv.parallelTime;
-	    //
-	    // Put the popped environment back in the allocator pool
-	    //
-	    allocator.freeEnv(cobeginEnv);
-	    //
-	    // Start timing again in the outer environment
-	    //
-	    env.startTiming();
+	    exitBranch();
+	    close();
 	}
     }
 
@@ -474,19 +374,8 @@ public class Instrument {
      */
     public static void enterFinish() {
 	if (on) {
-	    //
-	    // Get the current environment off the stack and stop its
-	    // timer
-	    //
-	    Environment env = envStack.peek();
-	    env.timer.stop();
-	    //
-	    // Push a new environment to handle the finish and start
-	    // timing in that environment
-	    //
-	    env = allocator.newEnv(env);
-	    envStack.push(env);
-	    env.timer.start();
+	    open(FINISH);
+	    enterBranch(getBuffer().top());
 	}
     }
 
@@ -495,28 +384,8 @@ public class Instrument {
      */
     public static void exitFinish() {
 	if (on) {
-	    //
-	    // Get the current environment off the stack, stop its
-	    // timer, and compute its elapsed time
-	    //
-	    Environment finishEnv = envStack.pop();
-	    finishEnv.stopTiming();
-
-	    if (finishEnv.parallelBranchTime > 
-		finishEnv.parallelTime)
-		finishEnv.parallelTime = 
-		    finishEnv.parallelBranchTime;
-
-	    Environment env = envStack.peek();
-	    env.serialTime += finishEnv.serialTime;
-	    env.parallelBranchTime += finishEnv.parallelTime;
-
-	    //
-	    // Free the popped environment and restart the timer in
-	    // the outer scope
-	    //
-	    allocator.freeEnv(finishEnv);
-	    env.timer.start();
+	    exitBranch();
+	    close();
 	}
     }
 
@@ -525,28 +394,8 @@ public class Instrument {
      */
     public static void enterSpawn() {
 	if (on) {
-	    //
-	    // Get the current environment off the stack and stop its
-	    // timer
-	    //
-	    Environment env = envStack.peek();
-	    env.stopTiming();
-	    //
-	    // Push a new environment to handle the finish and start
-	    // timing in that environment
-	    //
-	    Environment oldEnv = env;
-	    env = allocator.newEnv(env);
-	    //
-            //Record the start time of the spawned task.
-	    //
-            enterTimes.put(env.ID, env.parallelStartTime);
-	    envStack.push(env);
-	    //
-	    // Add (env.parallelStartTime, 1) to map
-	    //
-            addToMapEntry(tasksDeltaAtTime, env.parallelStartTime, 1);
-	    env.startTiming();
+	    open(SPAWN);
+	    enterBranch(getBuffer().top());
 	}
     }
 
@@ -555,58 +404,243 @@ public class Instrument {
      */
     public static void exitSpawn() {
 	if (on) {
-
-	    //
-	    // Get the current environment off the stack, stop its
-	    // timer, and compute its elapsed time
-	    //
-	    Environment spawnEnv = envStack.pop();
-	    spawnEnv.stopTiming();
-	    //
-	    // Update parallel time of spawn env
-	    //
-	    if (spawnEnv.parallelBranchTime > spawnEnv.parallelTime)
-		spawnEnv.parallelTime = spawnEnv.parallelBranchTime;
-	    //
-	    // Update serial and parallel time of outer env
-	    //
-	    Environment env = envStack.peek();
-	    env.serialTime += spawnEnv.serialTime;
-	    long spawnTime = env.parallelBranchTime + 
-		spawnEnv.parallelTime;
-	    if (spawnTime > env.parallelTime)
-		env.parallelTime = spawnTime;
-	    //
-	    // Record end of spawn in map
-	    //
-	    // Add (env.parallelStartTime+spawnTime, -1) to map
-	    //
-	    addToMapEntry(tasksDeltaAtTime, 
-			  env.parallelStartTime+spawnTime, -1);
-	    //
-            // Record the end time of the spawned task.
-	    //
-            exitTimes.put(spawnEnv.ID, env.parallelStartTime+spawnTime);
-	    //
-	    // Free the popped environment and restart the timer in
-	    // the outer scope
-	    //
-	    allocator.freeEnv(spawnEnv);
-	    env.startTiming();
+	    exitBranch();
+	    close();
 	}
     }
 
     /**
-     * Called at the end of the computation.
+     * Called at the end of the computation.  Computes the results
+     * from the events recorded since {@link #start}.
      */
     public static void end() {
-	Environment env = envStack.pop();
-	env.stopTiming();
+	exitBranch();
 	on = false;
-	parallelTime = env.parallelBranchTime;
-	serialTime = env.serialTime;
-	pureSerialTime = env.pureSerialTime;
-	addToMapEntry(tasksDeltaAtTime, parallelTime, 0); 
+	Buffer[] buffers;
+	synchronized (allBuffers) {
+	    buffers = allBuffers.toArray(new Buffer[allBuffers.size()]);
+	}
+	new Analysis(nextConstruct.get()).run(buffers);
+    }
+
+    // Offline analysis
+
+    /**
+     * A growable array of longs
+     */
+    private static class LongList {
+	long[] elts = new long[4];
+	int size;
+
+	void add(long x) {
+	    if (size == elts.length)
+		elts = Arrays.copyOf(elts, 2 * size);
+	    elts[size++] = x;
+	}
+
+	long[] toArray() {
+	    return Arrays.copyOf(elts, size);
+	}
+    }
+
+    /**
+     * A construct in the reconstructed tree.  Branches that contain
+     * no constructs are kept only as their times.
+     */
+    private static class Construct {
+	final byte kind;
+	final LongList leafTimes = new LongList();
+	final ArrayList<Branch> branches = new ArrayList<Branch>();
+
+	Construct(byte kind) {
+	    this.kind = kind;
+	}
+    }
+
+    /**
+     * A branch in the reconstructed tree: segments of work separated
+     * by the constructs it executed
+     */
+    private static class Branch {
+	final Construct parent;
+	final LongList workBefore = new LongList();
+	final ArrayList<Construct> constructs = new ArrayList<Construct>();
+	long work;
+
+	Branch(Construct parent) {
+	    this.parent = parent;
+	}
+
+	void addConstruct(Construct c) {
+	    workBefore.add(work);
+	    constructs.add(c);
+	    work = 0;
+	}
+    }
+
+    private static class Analysis {
+	final Construct[] constructs;
+	final LongList starts = new LongList();
+	final LongList ends = new LongList();
+	final LongList spawnStartList = new LongList();
+	final LongList spawnEndList = new LongList();
+	long serial;
+	long pureSerial;
+
+	Analysis(int numConstructs) {
+	    constructs = new Construct[numConstructs];
+	    constructs[ROOT] = new Construct(ROOT);
+	}
+
+	void run(Buffer[] buffers) {
+	    //
+	    // Create the constructs first, because a construct may be
+	    // opened by one thread and have branches on others
+	    //
+	    for (Buffer b : buffers) {
+		for (int c = 0; c < b.numChunks; ++c) {
+		    Chunk chunk = b.chunks.get(c);
+		    for (int i = 0; i < chunk.size; ++i) {
+			byte kind = chunk.kinds[i];
+			if (kind > ROOT && kind < CLOSE)
+			    constructs[chunk.ids[i]] = new Construct(kind);
+		    }
+		}
+	    }
+	    for (Buffer b : buffers)
+		replay(b);
+	    //
+	    // Walk the tree to compute the times
+	    //
+	    Construct root = constructs[ROOT];
+	    long rootTime = 0;
+	    if (root.branches.isEmpty()) {
+		for (int i = 0; i < root.leafTimes.size; ++i) {
+		    rootTime += root.leafTimes.elts[i];
+		}
+		serial = pureSerial = rootTime;
+	    } else {
+		rootTime = branchTime(root.branches.get(0), 0, true);
+	    }
+	    starts.add(0);
+	    ends.add(rootTime);
+	    serialTime = serial;
+	    pureSerialTime = pureSerial;
+	    parallelTime = rootTime;
+	    branchStarts = starts.toArray();
+	    branchEnds = ends.toArray();
+	    Arrays.sort(branchStarts);
+	    Arrays.sort(branchEnds);
+	    spawnStarts = spawnStartList.toArray();
+	    spawnEnds = spawnEndList.toArray();
+	}
+
+	/**
+	 * Rebuilds the branches executed by one thread, charging the
+	 * time between two events to the branch on top of the stack
+	 */
+	void replay(Buffer b) {
+	    ArrayList<Object> stack = new ArrayList<Object>();
+	    long prevTime = 0;
+	    boolean first = true;
+	    for (int c = 0; c < b.numChunks; ++c) {
+		Chunk chunk = b.chunks.get(c);
+		for (int i = 0; i < chunk.size; ++i) {
+		    long time = chunk.times[i];
+		    Object top = stack.isEmpty() ? null :
+			stack.get(stack.size()-1);
+		    if (!first && top instanceof Branch)
+			((Branch) top).work += time - prevTime;
+		    prevTime = time;
+		    first = false;
+		    switch (chunk.kinds[i]) {
+		    case BEGIN:
+			Construct parent = constructs[chunk.ids[i]];
+			if (parent == null) {
+			    // Opened before the last call to start()
+			    parent = new Construct(ROOT);
+			}
+			stack.add(new Branch(parent));
+			break;
+		    case END:
+			if (top instanceof Branch) {
+			    stack.remove(stack.size()-1);
+			    Branch branch = (Branch) top;
+			    if (branch.constructs.isEmpty())
+				branch.parent.leafTimes.add(branch.work);
+			    else
+				branch.parent.branches.add(branch);
+			}
+			break;
+		    case CLOSE:
+			if (top instanceof Construct)
+			    stack.remove(stack.size()-1);
+			break;
+		    default:
+			Construct construct = constructs[chunk.ids[i]];
+			if (top instanceof Branch && construct != null)
+			    ((Branch) top).addConstruct(construct);
+			stack.add(construct);
+		    }
+		}
+	    }
+	}
+
+	/**
+	 * Returns the parallel time of a branch that starts at time
+	 * {@code start} on the critical-path time line.
+	 */
+	long branchTime(Branch branch, long start, boolean isRoot) {
+	    long time = 0;
+	    long spawnTime = 0;
+	    for (int i = 0; i < branch.constructs.size(); ++i) {
+		long work = branch.workBefore.elts[i];
+		time += work;
+		serial += work;
+		if (isRoot) pureSerial += work;
+		Construct construct = branch.constructs.get(i);
+		long constructTime = constructTime(construct, start + time);
+		if (construct.kind == SPAWN) {
+		    //
+		    // A spawned task runs in parallel with the rest of
+		    // the branch
+		    //
+		    spawnStartList.add(start + time);
+		    spawnEndList.add(start + time + constructTime);
+		    spawnTime = Math.max(spawnTime, time + constructTime);
+		} else {
+		    time += constructTime;
+		}
+	    }
+	    time += branch.work;
+	    serial += branch.work;
+	    if (isRoot) pureSerial += branch.work;
+	    return Math.max(time, spawnTime);
+	}
+
+	/**
+	 * Returns the parallel time of a construct that starts at time
+	 * {@code start} on the critical-path time line: the time of
+	 * its longest branch.
+	 */
+	long constructTime(Construct construct, long start) {
+	    long result = 0;
+	    LongList leaves = construct.leafTimes;
+	    for (int i = 0; i < leaves.size; ++i) {
+		long time = leaves.elts[i];
+		serial += time;
+		starts.add(start);
+		ends.add(start + time);
+		if (time > result) result = time;
+	    }
+	    for (Branch branch : construct.branches) {
+		long time = branchTime(branch, start, false);
+		starts.add(start);
+		ends.add(start + time);
+		if (time > result) result = time;
+	    }
+	    return result;
+	}
     }
 
     // Output methods
@@ -619,8 +653,23 @@ public class Instrument {
      * @return Map representing program task graph
      */
     public static Map<Long,Integer> getTasksMap() {
-        return Collections.
-	    unmodifiableMap(partialSum(tasksDeltaAtTime));
+	if (numOfTasksAtTime == null) {
+	    numOfTasksAtTime = new TreeMap<Long,Integer>();
+	    int s = 0, e = 0, tasks = 0;
+	    while (s < branchStarts.length || e < branchEnds.length) {
+		long time = (s < branchStarts.length &&
+			     branchStarts[s] < branchEnds[e]) ?
+		    branchStarts[s] : branchEnds[e];
+		while (s < branchStarts.length && branchStarts[s] == time) {
+		    ++tasks; ++s;
+		}
+		while (e < branchEnds.length && branchEnds[e] == time) {
+		    --tasks; ++e;
+		}
+		numOfTasksAtTime.put(time, tasks);
+	    }
+	}
+        return Collections.unmodifiableMap(numOfTasksAtTime);
     }
 
     /**
@@ -629,15 +678,15 @@ public class Instrument {
      *
      * @param filepath Pathname of file to print to
      */
-    public static void printTasksMap(String filepath) 
+    public static void printTasksMap(String filepath)
 	throws IOException {
         PrintWriter outputStream = null;
-        try { 
-            outputStream = 
+        try {
+            outputStream =
 		new PrintWriter(new FileWriter(filepath));
             Map<Long,Integer> tasksMap = getTasksMap();
             for (Long time : tasksMap.keySet()) {
-              outputStream.println(time + 
+              outputStream.println(time +
 				   "\t" + tasksMap.get(time));
             }
         } finally {
@@ -651,15 +700,15 @@ public class Instrument {
      *
      * @param filepath Pathname of file to print to
      */
-    public static void printTaskIntervals(String filepath) 
+    public static void printTaskIntervals(String filepath)
 	throws IOException {
         PrintWriter outputStream = null;
-        try { 
+        try {
             outputStream = new PrintWriter(new FileWriter(filepath));
-            for (Integer taskID : enterTimes.keySet()) {
-              outputStream.println(taskID + "\t" + 
-				   enterTimes.get(taskID) + "\t" + 
-				   exitTimes.get(taskID));
+            for (int taskID = 0; taskID < spawnStarts.length; ++taskID) {
+              outputStream.println(taskID + "\t" +
+				   spawnStarts[taskID] + "\t" +
+				   spawnEnds[taskID]);
             }
         } finally {
             if (outputStream != null)
@@ -676,18 +725,13 @@ public class Instrument {
      * @return Average width of the parallelism graph
      */
     public static double averageWidth() {
-        Long[] taskTimes = Instrument.getTasksMap().
-	    keySet().toArray(new Long[]{});
-
+	//
+	// Each branch contributes its length to the area
+	//
 	long totalWidth = 0;
-
-        for (int i = 1; i < taskTimes.length; ++i) {
-		totalWidth += (taskTimes[i] - 
-			       taskTimes[i-1]) * 
-		    numOfTasksAtTime.get(taskTimes[i-1]);
-	}
-
-	return ((double) totalWidth / taskTimes[taskTimes.length-1]);
+	for (int i = 0; i < branchStarts.length; ++i)
+	    totalWidth += branchEnds[i] - branchStarts[i];
+	return ((double) totalWidth / parallelTime);
     }
 
     /**
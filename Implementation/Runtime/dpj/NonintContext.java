@@ -0,0 +1,118 @@
+package DPJRuntime;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import sun.misc.Unsafe;
+
+/**
+ * The part of a transaction that is visible inside a {@code nonint}
+ * block nested in an {@code atomic} block, and in the logging-only
+ * version of a method annotated {@code @Clone}.
+ *
+ * <p>Locations in nonatomic regions cannot be accessed concurrently
+ * by another task, so inside a transaction they are written in place
+ * rather than through the write log.  Each such write first records
+ * the old value here, and if the transaction rolls back the old
+ * values are restored, newest first.
+ *
+ * <p>A location is named by a base object and an offset, as for
+ * {@code sun.misc.Unsafe}:  an object and a field offset, the static
+ * field base of a class and a static field offset, or an array and an
+ * element offset.  User code should never call this class directly.
+ */
+public class NonintContext {
+
+    static final Unsafe unsafe;
+    static {
+	try {
+	    Field field = Unsafe.class.getDeclaredField("theUnsafe");
+	    field.setAccessible(true);
+	    unsafe = (Unsafe) field.get(null);
+	} catch (Exception e) {
+	    throw new Error("DPJ transactions need sun.misc.Unsafe", e);
+	}
+    }
+
+    /**
+     * The kinds of values a location can hold.  Primitive values are
+     * stored as their bits in a {@code long}; references are stored as
+     * they are.
+     */
+    static final byte BOOLEAN = 0, BYTE = 1, CHAR = 2, SHORT = 3, INT = 4,
+	LONG = 5, FLOAT = 6, DOUBLE = 7, OBJECT = 8;
+
+    /**
+     * The undo log:  locations written in place, with their old values
+     */
+    private Object[] undoBase = new Object[16];
+    private long[] undoOffset = new long[16];
+    private byte[] undoKind = new byte[16];
+    private long[] undoBits = new long[16];
+    private Object[] undoRef = new Object[16];
+    private int undoSize;
+
+    NonintContext() {}
+
+    /**
+     * Record the value a location holds before it is written in place
+     */
+    final void logUndo(Object base, long offset, byte kind, long bits,
+		       Object ref) {
+	if (undoSize == undoBase.length) {
+	    int n = 2 * undoSize;
+	    undoBase = Arrays.copyOf(undoBase, n);
+	    undoOffset = Arrays.copyOf(undoOffset, n);
+	    undoKind = Arrays.copyOf(undoKind, n);
+	    undoBits = Arrays.copyOf(undoBits, n);
+	    undoRef = Arrays.copyOf(undoRef, n);
+	}
+	undoBase[undoSize] = base;
+	undoOffset[undoSize] = offset;
+	undoKind[undoSize] = kind;
+	undoBits[undoSize] = bits;
+	undoRef[undoSize] = ref;
+	++undoSize;
+    }
+
+    /**
+     * Restore the locations written in place, newest first, and empty
+     * the undo log
+     */
+    final void undo() {
+	while (undoSize > 0) {
+	    --undoSize;
+	    store(undoBase[undoSize], undoOffset[undoSize],
+		  undoKind[undoSize], undoBits[undoSize], undoRef[undoSize]);
+	    undoBase[undoSize] = undoRef[undoSize] = null;
+	}
+    }
+
+    /**
+     * Empty the undo log, keeping the writes
+     */
+    final void forgetUndo() {
+	while (undoSize > 0) {
+	    --undoSize;
+	    undoBase[undoSize] = undoRef[undoSize] = null;
+	}
+    }
+
+    /**
+     * Write a value of the given kind to a location
+     */
+    static void store(Object base, long offset, byte kind, long bits,
+		      Object ref) {
+	switch (kind) {
+	case BOOLEAN: unsafe.putBoolean(base, offset, bits != 0); break;
+	case BYTE: unsafe.putByte(base, offset, (byte) bits); break;
+	case CHAR: unsafe.putChar(base, offset, (char) bits); break;
+	case SHORT: unsafe.putShort(base, offset, (short) bits); break;
+	case INT: unsafe.putInt(base, offset, (int) bits); break;
+	case LONG: unsafe.putLong(base, offset, bits); break;
+	case FLOAT: unsafe.putInt(base, offset, (int) bits); break;
+	case DOUBLE: unsafe.putLong(base, offset, bits); break;
+	default: unsafe.putObject(base, offset, ref); break;
+	}
+    }
+
+}
@@ -0,0 +1,14 @@
+package DPJRuntime;
+
+/**
+ * The type of the extra parameter that the DPJ compiler adds to the
+ * noninterfering version of a method annotated {@code @Clone}.  Calls
+ * made inside a {@code nonint} block pass {@code (NonintFlag) null}
+ * for it, which selects that version by overloading.  There are no
+ * instances.
+ */
+public final class NonintFlag {
+
+    private NonintFlag() {}
+
+}
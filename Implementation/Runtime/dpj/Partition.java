@@ -42,6 +42,13 @@ public class Partition<type T,region R> {
      */
     private final int stride;
 
+    /**
+     * Split point, and number of elements excluded at the split
+     * point, for a split partition computed on demand.
+     */
+    private final int split;
+    private final int gap;
+
     /**
      * Partitions an array {@code A} into two segments at index {@code
      * idx}.  If {@code A} has {@code n} elements, then the first
@@ -60,6 +67,8 @@ public class Partition<type T,region R> {
 	this.A = A;
 	this.length = 2;
 	this.stride = 0;
+	this.split = 0;
+	this.gap = 0;
 	segs = (Segs<this>) ((Object) new Object[length]);
 	segs[0] = (ArraySlice<T,this:[0]>) 
 	    A.subslice(0, idx);
@@ -89,6 +98,8 @@ public class Partition<type T,region R> {
 	this.A = A;
 	this.length = 2;
 	this.stride = 0;
+	this.split = 0;
+	this.gap = 0;
 	this.segs = (Segs<this>) ((Object) new Object[length]);
 	segs[0] = (ArraySlice<T,this:[0]>) A.subslice(0, idx);
 	if (exclude) {
@@ -111,6 +122,8 @@ public class Partition<type T,region R> {
     {
     	this.A = A;
         this.stride = stride;
+        this.split = 0;
+        this.gap = 0;
 	this.length = (A.length / stride) + 
 	    ((A.length % stride == 0) ? 0 : 1);
 	this.segs = null;
@@ -132,6 +145,124 @@ public class Partition<type T,region R> {
     	return new Partition<T,R>(A, stride, 0.0);
     }
 
+    /**
+     * Private constructor for {@link #splitPartition}.  The segments
+     * are created on demand by {@link #get}.
+     */
+    private Partition(ArraySlice<T,R> A, int split, int gap) pure {
+	if (split < 0 || split + gap > A.length) {
+	    throw new ArrayIndexOutOfBoundsException();
+	}
+	this.A = A;
+	this.length = 2;
+	this.stride = 0;
+	this.split = split;
+	this.gap = gap;
+	this.segs = null;
+    }
+
+    /**
+     * Creates a partition of {@code A} into two segments at index
+     * {@code idx}, like {@link #Partition(ArraySlice,int)}, but without
+     * creating the segments up front.  Like a strided partition, it
+     * holds only {@code A} and the split point, and each call to
+     * {@link #get} creates the segment it returns.  A recursive
+     * divide-and-conquer algorithm that takes each segment once
+     * allocates only the partition and the two segments at each
+     * level of recursion.
+     *
+     * <p>Throws {@code ArrayIndexOutOfBoundsException} if {@code idx}
+     * is not in {@code [0,n]}, where {@code n} is the length of
+     * {@code A}.
+     *
+     * @param <T> The type of the array to partition
+     * @param <R> The region of the array to partition
+     * @param A   The array to partition
+     * @param idx The partition index
+     * @return A partition of {@code A} at {@code idx}
+     */
+    public static <type T,region R>Partition<T,R> 
+      splitPartition(ArraySlice<T,R> A, int idx) pure {
+	return new Partition<T,R>(A, idx, 0);
+    }
+
+    /**
+     * Creates a partition of {@code A} into two segments at index
+     * {@code idx}, optionally excluding the element at {@code idx},
+     * like {@link #Partition(ArraySlice,int,boolean)}, but creating the
+     * segments on demand as {@link #splitPartition(ArraySlice,int)}
+     * does.
+     *
+     * <p>Throws {@code ArrayIndexOutOfBoundsException} if {@code idx}
+     * is not in {@code [0,n-1]} (or {@code [0,n]}, if {@code exclude}
+     * is false), where {@code n} is the length of {@code A}.
+     *
+     * @param <T>     The type of the array to partition
+     * @param <R>     The region of the array to partition
+     * @param A       The array to partition
+     * @param idx     The partition index
+     * @param exclude Whether to exclude the element at
+     *                {@code idx} from the segments
+     * @return A partition of {@code A} at {@code idx}
+     */
+    public static <type T,region R>Partition<T,R> 
+      splitPartition(ArraySlice<T,R> A, int idx, boolean exclude) pure {
+	return new Partition<T,R>(A, idx, exclude ? 1 : 0);
+    }
+
+    /**
+     * Private constructor for {@link #alignedPartition}.  {@code
+     * arrayClass} is the class of the underlying Java array.
+     */
+    private Partition(ArraySlice<T,R> A, int segments, 
+		      Class<?> arrayClass)
+	reads RuntimeState.Global writes this:[?] 
+    {
+	this.A = A;
+	this.length = segments;
+	this.stride = 0;
+	this.split = 0;
+	this.gap = 0;
+	this.segs = (Segs<this>) ((Object) new ArraySlice[length]);
+	int chunk = A.length / segments;
+	int lo = 0;
+	for (int i = 0; i < segments; ++i) {
+	    int hi = (i + 1 == segments) ? A.length :
+		RuntimeState.alignArraySplit(arrayClass, A.start,
+		    (int) ((long) A.length * (i + 1) / segments), chunk);
+	    final int j = i;
+	    segs[j] = (ArraySlice<T,this:[j]>) A.subslice(lo, hi - lo);
+	    lo = hi;
+	}
+    }
+
+    /**
+     * Partitions an array {@code A} into {@code segments} segments of
+     * nearly equal length, moving each split point to the nearest
+     * element that starts a cache line of {@link
+     * RuntimeState#dpjCacheLineSize} bytes, if that changes the
+     * length of the segments by less than half.  Then tasks writing
+     * different segments do not write the same cache line.  See
+     * {@link RuntimeState#alignArraySplit}.
+     *
+     * <p>Throws {@code IllegalArgumentException} if {@code segments}
+     * is not positive.
+     *
+     * @param <T>      The type of the array to partition
+     * @param <R>      The region of the array to partition
+     * @param A        The array to partition
+     * @param segments The number of segments
+     * @return A partition of {@code A} into {@code segments} segments
+     */
+    public static <type T,region R>Partition<T,R> 
+      alignedPartition(ArraySlice<T,R> A, int segments) 
+	reads RuntimeState.Global 
+    {
+	if (segments < 1)
+	    throw new IllegalArgumentException("segments = " + segments);
+    	return new Partition<T,R>(A, segments, Object[].class);
+    }
+
     /**
      * Partitions an array {@code A} into
      * {@code idxs.length+1} segments using the indices in
@@ -158,6 +289,8 @@ public class Partition<type T,region R> {
 	this.length = idxs.length+1;
 	this.segs = (Segs<this>) ((Object) new Object[length]);
 	this.stride = 0;
+	this.split = 0;
+	this.gap = 0;
 	if (length == 1)
 	    segs[0] = (ArraySlice<T,this:[0]>) A;
 	else {
@@ -196,6 +329,12 @@ public class Partition<type T,region R> {
 	}
 	if (segs != null)
    	    return segs[idx];
+	else if (stride == 0) {
+	    // Split partition:  [0,split-1] and [split+gap,n-1]
+	    int start = (idx == 0) ? 0 : split + gap;
+	    int segLength = (idx == 0) ? split : A.length - start;
+	    return (ArraySlice<T,this:[idx]:*>) A.subslice(start, segLength);
+	}
 	else {
 	    int start = idx * stride;
 	    int segLength = (start + stride > A.length) ? 
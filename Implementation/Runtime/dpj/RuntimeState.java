@@ -1,6 +1,9 @@
 package DPJRuntime;
 
-import jsr166y.forkjoin.ForkJoinPool;
+import jsr166y.ForkJoinPool;
+import jsr166y.ForkJoinTask;
+import jsr166y.ForkJoinWorkerThread;
+import jsr166y.RecursiveAction;
 
 /**
  * This class stores the program state maintained by the DPJ runtime.
@@ -16,25 +19,30 @@ public class RuntimeState {
     public region Global;
        
     /**
-     * Flag indicating whether we are inside a task forked by a DPJ
-     * {@code cobegin} or {@code foreach} construct.  This is
-     * necessary because the {@code ForkJoinTask} framework requires
-     * that we handle the outermost invocation of a {@code cobegin} or
-     * {@code foreach} differently from one nested inside another.
+     * The {@code ForkJoinPool} that the runtime uses to launch {@code
+     * ForkJoinTask}s.  The same pool runs the tasks created by
+     * compiled DPJ parallel constructs and the {@code ParallelArray}
+     * operations used by the DPJ Framework classes, so a program that
+     * mixes the two does not start two sets of worker threads.  The
+     * pool is created by {@link #initialize} with {@code
+     * dpjNumThreads} worker threads, or on first use by {@link
+     * #getPool} if {@code initialize} was never called.
      *
-     * <p>This variable is set only by the DPJ compiler and should
+     * <p>This variable is set only by the DPJ runtime and should
      * never be set by user code.
      */
-    public static boolean insideParallelTask in Global = false; 
+    public static ForkJoinPool pool in Global;
 
     /**
-     * The {@code ForkJoinPool} that the runtime uses to launch {@code
-     * ForkJoinTask}s.
+     * The {@code java.util.concurrent.ForkJoinPool} that runs the
+     * tasks created by code compiled with the {@code -juc} option of
+     * the DPJ compiler.  The pool is created by {@link
+     * #initializeJUC}, or on first use by {@link #getJUCPool}.
      *
-     * <p>This variable is set only by the DPJ compiler and should
+     * <p>This variable is set only by the DPJ runtime and should
      * never be set by user code.
      */
-    public static ForkJoinPool pool in Global;
+    public static java.util.concurrent.ForkJoinPool jucPool in Global;
 
     /**
      * The minimum number of {@code foreach} iterations to be
@@ -69,6 +77,85 @@ public class RuntimeState {
      */
      public static int dpjForeachSplit in Global = 2; 
 
+    /**
+     * Flag selecting adaptive splitting for {@code foreach} loops.
+     * When adaptive splitting is on, a {@code foreach} task splits
+     * its iterations in half only if the worker thread running it has
+     * no more than {@code dpjForeachSurplus} surplus tasks queued, so
+     * the loop is split finely only when other workers are idle and
+     * looking for work.  {@code dpjForeachCutoff} is still the
+     * minimum number of iterations per task, and {@code
+     * dpjForeachSplit} is ignored.  The default is {@code false}.
+     *
+     * <p>This variable may be set to {@code true} at the start of
+     * program execution by passing {@code --dpj-foreach-adaptive} as
+     * a command-line argument to the DPJ program.  Individual loops
+     * may override it with {@link ForeachSchedule}.
+     */
+    public static boolean dpjForeachAdaptive in Global = false;
+
+    /**
+     * The number of surplus tasks a worker thread may have queued
+     * before adaptive splitting of a {@code foreach} loop stops.  The
+     * default is 3.
+     *
+     * <p>This variable may be set to value <i>n</i> at the start of
+     * program execution by passing {@code
+     * --dpj-foreach-surplus }<i>n</i> as a command-line argument to
+     * the DPJ program.
+     */
+    public static int dpjForeachSurplus in Global = 3;
+
+    /**
+     * The alignment of the split points of a {@code foreach} loop.
+     * When this is greater than 1, a {@code foreach} over indices
+     * with stride 1 moves each point where it splits its iterations
+     * to the nearest index that is a multiple of {@code
+     * dpjForeachAlign}, if that changes the size of the pieces by less
+     * than half.  With an alignment of {@code dpjCacheLineSize}
+     * divided by the element size, and an array that starts on a
+     * cache line, tasks writing adjacent elements of the array then
+     * never write the same cache line.  Zero turns alignment off,
+     * which is the default.
+     *
+     * <p>This variable may be set to value <i>n</i> at the start of
+     * program execution by passing {@code
+     * --dpj-foreach-align }<i>n</i> as a command-line argument to the
+     * DPJ program.  Individual loops may override it with {@link
+     * ForeachSchedule}.
+     */
+    public static int dpjForeachAlign in Global = 0;
+
+    /**
+     * The number of surplus tasks a worker thread may have queued
+     * before a {@code cobegin} stops creating tasks.  Beyond this
+     * point, a {@code cobegin} runs its branches one after another in
+     * the current task, so a recursive {@code cobegin} creates tasks
+     * only while other workers may need work.  A negative value turns
+     * the check off.  The default is 3.
+     *
+     * <p>This variable may be set to value <i>n</i> at the start of
+     * program execution by passing {@code
+     * --dpj-cobegin-surplus }<i>n</i> as a command-line argument to
+     * the DPJ program.
+     */
+    public static int dpjCobeginSurplus in Global = 3;
+
+    /**
+     * The number of nested {@code cobegin}s that create tasks.  A
+     * {@code cobegin} nested more deeply than this inside the tasks
+     * of other {@code cobegin}s runs its branches one after another
+     * in the current task, and methods called there run their
+     * sequential versions (see {@link #runSequential}).  Zero means
+     * no limit, which is the default.
+     *
+     * <p>This variable may be set to value <i>n</i> at the start of
+     * program execution by passing {@code
+     * --dpj-cobegin-depth }<i>n</i> as a command-line argument to the
+     * DPJ program.  Thereafter it may not be changed.
+     */
+    public static int dpjCobeginDepth in Global = 0;
+
     /**
      * The number of worker threads.  The default is the number of
      * available processors.
@@ -81,6 +168,471 @@ public class RuntimeState {
     public static int dpjNumThreads in Global =
         Runtime.getRuntime().availableProcessors();
 
+    /**
+     * Flag selecting the JDK common pool, {@code
+     * java.util.concurrent.ForkJoinPool.commonPool()}, as {@code
+     * jucPool}, instead of a new pool with {@code dpjNumThreads}
+     * worker threads.  This flag affects only code compiled with the
+     * {@code -juc} option.  The default is {@code false}.  The common
+     * pool is new in JDK 8; on JDK 7 the flag is cleared and {@code
+     * jucPool} is a new pool, as if it had not been set.
+     *
+     * <p>This variable may be set to {@code true} at the start of
+     * program execution by passing {@code --dpj-common-pool} as a
+     * command-line argument to the DPJ program.
+     */
+    public static boolean dpjCommonPool in Global = false;
+
+    /**
+     * The size of a cache line in bytes, used by {@link
+     * #alignArraySplit} to keep the segments of an aligned partition
+     * (see {@code Partition*.alignedPartition}) on separate cache
+     * lines.  The default is 64.
+     *
+     * <p>This variable may be set to value <i>n</i> at the start of
+     * program execution by passing {@code
+     * --dpj-cache-line }<i>n</i> as a command-line argument to the
+     * DPJ program.
+     */
+    public static int dpjCacheLineSize in Global = 64;
+
+
+    /**
+     * Decides whether a {@code foreach} task should split its
+     * iterations into more tasks.  The DPJ compiler generates calls to
+     * this method; user code should not call it.
+     *
+     * @param iterations Number of iterations held by the task
+     * @param cutoff     Minimum number of iterations per task
+     * @param adaptive   Whether to use adaptive splitting
+     * @return Whether to split
+     */
+    public static boolean splitForeach(int iterations, int cutoff,
+				       boolean adaptive) {
+	if (iterations <= cutoff) return false;
+	if (!adaptive) return true;
+	Thread thread = Thread.currentThread();
+	if (thread instanceof ForkJoinWorkerThread) {
+	    return ForkJoinTask.getSurplusQueuedTaskCount() <=
+		dpjForeachSurplus;
+	}
+	if (thread instanceof java.util.concurrent.ForkJoinWorkerThread) {
+	    return java.util.concurrent.ForkJoinTask.
+		getSurplusQueuedTaskCount() <= dpjForeachSurplus;
+	}
+	return true;
+    }
+
+    /**
+     * Moves a point where a {@code foreach} splits its iterations so
+     * that the index it splits at is a multiple of {@code align}.
+     * The point moves only if the stride is 1, and only by less than
+     * half of {@code chunk}, so pieces of at least {@code chunk}
+     * iterations stay nonempty and in order.  Otherwise, and if
+     * {@code align} is less than 2, the point does not move.  The DPJ
+     * compiler generates calls to this method; user code should not
+     * call it.
+     *
+     * @param begin  The first index of the loop
+     * @param offset The number of iterations before the split point
+     * @param stride The difference between successive indices
+     * @param chunk  The size of the smallest piece
+     * @param align  The alignment of the split index
+     * @return The new number of iterations before the split point
+     */
+    public static int alignSplit(int begin, int offset, int stride,
+				 int chunk, int align) pure {
+	if (align < 2 || stride != 1 || offset == 0) return offset;
+	int rem = (begin + offset) % align;
+	if (rem < 0) rem += align;
+	int delta = (2 * rem < align) ? -rem : align - rem;
+	if (2 * Math.abs(delta) >= chunk) return offset;
+	return offset + delta;
+    }
+
+    /**
+     * Moves a point where a slice of an array is split so that the
+     * element it splits at starts a cache line of {@code
+     * dpjCacheLineSize} bytes, as {@link #alignSplit} does for {@code
+     * foreach} loops.  The alignment uses the element size and the
+     * offset of the first element in arrays of class {@code
+     * arrayClass}, and assumes that the array itself starts on a
+     * cache line, as large arrays do in most collectors.  If it does
+     * not, the split points are still whole cache lines apart.
+     *
+     * @param arrayClass The class of the array
+     * @param start      The index of the first element of the slice
+     * @param offset     The number of elements before the split point
+     * @param chunk      The size of the smallest piece
+     * @return The new number of elements before the split point
+     */
+    public static int alignArraySplit(Class<?> arrayClass, int start,
+				      int offset, int chunk)
+	reads Global
+    {
+	int base = arrayLayout(arrayClass, true);
+	int scale = arrayLayout(arrayClass, false);
+	int line = dpjCacheLineSize;
+	if (scale <= 0 || line <= scale || line % scale != 0 ||
+	    base % scale != 0) {
+	    return offset;
+	}
+	// Element i starts a line when (base + i * scale) % line == 0
+	int phase = ((line - base % line) % line) / scale;
+	return alignSplit(start - phase, offset, 1, chunk, line / scale);
+    }
+
+    /**
+     * Returns the offset of the first element, or the size of an
+     * element, in arrays of class {@code arrayClass}.  The values are
+     * read from {@code sun.misc.Unsafe} by reflection, so that the
+     * runtime does not depend on it when it is compiled.  A VM without
+     * it gets the usual layout of a 64-bit VM with compressed
+     * references:  a 16-byte header, and elements of their natural
+     * size.
+     */
+    private static int arrayLayout(Class<?> arrayClass, boolean base) pure {
+	String kind;
+	int size;
+	if (arrayClass == int[].class) {
+	    kind = "INT"; size = 4;
+	} else if (arrayClass == double[].class) {
+	    kind = "DOUBLE"; size = 8;
+	} else if (arrayClass == long[].class) {
+	    kind = "LONG"; size = 8;
+	} else if (arrayClass == float[].class) {
+	    kind = "FLOAT"; size = 4;
+	} else if (arrayClass == short[].class) {
+	    kind = "SHORT"; size = 2;
+	} else if (arrayClass == char[].class) {
+	    kind = "CHAR"; size = 2;
+	} else if (arrayClass == byte[].class) {
+	    kind = "BYTE"; size = 1;
+	} else if (arrayClass == boolean[].class) {
+	    kind = "BOOLEAN"; size = 1;
+	} else {
+	    kind = "OBJECT"; size = 4;
+	}
+	String field = "ARRAY_" + kind + (base ? "_BASE_OFFSET" : "_INDEX_SCALE");
+	try {
+	    return Class.forName("sun.misc.Unsafe").getField(field).getInt(null);
+	} catch (Exception e) {
+	    return base ? 16 : size;
+	}
+    }
+
+    /**
+     * The depth of {@code cobegin} tasks that the current thread is
+     * running, kept only if {@code dpjCobeginDepth} is set
+     */
+    private static final ThreadLocal<int[]> cobeginDepth =
+	new ThreadLocal<int[]>() {
+	    @Override protected int[] initialValue() {
+		return new int[1];
+	    }
+	};
+
+    /**
+     * Whether the current thread is running code that creates no more
+     * tasks:  a piece of a {@code foreach} at or below the cutoff,
+     * or the branches of a {@code cobegin} that {@link #splitCobegin}
+     * ran in the current task.  See {@link #enterSequential}.
+     */
+    private static final ThreadLocal<boolean[]> sequential =
+	new ThreadLocal<boolean[]>() {
+	    @Override protected boolean[] initialValue() {
+		return new boolean[1];
+	    }
+	};
+
+    /**
+     * Notes that the current thread is starting code that should run
+     * sequentially, so that the methods it calls run their sequential
+     * versions (see {@link #runSequential}) and the {@code cobegin}s
+     * it runs do not create tasks.  The DPJ compiler generates calls
+     * to this method, and {@link Foreach} calls it for the pieces of
+     * a loop it does not split further; user code should not call it.
+     *
+     * @return The value to restore with {@link #exitSequential}
+     */
+    public static boolean enterSequential() {
+	boolean[] current = sequential.get();
+	boolean saved = current[0];
+	current[0] = true;
+	return saved;
+    }
+
+    /**
+     * Notes that the current thread has finished the code started
+     * with {@link #enterSequential}.  The DPJ compiler generates calls
+     * to this method; user code should not call it.
+     *
+     * @param saved The value returned by {@link #enterSequential}
+     */
+    public static void exitSequential(boolean saved) {
+	sequential.get()[0] = saved;
+    }
+
+    /**
+     * Decides whether a {@code cobegin} should run its branches as
+     * parallel tasks, or one after another in the current task; see
+     * {@link #dpjCobeginSurplus} and {@link #dpjCobeginDepth}.  A
+     * {@code cobegin} in code that runs sequentially (see {@link
+     * #enterSequential}) does not create tasks.  The DPJ compiler
+     * generates calls to this method; user code should not call it.
+     *
+     * @return Whether to create tasks
+     */
+    public static boolean splitCobegin() {
+	if (dpjCobeginDepth > 0 &&
+	    cobeginDepth.get()[0] >= dpjCobeginDepth)
+	    return false;
+	if (sequential.get()[0]) return false;
+	if (dpjCobeginSurplus < 0) return true;
+	Thread thread = Thread.currentThread();
+	if (thread instanceof ForkJoinWorkerThread) {
+	    return ForkJoinTask.getSurplusQueuedTaskCount() <=
+		dpjCobeginSurplus;
+	}
+	if (thread instanceof java.util.concurrent.ForkJoinWorkerThread) {
+	    return java.util.concurrent.ForkJoinTask.
+		getSurplusQueuedTaskCount() <= dpjCobeginSurplus;
+	}
+	return true;
+    }
+
+    /**
+     * Returns the depth of a task created by a {@code cobegin} in the
+     * current thread.  The DPJ compiler generates calls to this
+     * method; user code should not call it.
+     *
+     * @return The depth, or 0 if {@code dpjCobeginDepth} is not set
+     */
+    public static int cobeginDepth() {
+	return dpjCobeginDepth > 0 ? cobeginDepth.get()[0] + 1 : 0;
+    }
+
+    /**
+     * Notes that the current thread is starting a {@code cobegin}
+     * task.  The DPJ compiler generates calls to this method; user
+     * code should not call it.
+     *
+     * @param depth The depth of the task, from {@link #cobeginDepth}
+     * @return The depth to restore with {@link #exitCobegin}
+     */
+    public static int enterCobegin(int depth) {
+	if (dpjCobeginDepth <= 0) return 0;
+	int[] current = cobeginDepth.get();
+	int saved = current[0];
+	current[0] = depth;
+	return saved;
+    }
+
+    /**
+     * Notes that the current thread has finished a {@code cobegin}
+     * task.  The DPJ compiler generates calls to this method; user
+     * code should not call it.
+     *
+     * @param saved The value returned by {@link #enterCobegin}
+     */
+    public static void exitCobegin(int saved) {
+	if (dpjCobeginDepth > 0)
+	    cobeginDepth.get()[0] = saved;
+    }
+
+    /**
+     * Decides whether a method containing parallel constructs should
+     * run its sequential version, which the DPJ compiler generates
+     * alongside the parallel one.  It does when no task the method
+     * could create would run in parallel:  there is only one worker
+     * thread, or the current task is as deep as {@link
+     * #dpjCobeginDepth} allows.  It also does in a {@code foreach}
+     * piece at or below the cutoff, and in the branches of a {@code
+     * cobegin} run in the current task (see {@link #enterSequential}),
+     * since the runtime has already decided that the work there is
+     * not worth splitting.  A {@code foreach} with reductions
+     * keeps its parallel code in the sequential version, so its
+     * partial results are combined in the same order either way.  The
+     * DPJ compiler generates calls to this method; user code should
+     * not call it.
+     *
+     * @return Whether to run the sequential version
+     */
+    public static boolean runSequential() {
+	if (dpjNumThreads == 1 && !dpjCommonPool) return true;
+	if (dpjCobeginDepth > 0 &&
+	    cobeginDepth.get()[0] >= dpjCobeginDepth)
+	    return true;
+	return sequential.get()[0];
+    }
+
+    /**
+     * Tests whether the current thread is already running inside a
+     * parallel task.  This is necessary because the {@code
+     * ForkJoinTask} framework requires that we handle the outermost
+     * invocation of a {@code cobegin} or {@code foreach} differently
+     * from one nested inside another.  The test looks only at the
+     * current thread, so any number of application threads may run
+     * DPJ parallel constructs at the same time.
+     *
+     * @return Whether the current thread is a fork-join worker
+     */
+    public static boolean insideParallelTask() {
+	return Thread.currentThread() instanceof ForkJoinWorkerThread;
+    }
+
+    /**
+     * Runs a task created by a DPJ parallel construct and waits for
+     * it to complete.  Inside a parallel task, the task runs in the
+     * current worker's pool; otherwise it is submitted to {@code
+     * pool}.  The DPJ compiler generates calls to this method; user
+     * code should not call it.
+     *
+     * @param task The task to run
+     */
+    public static void invoke(RecursiveAction task) {
+	if (insideParallelTask()) {
+	    task.invoke();
+	} else {
+	    getPool().invoke(task);
+	}
+    }
+
+    /**
+     * Runs the tasks created by a DPJ {@code cobegin} in parallel and
+     * waits for all of them to complete.  The DPJ compiler generates
+     * calls to this method; user code should not call it.
+     *
+     * @param tasks The tasks to run
+     */
+    public static void invokeAll(final RecursiveAction[] tasks) {
+	if (insideParallelTask()) {
+	    RecursiveAction.invokeAll(tasks);
+	} else {
+	    getPool().invoke(new RecursiveAction() {
+		    protected void compute() {
+			RecursiveAction.invokeAll(tasks);
+		    }
+		});
+	}
+    }
+
+    /**
+     * Runs a task created by a DPJ parallel construct in code
+     * compiled with the {@code -juc} option, and waits for it to
+     * complete.  Inside a parallel task, the task runs in the current
+     * worker's pool; otherwise it is submitted to {@code jucPool}.
+     * The DPJ compiler generates calls to this method; user code
+     * should not call it.
+     *
+     * @param task The task to run
+     */
+    public static void invoke(java.util.concurrent.RecursiveAction task) {
+	if (java.util.concurrent.ForkJoinTask.inForkJoinPool()) {
+	    task.invoke();
+	} else {
+	    getJUCPool().invoke(task);
+	}
+    }
+
+    /**
+     * Runs the tasks created by a DPJ {@code cobegin} in code
+     * compiled with the {@code -juc} option in parallel, and waits
+     * for all of them to complete.  The DPJ compiler generates calls
+     * to this method; user code should not call it.
+     *
+     * @param tasks The tasks to run
+     */
+    public static void invokeAll(final java.util.concurrent.RecursiveAction[] tasks) {
+	if (java.util.concurrent.ForkJoinTask.inForkJoinPool()) {
+	    java.util.concurrent.RecursiveAction.invokeAll(tasks);
+	} else {
+	    getJUCPool().invoke(new java.util.concurrent.RecursiveAction() {
+		    protected void compute() {
+			java.util.concurrent.RecursiveAction.invokeAll(tasks);
+		    }
+		});
+	}
+    }
+
+    /**
+     * Returns the number of members for an SPMD team (see {@link
+     * TeamBarrier}):  one per worker thread of {@code pool}.  Inside a
+     * parallel task the other workers may be busy, and a member
+     * waiting for them at the barrier would hold its own worker, so
+     * the result is 1 and the loop runs as ordinary {@code foreach}
+     * tasks.  The DPJ compiler generates calls to this method; user
+     * code should not call it.
+     *
+     * @return The number of members, or 1 for no team
+     */
+    public static int spmdTeamSize() {
+	return insideParallelTask() ? 1 : getPool().getParallelism();
+    }
+
+    /**
+     * Returns the number of members for an SPMD team in code compiled
+     * with the {@code -juc} option:  one per worker thread of {@code
+     * jucPool}, or 1 inside a parallel task.  The DPJ compiler
+     * generates calls to this method; user code should not call it.
+     *
+     * @return The number of members, or 1 for no team
+     */
+    public static int spmdTeamSizeJUC() {
+	return java.util.concurrent.ForkJoinTask.inForkJoinPool() ? 1 :
+	    getJUCPool().getParallelism();
+    }
+
+    /**
+     * Returns the pool shared by all DPJ parallel code, creating it
+     * if {@link #initialize} has not already done so.  Runtime
+     * classes that run their own {@code ForkJoinTask}s, such as the
+     * DPJ Framework classes, should use this pool rather than
+     * creating another one.
+     *
+     * @return The shared {@code ForkJoinPool}
+     */
+    public static synchronized ForkJoinPool getPool() writes Global {
+	if (pool == null) {
+	    pool = new ForkJoinPool(dpjNumThreads);
+	}
+	return pool;
+    }
+
+    /**
+     * Returns the pool that runs code compiled with the {@code -juc}
+     * option, creating it if {@link #initializeJUC} has not already
+     * done so.
+     *
+     * @return The {@code java.util.concurrent.ForkJoinPool}
+     */
+    public static synchronized java.util.concurrent.ForkJoinPool getJUCPool()
+	writes Global {
+	if (jucPool == null) {
+	    if (dpjCommonPool) {
+		jucPool = commonPool();
+		// Before JDK 8 there is no common pool
+		if (jucPool == null) dpjCommonPool = false;
+	    }
+	    if (jucPool == null) {
+		jucPool = new java.util.concurrent.ForkJoinPool(dpjNumThreads);
+	    }
+	}
+	return jucPool;
+    }
+
+    // Returns the JDK common pool, or null if the JDK has none.  The
+    // method is looked up by reflection, so that the runtime also
+    // builds and runs on JDK 7.
+    private static java.util.concurrent.ForkJoinPool commonPool() pure {
+	try {
+	    return (java.util.concurrent.ForkJoinPool)
+		java.util.concurrent.ForkJoinPool.class.
+		getMethod("commonPool").invoke(null);
+	} catch (Exception e) {
+	    return null;
+	}
+    }
 
     // Private helper method
     private static void error(String msg) {
@@ -101,8 +653,22 @@ public class RuntimeState {
      * <p><blockquote> {@code --dpj-foreach-split }<i>n</i>: Set
      * {@link dpjForeachSplit} to <i>n</i>.  <br>{@code
      * --dpj-foreach-cutoff }<i>n</i>: Set {@link dpjForeachCutoff} to
-     * <i>n</i>.  <br>{@code --dpj-num-threads }<i>n</i>: Set {@link
-     * dpjNumThreads} to <i>n</i>.  </blockquote>
+     * <i>n</i>.  <br>{@code --dpj-foreach-adaptive}: Set {@link
+     * dpjForeachAdaptive} to {@code true}.  <br>{@code
+     * --dpj-foreach-surplus }<i>n</i>: Set {@link dpjForeachSurplus}
+     * to <i>n</i>.  <br>{@code --dpj-foreach-align }<i>n</i>: Set
+     * {@link dpjForeachAlign} to <i>n</i>.  <br>{@code
+     * --dpj-cache-line }<i>n</i>: Set {@link dpjCacheLineSize} to
+     * <i>n</i>.  <br>{@code --dpj-cobegin-surplus }<i>n</i>: Set
+     * {@link dpjCobeginSurplus} to <i>n</i>.  <br>{@code
+     * --dpj-cobegin-depth }<i>n</i>: Set {@link dpjCobeginDepth} to
+     * <i>n</i>.  <br>{@code --dpj-num-threads }<i>n</i>: Set
+     * {@link dpjNumThreads} to <i>n</i>.  <br>{@code
+     * --dpj-common-pool}: Set {@link dpjCommonPool} to {@code true}.
+     * </blockquote>
+     *
+     * <p>After processing the options, creates {@link #pool} with
+     * {@code dpjNumThreads} worker threads, unless it already exists.
      *
      * <p>The DPJ options may appear in any order, but they must
      * precede any command-line arguments to the program.  The rest of
@@ -110,6 +676,25 @@ public class RuntimeState {
      * it.
      */
     public static String[] initialize(String[] args) {
+	String[] newArgs = processArgs(args);
+	getPool();
+	return newArgs;
+    }
+
+    /**
+     * Processes command-line arguments and initializes the runtime
+     * parameters for code compiled with the {@code -juc} option.  The
+     * command-line options are the same as for {@link #initialize},
+     * but the pool created is {@link #jucPool}.
+     */
+    public static String[] initializeJUC(String[] args) {
+	String[] newArgs = processArgs(args);
+	getJUCPool();
+	return newArgs;
+    }
+
+    // Processes the DPJ arguments and returns the rest
+    private static String[] processArgs(String[] args) {
 	//
 	// Process the DPJ arguments, which must come first
 	//
@@ -125,6 +710,29 @@ public class RuntimeState {
 	    } else if (args[idx].equals("--dpj-foreach-cutoff")) {
 		checkIdx("--dpj-foreach-cutoff", idx, args.length);
 		dpjForeachCutoff = Integer.parseInt(args[++idx]);
+	    } else if (args[idx].equals("--dpj-foreach-adaptive")) {
+		dpjForeachAdaptive = true;
+	    } else if (args[idx].equals("--dpj-foreach-surplus")) {
+		checkIdx("--dpj-foreach-surplus", idx, args.length);
+		dpjForeachSurplus = Integer.parseInt(args[++idx]);
+	    } else if (args[idx].equals("--dpj-foreach-align")) {
+		checkIdx("--dpj-foreach-align", idx, args.length);
+		dpjForeachAlign = Integer.parseInt(args[++idx]);
+	    } else if (args[idx].equals("--dpj-cache-line")) {
+		checkIdx("--dpj-cache-line", idx, args.length);
+		dpjCacheLineSize = Integer.parseInt(args[++idx]);
+		if (dpjCacheLineSize < 1) {
+		    error("DPJ cache line size must be greater than 0; " +
+			  dpjCacheLineSize + " is not valid");
+		}
+	    } else if (args[idx].equals("--dpj-cobegin-surplus")) {
+		checkIdx("--dpj-cobegin-surplus", idx, args.length);
+		dpjCobeginSurplus = Integer.parseInt(args[++idx]);
+	    } else if (args[idx].equals("--dpj-cobegin-depth")) {
+		checkIdx("--dpj-cobegin-depth", idx, args.length);
+		dpjCobeginDepth = Integer.parseInt(args[++idx]);
+	    } else if (args[idx].equals("--dpj-common-pool")) {
+		dpjCommonPool = true;
 	    } else if(args[idx].equals("--dpj-num-threads")) {
 		checkIdx("--dpj-num-threads", idx, args.length);
 		dpjNumThreads = Integer.parseInt(args[++idx]);
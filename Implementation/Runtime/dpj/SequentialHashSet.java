@@ -85,4 +85,16 @@ public class SequentialHashSet<type E, region R> extends HashSet<E>
     public <T> T[] toArray(T[] a) reads R {
 	return super.toArray(a);
     }
+
+    /**
+     * Returns a {@link DPJIterator} over the elements of this set, for
+     * the iterator form of {@code foreach}.  The iterator covers a
+     * copy of the elements taken when it is created, and splits in
+     * half, so the loop can run in parallel and may update the set.
+     *
+     * @return An iterator over the elements of this set
+     */
+    public DPJIterator<E> elements() reads R {
+	return new ArrayIterator<E,R>((Array<E,R>) ((Object) super.toArray()));
+    }
 }
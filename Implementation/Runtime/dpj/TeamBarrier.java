@@ -0,0 +1,48 @@
+package DPJRuntime;
+
+import jsr166y.Phaser;
+
+/**
+ * The barrier of an SPMD team.  When a sequential loop does nothing
+ * but run {@code foreach} loops, and code is compiled with the {@code
+ * -spmd} option, the DPJ compiler runs the whole sequential loop in
+ * one team of tasks instead of creating new tasks for each {@code
+ * foreach}.  Each member of the team runs its own copy of the
+ * sequential loop and a fixed chunk of the iterations of each {@code
+ * foreach}, and waits here for the other members after each one.
+ *
+ * <p>If a member fails, it cancels the barrier, and the others stop
+ * at their next {@link #await}.  Then the team completes with the
+ * exception of the member that failed.  User code should never call
+ * this class directly.
+ */
+public final class TeamBarrier {
+
+    private final Phaser phaser;
+
+    /**
+     * @param members The number of members of the team
+     */
+    public TeamBarrier(int members) {
+	phaser = new Phaser(members);
+    }
+
+    /**
+     * Wait until every member of the team has arrived
+     *
+     * @return Whether to go on:  {@code false} if the barrier has been
+     *         cancelled
+     */
+    public boolean await() {
+	return phaser.arriveAndAwaitAdvance() >= 0;
+    }
+
+    /**
+     * Release the members waiting at the barrier, and make later calls
+     * to {@link #await} return {@code false}
+     */
+    public void cancel() {
+	phaser.forceTermination();
+    }
+
+}
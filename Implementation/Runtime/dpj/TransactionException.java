@@ -0,0 +1,25 @@
+package DPJRuntime;
+
+/**
+ * Thrown by the transactional memory barriers when the current
+ * transaction has seen a conflicting write and must be rolled back
+ * and retried.  The code that the DPJ compiler generates for {@code
+ * atomic} blocks catches it; it never reaches user code.
+ *
+ * <p>Conflicts are frequent under contention, so a single instance
+ * without a stack trace is thrown every time.
+ */
+public class TransactionException extends RuntimeException {
+
+    static final TransactionException instance = new TransactionException();
+
+    public TransactionException() {
+	super("Transaction aborted");
+    }
+
+    @Override
+    public Throwable fillInStackTrace() {
+	return this;
+    }
+
+}
@@ -13,12 +13,18 @@ my $className = $type;
 if (@ARGV > 1) {
     $className = $ARGV[1];
 }
+# The reference type for $, substituted for $^
+my $boxedType = $type;
+if (@ARGV > 2) {
+    $boxedType = $ARGV[2];
+}
 
 print "// WARNING:  THIS FILE IS AUTO-GENERATED\n\n";
 
 while(<STDIN>) {
     chomp;
     my $line = $_;
+    $line =~ s/\$\^/$boxedType/g;
     $line =~ s/\$\$/$className/g;
     $line =~ s/\$/$type/g;
     print "$line\n";
@@ -3,13 +3,13 @@
 # Expand all template files
 
 my @targets = ( 
-    ["char", "Char"], 
-    ["boolean", "Boolean"],
-    ["byte", "Byte"], 
-    ["double", "Double"],
-    ["float", "Float"],
-    ["int", "Int"], 
-    ["String", "String"]
+    ["char", "Char", "Character"], 
+    ["boolean", "Boolean", "Boolean"],
+    ["byte", "Byte", "Byte"], 
+    ["double", "Double", "Double"],
+    ["float", "Float", "Float"],
+    ["int", "Int", "Integer"], 
+    ["String", "String", "String"]
 );
 
 foreach (`ls dpj`) {
@@ -19,9 +19,10 @@ foreach (`ls dpj`) {
 	foreach(@targets) {
 	    my $typeName = $$_[0];
 	    my $className = $$_[1];
+	    my $boxedName = $$_[2];
 	    my $inFileName = $prefix.".tpt";
 	    my $outFileName = $prefix.$className.".java";
-	    print `perl expand.pl $typeName $className < $inFileName > $outFileName\n`;
+	    print `perl expand.pl $typeName $className $boxedName < $inFileName > $outFileName\n`;
 	}
     }
 }